@@ -20,7 +20,12 @@ import static com.coekie.flowtracker.tracker.Context.context;
 
 import com.coekie.flowtracker.CoreInitializer;
 import com.coekie.flowtracker.tracker.Context;
+import com.coekie.flowtracker.tracker.FieldRepository;
+import com.coekie.flowtracker.tracker.Journal;
+import com.coekie.flowtracker.tracker.TrackerRepository;
+import com.coekie.flowtracker.tracker.TrackingSwitch;
 import com.coekie.flowtracker.util.Config;
+import com.coekie.flowtracker.util.Logger;
 import java.io.IOException;
 import java.lang.instrument.Instrumentation;
 import java.lang.reflect.Constructor;
@@ -31,6 +36,10 @@ import java.util.jar.JarFile;
 public class FlowTrackerAgent {
   // invoked by the JVM to load this agent
   public static void premain(String agentArgs, Instrumentation inst) {
+    if (!markStarted()) {
+      System.err.println("FlowTracker is already running in this JVM");
+      return;
+    }
     try {
       JarFile agentJar = getAgentJar();
       // Put core on the bootstrap classpath, to make instrumented JDK classes find the hook classes
@@ -42,9 +51,51 @@ public class FlowTrackerAgent {
     }
   }
 
+  /**
+   * Invoked by the JVM when attaching this agent to a JVM that is already running, see the `attach`
+   * command in {@link Main}. Unlike premain, failures are reported without exiting: we don't want
+   * to take down the application we attached to.
+   */
+  public static void agentmain(String agentArgs, Instrumentation inst) {
+    if (!markStarted()) {
+      System.err.println("FlowTracker is already running in this JVM");
+      return;
+    }
+    try {
+      JarFile agentJar = getAgentJar();
+      inst.appendToBootstrapClassLoaderSearch(agentJar);
+      // the JVM was started without JVM_OPTS. that makes tracking less complete, but it works.
+      // it has already loaded many classes, so by default only retransform the recommended ones;
+      // retransforming everything would take long and disrupt the application.
+      String defaults = "bypassJvmArgsCheck;retransformFilter=%base";
+      String args = agentArgs == null || agentArgs.isEmpty()
+          ? defaults : defaults + ";" + agentArgs;
+      new Phase2().agentmain2(args, inst, agentJar);
+    } catch (Throwable e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * If {@link #premain} or {@link #agentmain} has been called. Starting FlowTracker a second time
+   * would initialize everything again, and add a second transformer. That includes attaching
+   * again after detaching, which is not supported either.
+   */
+  private static boolean started;
+
+  /** Sets {@link #started}. Returns false if it was already set. */
+  private static synchronized boolean markStarted() {
+    if (started) {
+      return false;
+    }
+    started = true;
+    return true;
+  }
+
   /** Returns the jar that this class is running in */
   static JarFile getAgentJar() throws IOException {
-    URL url = Thread.currentThread().getContextClassLoader().getResource("flowtracker-spider");
+    // not the context class loader: agentmain gets called in a thread that does not have one
+    URL url = ClassLoader.getSystemClassLoader().getResource("flowtracker-spider");
     if (url == null) {
       throw new IllegalStateException("Failed to find our own jar");
     }
@@ -61,10 +112,15 @@ public class FlowTrackerAgent {
    * bootstrap classpath _before_ they get loaded.
    */
   public static class Phase2 {
+    private static final Logger logger = new Logger("FlowTrackerAgent");
+
+    private Config config;
+    private ClassLoader spiderClassLoader;
+
     public void premain2(String agentArgs, Instrumentation inst, JarFile agentJar)
         throws Exception {
-      Config config = Config.initialize(agentArgs);
-      ClassLoader spiderClassLoader = createSpiderClassLoader(inst, agentJar, config);
+      config = Config.initialize(agentArgs);
+      spiderClassLoader = createSpiderClassLoader(inst, agentJar, config);
 
       CoreInitializer.preInitialize(config);
 
@@ -86,6 +142,53 @@ public class FlowTrackerAgent {
       CoreInitializer.postInitialize(config);
     }
 
+    /**
+     * Start the agent in a JVM that was already running, and detach again after the number of
+     * seconds in the `detachAfter` option, if any.
+     */
+    public void agentmain2(String agentArgs, Instrumentation inst, JarFile agentJar)
+        throws Exception {
+      premain2(agentArgs, inst, agentJar);
+      int detachAfter = Integer.parseInt(config.get("detachAfter", "0"));
+      if (detachAfter > 0) {
+        Thread thread = new Thread(() -> {
+          context().suspend();
+          try {
+            Thread.sleep(detachAfter * 1000L);
+            detach(inst);
+          } catch (Throwable t) {
+            logger.error(t, "Detaching failed");
+          }
+        }, "flowtracker-detach");
+        thread.setDaemon(true);
+        thread.start();
+      }
+    }
+
+    /**
+     * Make the JVM run at full speed again: turn off tracking, restore the instrumented classes to
+     * their original bytecode, stop our background threads, and forget about the objects of the
+     * application. What has been tracked so far stays in the tree, so it can still be looked at in
+     * the UI.
+     */
+    private void detach(Instrumentation inst) throws Exception {
+      TrackingSwitch.setOn(false);
+      spiderClassLoader
+          .loadClass("com.coekie.flowtracker.weaver.WeaverInitializer")
+          .getMethod("detach", Instrumentation.class)
+          .invoke(null, inst);
+      Journal.stop();
+      if (config.getBoolean("webmodule", true)) {
+        spiderClassLoader.loadClass("com.coekie.flowtracker.web.WebModule")
+            .getMethod("detach")
+            .invoke(null);
+      }
+      TrackerRepository.clear();
+      FieldRepository.clear();
+      Context.clearAll();
+      logger.info("Detached");
+    }
+
     /**
      * Initialize the spiderClassLoader used to load the weaver and the web interface.
      * Those are loaded with their dependencies in a separate class loader to avoid polluting the
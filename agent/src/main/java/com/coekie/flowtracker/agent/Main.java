@@ -19,11 +19,16 @@ package com.coekie.flowtracker.agent;
 import static java.util.Objects.requireNonNull;
 
 import com.coekie.flowtracker.CoreInitializer;
+import com.coekie.flowtracker.util.Config;
+import com.sun.tools.attach.VirtualMachine;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 /** Main class when not running as an agent */
 public class Main {
-  public static void main(String[] args) throws IOException {
+  public static void main(String[] args) throws Exception {
     if (args.length == 0) {
       usage();
     } else switch (args[0]) {
@@ -33,12 +38,99 @@ public class Main {
       case "usage":
         usage();
         break;
+      case "view":
+        if (args.length != 2) {
+          System.err.println("Usage: view <snapshot.ftsnap>");
+        } else {
+          view(args[1]);
+        }
+        break;
+      case "merge":
+        if (args.length < 3) {
+          System.err.println("Usage: merge <output.zip> <base.zip> <delta.zip>...");
+        } else {
+          merge(args);
+        }
+        break;
+      case "reconstruct":
+        if (args.length != 3) {
+          System.err.println("Usage: reconstruct <journal> <output.zip>");
+        } else {
+          reconstruct(args[1], args[2]);
+        }
+        break;
+      case "attach":
+        if (args.length != 3 && args.length != 4) {
+          System.err.println("Usage: attach <pid> <seconds> [<agentArgs>]");
+        } else {
+          attach(args[1], Integer.parseInt(args[2]), args.length == 4 ? args[3] : null);
+        }
+        break;
       default:
         System.err.println("Unrecognized command '" + args[0] + "'");
         usage();
     }
   }
 
+  /**
+   * Start the webserver, serving a binary snapshot, and keep running until killed. Other options
+   * (e.g. `port`) can be passed in the flowtracker.agentArgs system property.
+   */
+  private static void view(String snapshotPath) throws Exception {
+    Config config = Config.initialize("viewSnapshot=" + snapshotPath);
+    webClass("WebModule", config)
+        .getConstructor(Config.class)
+        .newInstance(config);
+    System.out.println("Serving " + snapshotPath + " on http://localhost:"
+        + config.get("port", "8011") + "/");
+    // the webserver uses daemon threads, so wait for it forever
+    Thread.currentThread().join();
+  }
+
+  /** Merge a base snapshot and its deltas, see the `deltaSnapshots` option */
+  private static void merge(String[] args) throws Exception {
+    List<Path> snapshots = new ArrayList<>();
+    for (int i = 2; i < args.length; i++) {
+      snapshots.add(Path.of(args[i]));
+    }
+    webClass("SnapshotMerger", Config.initialize(null))
+        .getMethod("merge", Path.class, List.class)
+        .invoke(null, Path.of(args[1]), snapshots);
+  }
+
+  /** Rebuild a snapshot from a journal, see the `journal` option */
+  private static void reconstruct(String journal, String output) throws Exception {
+    webClass("JournalReconstructor", Config.initialize(null))
+        .getMethod("reconstruct", Path.class, Path.class)
+        .invoke(null, Path.of(journal), Path.of(output));
+  }
+
+  /**
+   * Attach FlowTracker to a running JVM, and make it detach again after the given number of seconds
+   * (0 to stay attached). See {@link FlowTrackerAgent#agentmain}.
+   */
+  private static void attach(String pid, int seconds, String agentArgs) throws Exception {
+    String args = "detachAfter=" + seconds + (agentArgs == null ? "" : ";" + agentArgs);
+    VirtualMachine vm = VirtualMachine.attach(pid);
+    try {
+      vm.loadAgent(FlowTrackerAgent.getAgentJar().getName(), args);
+    } finally {
+      vm.detach();
+    }
+    System.out.println("Attached to " + pid
+        + (seconds == 0 ? "" : ", detaching after " + seconds + " seconds"));
+  }
+
+  /**
+   * Load a class from the web module. When not running as an agent, core is not on the bootstrap
+   * classpath, so it is loaded with our own classloader as parent.
+   */
+  private static Class<?> webClass(String name, Config config) throws Exception {
+    return new SpiderClassLoader(FlowTrackerAgent.getAgentJar(), config,
+        Main.class.getClassLoader())
+        .loadClass("com.coekie.flowtracker.web." + name);
+  }
+
   private static void usage() throws IOException {
     try (var in = Main.class.getResourceAsStream("/USAGE.md")) {
       requireNonNull(in).transferTo(System.out);
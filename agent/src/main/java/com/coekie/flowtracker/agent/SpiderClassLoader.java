@@ -49,7 +49,15 @@ class SpiderClassLoader extends ClassLoader {
   private final ProtectionDomain pd;
 
   SpiderClassLoader(JarFile jar, Config config) {
-    super(null);
+    this(jar, config, null);
+  }
+
+  /**
+   * @param parent parent classloader, that core classes are loaded from. null (the bootstrap
+   *               classloader) when running as agent.
+   */
+  SpiderClassLoader(JarFile jar, Config config, ClassLoader parent) {
+    super(parent);
     this.jar = jar;
     this.hideInternals = config.hideInternals();
     // to prevent NPE in Vineflower's JarPluginLoader initialization, make sure our ProtectionDomain
@@ -0,0 +1,140 @@
+package com.coekie.flowtracker.benchmark;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares the JSON result of a JMH run to a baseline, or saves it as the new baseline.
+ * <p>
+ * Usage: {@code BaselineComparison <result.json> <baseline.json> <saveBaseline>}. This is invoked
+ * from the pom of this module after running the benchmarks.
+ */
+public class BaselineComparison {
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3) {
+      System.err.println("Usage: BaselineComparison <result.json> <baseline.json> <saveBaseline>");
+      System.exit(1);
+    }
+    Path result = Path.of(args[0]);
+    Path baseline = Path.of(args[1]);
+
+    if (Boolean.parseBoolean(args[2])) {
+      Files.copy(result, baseline, StandardCopyOption.REPLACE_EXISTING);
+      System.out.println("Saved baseline " + baseline);
+    } else if (!Files.exists(baseline)) {
+      System.out.println("No baseline to compare to. Save one with -Dbenchmarks.saveBaseline=true");
+    } else {
+      System.out.println(compare(read(baseline), read(result)));
+    }
+  }
+
+  static String compare(Map<String, Score> baseline, Map<String, Score> result) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-80s %12s %12s %8s%n", "Benchmark", "Baseline", "Result", "Change"));
+    for (Map.Entry<String, Score> entry : result.entrySet()) {
+      Score before = baseline.get(entry.getKey());
+      Score after = entry.getValue();
+      sb.append(String.format("%-80s %12s %12s %8s%n", entry.getKey(),
+          before == null ? "-" : before.format(),
+          after.format(),
+          before == null ? "" : change(before, after)));
+    }
+    for (String key : baseline.keySet()) {
+      if (!result.containsKey(key)) {
+        sb.append(String.format("%-80s %12s %12s%n", key, baseline.get(key).format(), "-"));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Relative change from `before` to `after`, marked with "~" if the difference is within the
+   * error margins of the measurements.
+   */
+  private static String change(Score before, Score after) {
+    if (!before.unit.equals(after.unit)) {
+      return "unit?";
+    }
+    double percent = (after.score - before.score) / before.score * 100;
+    boolean significant = Math.abs(after.score - before.score) > before.error + after.error;
+    return String.format("%s%+.1f%%", significant ? "" : "~", percent);
+  }
+
+  /** Read a JMH JSON result file into a map from benchmark name (including params) to score */
+  static Map<String, Score> read(Path file) throws IOException {
+    Map<String, Score> result = new LinkedHashMap<>();
+    try (Reader reader = Files.newBufferedReader(file)) {
+      JsonArray array = JsonParser.parseReader(reader).getAsJsonArray();
+      for (JsonElement element : array) {
+        JsonObject benchmark = element.getAsJsonObject();
+        StringBuilder key = new StringBuilder(benchmark.get("benchmark").getAsString()
+            .replace("com.coekie.flowtracker.benchmark.", ""));
+        if (benchmark.has("params")) {
+          // sorted, so that keys are stable
+          Map<String, String> params = new TreeMap<>();
+          for (Map.Entry<String, JsonElement> param :
+              benchmark.getAsJsonObject("params").entrySet()) {
+            params.put(param.getKey(), param.getValue().getAsString());
+          }
+          key.append(params);
+        }
+        JsonObject metric = benchmark.getAsJsonObject("primaryMetric");
+        result.put(key.toString(), new Score(metric.get("score").getAsDouble(),
+            errorOf(metric), metric.get("scoreUnit").getAsString()));
+      }
+    }
+    return result;
+  }
+
+  private static double errorOf(JsonObject metric) {
+    // JMH writes "NaN" as error if there were not enough iterations to compute it
+    JsonElement error = metric.get("scoreError");
+    try {
+      double result = error.getAsDouble();
+      return Double.isNaN(result) ? 0 : result;
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  static class Score {
+    final double score;
+    final double error;
+    final String unit;
+
+    Score(double score, double error, String unit) {
+      this.score = score;
+      this.error = error;
+      this.unit = unit;
+    }
+
+    String format() {
+      return String.format("%.3f %s", score, unit.replace("/op", ""));
+    }
+  }
+}
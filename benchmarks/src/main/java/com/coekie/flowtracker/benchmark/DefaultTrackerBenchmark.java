@@ -0,0 +1,142 @@
+package com.coekie.flowtracker.benchmark;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.coekie.flowtracker.tracker.ByteOriginTracker;
+import com.coekie.flowtracker.tracker.Context;
+import com.coekie.flowtracker.tracker.DefaultTracker;
+import com.coekie.flowtracker.tracker.Growth;
+import com.coekie.flowtracker.tracker.Tracker;
+import com.coekie.flowtracker.tracker.TrackerPoint;
+import com.coekie.flowtracker.tracker.WritableTracker;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for {@link DefaultTracker}, for trackers of different fragmentation levels: `parts` is
+ * the number of parts in the tracker, alternating between two sources so that they can't be merged.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DefaultTrackerBenchmark {
+  @Param({"1", "100", "10000"})
+  int parts;
+
+  private final Tracker source1 = origin();
+  private final Tracker source2 = origin();
+  private DefaultTracker fragmented;
+  /** Tracker of 10000 values, divided over `parts` parts */
+  private DefaultTracker divided;
+  private final Context context = new Context();
+
+  @Setup
+  public void setup() {
+    fragmented = fragmented(parts);
+    divided = new DefaultTracker();
+    int partLength = 10_000 / parts;
+    for (int i = 0; i < parts; i++) {
+      divided.setSource(i * partLength, partLength, (i & 1) == 0 ? source1 : source2,
+          i * partLength, Growth.NONE);
+    }
+  }
+
+  /** Build a tracker from scratch by appending `parts` parts */
+  @Benchmark
+  public DefaultTracker setSourceAppend() {
+    return fragmented(parts);
+  }
+
+  /** Overwrite one element in the middle of a fragmented tracker */
+  @Benchmark
+  public void setSourceMiddle() {
+    int index = parts / 2;
+    fragmented.setSource(index, 1, (index & 1) == 0 ? source1 : source2, index, Growth.NONE);
+  }
+
+  /** Read the source of one element in the middle of a fragmented tracker */
+  @Benchmark
+  public void pushSourceToSingle(Blackhole blackhole) {
+    fragmented.pushSourceTo(parts / 2, new BlackholeTracker(blackhole), 0, 1, Growth.NONE);
+  }
+
+  /** Resolve the source of all values one by one, like a parser reading them */
+  @Benchmark
+  public void resolveSequential(Blackhole blackhole) {
+    for (int i = 0; i < 10_000; i++) {
+      blackhole.consume(TrackerPoint.resolve(context, divided, i, 1));
+      blackhole.consume(context.pointIndex());
+    }
+  }
+
+  /** Read the source of the whole tracker */
+  @Benchmark
+  public void pushSourceToAll(Blackhole blackhole) {
+    fragmented.pushSourceTo(0, new BlackholeTracker(blackhole), 0, parts, Growth.NONE);
+  }
+
+  /** Copy the whole tracker into a new one */
+  @Benchmark
+  public DefaultTracker pushSourceToCopy() {
+    DefaultTracker target = new DefaultTracker();
+    fragmented.pushSourceTo(0, target, 0, parts, Growth.NONE);
+    return target;
+  }
+
+  private DefaultTracker fragmented(int parts) {
+    DefaultTracker tracker = new DefaultTracker();
+    for (int i = 0; i < parts; i++) {
+      tracker.setSource(i, 1, (i & 1) == 0 ? source1 : source2, i, Growth.NONE);
+    }
+    return tracker;
+  }
+
+  static Tracker origin() {
+    ByteOriginTracker origin = new ByteOriginTracker();
+    origin.append(new byte[10_000], 0, 10_000);
+    return origin;
+  }
+
+  static class BlackholeTracker implements WritableTracker {
+    private final Blackhole blackhole;
+
+    BlackholeTracker(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void setSource(int index, int length, Tracker sourceTracker, int sourceIndex,
+        Growth growth) {
+      blackhole.consume(sourceTracker);
+      blackhole.consume(sourceIndex);
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package com.coekie.flowtracker.benchmark;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.coekie.flowtracker.tracker.Growth;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks for {@link Growth} conversions, used for every part that is pushed between trackers */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GrowthBenchmark {
+  // not final, so that the JIT can't constant-fold them
+  private Growth none = Growth.NONE;
+  private Growth half = Growth.HALF;
+  private Growth odd = Growth.of(4, 3);
+  private int length = 1234;
+
+  @Benchmark
+  public int targetToSourceNone() {
+    return none.targetToSource(length);
+  }
+
+  @Benchmark
+  public int targetToSourceOdd() {
+    return odd.targetToSource(length);
+  }
+
+  @Benchmark
+  public int sourceToTargetOdd() {
+    return odd.sourceToTarget(length);
+  }
+
+  @Benchmark
+  public Growth combine() {
+    return half.combine(odd);
+  }
+
+  @Benchmark
+  public Growth of() {
+    return Growth.of(length & 7 | 1, 2);
+  }
+}
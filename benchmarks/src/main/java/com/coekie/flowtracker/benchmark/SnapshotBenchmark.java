@@ -0,0 +1,90 @@
+package com.coekie.flowtracker.benchmark;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.coekie.flowtracker.tracker.DefaultTracker;
+import com.coekie.flowtracker.tracker.Growth;
+import com.coekie.flowtracker.tracker.Simplifier;
+import com.coekie.flowtracker.tracker.Tracker;
+import com.coekie.flowtracker.tracker.TrackerSnapshot;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for reading a whole tracker, as done when showing it in the UI or writing a snapshot:
+ * {@link Simplifier} and {@link TrackerSnapshot}.
+ * <p>
+ * The tracker looks like the result of decoding mostly ascii text with some multibyte characters:
+ * runs of {@link Growth#NONE} parts, interrupted by {@link Growth#HALF} parts, that the Simplifier
+ * merges back together.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SnapshotBenchmark {
+  @Param({"10", "1000"})
+  int parts;
+
+  private DefaultTracker tracker;
+
+  @Setup
+  public void setup() {
+    Tracker origin = DefaultTrackerBenchmark.origin();
+    tracker = new DefaultTracker();
+    int index = 0;
+    int sourceIndex = 0;
+    for (int i = 0; i < parts; i++) {
+      if ((i & 1) == 0) {
+        tracker.setSource(index, 4, origin, sourceIndex, Growth.NONE);
+        index += 4;
+        sourceIndex += 4;
+      } else {
+        tracker.setSource(index, 1, origin, sourceIndex, Growth.HALF);
+        index += 1;
+        sourceIndex += 2;
+      }
+    }
+  }
+
+  @Benchmark
+  public void simplify(Blackhole blackhole) {
+    Simplifier.simplifySourceTo(tracker, new DefaultTrackerBenchmark.BlackholeTracker(blackhole));
+  }
+
+  @Benchmark
+  public TrackerSnapshot snapshot() {
+    return TrackerSnapshot.of(tracker);
+  }
+
+  @Benchmark
+  public TrackerSnapshot snapshotSimplified() {
+    return TrackerSnapshot.of(tracker).simplify();
+  }
+}
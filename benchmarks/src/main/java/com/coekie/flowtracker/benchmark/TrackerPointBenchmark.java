@@ -0,0 +1,84 @@
+package com.coekie.flowtracker.benchmark;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.coekie.flowtracker.tracker.Context;
+import com.coekie.flowtracker.tracker.DefaultTracker;
+import com.coekie.flowtracker.tracker.Growth;
+import com.coekie.flowtracker.tracker.Tracker;
+import com.coekie.flowtracker.tracker.TrackerPoint;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link TrackerPoint#of(Tracker, int)}, which instrumented code calls when loading
+ * a value from a field, and {@link TrackerPoint#resolve}, used when loading a value from an array.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TrackerPointBenchmark {
+  private final Tracker origin = DefaultTrackerBenchmark.origin();
+  private DefaultTracker mutable;
+  private DefaultTracker mutableOfMutable;
+  private final Context context = new Context();
+
+  @Setup
+  public void setup() {
+    mutable = new DefaultTracker();
+    for (int i = 0; i < 100; i++) {
+      mutable.setSource(i * 10, 10, origin, i * 20, Growth.NONE);
+    }
+    mutableOfMutable = new DefaultTracker();
+    mutableOfMutable.setSource(0, 1000, mutable, 0, Growth.NONE);
+  }
+
+  /** Point in an immutable tracker, which is used as is */
+  @Benchmark
+  public TrackerPoint ofOrigin() {
+    return TrackerPoint.of(origin, 500);
+  }
+
+  /** Point in a mutable tracker, resolved to its source through Gimme */
+  @Benchmark
+  public TrackerPoint ofMutable() {
+    return TrackerPoint.of(mutable, 500);
+  }
+
+  /** Point in a mutable tracker of which the source is another mutable tracker */
+  @Benchmark
+  public TrackerPoint ofMutableOfMutable() {
+    return TrackerPoint.of(mutableOfMutable, 500);
+  }
+
+  /** Point in a mutable tracker, resolved without allocating a TrackerPoint */
+  @Benchmark
+  public int resolveMutable() {
+    return TrackerPoint.resolve(context, mutable, 500, 1) == null ? -1 : context.pointIndex();
+  }
+}
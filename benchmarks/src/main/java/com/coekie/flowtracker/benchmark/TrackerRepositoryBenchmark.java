@@ -0,0 +1,87 @@
+package com.coekie.flowtracker.benchmark;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.coekie.flowtracker.tracker.Context;
+import com.coekie.flowtracker.tracker.DefaultTracker;
+import com.coekie.flowtracker.tracker.Tracker;
+import com.coekie.flowtracker.tracker.TrackerRepository;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link TrackerRepository#getTracker(Context, Object)}, for lookups that are
+ * answered by the small cache in {@link Context}, and for ones that miss it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TrackerRepositoryBenchmark {
+  /** Number of tracked objects; more than the Context cache can hold */
+  private static final int OBJECTS = 1024;
+
+  private final Object[] tracked = new Object[OBJECTS];
+  private final Object untracked = new Object();
+  private Context context;
+  private int next;
+
+  @Setup
+  public void setup() {
+    context = Context.context();
+    for (int i = 0; i < OBJECTS; i++) {
+      tracked[i] = new Object();
+      TrackerRepository.setTracker(context, tracked[i], new DefaultTracker());
+    }
+  }
+
+  /** The same object over and over again, always found in the Context cache */
+  @Benchmark
+  public Tracker getTrackerCacheHit() {
+    return TrackerRepository.getTracker(context, tracked[0]);
+  }
+
+  /** Cycle through many objects, so that the cache never has them */
+  @Benchmark
+  public Tracker getTrackerCacheMiss() {
+    next = (next + 1) & (OBJECTS - 1);
+    return TrackerRepository.getTracker(context, tracked[next]);
+  }
+
+  /** An object without tracker, alternated with another to defeat the cache */
+  @Benchmark
+  public Tracker getTrackerUntracked() {
+    next = (next + 1) & (OBJECTS - 1);
+    return TrackerRepository.getTracker(context, (next & 1) == 0 ? untracked : new Object());
+  }
+
+  /** Context lookup, which instrumented code does before calling into TrackerRepository */
+  @Benchmark
+  public Context context() {
+    return Context.context();
+  }
+}
@@ -0,0 +1,112 @@
+package com.coekie.flowtracker.benchmark;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.coekie.flowtracker.util.ConcurrentWeakIdentityHashMap;
+import com.coekie.flowtracker.util.WeakIdentityMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link WeakIdentityMap} (used by TrackerRepository) to
+ * {@link ConcurrentWeakIdentityHashMap} (which it used before).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WeakIdentityMapBenchmark {
+  @Param({"1000", "100000"})
+  int size;
+
+  private Object[] keys;
+  private WeakIdentityMap<Object, Object> weakIdentityMap;
+  private ConcurrentWeakIdentityHashMap<Object, Object> concurrentWeakIdentityHashMap;
+
+  @Setup
+  public void setup() {
+    keys = new Object[size];
+    weakIdentityMap = new WeakIdentityMap<>();
+    concurrentWeakIdentityHashMap = new ConcurrentWeakIdentityHashMap<>();
+    for (int i = 0; i < size; i++) {
+      keys[i] = new Object();
+      weakIdentityMap.put(keys[i], keys[i]);
+      concurrentWeakIdentityHashMap.put(keys[i], keys[i]);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    int next;
+
+    Object next(Object[] keys) {
+      if (++next == keys.length) {
+        next = 0;
+      }
+      return keys[next];
+    }
+  }
+
+  @Benchmark
+  public Object weakIdentityMapGet(Cursor cursor) {
+    return weakIdentityMap.get(cursor.next(keys));
+  }
+
+  @Benchmark
+  public Object concurrentWeakIdentityHashMapGet(Cursor cursor) {
+    return concurrentWeakIdentityHashMap.get(cursor.next(keys));
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Object weakIdentityMapGetContended(Cursor cursor) {
+    return weakIdentityMap.get(cursor.next(keys));
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Object concurrentWeakIdentityHashMapGetContended(Cursor cursor) {
+    return concurrentWeakIdentityHashMap.get(cursor.next(keys));
+  }
+
+  /** Adding and removing a key, on a map of which the shards are already populated */
+  @Benchmark
+  public Object weakIdentityMapPutRemove() {
+    Object key = new Object();
+    weakIdentityMap.put(key, key);
+    return weakIdentityMap.remove(key);
+  }
+
+  @Benchmark
+  public Object concurrentWeakIdentityHashMapPutRemove() {
+    Object key = new Object();
+    concurrentWeakIdentityHashMap.put(key, key);
+    return concurrentWeakIdentityHashMap.remove(key);
+  }
+}
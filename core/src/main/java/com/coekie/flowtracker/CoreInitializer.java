@@ -21,14 +21,24 @@ import com.coekie.flowtracker.hook.StringHook;
 import com.coekie.flowtracker.hook.SystemHook;
 import com.coekie.flowtracker.hook.ZipFileHook;
 import com.coekie.flowtracker.tracker.ByteOriginTracker;
+import com.coekie.flowtracker.tracker.ContentStore;
 import com.coekie.flowtracker.tracker.DefaultTracker;
+import com.coekie.flowtracker.tracker.FieldRepository;
 import com.coekie.flowtracker.tracker.Growth;
+import com.coekie.flowtracker.tracker.Journal;
+import com.coekie.flowtracker.tracker.Retention;
+import com.coekie.flowtracker.tracker.Sampler;
 import com.coekie.flowtracker.tracker.Tracker;
+import com.coekie.flowtracker.tracker.TrackerPoint;
+import com.coekie.flowtracker.tracker.TrackerRepository;
+import com.coekie.flowtracker.tracker.TrackingSwitch;
 import com.coekie.flowtracker.util.ConcurrentWeakIdentityHashMap;
 import com.coekie.flowtracker.util.Config;
 import com.coekie.flowtracker.util.Logger;
 import com.coekie.flowtracker.util.RecursionChecker;
 import com.coekie.flowtracker.util.ShutdownSuspender;
+import com.coekie.flowtracker.util.Stats;
+import com.coekie.flowtracker.util.WeakIdentityMap;
 import java.lang.management.ManagementFactory;
 import java.util.HashSet;
 import java.util.Map;
@@ -56,9 +66,15 @@ public class CoreInitializer {
 
   public static void initialize(Config config, JarFile agentJar) {
     Tracker.initialize(config);
+    TrackerRepository.initialize(config);
+    Sampler.initialize(config);
+    Retention.initialize(config);
+    Journal.initialize(config);
+    ContentStore.initialize(config);
     ZipFileHook.initialize(config, agentJar);
     SystemHook.initialize(config);
     StringHook.initialize(config);
+    TrackingSwitch.initialize(config);
   }
 
   // call stuff to make sure JDK internals needed for it are initialized, before we enable tracking
@@ -77,6 +93,15 @@ public class CoreInitializer {
     Object o = "";
     map.put(o, o);
     map.get(o);
+
+    WeakIdentityMap<Object, Object> weakIdentityMap = new WeakIdentityMap<>();
+    weakIdentityMap.put(o, o);
+    weakIdentityMap.get(o);
+
+    Object fieldOwner = new Object();
+    int fieldId = FieldRepository.fieldId("", "");
+    FieldRepository.setPoint(fieldOwner, fieldId, TrackerPoint.of(tracker1, 0));
+    FieldRepository.getPoint(fieldOwner, fieldId);
   }
 
   /**
@@ -86,6 +111,7 @@ public class CoreInitializer {
   @SuppressWarnings("UnusedDeclaration") // called with reflection from FlowTrackerAgent
   public static void postInitialize(Config config) {
     ShutdownSuspender.initShutdownHook(config.getBoolean("suspendShutdown", false));
+    Stats.initialize(config);
     verifyJvmArgs(config);
     StringHook.selfTest();
   }
@@ -19,6 +19,7 @@ package com.coekie.flowtracker.hook;
 import static com.coekie.flowtracker.tracker.Context.context;
 
 import com.coekie.flowtracker.tracker.Context;
+import com.coekie.flowtracker.tracker.Tracker;
 import com.coekie.flowtracker.tracker.TrackerPoint;
 import com.coekie.flowtracker.tracker.TrackerUpdater;
 
@@ -29,21 +30,56 @@ public class ArrayHook {
   public static void setChar(char[] array, int arrayIndex, char value, TrackerPoint source,
       Context context) {
     array[arrayIndex] = value;
-    TrackerUpdater.setSourceTrackerPoint(context, array, arrayIndex, 1, source);
+    TrackerUpdater.setElementSource(context, array, arrayIndex, source);
   }
 
   /** Store a value in a byte[]. Used by `ArrayStore`. */
   public static void setByte(byte[] array, int arrayIndex, byte value, TrackerPoint source,
       Context context) {
     array[arrayIndex] = value;
-    TrackerUpdater.setSourceTrackerPoint(context, array, arrayIndex, 1, source);
+    TrackerUpdater.setElementSource(context, array, arrayIndex, source);
   }
 
   /** Store a value in an int[]. Used by `ArrayStore`. */
   public static void setInt(int[] array, int arrayIndex, int value, TrackerPoint source,
       Context context) {
     array[arrayIndex] = value;
-    TrackerUpdater.setSourceTrackerPoint(context, array, arrayIndex, 1, source);
+    TrackerUpdater.setElementSource(context, array, arrayIndex, source);
+  }
+
+  /**
+   * Store a value in a char[], with its source passed as tracker, index and length instead of as a
+   * {@link TrackerPoint}. Used by `ArrayStore`.
+   */
+  public static void setChar(char[] array, int arrayIndex, char value, Tracker sourceTracker,
+      int sourceIndex, int sourceLength, Context context) {
+    array[arrayIndex] = value;
+    TrackerUpdater.setElementSource(context, array, arrayIndex, sourceTracker, sourceIndex,
+        sourceLength);
+  }
+
+  /** Store a value in a byte[], with its source taken apart. Used by `ArrayStore`. */
+  public static void setByte(byte[] array, int arrayIndex, byte value, Tracker sourceTracker,
+      int sourceIndex, int sourceLength, Context context) {
+    array[arrayIndex] = value;
+    TrackerUpdater.setElementSource(context, array, arrayIndex, sourceTracker, sourceIndex,
+        sourceLength);
+  }
+
+  /** Store a value in an int[], with its source taken apart. Used by `ArrayStore`. */
+  public static void setInt(int[] array, int arrayIndex, int value, Tracker sourceTracker,
+      int sourceIndex, int sourceLength, Context context) {
+    array[arrayIndex] = value;
+    TrackerUpdater.setElementSource(context, array, arrayIndex, sourceTracker, sourceIndex,
+        sourceLength);
+  }
+
+  /**
+   * Apply the stores done by the methods above that have not been applied yet, see
+   * {@link TrackerUpdater#setElementSource}. Used by `ArrayStore`, when leaving a method.
+   */
+  public static void flush(Context context) {
+    TrackerUpdater.flushElementStores(context);
   }
 
   /** Hook for calling clone() on a char[]. Used by `ArrayCloneCall`. */
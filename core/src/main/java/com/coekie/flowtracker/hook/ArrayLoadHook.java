@@ -23,8 +23,13 @@ import com.coekie.flowtracker.tracker.TrackerRepository;
 
 @SuppressWarnings("UnusedDeclaration") // used by instrumented code
 public class ArrayLoadHook {
-  public static TrackerPoint getElementTracker(Object array, int index, Context context) {
+  /**
+   * Returns the tracker of the source of the element at {@code index} in {@code array}. Its index
+   * and length are stored in {@link Context#pointIndex()} and {@link Context#pointLength()}, to
+   * avoid allocating a {@link TrackerPoint} for every loaded element.
+   */
+  public static Tracker getElementTracker(Object array, int index, Context context) {
     Tracker tracker = TrackerRepository.getTracker(context, array);
-    return tracker == null ? null : TrackerPoint.of(tracker, index);
+    return tracker == null ? null : TrackerPoint.resolve(context, tracker, index, 1);
   }
 }
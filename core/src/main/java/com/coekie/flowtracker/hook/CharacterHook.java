@@ -36,12 +36,12 @@ public class CharacterHook {
           && point1.tracker == point0.tracker
           && point1.index == point0.index + point0.length) {
         // then consider the combination of them as the source
-        invocation.returnPoint = TrackerPoint.of(point0.tracker, point0.index,
-            point0.length + point1.length);
+        Invocation.returning(invocation, TrackerPoint.of(point0.tracker, point0.index,
+            point0.length + point1.length));
       } else {
         // else use the first point and ignore the second one (because we don't have a way to
         // represent something coming from a combination of two different sources)
-        invocation.returnPoint = point0;
+        Invocation.returning(invocation, point0);
       }
     }
   }
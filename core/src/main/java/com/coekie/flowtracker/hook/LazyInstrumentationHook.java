@@ -0,0 +1,112 @@
+package com.coekie.flowtracker.hook;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.coekie.flowtracker.tracker.Context.context;
+
+import com.coekie.flowtracker.tracker.Context;
+import com.coekie.flowtracker.tracker.Invocation;
+import com.coekie.flowtracker.util.Config;
+import com.coekie.flowtracker.util.Stats;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Hook for methods of which instrumentation is postponed until they are used, for the `lazy`
+ * option. Until then those methods only contain a call to {@link #enter(Class, int, String)}, which
+ * decides when it is time to instrument the method, and then asks for its class to be
+ * retransformed.
+ */
+public class LazyInstrumentationHook {
+  private static final AtomicLong promotedMethods = Stats.counter("lazy.promoted");
+
+  /** Number of calls after which a method gets instrumented */
+  private static int threshold = 100;
+  /** Called with classes that should be retransformed */
+  private static Consumer<Class<?>> promoter;
+
+  /**
+   * Number of calls to each method, indexed by method id. Updated without synchronization, so not
+   * exact.
+   */
+  private static volatile int[] counts = new int[1024];
+  /** Methods that have reached the threshold, indexed by method id */
+  private static volatile boolean[] promoted = new boolean[1024];
+  private static int nextMethodId;
+
+  /** Allocate an id for a method that is being instrumented lazily */
+  public static synchronized int newMethodId() {
+    int methodId = nextMethodId++;
+    if (methodId >= counts.length) {
+      counts = Arrays.copyOf(counts, counts.length * 2);
+      promoted = Arrays.copyOf(promoted, promoted.length * 2);
+    }
+    return methodId;
+  }
+
+  /** Returns if the method should be fully instrumented */
+  public static boolean isPromoted(int methodId) {
+    return promoted[methodId];
+  }
+
+  @SuppressWarnings("unused") // invoked by instrumentation
+  public static void enter(Class<?> clazz, int methodId, String signature) {
+    int[] counts = LazyInstrumentationHook.counts;
+    int count = counts[methodId];
+    if (count >= threshold) {
+      return; // already promoted, waiting for the class to be retransformed
+    }
+    counts[methodId] = count + 1;
+    // instrument it as soon as tracked values are passed to it, because when the values we are
+    // interested in flow through here, then tracking will go wrong if it isn't instrumented.
+    if (count + 1 >= threshold || Invocation.isPendingWithArgs(signature)) {
+      promote(clazz, methodId);
+    }
+  }
+
+  private static void promote(Class<?> clazz, int methodId) {
+    synchronized (LazyInstrumentationHook.class) {
+      if (promoted[methodId]) {
+        return;
+      }
+      promoted[methodId] = true;
+      counts[methodId] = threshold;
+    }
+    promotedMethods.incrementAndGet();
+    Consumer<Class<?>> promoter = LazyInstrumentationHook.promoter;
+    if (promoter != null) {
+      Context context = context();
+      context.suspend();
+      try {
+        promoter.accept(clazz);
+      } finally {
+        context.unsuspend();
+      }
+    }
+  }
+
+  /**
+   * Initialize lazy instrumentation. Threshold is configured with the `lazyThreshold` option.
+   *
+   * @param promoter called with classes that should be retransformed
+   */
+  public static void initialize(Config config, Consumer<Class<?>> promoter) {
+    threshold = Integer.parseInt(config.get("lazyThreshold", "100"));
+    LazyInstrumentationHook.promoter = promoter;
+  }
+}
@@ -21,6 +21,7 @@ import static com.coekie.flowtracker.tracker.Context.context;
 import com.coekie.flowtracker.annotation.Arg;
 import com.coekie.flowtracker.annotation.Hook;
 import com.coekie.flowtracker.tracker.FileDescriptorTrackerRepository;
+import com.coekie.flowtracker.tracker.Sampler;
 import com.coekie.flowtracker.tracker.TrackerTree;
 import java.io.FileDescriptor;
 import java.lang.invoke.VarHandle;
@@ -59,7 +60,7 @@ public class SocketChannelImplHook {
       method = "java.nio.channels.SocketChannel finishAccept(java.io.FileDescriptor,java.net.SocketAddress)")
   public static void afterFinishAccept(@Arg("RETURN") SocketChannel channel,
       @Arg("ARG0") FileDescriptor fd) {
-    if (context().isActive()) {
+    if (context().isActive() && Sampler.sampleConnection()) {
       SocketAddress remoteAddress = remoteAddress(channel);
       SocketAddress localAddress = localAddress(channel);
       FileDescriptorTrackerRepository.createTracker(fd, true, true,
@@ -71,7 +72,7 @@ public class SocketChannelImplHook {
       condition = "version <= 11",
       method = "java.nio.channels.SocketChannel accept()")
   public static void afterAccept(@Arg("RETURN") SocketChannel channel) {
-    if (context().isActive()) {
+    if (context().isActive() && Sampler.sampleConnection()) {
       SocketAddress remoteAddress = remoteAddress(channel);
       SocketAddress localAddress = localAddress(channel);
       FileDescriptor fd = fd(channel);
@@ -21,6 +21,7 @@ import static com.coekie.flowtracker.tracker.Context.context;
 import com.coekie.flowtracker.annotation.Arg;
 import com.coekie.flowtracker.annotation.Hook;
 import com.coekie.flowtracker.tracker.FileDescriptorTrackerRepository;
+import com.coekie.flowtracker.tracker.Sampler;
 import com.coekie.flowtracker.tracker.TrackerTree;
 import com.coekie.flowtracker.tracker.TrackerTree.Node;
 import java.io.FileDescriptor;
@@ -73,7 +74,7 @@ public class SocketImplHook {
       method = "void accept(java.net.SocketImpl)")
   public static void afterAccept(@Arg("ARG0") SocketImpl si,
       @Arg("SocketImpl_localport") int localport) {
-    if (context().isActive()) {
+    if (context().isActive() && Sampler.sampleConnection()) {
       FileDescriptor fd = fd(si);
       InetAddress address = address(si);
       int port = port(si);
@@ -37,6 +37,7 @@ public class StringHook {
       Reflection.varHandle(String.class, "coder", byte.class);
 
   public static final String DEBUG_UNTRACKED = "debugUntracked";
+  private static final int CHAR_AT_SIGNATURE_ID = Invocation.signatureId("charAt", "(I)C");
 
   private static String debugUntracked = null;
 
@@ -107,7 +108,11 @@ public class StringHook {
     context.suspend(); // optimization: no point in tracking this
     String str = new String(value.getBytes());
     context.unsuspend();
-    setStringSource(str, tracker, offset);
+    DefaultTracker stringTracker = new DefaultTracker();
+    byte[] valueArray = getValueArray(str);
+    stringTracker.setSource(0, valueArray.length, tracker, offset);
+    // str was only just created, so no need to invalidate tracker caches of other threads
+    TrackerRepository.setFreshTracker(context, valueArray, stringTracker);
     return str;
   }
 
@@ -123,29 +128,33 @@ public class StringHook {
     TrackerRepository.forceSetTracker(valueArray, tracker);
   }
 
+  /**
+   * Returns the tracker of the source of the char at {@code index} in {@code str}. Like
+   * {@link ArrayLoadHook#getElementTracker}, its index and length are stored in the context.
+   */
   @SuppressWarnings("unused") // used in CharAtValue
-  public static TrackerPoint charAtTracker(String str, int index, Context context) {
+  public static Tracker charAtTracker(String str, int index, Context context) {
     Tracker tracker = getStringTracker(context, str);
     if (tracker == null) {
       return null;
     }
     if (isLatin1(str)) {
-      return TrackerPoint.of(tracker, index);
+      return TrackerPoint.resolve(context, tracker, index, 1);
     } else { // non-latin1 Strings store their value as UTF-16, two bytes per character
-      return TrackerPoint.of(tracker, index * 2, 2);
+      return TrackerPoint.resolve(context, tracker, index * 2, 2);
     }
   }
 
   @SuppressWarnings("unused") // used in CharAtValue
-  public static TrackerPoint charAtTracker(CharSequence cs, int index, Context context) {
+  public static Tracker charAtTracker(CharSequence cs, int index, Context context) {
     if (cs instanceof String) {
       return charAtTracker((String) cs, index, context);
     } else {
       // this is a bit behaviour-changing, but we call charAt a second time to get the TrackerPoint
-      Invocation invocation = Invocation.create("charAt (I)C").calling(context);
+      int stamp = Invocation.calling(Invocation.create(context, CHAR_AT_SIGNATURE_ID));
       //noinspection ResultOfMethodCallIgnored
       cs.charAt(index);
-      return invocation.returnPoint;
+      return Invocation.returnTracker(context, stamp);
     }
   }
 
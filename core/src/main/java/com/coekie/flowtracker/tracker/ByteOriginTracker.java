@@ -30,11 +30,17 @@ public class ByteOriginTracker extends OriginTracker implements ByteContentTrack
 
   public void append(byte b) {
     beforeAppend();
+    if (Journal.enabled) {
+      Journal.appended(this, content.size(), b);
+    }
     content.write(b);
   }
 
   public void append(byte[] cbuf, int offset, int len) {
     beforeAppend();
+    if (Journal.enabled) {
+      Journal.appended(this, content.size(), cbuf, offset, len);
+    }
     content.write(cbuf, offset, len);
   }
 
@@ -51,4 +57,9 @@ public class ByteOriginTracker extends OriginTracker implements ByteContentTrack
   public ByteSequence getContent() {
     return content;
   }
+
+  @Override
+  void releaseContent() {
+    content.release();
+  }
 }
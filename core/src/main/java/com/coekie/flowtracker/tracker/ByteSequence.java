@@ -16,14 +16,184 @@ package com.coekie.flowtracker.tracker;
  * limitations under the License.
  */
 
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 
 /**
- * A dynamically growing byte array
+ * A dynamically growing sequence of bytes, used for the content of {@link ByteContentTracker}s.
+ * <p>
+ * The content is stored in chunks. The first chunk starts small and grows (by copying it) up to
+ * {@link #CHUNK_SIZE}. After that, more chunks of that size get added, so that content never gets
+ * copied again, however big it gets. Where the chunks are stored (on the heap, off-heap, or spilled
+ * to a file) is up to the {@link ContentStore}.
  */
-public class ByteSequence extends ByteArrayOutputStream {
+public class ByteSequence {
+  static final int CHUNK_SIZE = 64 * 1024;
+  private static final int INITIAL_CHUNK_SIZE = 32;
+
+  private final ContentStore store;
+  private ByteBuffer[] chunks = new ByteBuffer[1];
+  /** Number of chunks in use. All of them except the last one are full */
+  private int chunkCount;
+  private int size;
+  /** Set when the content has been dropped, see {@link #release()} */
+  private volatile boolean released;
+
+  public ByteSequence() {
+    this(ContentStore.get());
+  }
+
+  ByteSequence(ContentStore store) {
+    this.store = store;
+  }
+
+  public void write(int b) {
+    synchronized (this) {
+      if (released) {
+        size++;
+        return;
+      }
+      ByteBuffer chunk = chunkWithSpace();
+      chunk.put(size % CHUNK_SIZE, (byte) b);
+      size++;
+    }
+    store.afterWrite();
+  }
+
+  public void write(byte[] b, int off, int len) {
+    synchronized (this) {
+      if (released) {
+        size += len;
+        return;
+      }
+      while (len > 0) {
+        ByteBuffer chunk = chunkWithSpace();
+        int pos = size % CHUNK_SIZE;
+        int toWrite = Math.min(len, chunk.capacity() - pos);
+        if (chunk.hasArray()) {
+          System.arraycopy(b, off, chunk.array(), chunk.arrayOffset() + pos, toWrite);
+        } else {
+          chunk.duplicate().position(pos).put(b, off, toWrite);
+        }
+        size += toWrite;
+        off += toWrite;
+        len -= toWrite;
+      }
+    }
+    store.afterWrite();
+  }
+
+  /**
+   * Returns the chunk to write the next byte into, growing the first chunk or adding a new one if
+   * needed.
+   */
+  private ByteBuffer chunkWithSpace() {
+    if (chunkCount == 0) {
+      chunks[0] = store.allocate(INITIAL_CHUNK_SIZE);
+      chunkCount = 1;
+    }
+    ByteBuffer last = chunks[chunkCount - 1];
+    int pos = size - (chunkCount - 1) * CHUNK_SIZE;
+    if (pos < last.capacity()) {
+      return last;
+    }
+    if (last.capacity() < CHUNK_SIZE) { // growing the first chunk
+      ByteBuffer grown = store.allocate(Math.min(last.capacity() * 2, CHUNK_SIZE));
+      grown.put(last.duplicate().clear());
+      chunks[0] = grown;
+      return grown;
+    }
+    store.chunkFull(this, chunkCount - 1, last);
+    if (chunkCount == chunks.length) {
+      ByteBuffer[] newChunks = new ByteBuffer[chunks.length * 2];
+      System.arraycopy(chunks, 0, newChunks, 0, chunkCount);
+      chunks = newChunks;
+    }
+    ByteBuffer chunk = store.allocate(CHUNK_SIZE);
+    chunks[chunkCount++] = chunk;
+    return chunk;
+  }
+
+  /**
+   * Replace a full chunk with another buffer with the same content. Used by {@link ContentStore}
+   * to move chunks elsewhere (e.g. spill them to a file).
+   */
+  synchronized void replaceChunk(int chunkIndex, ByteBuffer chunk) {
+    if (!released) {
+      chunks[chunkIndex] = chunk;
+    }
+  }
+
+  /**
+   * Drops the content, to free up memory. Only the size is still kept up to date after this; the
+   * content can't be read anymore.
+   */
+  synchronized void release() {
+    released = true;
+    chunks = new ByteBuffer[1];
+    chunkCount = 0;
+  }
+
+  /** If the content has been dropped by {@link #release()}. Does not need our lock. */
+  public boolean isReleased() {
+    return released;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  /** The complete content. See {@link #getByteContent(int, int)}. */
   public ByteBuffer getByteContent() {
-    return ByteBuffer.wrap(buf, 0, size());
+    return getByteContent(0, size());
+  }
+
+  /**
+   * Returns a read-only view of the content from `start` to `end`. This does not copy the content
+   * if it's all stored in one chunk, which is always the case for content smaller than
+   * {@link #CHUNK_SIZE}.
+   */
+  public synchronized ByteBuffer getByteContent(int start, int end) {
+    if (released) {
+      throw new IllegalStateException("Content has been released");
+    }
+    if (start < 0 || end > size || start > end) {
+      throw new IndexOutOfBoundsException(
+          "Range [" + start + ", " + end + ") out of bounds for size " + size);
+    }
+    if (start == end) {
+      return ByteBuffer.allocate(0);
+    }
+    int chunkIndex = start / CHUNK_SIZE;
+    if ((end - 1) / CHUNK_SIZE == chunkIndex) { // all in one chunk
+      int chunkStart = chunkIndex * CHUNK_SIZE;
+      return chunks[chunkIndex].asReadOnlyBuffer()
+          .limit(end - chunkStart)
+          .position(start - chunkStart)
+          .slice();
+    }
+    ByteBuffer result = ByteBuffer.allocate(end - start);
+    copyTo(start, end, result);
+    return result.flip();
+  }
+
+  public synchronized byte[] toByteArray() {
+    if (released) {
+      throw new IllegalStateException("Content has been released");
+    }
+    byte[] result = new byte[size];
+    copyTo(0, size, ByteBuffer.wrap(result));
+    return result;
+  }
+
+  private void copyTo(int start, int end, ByteBuffer target) {
+    for (int pos = start; pos < end; ) {
+      int chunkIndex = pos / CHUNK_SIZE;
+      int chunkStart = chunkIndex * CHUNK_SIZE;
+      int chunkEnd = Math.min(end, chunkStart + CHUNK_SIZE);
+      target.put(chunks[chunkIndex].duplicate()
+          .limit(chunkEnd - chunkStart)
+          .position(pos - chunkStart));
+      pos = chunkEnd;
+    }
   }
 }
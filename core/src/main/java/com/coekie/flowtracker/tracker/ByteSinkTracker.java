@@ -36,11 +36,17 @@ public class ByteSinkTracker extends DefaultTracker implements ByteContentTracke
 
   public void append(byte b) {
     beforeAppend();
+    if (Journal.enabled) {
+      Journal.appended(this, content.size(), b);
+    }
     content.write(b);
   }
 
   public void append(byte[] cbuf, int offset, int len) {
     beforeAppend();
+    if (Journal.enabled) {
+      Journal.appended(this, content.size(), cbuf, offset, len);
+    }
     content.write(cbuf, offset, len);
   }
 
@@ -53,6 +59,11 @@ public class ByteSinkTracker extends DefaultTracker implements ByteContentTracke
     return content;
   }
 
+  @Override
+  void releaseContent() {
+    content.release();
+  }
+
   @Override
   public void initTwin(Tracker twin) {
     super.initTwin(twin);
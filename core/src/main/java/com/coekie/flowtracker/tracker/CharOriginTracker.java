@@ -24,21 +24,66 @@ package com.coekie.flowtracker.tracker;
  */
 public class CharOriginTracker extends OriginTracker implements CharContentTracker {
 
-  private final StringBuilder content = new StringBuilder();
+  // content, releasedLength and released are guarded by `this` when Retention is enabled. When it
+  // isn't, content is never released, so there is no need to lock.
+  private StringBuilder content = new StringBuilder();
+  /** Length of the content that was dropped by {@link #releaseContent()} */
+  private int releasedLength;
+  /** Set when the content has been dropped, see {@link #releaseContent()} */
+  private boolean released;
 
   public void append(char c) {
     beforeAppend();
-    content.append(c);
+    if (Journal.enabled) {
+      Journal.appended(this, getLength(), c);
+    }
+    if (Retention.isEnabled()) {
+      synchronized (this) {
+        if (released) {
+          releasedLength++;
+        } else {
+          content.append(c);
+        }
+      }
+    } else {
+      content.append(c);
+    }
   }
 
   public void append(char[] cbuf, int offset, int len) {
     beforeAppend();
-    content.append(cbuf, offset, len);
+    if (Journal.enabled) {
+      Journal.appended(this, getLength(), cbuf, offset, len);
+    }
+    if (Retention.isEnabled()) {
+      synchronized (this) {
+        if (released) {
+          releasedLength += len;
+        } else {
+          content.append(cbuf, offset, len);
+        }
+      }
+    } else {
+      content.append(cbuf, offset, len);
+    }
   }
 
   public void append(CharSequence charSequence) {
     beforeAppend();
-    content.append(charSequence);
+    if (Journal.enabled) {
+      Journal.appended(this, getLength(), charSequence, 0, charSequence.length());
+    }
+    if (Retention.isEnabled()) {
+      synchronized (this) {
+        if (released) {
+          releasedLength += charSequence.length();
+        } else {
+          content.append(charSequence);
+        }
+      }
+    } else {
+      content.append(charSequence);
+    }
   }
 
   @Override public CharSequence getContent() {
@@ -47,6 +92,19 @@ public class CharOriginTracker extends OriginTracker implements CharContentTrack
 
   @Override
   public int getLength() {
+    if (Retention.isEnabled()) {
+      synchronized (this) {
+        return releasedLength + content.length();
+      }
+    }
     return content.length();
   }
+
+  @Override
+  synchronized void releaseContent() {
+    // content appended after this is dropped too; only its length is counted
+    released = true;
+    releasedLength += content.length();
+    content = new StringBuilder();
+  }
 }
@@ -23,7 +23,13 @@ package com.coekie.flowtracker.tracker;
  * @see ByteSinkTracker
  */
 public class CharSinkTracker extends DefaultTracker implements CharContentTracker {
-  private final StringBuilder content = new StringBuilder();
+  // content, releasedLength and released are guarded by `this` when Retention is enabled. When it
+  // isn't, content is never released, so there is no need to lock.
+  private StringBuilder content = new StringBuilder();
+  /** Length of the content that was dropped by {@link #releaseContent()} */
+  private int releasedLength;
+  /** Set when the content has been dropped, see {@link #releaseContent()} */
+  private boolean released;
   private TwinSynchronization twinSync;
 
   @Override public CharSequence getContent() {
@@ -31,22 +37,74 @@ public class CharSinkTracker extends DefaultTracker implements CharContentTracke
   }
 
   @Override public int getLength() {
+    if (Retention.isEnabled()) {
+      synchronized (this) {
+        return releasedLength + content.length();
+      }
+    }
     return content.length();
   }
 
+  @Override
+  synchronized void releaseContent() {
+    // content appended after this is dropped too; only its length is counted
+    released = true;
+    releasedLength += content.length();
+    content = new StringBuilder();
+  }
+
   public void append(char c) {
     beforeAppend();
-    content.append(c);
+    if (Journal.enabled) {
+      Journal.appended(this, getLength(), c);
+    }
+    if (Retention.isEnabled()) {
+      synchronized (this) {
+        if (released) {
+          releasedLength++;
+        } else {
+          content.append(c);
+        }
+      }
+    } else {
+      content.append(c);
+    }
   }
 
   public void append(char[] cbuf, int off, int len) {
     beforeAppend();
-    content.append(cbuf, off, len);
+    if (Journal.enabled) {
+      Journal.appended(this, getLength(), cbuf, off, len);
+    }
+    if (Retention.isEnabled()) {
+      synchronized (this) {
+        if (released) {
+          releasedLength += len;
+        } else {
+          content.append(cbuf, off, len);
+        }
+      }
+    } else {
+      content.append(cbuf, off, len);
+    }
   }
 
   public void append(String str, int off, int len) {
     beforeAppend();
-    content.append(str, off, off + len);
+    if (Journal.enabled) {
+      Journal.appended(this, getLength(), str, off, off + len);
+    }
+    if (Retention.isEnabled()) {
+      synchronized (this) {
+        if (released) {
+          releasedLength += len;
+        } else {
+          content.append(str, off, off + len);
+        }
+      }
+    } else {
+      content.append(str, off, off + len);
+    }
   }
 
   @Override
@@ -52,6 +52,8 @@ public class ClassOriginTracker extends OriginTracker implements CharContentTrac
   public final String className;
   public final String sourceFile;
   private final StringBuilder content = new StringBuilder();
+  /** Length of the content that has been written to the {@link Journal} */
+  private int journaled;
   private final List<ClassEntry> entries = new ArrayList<>();
 
   /** Map field name to offset in content */
@@ -72,9 +74,60 @@ public class ClassOriginTracker extends OriginTracker implements CharContentTrac
     ClassOriginTracker tracker = new ClassOriginTracker(loader, className, sourceFile);
     trackers.add(tracker);
     tracker.addTo(TrackerTree.CLASS.pathNode(className));
+    tracker.journal();
     return tracker;
   }
 
+  /**
+   * Register a class of which the content was built in an earlier run, instead of by instrumenting
+   * it now (see BytecodeCache in the weaver).
+   *
+   * @param cachedContent the content as returned by {@link #getContent()}
+   * @param cachedEntries offset, length and line of each entry, as pushed by
+   *     {@link #pushLineNumbers(LineNumberConsumer)}
+   */
+  public static synchronized ClassOriginTracker registerClass(ClassLoader loader, String className,
+      String sourceFile, CharSequence cachedContent, int[] cachedEntries) {
+    ClassOriginTracker tracker = registerClass(loader, className, sourceFile);
+    tracker.content.setLength(0);
+    tracker.content.append(cachedContent);
+    tracker.journaled = 0;
+    tracker.journal();
+    for (int i = 0; i < cachedEntries.length; i += 3) {
+      tracker.registerEntry(cachedEntries[i], cachedEntries[i + 1], cachedEntries[i + 2]);
+    }
+    return tracker;
+  }
+
+  /**
+   * Undo {@link #registerClass}, for a tracker of which the instrumented class ended up not being
+   * used (see AsmTransformer.precompute in the weaver). Its classId does not get reused.
+   */
+  public static synchronized void unregister(ClassOriginTracker tracker) {
+    trackers.set(tracker.classId, null);
+    tracker.getNode().remove(tracker);
+  }
+
+  /** The classId that the next registered class will get */
+  public static synchronized int nextClassId() {
+    return trackers.size();
+  }
+
+  /**
+   * Find the last registered tracker for the given class, if it was registered after
+   * {@link #nextClassId()} returned `fromClassId`.
+   */
+  public static synchronized ClassOriginTracker findRegisteredSince(int fromClassId,
+      ClassLoader loader, String className) {
+    for (int i = trackers.size() - 1; i >= fromClassId; i--) {
+      ClassOriginTracker tracker = trackers.get(i);
+      if (tracker != null && tracker.loader == loader && tracker.className.equals(className)) {
+        return tracker;
+      }
+    }
+    return null;
+  }
+
   public static ClassOriginTracker get(int classId) {
     return trackers.get(classId);
   }
@@ -109,6 +162,7 @@ public class ClassOriginTracker extends OriginTracker implements CharContentTrac
 
   public synchronized void startMethod(String method) {
     content.append(method).append(":\n");
+    journal();
   }
 
   public synchronized ClassEntry registerConstant(Number value, int line) {
@@ -132,6 +186,7 @@ public class ClassOriginTracker extends OriginTracker implements CharContentTrac
     }
     ClassEntry result = registerEntry(offset, content.length() - offset, line);
     content.append('\n');
+    journal();
     return result;
   }
 
@@ -141,6 +196,7 @@ public class ClassOriginTracker extends OriginTracker implements CharContentTrac
     content.append(FALLBACK);
     ClassEntry result = registerEntry(offset, content.length() - offset, line);
     content.append('\n');
+    journal();
     return result;
   }
 
@@ -150,6 +206,7 @@ public class ClassOriginTracker extends OriginTracker implements CharContentTrac
     content.append(value);
     registerEntry(offset, content.length() - offset, line);
     content.append('\n');
+    journal();
     return offset;
   }
 
@@ -167,23 +224,35 @@ public class ClassOriginTracker extends OriginTracker implements CharContentTrac
   }
 
   public synchronized int getFieldOffset(String name) {
-    return fields.computeIfAbsent(name, n -> {
+    int result = fields.computeIfAbsent(name, n -> {
       content.append("field: ");
       int offset = content.length();
       content.append(name);
       content.append('\n');
       return offset;
     });
+    journal();
+    return result;
   }
 
   public synchronized int getMethodOffset(String name) {
-    return methods.computeIfAbsent(name, n -> {
+    int result = methods.computeIfAbsent(name, n -> {
       content.append("method: ");
       int offset = content.length();
       content.append(name);
       content.append('\n');
       return offset;
     });
+    journal();
+    return result;
+  }
+
+  /** Write content that was added since the last call to the {@link Journal} */
+  private void journal() {
+    if (Journal.enabled && content.length() > journaled) {
+      Journal.appended(this, journaled, content, journaled, content.length());
+      journaled = content.length();
+    }
   }
 
   /** Pushes line number information to `consumer` */
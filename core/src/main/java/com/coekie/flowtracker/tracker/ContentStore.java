@@ -0,0 +1,193 @@
+package com.coekie.flowtracker.tracker;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.coekie.flowtracker.tracker.Context.context;
+
+import com.coekie.flowtracker.util.Config;
+import com.coekie.flowtracker.util.Logger;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * Decides where the content of {@link ByteSequence}s is stored: in chunks on the heap, or in direct
+ * (off-heap) buffers. Optionally, when the content in memory exceeds a budget, the oldest full
+ * chunks are spilled to a (memory-mapped) temporary file.
+ * <p>
+ * Configured with the `contentStore` (`heap` or `direct`) and `contentBudget` (in megabytes)
+ * options.
+ */
+public class ContentStore {
+  private static final Logger logger = new Logger("ContentStore");
+
+  private static ContentStore instance = new ContentStore(false, -1, null);
+
+  private final boolean direct;
+
+  /** Maximum number of bytes of full chunks to keep in memory, or -1 for no limit */
+  private final long budget;
+
+  /** Directory to create the file to spill chunks to in; or null for the default temp dir */
+  private final Path spillDir;
+
+  /** Full chunks that are still in memory, oldest first. Guarded by `this`. */
+  private final ArrayDeque<FullChunk> fullChunks = new ArrayDeque<>();
+
+  /**
+   * Number of bytes in {@link #fullChunks}. Only updated while holding `this`, but volatile so that
+   * {@link #afterWrite()} can check it without locking.
+   */
+  private volatile long inMemory;
+
+  /** Position in {@link #spillFile} where the next chunk is spilled to. Guarded by `this`. */
+  private long spillPosition;
+
+  /** Guards {@link #spillFile} */
+  private final Object spillFileLock = new Object();
+
+  /** File that chunks are spilled to. Created when first needed. Guarded by `spillFileLock`. */
+  private FileChannel spillFile;
+
+  /** Set when spilling failed, to not keep on trying */
+  private volatile boolean spillFailed;
+
+  ContentStore(boolean direct, long budget, Path spillDir) {
+    this.direct = direct;
+    this.budget = budget;
+    this.spillDir = spillDir;
+  }
+
+  public static void initialize(Config config) {
+    String budget = config.get("contentBudget");
+    String spillDir = config.get("contentSpillDir");
+    instance = new ContentStore(config.get("contentStore", "heap").equals("direct"),
+        budget == null ? -1 : Long.parseLong(budget) * 1024 * 1024,
+        spillDir == null ? null : Path.of(spillDir));
+  }
+
+  static ContentStore get() {
+    return instance;
+  }
+
+  ByteBuffer allocate(int capacity) {
+    return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+  }
+
+  /**
+   * Called by `sequence` (while holding its lock) when its chunk at `chunkIndex` is full, which
+   * means it will not change anymore, so it could be spilled.
+   */
+  void chunkFull(ByteSequence sequence, int chunkIndex, ByteBuffer chunk) {
+    if (budget == -1) {
+      return;
+    }
+    synchronized (this) {
+      fullChunks.add(new FullChunk(sequence, chunkIndex, chunk));
+      inMemory += chunk.capacity();
+    }
+  }
+
+  /**
+   * Called after writing to a {@link ByteSequence}, without holding its lock, to spill the oldest
+   * chunks if we're over budget.
+   */
+  void afterWrite() {
+    // usually we're within budget, so avoid taking the lock for every write
+    if (budget == -1 || inMemory <= budget) {
+      return;
+    }
+    while (true) {
+      FullChunk toSpill;
+      long position;
+      synchronized (this) {
+        if (inMemory <= budget || spillFailed) {
+          return;
+        }
+        toSpill = fullChunks.remove();
+        inMemory -= toSpill.chunk.capacity();
+        if (toSpill.sequence.isReleased()) { // nothing to spill, the chunk was already dropped
+          continue;
+        }
+        position = spillPosition;
+        spillPosition += toSpill.chunk.capacity();
+      }
+      // note: we don't hold our own lock here, so that other threads don't have to wait for our
+      // file I/O, and to avoid lock-ordering issues with sequences calling chunkFull while holding
+      // their lock
+      ByteBuffer spilled = spill(toSpill.chunk, position);
+      if (spilled == null) {
+        return;
+      }
+      toSpill.sequence.replaceChunk(toSpill.chunkIndex, spilled);
+    }
+  }
+
+  /**
+   * Writes `chunk` to {@link #spillFile} at `position`, and returns the memory-mapped region of it
+   */
+  private ByteBuffer spill(ByteBuffer chunk, long position) {
+    // don't track our own writing to the file
+    Context context = context();
+    context.suspend();
+    try {
+      FileChannel file = spillFile();
+      ByteBuffer toWrite = chunk.duplicate().clear();
+      while (toWrite.hasRemaining()) {
+        file.write(toWrite, position + toWrite.position());
+      }
+      return file.map(MapMode.READ_ONLY, position, chunk.capacity());
+    } catch (IOException | RuntimeException e) {
+      logger.error(e, "Failed to spill content to file; keeping it in memory");
+      spillFailed = true;
+      return null;
+    } finally {
+      context.unsuspend();
+    }
+  }
+
+  private FileChannel spillFile() throws IOException {
+    synchronized (spillFileLock) {
+      if (spillFile == null) {
+        Path path = spillDir == null
+            ? Files.createTempFile("flowtracker-content", ".bin")
+            : Files.createTempFile(spillDir, "flowtracker-content", ".bin");
+        spillFile = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.DELETE_ON_CLOSE);
+      }
+      return spillFile;
+    }
+  }
+
+  /** A chunk that could be spilled */
+  private static class FullChunk {
+    final ByteSequence sequence;
+    final int chunkIndex;
+    final ByteBuffer chunk;
+
+    FullChunk(ByteSequence sequence, int chunkIndex, ByteBuffer chunk) {
+      this.sequence = sequence;
+      this.chunkIndex = chunkIndex;
+      this.chunk = chunk;
+    }
+  }
+}
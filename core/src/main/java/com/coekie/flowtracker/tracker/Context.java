@@ -31,6 +31,13 @@ public class Context implements Runnable {
     return supplier.get();
   }
 
+  public Context() {
+    if (!Sampler.sampleThread()) {
+      // this thread stays suspended forever
+      suspended = 1;
+    }
+  }
+
   @Override
   public void run() {
     // the fact that this class implements Runnable is a weird hack needed because of
@@ -38,32 +45,131 @@ public class Context implements Runnable {
     throw new UnsupportedOperationException();
   }
 
-  /** Currently pending invocation. Should only be used by the {@link Invocation} implementation */
+  // the fields below about invocations should only be used by the Invocation implementation
+
+  /** Frames for invocations being prepared, see {@link Invocation} */
+  final Invocation[] invocationFrames = Invocation.newFrames();
+  /** Index in invocationFrames (modulo its length) of the invocation being prepared */
+  int invocationDepth;
+  /** Invocation that has been prepared, but not been picked up by the callee yet */
   Invocation pendingInvocation;
+  /** Invocation that has most recently been picked up by a callee */
+  Invocation startedInvocation;
+  /** Stamp of the last invocation created in this thread */
+  int lastInvocationStamp;
+  /** Source of the value returned by the invocation with stamp {@link #returnStamp} */
+  int returnStamp;
+  Tracker returnTracker;
+  int returnIndex;
+  int returnLength;
 
   /** Number of times this thread has (recursively) been suspended */
   int suspended;
 
-  // cache for TrackerRepository
-  Object cachedObj0;
-  Tracker cachedTracker0;
-  Object cachedObj1;
-  Tracker cachedTracker1;
-  Object cachedObj2;
-  Tracker cachedTracker2;
-  int nextCache;
+  /**
+   * Cache for TrackerRepository: 2-way set associative, with for each set: the most recently used
+   * object, its tracker, the other object, its tracker.
+   */
+  Object[] trackerCache = new Object[TrackerRepository.cacheSize * 2];
+  /** Value of {@link TrackerRepository#generation} that trackerCache is consistent with */
+  int trackerCacheGeneration;
+  /** Number of hits and misses on trackerCache, not yet counted in Stats */
+  int trackerCacheHits;
+  int trackerCacheMisses;
+
+  /** Index and length of the point last resolved by {@link TrackerPoint#resolve} */
+  int pointIndex;
+  int pointLength;
+  /** Reused by {@link TrackerPoint#resolve} */
+  final TrackerPoint.Gimme gimme = new TrackerPoint.Gimme();
+
+  /**
+   * Read cursor for {@link TrackerPoint#resolve}, see {@link DefaultTracker#moveCursor}: the part
+   * of cursorTracker that was last resolved, from cursorStart until cursorEnd, and where it comes
+   * from. Only valid while the version of cursorTracker is cursorVersion.
+   */
+  DefaultTracker cursorTracker;
+  int cursorVersion;
+  int cursorStart;
+  int cursorEnd;
+  Tracker cursorSource;
+  int cursorSourceIndex;
+  Growth cursorGrowth;
+
+  /** Buffer that this thread writes {@link Journal} events to */
+  Journal.Buffer journalBuffer;
+
+  // the fields below are only used by TrackerUpdater, for combining stores of array elements. See
+  // TrackerUpdater.setElementSource
+
+  /** Array in which element stores have been combined but not applied yet, or null if none */
+  Object pendingArray;
+  /** Index in pendingArray of the first combined store, and the number of combined stores */
+  int pendingIndex;
+  int pendingLength;
+  /** Source of the first combined store; or null if the source of the stores is unknown */
+  Tracker pendingSource;
+  int pendingSourceIndex;
+  int pendingSourceLength;
 
-  /** Checks if tracking is currently active on this thread */
+  /**
+   * Drop the references that the Contexts of all threads hold to objects of the application and to
+   * trackers, so that they can be garbage collected. Used when FlowTracker is detached from a JVM,
+   * after tracking has been turned off. Element stores that were still pending are dropped.
+   */
+  public static void clearAll() {
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      Context context = supplier.peek(thread);
+      if (context != null) {
+        context.clear();
+      }
+    }
+  }
+
+  /**
+   * Drop references to objects and trackers, see {@link #clearAll()}. This is called from another
+   * thread than the one owning this Context, so it only replaces references; the owner reads each
+   * of them once before using them.
+   */
+  private void clear() {
+    trackerCache = new Object[trackerCache.length];
+    returnTracker = null;
+    cursorTracker = null;
+    cursorSource = null;
+    pendingArray = null;
+    pendingSource = null;
+  }
+
+  /**
+   * Checks if tracking is currently active on this thread: it is not suspended, and tracking has
+   * not been turned off for all threads ({@link TrackingSwitch})
+   */
   public boolean isActive() {
     // uncommentable hack to fix debugging after a while if tracking completely breaks things
     //private static long startTime = System.currentTimeMillis();
     //if (System.currentTimeMillis() - startTime > 3000) return false;
 
-    return suspended == 0;
+    return suspended == 0 && TrackingSwitch.isOn();
+  }
+
+  /**
+   * Index of the point of which the tracker was last returned by
+   * {@link TrackerPoint#resolve(Context, Tracker, int, int)} or a hook using it. Used by
+   * instrumented code.
+   */
+  public int pointIndex() {
+    return pointIndex;
+  }
+
+  /** Length of the point, see {@link #pointIndex()} */
+  public int pointLength() {
+    return pointLength;
   }
 
   /** Disable tracking on this thread. See {@link #isActive()}, {@link #unsuspend()}. */
   public void suspend() {
+    // apply combined stores before anything untracked happens to the array
+    TrackerUpdater.flushElementStores(this);
     suspended++;
   }
 
@@ -31,6 +31,9 @@ import java.lang.invoke.VarHandle;
 abstract class ContextSupplier {
   abstract Context get();
 
+  /** The Context of `thread`, or null if it does not have one (or we can't tell) */
+  abstract Context peek(Thread thread);
+
   static ContextSupplier initSupplier() {
     if (Context.class.getClassLoader() != null) {
       // not running as an agent
@@ -58,6 +61,12 @@ abstract class ContextSupplier {
     Context get() {
       return threadLocal.get();
     }
+
+    @Override
+    Context peek(Thread thread) {
+      // ThreadLocals of other threads can't be accessed
+      return thread == Thread.currentThread() ? threadLocal.get() : null;
+    }
   }
 
   /**
@@ -81,6 +90,12 @@ abstract class ContextSupplier {
         return context;
       }
     }
+
+    @Override
+    Context peek(Thread thread) {
+      Runnable runnable = (Runnable) threadTargetHandle.get(thread);
+      return runnable instanceof Context ? (Context) runnable : null;
+    }
   }
 
   /** Store the Context in Thread.interruptLock */
@@ -106,5 +121,11 @@ abstract class ContextSupplier {
         return context;
       }
     }
+
+    @Override
+    Context peek(Thread thread) {
+      Object lock = threadInterruptLockHandle.get(thread);
+      return lock instanceof Context ? (Context) lock : null;
+    }
   }
 }
@@ -16,23 +16,62 @@ package com.coekie.flowtracker.tracker;
  * limitations under the License.
  */
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
 
 /**
- * Main implementation of {@link Tracker}. Maintains a mapping of ranges in this tracker to
- * {@link PartTracker}s that indicate from which tracker and where in those trackers the data came
- * from.
+ * Main implementation of {@link Tracker}. Maintains a mapping of ranges in this tracker to parts
+ * that indicate from which tracker and where in those trackers the data came from.
+ * <p>
+ * The parts are stored in parallel arrays, sorted by the index where they start, instead of in a
+ * map of part objects. That makes a part cost about 30 bytes (three ints and two references, plus
+ * unused capacity at the end of the arrays), where a {@code TreeMap} of part objects costs close to
+ * 100 bytes per part (tree entry, boxed key and the part object itself).
+ * <p>
+ * The sources of parts are always immutable trackers (origins). When the source that is set is
+ * mutable itself (e.g. copying from one array to another), we take over its parts instead
+ * ({@link #setSource}). So copying through a chain of trackers does not create a chain that has to
+ * be followed when resolving a value: it is resolved once, when it is copied, and later changes in
+ * the trackers it was copied through don't affect it.
+ * <p>
+ * Writers synchronize on the tracker. Readers ({@link #pushSourceTo}, {@link #getLength()},
+ * {@link #getEntryCount()}) do not take that lock, so that e.g. taking a snapshot of a sink tracker
+ * does not block the threads writing to it. Instead, they use {@link #version} to detect if the
+ * parts were modified while they were reading them, and retry if so (like a seqlock, or
+ * {@link java.util.concurrent.locks.StampedLock#tryOptimisticRead()}).
  */
 public class DefaultTracker extends Tracker {
-  private final NavigableMap<Integer, PartTracker> map = new TreeMap<>();
+  private static final int[] EMPTY_INTS = new int[0];
+  private static final Tracker[] EMPTY_TRACKERS = new Tracker[0];
+  private static final Growth[] EMPTY_GROWTHS = new Growth[0];
+
+  /**
+   * Number of times a reader tries to read without locking, before falling back to taking the lock
+   */
+  private static final int MAX_OPTIMISTIC_READS = 16;
+
   private final TrackerDepth depth;
 
+  /** Number of parts */
+  private int size;
+  /** Index in this tracker where each part starts */
+  private int[] starts = EMPTY_INTS;
+  /** Length of each part */
+  private int[] lengths = EMPTY_INTS;
+  /** Tracker that each part comes from */
+  private Tracker[] sources = EMPTY_TRACKERS;
+  /** Index in the source tracker where each part starts */
+  private int[] sourceIndexes = EMPTY_INTS;
+  /** Growth between the source and this tracker for each part */
+  private Growth[] growths = EMPTY_GROWTHS;
+
+  /**
+   * Incremented before and after every modification of the parts. When it is odd, a modification
+   * is in progress. Readers that read it before and after reading the parts, and get the same even
+   * value both times, know that what they read is consistent.
+   */
+  private volatile int version;
+
   public DefaultTracker() {
     this(TrackerDepth.CONTENT_IMMUTABLE);
   }
@@ -61,64 +100,178 @@ public class DefaultTracker extends Tracker {
   }
 
   @Override
-  public synchronized void pushSourceTo(int index, WritableTracker targetTracker, int targetIndex,
+  public void pushSourceTo(int index, WritableTracker targetTracker, int targetIndex,
       int targetLength,
       Growth growth) {
-    // we start at the part that contains index
-    // or, if there's no such part, at what comes after
-    Entry<Integer, PartTracker> startEntry = getEntryAt(index);
-    int startIndex = startEntry == null ? index : startEntry.getKey();
-
-    int sourceLength = growth.targetToSource(targetLength);
-    Collection<Entry<Integer, PartTracker>> entriesToPush =
-        map.subMap(startIndex, index + sourceLength).entrySet();
-
-    // avoid issues where what we're pushing is being mutated while we're pushing it, when pushing
-    // onto ourselves
-    if (targetTracker == this) {
-      entriesToPush = copy(entriesToPush);
-    }
-
-    int targetPos = 0; // how far we are in pushing, from 0 to targetLength
-    for (Entry<Integer, PartTracker> entry : entriesToPush) {
-      int partIndex = entry.getKey();
-      PartTracker part = entry.getValue();
-
-      // if the beginning of this part is cut off (because this it the first part, and index
-      // is halfway a part), the size of the cut-off.
-      // In other words, the offset in the part of where we want to start pushing.
-      int pushingPartOffset = partIndex < index ? index - partIndex : 0;
-
-      // difference between what we'll start pushing for this part, and where we started overall.
-      // in other words our progress, going from 0 to sourceLength.
-      int sourceStartPos = (partIndex + pushingPartOffset) - index;
-      // TODO(growth) handle case where sourceStartPos is not a multiple of Growth.sourceBlock
-      int targetStartPos = growth.sourceToTarget(sourceStartPos);
-
-      // gap before this entry
-      int gapBefore = targetStartPos - targetPos;
-      if (gapBefore > 0) {
-        targetTracker.setSource(targetIndex + targetPos, gapBefore, null, -1, Growth.NONE);
+    int end = index + growth.targetToSource(targetLength);
+
+    for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+      int version = this.version;
+      int size = this.size;
+      int[] starts = this.starts;
+      int[] lengths = this.lengths;
+      Tracker[] sources = this.sources;
+      int[] sourceIndexes = this.sourceIndexes;
+      Growth[] growths = this.growths;
+      if ((version & 1) != 0 // modification in progress
+          || !isConsistent(size, starts, lengths, sources, sourceIndexes, growths)) {
+        Thread.onSpinWait();
+        continue;
       }
 
-      // index in the target of where we start pushing to
-      int pushTargetIndex = targetIndex + targetStartPos;
+      int i = getEntryAt(starts, lengths, size, index);
+      if (i != -1 && starts[i] + lengths[i] >= end) {
+        // fast path for the common case where the whole range is within one part, e.g. when
+        // looking up a single value: read that part without making a copy
+        int partIndex = index - starts[i];
+        Tracker source = sources[i];
+        int sourceIndex = sourceIndexes[i];
+        Growth partGrowth = growths[i];
+        if (validate(version)) {
+          pushPart(source, sourceIndex, partGrowth, partIndex, targetTracker, targetIndex,
+              targetLength, growth);
+          return;
+        }
+      } else {
+        Parts parts = Parts.copyOf(index, end, starts, lengths, sources, sourceIndexes, growths,
+            size);
+        if (validate(version)) {
+          parts.pushSourceTo(index, targetTracker, targetIndex, targetLength, growth);
+          return;
+        }
+      }
+    }
 
-      // The length of what we're pushing. This is limited by two things:
-      // * the length given in arguments
-      // * the available size of the part we're handling
-      int pushLength = Math.min(targetLength - targetStartPos,
-          growth.sourceToTarget(part.getLength() - pushingPartOffset));
+    // too many concurrent modifications, fall back to reading while holding the lock
+    Parts parts;
+    synchronized (this) {
+      parts = Parts.copyOf(index, end, starts, lengths, sources, sourceIndexes, growths, size);
+    }
+    parts.pushSourceTo(index, targetTracker, targetIndex, targetLength, growth);
+  }
 
-      // push it!
-      part.pushSourceTo(pushingPartOffset, targetTracker, pushTargetIndex, pushLength, growth);
+  /**
+   * Point the read cursor of `context` at the part that contains `index`, for
+   * {@link TrackerPoint#resolve}. Parsers usually read the value right after the one they read
+   * before, which is then in the same part as before; so most of the time the cursor is already
+   * there, and the value can be resolved without searching for its part and pushing it.
+   * The cursor is only valid as long as {@link #version} does not change.
+   * <p>
+   * Returns false if the cursor can't be used for this index (e.g. there is no part there), and
+   * the caller should fall back to {@link #pushSourceTo}.
+   */
+  boolean moveCursor(Context context, int index) {
+    if (context.cursorTracker == this && context.cursorVersion == version
+        && index >= context.cursorStart && index < context.cursorEnd) {
+      return true;
+    }
 
-      targetPos = targetStartPos + pushLength;
+    // the sources of our parts are only what TrackerPoint wants if we have the same depth
+    if (depth != TrackerDepth.CONTENT_IMMUTABLE) {
+      return false;
+    }
+    int version = this.version;
+    int size = this.size;
+    int[] starts = this.starts;
+    int[] lengths = this.lengths;
+    Tracker[] sources = this.sources;
+    int[] sourceIndexes = this.sourceIndexes;
+    Growth[] growths = this.growths;
+    if ((version & 1) != 0 // modification in progress
+        || !isConsistent(size, starts, lengths, sources, sourceIndexes, growths)) {
+      return false;
     }
+    int i = getEntryAt(starts, lengths, size, index);
+    if (i == -1) {
+      return false;
+    }
+    int start = starts[i];
+    int length = lengths[i];
+    Tracker source = sources[i];
+    int sourceIndex = sourceIndexes[i];
+    Growth growth = growths[i];
+    // for simplicity, we don't handle parts where one value takes multiple indexes here
+    if (!validate(version) || growth.targetBlock != 1) {
+      return false;
+    }
+    context.cursorTracker = this;
+    context.cursorVersion = version;
+    context.cursorStart = start;
+    context.cursorEnd = start + length;
+    context.cursorSource = source;
+    context.cursorSourceIndex = sourceIndex;
+    context.cursorGrowth = growth;
+    return true;
+  }
+
+  /**
+   * Push a range of one part to `targetTracker`.
+   *
+   * @param source the tracker that the part points to
+   * @param sourceIndex the index in `source` where the part starts
+   * @param partGrowth the growth between `source` and this tracker
+   * @param partIndex the offset in the part of where the range to push starts
+   * @param growth the growth between this tracker and `targetTracker`
+   */
+  private static void pushPart(Tracker source, int sourceIndex, Growth partGrowth, int partIndex,
+      WritableTracker targetTracker, int targetIndex, int targetLength, Growth growth) {
+    Growth combinedGrowth = partGrowth.combine(growth);
+
+    // clarification:
+    // we're dealing with three trackers here: the source, this tracker (us), and the target.
+    // partGrowth is about the relation between source and us.
+    // growth is about the relation between us and target.
+
+    // handle case where the range we're pushing does not start at a "block" boundary in this part.
+    // for example, if partGrowth is Growth.DOUBLE, and partIndex is uneven, then we first need to
+    // push _half_ a block (at partIndex, length one) with an adjusted Growth that indicates where
+    // that first part came from (Growth.NONE in this example), and then the rest that is aligned
+    // with block boundaries, with the normal growth.
+    int startMisalignment = partIndex % partGrowth.targetBlock;
+    if (startMisalignment != 0) {
+      int startMisalignedLength = partGrowth.targetBlock - startMisalignment;
+      // TODO deal with the case where startMisalignedLength is not multiple of
+      //   growth.sourceBlock. in other words, if the misalignment of `partGrowth` is misaligned
+      //   with `growth`. ignoring that for now. (and same for misalignment at the middle or end)
+      int startMisalignedTargetLength =
+          Math.min(growth.sourceToTarget(startMisalignedLength), targetLength);
+
+      targetTracker.setSource(targetIndex, startMisalignedTargetLength, source,
+          sourceIndex + partGrowth.targetToSource(partIndex - startMisalignment),
+          Growth.of(startMisalignedTargetLength, partGrowth.sourceBlock));
+      // adjust parameters for the remaining part that needs to be pushed
+      partIndex += startMisalignedLength;
+      targetIndex += startMisalignedTargetLength;
+      targetLength -= startMisalignedTargetLength;
 
-    // gap at the end
-    if (targetPos < targetLength) {
-      targetTracker.setSource(targetIndex + targetPos, targetLength - targetPos, null, -1);
+      if (targetLength <= 0) { // if there's nothing left
+        return;
+      }
+    }
+
+    // similar for if we're misaligned at the end
+    int ourLength = growth.targetToSource(targetLength);
+    int endMisalignedLength = ourLength % partGrowth.targetBlock;
+    if (endMisalignedLength != 0) {
+      int endMisalignedTargetLength = growth.sourceToTarget(endMisalignedLength);
+
+      // the main (middle) piece
+      int adjustedTargetLength = targetLength - endMisalignedTargetLength;
+      targetTracker.setSource(targetIndex, adjustedTargetLength, source,
+          sourceIndex + partGrowth.targetToSource(partIndex),
+          combinedGrowth);
+
+      // the piece that's misaligned at the end
+      targetTracker.setSource(targetIndex + adjustedTargetLength,
+          endMisalignedTargetLength, source,
+          sourceIndex + partGrowth.targetToSource(partIndex)
+              + partGrowth.targetToSource(ourLength - endMisalignedLength),
+          Growth.of(endMisalignedTargetLength, partGrowth.sourceBlock));
+    } else {
+      // standard case, no misalignment (hit >99% of the time)
+      targetTracker.setSource(targetIndex, targetLength, source,
+          sourceIndex + partGrowth.targetToSource(partIndex),
+          combinedGrowth);
     }
   }
 
@@ -126,103 +279,356 @@ public class DefaultTracker extends Tracker {
       int sourceIndex, Growth growth) {
     if (length == 0) return;
 
-    // check the entry right after the new one (starting where new one ends, or overlapping)
-    Entry<Integer, PartTracker> nextEntry = getEntryAt(index + length);
-    if (nextEntry != null) {
-      PartTracker nextPart = nextEntry.getValue();
-      if (nextPart.getTracker() == sourceTracker // same source
-          && nextPart.getGrowth().equals(growth)
+    // appending after all existing parts is the common case, e.g. for sink trackers
+    int last = size - 1;
+    boolean append = last == -1 || starts[last] + lengths[last] <= index;
+    if (append && sourceTracker == null) {
+      return; // nothing to do: there is nothing to remove, and unknown sources aren't stored
+    }
+    if (Journal.enabled) {
+      Journal.sourceSet(this, index, length, sourceTracker, sourceIndex, growth);
+    }
+
+    version++; // odd: tell readers a modification is in progress
+    // make sure readers that see any of the changes below also see the odd version
+    VarHandle.storeStoreFence();
+    try {
+      if (append) {
+        appendPart(index, length, sourceTracker, sourceIndex, growth);
+      } else {
+        updateParts(index, length, sourceTracker, sourceIndex, growth);
+      }
+    } finally {
+      version++;
+    }
+  }
+
+  /**
+   * Fast path of {@link #updateParts} for when the new part comes after all existing parts: there
+   * is nothing to remove or cut, only the last part to extend or a new part to add at the end.
+   */
+  private void appendPart(int index, int length, Tracker sourceTracker, int sourceIndex,
+      Growth growth) {
+    int last = size - 1;
+    if (last != -1
+        && starts[last] + lengths[last] == index // touching
+        && sources[last] == sourceTracker // same source
+        && growths[last].equals(growth)
+        // and indexes align: difference in source index is same as difference in target (scaled by growth)
+        && growth.lengthMatches(sourceIndex - sourceIndexes[last], index - starts[last])) {
+      lengths[last] += length;
+    } else {
+      insertAt(size);
+      set(size - 1, index, sourceTracker, sourceIndex, length, growth);
+    }
+  }
+
+  /** Implementation of {@link #doSetSource}, called while {@link #version} is odd */
+  private void updateParts(int index, int length, Tracker sourceTracker,
+      int sourceIndex, Growth growth) {
+    // check the part right after the new one (starting where new one ends, or overlapping)
+    int next = getEntryAt(index + length);
+    if (next != -1) {
+      int nextStart = starts[next];
+      if (sources[next] == sourceTracker // same source
+          && growths[next].equals(growth)
           // and indexes align: difference in source is same as in target (scaled by growth)
-          && growth.lengthMatches(sourceIndex - nextPart.getSourceIndex(),
-              index - nextEntry.getKey())) {
+          && growth.lengthMatches(sourceIndex - sourceIndexes[next], index - nextStart)) {
         // merge two parts together by extending length
-        // note: old nextEntry itself will be removed below
-        length = nextEntry.getKey() + nextPart.getLength() - index;
-      } else if (nextEntry.getKey() != index + length) {
+        // note: old next part itself will be removed below
+        length = nextStart + lengths[next] - index;
+      } else if (nextStart != index + length) {
         // else if it overlaps (so its start or middle will be overwritten),
-        // then add the remaining part of nextEntry (cut start off its beginning),
+        // then add the remaining part of the next part (cut start off its beginning),
         // starting where the new one ends
-        // note: old nextEntry itself will be removed below
-        int oldStart = nextEntry.getKey();
+        // note: old next part itself will be removed below
         int newStart = index + length;
-        int delta = newStart - oldStart;
+        int delta = newStart - nextStart;
         // TODO[growth] verify behaviour
-        // TODO[growth] do something special if we're cutting nextPart at not-a-block-boundary
-        map.put(newStart, new PartTracker(nextPart.getTracker(),
-            nextPart.getSourceIndex() + growth.targetToSource(delta),
-            nextPart.getLength() - delta,
-            growth));
+        // TODO[growth] do something special if we're cutting next part at not-a-block-boundary
+        put(newStart, sources[next], sourceIndexes[next] + growth.targetToSource(delta),
+            lengths[next] - delta, growth);
       }
     }
 
     // remove parts that start within the new part, they are overwritten
-    map.subMap(index, index + length).clear();
-
-    // check the entry before the new one
-    Entry<Integer, PartTracker> previousEntry = getEntryAt(index - 1);
-    if (previousEntry != null) {
-      PartTracker previousPart = previousEntry.getValue();
-      if (previousPart.getTracker() == sourceTracker // same source
-          && previousPart.getGrowth().equals(growth)
+    removeRange(index, index + length);
+
+    // check the part before the new one
+    int previous = getEntryAt(index - 1);
+    if (previous != -1) {
+      int previousStart = starts[previous];
+      if (sources[previous] == sourceTracker // same source
+          && growths[previous].equals(growth)
           // and indexes align: difference in source index is same as difference in target (scaled by growth)
-          && growth.lengthMatches(sourceIndex - previousPart.getSourceIndex(),
-              index - previousEntry.getKey())) {
-        // then extend the entry before it by extending its length
-        previousPart.setLength(index + length - previousEntry.getKey());
-        return; // no need to add the entry anymore
-      } else if (previousEntry.getKey() + previousPart.getLength() > index) {
+          && growth.lengthMatches(sourceIndex - sourceIndexes[previous], index - previousStart)) {
+        // then extend the part before it by extending its length
+        lengths[previous] = index + length - previousStart;
+        return; // no need to add the part anymore
+      } else if (previousStart + lengths[previous] > index) {
         // cut end off of previous part if this overwrites it
-        previousPart.setLength(index - previousEntry.getKey());
+        lengths[previous] = index - previousStart;
       }
     }
 
-    // add the new entry
+    // add the new part
     if (sourceTracker != null) {
-      map.put(index, new PartTracker(sourceTracker, sourceIndex, length, growth));
+      put(index, sourceTracker, sourceIndex, length, growth);
     }
   }
 
   /**
-   * Returns the entry in the tracker for the given index.
+   * Returns the position in our arrays of the part in the tracker for the given index, or -1 if
+   * there is no such part.
    * <p>
-   * The key of the given entry is the index in this tracker where the entry begins.
-   * This may be equal to the given <tt>index</tt>, or less (if {@link PartTracker#getLength()} >
-   * 1).
+   * The start of the returned part is where the part begins in this tracker.
+   * This may be equal to the given <tt>index</tt>, or less (if the length of the part > 1).
    *
    * @param index The index in this Tracker
    */
-  private Entry<Integer, PartTracker> getEntryAt(int index) {
-    Entry<Integer, PartTracker> floorEntry = map.floorEntry(index);
-    // if the entry that starts at or before (floor) also extends (key + length) up to index
-    if (floorEntry != null && floorEntry.getKey() + floorEntry.getValue().getLength() > index) {
-      return floorEntry;
+  private int getEntryAt(int index) {
+    return getEntryAt(starts, lengths, size, index);
+  }
+
+  /** @see #getEntryAt(int) */
+  private static int getEntryAt(int[] starts, int[] lengths, int size, int index) {
+    int floor = floor(starts, size, index);
+    // if the part that starts at or before (floor) also extends (start + length) up to index
+    if (floor != -1 && starts[floor] + lengths[floor] > index) {
+      return floor;
     } else {
-      return null;
+      return -1;
     }
   }
 
+  /**
+   * Returns the position in our arrays of the last part that starts at or before `index`, or -1 if
+   * there is no such part.
+   */
+  private int floor(int index) {
+    return floor(starts, size, index);
+  }
+
+  /** @see #floor(int) */
+  private static int floor(int[] starts, int size, int index) {
+    int high = size - 1;
+    // fast path for the common case of looking at the end of the tracker
+    if (high == -1 || starts[high] <= index) {
+      return high;
+    }
+    int low = 0;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (starts[mid] <= index) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return high;
+  }
+
+  /** Add a part starting at `start`, replacing the existing part starting there if any */
+  private void put(int start, Tracker source, int sourceIndex, int length, Growth growth) {
+    int pos = floor(start);
+    if (pos == -1 || starts[pos] != start) {
+      pos++;
+      insertAt(pos);
+    }
+    set(pos, start, source, sourceIndex, length, growth);
+  }
+
+  /** Set the part at position `pos` in the arrays */
+  private void set(int pos, int start, Tracker source, int sourceIndex, int length,
+      Growth growth) {
+    starts[pos] = start;
+    lengths[pos] = length;
+    sources[pos] = source;
+    sourceIndexes[pos] = sourceIndex;
+    growths[pos] = growth;
+  }
+
+  /** Make room for a new part at position `pos` in the arrays */
+  private void insertAt(int pos) {
+    if (size == starts.length) {
+      int newCapacity = size == 0 ? 2 : size + (size >> 1) + 1;
+      starts = Arrays.copyOf(starts, newCapacity);
+      lengths = Arrays.copyOf(lengths, newCapacity);
+      sources = Arrays.copyOf(sources, newCapacity);
+      sourceIndexes = Arrays.copyOf(sourceIndexes, newCapacity);
+      growths = Arrays.copyOf(growths, newCapacity);
+    }
+    int toMove = size - pos;
+    if (toMove > 0) {
+      System.arraycopy(starts, pos, starts, pos + 1, toMove);
+      System.arraycopy(lengths, pos, lengths, pos + 1, toMove);
+      System.arraycopy(sources, pos, sources, pos + 1, toMove);
+      System.arraycopy(sourceIndexes, pos, sourceIndexes, pos + 1, toMove);
+      System.arraycopy(growths, pos, growths, pos + 1, toMove);
+    }
+    size++;
+  }
+
+  /** Remove the parts that start at or after `from`, and before `to` */
+  private void removeRange(int from, int to) {
+    int first = floor(from - 1) + 1;
+    int end = floor(to - 1) + 1; // exclusive
+    int removed = end - first;
+    if (removed <= 0) {
+      return;
+    }
+    int toMove = size - end;
+    if (toMove > 0) {
+      System.arraycopy(starts, end, starts, first, toMove);
+      System.arraycopy(lengths, end, lengths, first, toMove);
+      System.arraycopy(sources, end, sources, first, toMove);
+      System.arraycopy(sourceIndexes, end, sourceIndexes, first, toMove);
+      System.arraycopy(growths, end, growths, first, toMove);
+    }
+    // clear references, to not keep source trackers alive
+    Arrays.fill(sources, size - removed, size, null);
+    Arrays.fill(growths, size - removed, size, null);
+    size -= removed;
+  }
+
   @Override
-  public synchronized int getEntryCount() {
-    return map.size();
+  public int getEntryCount() {
+    for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+      int version = this.version;
+      int size = this.size;
+      if ((version & 1) == 0 && validate(version)) {
+        return size;
+      }
+      Thread.onSpinWait();
+    }
+    synchronized (this) {
+      return size;
+    }
   }
 
   @Override
-  public synchronized int getLength() {
-    if (map.isEmpty()) return 0;
-    Entry<Integer, PartTracker> lastEntry = map.lastEntry();
-    return lastEntry.getKey() + lastEntry.getValue().getLength();
-  }
-
-  /** Create a copy of a set of entries */
-  private static Collection<Entry<Integer, PartTracker>> copy(
-      Collection<Entry<Integer, PartTracker>> entries) {
-    List<Entry<Integer, PartTracker>> result = new ArrayList<>(entries.size());
-    for (Entry<Integer, PartTracker> entry : entries) {
-      PartTracker part = entry.getValue();
-      PartTracker partCopy = new PartTracker(part.getTracker(), part.getSourceIndex(),
-          part.getLength(), part.getGrowth());
-      result.add(Map.entry(entry.getKey(), partCopy));
-    }
-    return result;
+  public int getLength() {
+    for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+      int version = this.version;
+      int size = this.size;
+      int[] starts = this.starts;
+      int[] lengths = this.lengths;
+      if ((version & 1) == 0 && size <= starts.length && size <= lengths.length) {
+        int length = size == 0 ? 0 : starts[size - 1] + lengths[size - 1];
+        if (validate(version)) {
+          return length;
+        }
+      }
+      Thread.onSpinWait();
+    }
+    synchronized (this) {
+      return size == 0 ? 0 : starts[size - 1] + lengths[size - 1];
+    }
+  }
+
+  /**
+   * Checks that nothing was modified since the reader read `version` (before it read the parts).
+   */
+  private boolean validate(int version) {
+    // make sure the reads of the parts happen before reading the version again
+    VarHandle.acquireFence();
+    return this.version == version;
+  }
+
+  /**
+   * Checks that the arrays read without locking are big enough. They might not be if they were
+   * being replaced while reading them; then {@link #validate(int)} will also fail.
+   */
+  private static boolean isConsistent(int size, int[] starts, int[] lengths, Tracker[] sources,
+      int[] sourceIndexes, Growth[] growths) {
+    return size <= starts.length && size <= lengths.length && size <= sources.length
+        && size <= sourceIndexes.length && size <= growths.length;
+  }
+
+  /**
+   * Copy of the parts of a tracker that are relevant for a range; so that they can be pushed
+   * without holding the lock, and without being affected by concurrent modifications (including
+   * when pushing onto ourselves).
+   */
+  private static final class Parts {
+    private final int[] starts;
+    private final int[] lengths;
+    private final Tracker[] sources;
+    private final int[] sourceIndexes;
+    private final Growth[] growths;
+
+    private Parts(int[] starts, int[] lengths, Tracker[] sources, int[] sourceIndexes,
+        Growth[] growths) {
+      this.starts = starts;
+      this.lengths = lengths;
+      this.sources = sources;
+      this.sourceIndexes = sourceIndexes;
+      this.growths = growths;
+    }
+
+    /** Copy the parts that overlap with the range from `index` to `end` */
+    static Parts copyOf(int index, int end, int[] starts, int[] lengths, Tracker[] sources,
+        int[] sourceIndexes, Growth[] growths, int size) {
+      // we start at the part that contains index
+      // or, if there's no such part, at what comes after
+      int first = getEntryAt(starts, lengths, size, index);
+      if (first == -1) {
+        first = floor(starts, size, index - 1) + 1;
+      }
+      // and end at the last part that starts before the end of the range
+      int last = floor(starts, size, end - 1);
+      int to = Math.max(first, last + 1);
+      return new Parts(Arrays.copyOfRange(starts, first, to),
+          Arrays.copyOfRange(lengths, first, to),
+          Arrays.copyOfRange(sources, first, to),
+          Arrays.copyOfRange(sourceIndexes, first, to),
+          Arrays.copyOfRange(growths, first, to));
+    }
+
+    /** @see Tracker#pushSourceTo(int, WritableTracker, int, int, Growth) */
+    void pushSourceTo(int index, WritableTracker targetTracker, int targetIndex,
+        int targetLength, Growth growth) {
+      int targetPos = 0; // how far we are in pushing, from 0 to targetLength
+      for (int i = 0; i < starts.length; i++) {
+        int partIndex = starts[i];
+
+        // if the beginning of this part is cut off (because this it the first part, and index
+        // is halfway a part), the size of the cut-off.
+        // In other words, the offset in the part of where we want to start pushing.
+        int pushingPartOffset = partIndex < index ? index - partIndex : 0;
+
+        // difference between what we'll start pushing for this part, and where we started overall.
+        // in other words our progress, going from 0 to sourceLength.
+        int sourceStartPos = (partIndex + pushingPartOffset) - index;
+        // TODO(growth) handle case where sourceStartPos is not a multiple of Growth.sourceBlock
+        int targetStartPos = growth.sourceToTarget(sourceStartPos);
+
+        // gap before this entry
+        int gapBefore = targetStartPos - targetPos;
+        if (gapBefore > 0) {
+          targetTracker.setSource(targetIndex + targetPos, gapBefore, null, -1, Growth.NONE);
+        }
+
+        // index in the target of where we start pushing to
+        int pushTargetIndex = targetIndex + targetStartPos;
+
+        // The length of what we're pushing. This is limited by two things:
+        // * the length given in arguments
+        // * the available size of the part we're handling
+        int pushLength = Math.min(targetLength - targetStartPos,
+            growth.sourceToTarget(lengths[i] - pushingPartOffset));
+
+        // push it!
+        pushPart(sources[i], sourceIndexes[i], growths[i], pushingPartOffset,
+            targetTracker, pushTargetIndex, pushLength, growth);
+
+        targetPos = targetStartPos + pushLength;
+      }
+
+      // gap at the end
+      if (targetPos < targetLength) {
+        targetTracker.setSource(targetIndex + targetPos, targetLength - targetPos, null, -1);
+      }
+    }
   }
 }
@@ -16,35 +16,148 @@ package com.coekie.flowtracker.tracker;
  * limitations under the License.
  */
 
-import com.coekie.flowtracker.util.ConcurrentWeakIdentityHashMap;
-import java.util.HashMap;
-import java.util.Map;
+import com.coekie.flowtracker.util.WeakIdentityMap;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
-/** Keeps track of the source of values of fields */
+/**
+ * Keeps track of the source of values of fields.
+ * <p>
+ * Fields are identified by a small int (see {@link #fieldId(String)}), that instrumented code gets
+ * once (through ConstantDynamic, or from a String constant for older class files). For each object
+ * that has fields we track, we keep a small chain of {@link FieldSlots}. Getting or setting the
+ * point of a field that already has a slot does not allocate or lock.
+ */
 public class FieldRepository {
+  private static final VarHandle IDS = MethodHandles.arrayElementVarHandle(int[].class);
+  private static final VarHandle POINTS =
+      MethodHandles.arrayElementVarHandle(TrackerPoint[].class);
+
+  /** Interned field ids; see {@link #fieldId(String)} */
+  private static final ConcurrentHashMap<String, Integer> fieldIds = new ConcurrentHashMap<>();
+  /** Last assigned field id. Field ids start at 1, 0 is used for empty slots. */
+  private static final AtomicInteger lastFieldId = new AtomicInteger();
+
   /**
-   * Maps objects (that have fields we want to track) to a map of their field values.
-   * e.g. for `class Foo {byte b;}` that could contain `{fooInstance: {"Foo b": trackerPoint}}`.
+   * Maps objects (that have fields we want to track) to the points of their field values.
+   * e.g. for `class Foo {byte b;}` that could contain `{fooInstance: [fieldId("Foo b"): point]}`.
    */
-  private static final Map<Object, Map<String, TrackerPoint>> objectToFieldMap =
-      new ConcurrentWeakIdentityHashMap<>();
+  private static final WeakIdentityMap<Object, FieldSlots> objectToFields =
+      new WeakIdentityMap<>();
 
-  public static TrackerPoint getPoint(Object target, String fieldId) {
-    Map<String, TrackerPoint> fieldMap = objectToFieldMap.get(target);
-    return fieldMap == null ? null : fieldMap.get(fieldId);
+  public static TrackerPoint getPoint(Object target, int fieldId) {
+    for (FieldSlots slots = objectToFields.get(target); slots != null; slots = slots.next) {
+      for (int i = 0; i < FieldSlots.SIZE; i++) {
+        int id = (int) IDS.getAcquire(slots.ids, i);
+        if (id == fieldId) {
+          return (TrackerPoint) POINTS.getAcquire(slots.points, i);
+        } else if (id == 0) {
+          return null;
+        }
+      }
+    }
+    return null;
   }
 
   @SuppressWarnings("unused") // invoked from FieldStore
-  public static void setPoint(Object target, String fieldId, TrackerPoint point) {
-    if (target != null) {
-      Map<String, TrackerPoint> fieldMap =
-          objectToFieldMap.computeIfAbsent(target, k -> new HashMap<>());
-      fieldMap.put(fieldId, point);
+  public static void setPoint(Object target, int fieldId, TrackerPoint point) {
+    if (target == null) {
+      return;
+    }
+    FieldSlots slots = objectToFields.get(target);
+    if (slots == null) {
+      if (point == null) {
+        return; // nothing to forget
+      }
+      FieldSlots newSlots = new FieldSlots();
+      slots = objectToFields.putIfAbsent(target, newSlots);
+      if (slots == null) {
+        slots = newSlots;
+      }
+    }
+    while (true) {
+      for (int i = 0; i < FieldSlots.SIZE; i++) {
+        int id = (int) IDS.getAcquire(slots.ids, i);
+        // claim the first free slot. if another thread claimed it first, then check if it did that
+        // for the same field
+        if (id == 0 && (IDS.compareAndSet(slots.ids, i, 0, fieldId)
+            || (int) IDS.getAcquire(slots.ids, i) == fieldId)) {
+          POINTS.setRelease(slots.points, i, point);
+          return;
+        } else if (id == fieldId) {
+          POINTS.setRelease(slots.points, i, point);
+          return;
+        }
+      }
+      FieldSlots next = slots.next;
+      if (next == null) {
+        FieldSlots newSlots = new FieldSlots();
+        next = FieldSlots.NEXT.compareAndSet(slots, null, newSlots) ? newSlots : slots.next;
+      }
+      slots = next;
+    }
+  }
+
+  /**
+   * Forget the points of the fields of all objects. Used when FlowTracker is detached from a JVM,
+   * like {@link TrackerRepository#clear()}.
+   */
+  public static void clear() {
+    objectToFields.clear();
+  }
+
+  /**
+   * Small int identifying a field, interned from a String identifier (see {@link #fieldKey}). The
+   * same key always gets the same id, but ids are not stable across JVM runs, so they must not end
+   * up in persisted (e.g. cached) bytecode.
+   */
+  public static int fieldId(String fieldKey) {
+    Integer id = fieldIds.get(fieldKey);
+    if (id == null) {
+      id = fieldIds.computeIfAbsent(fieldKey, k -> lastFieldId.incrementAndGet());
     }
+    return id;
+  }
+
+  /** Convenience method for `fieldId(fieldKey(owner, fieldName))` */
+  public static int fieldId(String owner, String fieldName) {
+    return fieldId(fieldKey(owner, fieldName));
   }
 
-  /** String identifier that we use for a field in {@link #objectToFieldMap} */
-  public static String fieldId(String owner, String fieldName) {
+  // first three arguments are here because this is invoked using ConstantDynamic
+  @SuppressWarnings("unused") // invoked from FieldValue and FieldStore
+  public static int fieldId(MethodHandles.Lookup lookup, String name, Class<?> type,
+      String fieldKey) {
+    return fieldId(fieldKey);
+  }
+
+  /** String identifier of a field, that {@link #fieldId(String)} turns into an int */
+  public static String fieldKey(String owner, String fieldName) {
     return owner + " " + fieldName;
   }
+
+  /**
+   * Slots for the points of some fields of one object. A slot is claimed for a field (its id is set)
+   * only once, and never released; so a field always stays in the same slot.
+   */
+  private static class FieldSlots {
+    static final int SIZE = 4;
+    static final VarHandle NEXT;
+
+    static {
+      try {
+        NEXT = MethodHandles.lookup().findVarHandle(FieldSlots.class, "next", FieldSlots.class);
+      } catch (ReflectiveOperationException e) {
+        throw new Error(e);
+      }
+    }
+
+    /** Ids of the fields, or 0 for unused slots */
+    final int[] ids = new int[SIZE];
+    final TrackerPoint[] points = new TrackerPoint[SIZE];
+    /** More slots, if all of these are used */
+    volatile FieldSlots next;
+  }
 }
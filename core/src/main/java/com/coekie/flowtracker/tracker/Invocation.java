@@ -24,134 +24,243 @@ import java.util.Arrays;
  * Represents a method call, that is a particular invocation at runtime, to both the caller and
  * callee.
  * Facilitates tracking of primitive values through calls, for return values and parameters.
- * The `Invocation` is stored in a `ThreadLocal` just before a method invocation, and retrieved at
- * the start of the implementation of the method.
+ * <p>
+ * To avoid allocating anything per call, invocations are prepared in a small stack of preallocated
+ * frames per thread ({@link Context#invocationFrames}), that get reused for every call. The stack
+ * only grows when preparing an invocation itself involves other invocations, e.g. when loading the
+ * source of an argument resolves a dynamic constant for the first time.
+ * Each invocation is identified by a stamp, an int unique per thread, that instrumented code keeps
+ * in a local variable (of the caller to get the return value, of the callee to set it). The callee
+ * copies the arguments it needs into its own local variables when it starts, before it can make
+ * other calls that would overwrite the frame. Return values are passed back through
+ * {@link Context#returnTracker}, tagged with the stamp of the invocation.
+ * <p>
+ * Invocations are matched by a signature id, the hash code of the signature (name and descriptor)
+ * of the method. That is computed when instrumenting, and does not depend on anything else at
+ * runtime, so it stays valid for classes loaded from the bytecode cache.
+ * <p>
+ * Instances of this class are only created for the frames, and as copies of them for hooks
+ * (see {@link #preStart(int)}) and for {@link #suspend()}.
  */
 public class Invocation {
-  private final String signature;
+  /** Maximum number of arguments that can be tracked, see InvocationArgStore */
+  static final int MAX_ARGS = 6;
 
- /** Source of the returned primitive value */
-  public TrackerPoint returnPoint;
+  /**
+   * Number of frames per thread, a power of two. If invocations get nested deeper than this while
+   * preparing them, then the outer ones get overwritten, losing their tracking.
+   */
+  static final int FRAMES = 8;
+
+  private int signatureId;
+  private int stamp;
 
+  /** Number of arguments that might have been set; the ones at higher indexes are cleared */
+  private int argCount;
   /** Tracks source for some primitive values in arguments. null for untracked arguments. */
-  private TrackerPoint[] args;
+  private final Tracker[] argTrackers;
+  private final int[] argIndexes;
+  private final int[] argLengths;
 
-  Invocation(String signature) {
-    this.signature = signature;
+  Invocation() {
+    this(MAX_ARGS);
   }
 
-  @SuppressWarnings("unused") // invoked by instrumentation
-  public Invocation setArg0(TrackerPoint trackerPoint) {
-    return setArg(0, trackerPoint);
+  private Invocation(int maxArgs) {
+    argTrackers = new Tracker[maxArgs];
+    argIndexes = new int[maxArgs];
+    argLengths = new int[maxArgs];
   }
 
-  @SuppressWarnings("unused") // invoked by instrumentation
-  public Invocation setArg1(TrackerPoint trackerPoint) {
-    return setArg(1, trackerPoint);
+  private Invocation copy() {
+    Invocation result = new Invocation(argCount);
+    result.signatureId = signatureId;
+    result.stamp = stamp;
+    result.argCount = argCount;
+    System.arraycopy(argTrackers, 0, result.argTrackers, 0, argCount);
+    System.arraycopy(argIndexes, 0, result.argIndexes, 0, argCount);
+    System.arraycopy(argLengths, 0, result.argLengths, 0, argCount);
+    return result;
   }
 
-  @SuppressWarnings("unused") // invoked by instrumentation
-  public Invocation setArg2(TrackerPoint trackerPoint) {
-    return setArg(2, trackerPoint);
+  static Invocation[] newFrames() {
+    Invocation[] frames = new Invocation[FRAMES];
+    for (int i = 0; i < FRAMES; i++) {
+      frames[i] = new Invocation();
+    }
+    return frames;
   }
 
-  @SuppressWarnings("unused") // invoked by instrumentation
-  public Invocation setArg3(TrackerPoint trackerPoint) {
-    return setArg(3, trackerPoint);
+  /** The frame of the invocation currently being prepared */
+  private static Invocation frame(Context context) {
+    return context.invocationFrames[context.invocationDepth & (FRAMES - 1)];
   }
 
-  @SuppressWarnings("unused") // invoked by instrumentation
-  public Invocation setArg4(TrackerPoint trackerPoint) {
-    return setArg(4, trackerPoint);
+  private void reset(int signatureId, int stamp) {
+    this.signatureId = signatureId;
+    this.stamp = stamp;
+    if (argCount > 0) {
+      Arrays.fill(argTrackers, 0, argCount, null);
+      argCount = 0;
+    }
   }
 
-  @SuppressWarnings("unused") // invoked by instrumentation
-  public Invocation setArg5(TrackerPoint trackerPoint) {
-    return setArg(5, trackerPoint);
+  /**
+   * Starts preparing an invocation of the method with the given signature id (see
+   * {@link #signatureId(String, String)}). Can optionally be followed by calls to
+   * {@link #setArg(Context, int, TrackerPoint)} and friends, and should be followed by
+   * {@link #calling(Context)} before doing the actual call.
+   */
+  public static Context create(Context context, int signatureId) {
+    int stamp = ++context.lastInvocationStamp;
+    if (stamp == 0) { // 0 means "no invocation". skip it when wrapping around
+      stamp = ++context.lastInvocationStamp;
+    }
+    // invocationDepth is not guaranteed to be exactly balanced: if an exception is thrown while
+    // preparing an invocation, then it is never decremented. That is harmless, because it only
+    // determines which frames get reused.
+    context.invocationDepth++;
+    frame(context).reset(signatureId, stamp);
+    return context;
   }
 
-  public Invocation setArg(int argNum, TrackerPoint trackerPoint) {
-    if (trackerPoint == null) {
-      return this;
+  /** Sets the source of an argument of the invocation being prepared */
+  public static Context setArg(Context context, int argNum, Tracker tracker, int index,
+      int length) {
+    if (tracker != null && argNum < MAX_ARGS) {
+      Invocation invocation = frame(context);
+      invocation.argTrackers[argNum] = tracker;
+      invocation.argIndexes[argNum] = index;
+      invocation.argLengths[argNum] = length;
+      invocation.argCount = Math.max(invocation.argCount, argNum + 1);
     }
+    return context;
+  }
 
-    if (args == null) {
-      args = new TrackerPoint[argNum + 1];
-    } else if (args.length < argNum + 1) {
-      // alternative: take the number of arguments as constructor parameter
-      args = Arrays.copyOf(args, Math.max(argNum + 1, args.length * 2));
+  /** Sets the source of an argument of the invocation being prepared */
+  public static Context setArg(Context context, int argNum, TrackerPoint trackerPoint) {
+    if (trackerPoint != null) {
+      setArg(context, argNum, trackerPoint.tracker, trackerPoint.index, trackerPoint.length);
     }
-    args[argNum] = trackerPoint;
-
-    return this;
+    return context;
   }
 
   /**
    * Called by a caller just before calling another method through which we want to track return or
-   * parameter values.
+   * parameter values. Returns the stamp of the invocation, to be passed to
+   * {@link #returnTracker(Context, int)} after the call. Returns 0 (no invocation) while tracking
+   * is turned off ({@link TrackingSwitch}).
    */
-  public Invocation calling(Context context) {
-    context.pendingInvocation = this;
-    return this;
+  public static int calling(Context context) {
+    Invocation invocation = frame(context);
+    context.invocationDepth--;
+    if (!TrackingSwitch.isOn()) {
+      context.pendingInvocation = null;
+      return 0;
+    }
+    context.pendingInvocation = invocation;
+    return invocation.stamp;
   }
 
   /**
-   * Sets the source tracker of a returned value
+   * Called inside the called method. Returns the stamp of the invocation, or 0 if the method was not
+   * called by instrumented code passing an invocation.
    */
-  public static void returning(Invocation invocation, TrackerPoint returnPoint) {
+  public static int start(Context context, int signatureId) {
+    Invocation invocation = context.pendingInvocation;
     if (invocation != null) {
-      invocation.returnPoint = returnPoint;
+      context.pendingInvocation = null;
+      // compare signatures to avoid getting different invocations mixed up.
+      // e.g. there may be an instrumented caller A calling a non-instrumented method B,
+      // that then calls another instrumented method C.
+      // without this check we might incorrectly interpret that as A calling C.
+      // (That could still happen if signatures match by coincidence, but the chance is much lower)
+      if (invocation.signatureId == signatureId && TrackingSwitch.isOn()) {
+        context.startedInvocation = invocation;
+        return invocation.stamp;
+      }
     }
+    return 0;
   }
 
-  // invoked by instrumentation
-  public static TrackerPoint getArgPoint(Invocation invocation, int argNum) {
-    if (invocation == null) {
+  /**
+   * Returns the tracker of argument `argNum` of the invocation with the given stamp, and puts its
+   * index and length in the context (like {@link TrackerPoint#resolve}). Must be called at the start
+   * of the called method, before it makes other calls.
+   */
+  public static Tracker argTracker(Context context, int stamp, int argNum) {
+    Invocation invocation = context.startedInvocation;
+    if (stamp == 0 || invocation == null || invocation.stamp != stamp
+        || argNum >= invocation.argCount) {
       return null;
     }
-    TrackerPoint[] args = invocation.args;
-    return args != null && args.length > argNum ? args[argNum] : null;
+    context.pointIndex = invocation.argIndexes[argNum];
+    context.pointLength = invocation.argLengths[argNum];
+    return invocation.argTrackers[argNum];
   }
 
-  /**
-   * Creates an {@link Invocation}. Can optionally be followed by calls to
-   * {@link #setArg0(TrackerPoint)} and friends, and should be followed by {@link #calling(Context)}
-   * before doing the actual call.
-   */
-  public static Invocation create(String signature) {
-    return new Invocation(signature);
+  /** Sets the source tracker of a returned value */
+  public static void returning(Context context, int stamp, Tracker tracker, int index,
+      int length) {
+    if (stamp != 0) {
+      context.returnStamp = stamp;
+      context.returnTracker = tracker;
+      context.returnIndex = index;
+      context.returnLength = length;
+    }
+  }
+
+  /** Sets the source tracker of a returned value */
+  public static void returning(Context context, int stamp, TrackerPoint returnPoint) {
+    if (returnPoint == null) {
+      returning(context, stamp, null, 0, 0);
+    } else {
+      returning(context, stamp, returnPoint.tracker, returnPoint.index, returnPoint.length);
+    }
   }
 
   /**
-   * Called inside the called method
+   * Returns the tracker of the value returned by the invocation with the given stamp, and puts its
+   * index and length in the context (like {@link TrackerPoint#resolve}). Must be called right
+   * after the call.
    */
-  public static Invocation start(Context context, String signature) {
-    Invocation invocation = context.pendingInvocation;
+  public static Tracker returnTracker(Context context, int stamp) {
+    if (stamp == 0 || context.returnStamp != stamp) {
+      return null;
+    }
+    context.pointIndex = context.returnIndex;
+    context.pointLength = context.returnLength;
+    return context.returnTracker;
+  }
+
+  /** Sets the source tracker of a returned value, for hooks */
+  public static void returning(Invocation invocation, TrackerPoint returnPoint) {
     if (invocation != null) {
-      context.pendingInvocation = null;
-      // compare signatures to avoid getting different invocations mixed up.
-      // e.g. there may be an instrumented caller A calling a non-instrumented method B,
-      // that then calls another instrumented method C.
-      // without this check we might incorrectly interpret that as A calling C.
-      // (That could still happen if signatures match by coincidence, but the chance is much lower)
-      if (signature.equals(invocation.signature)) {
-        return invocation;
-      }
+      returning(context(), invocation.stamp, returnPoint);
     }
-    return null;
+  }
+
+  /** Returns the source of an argument, for hooks */
+  public static TrackerPoint getArgPoint(Invocation invocation, int argNum) {
+    if (invocation == null || argNum >= invocation.argCount) {
+      return null;
+    }
+    Tracker tracker = invocation.argTrackers[argNum];
+    return tracker == null ? null
+        : TrackerPoint.of(tracker, invocation.argIndexes[argNum], invocation.argLengths[argNum]);
   }
 
   /**
-   * Like {@link #start(Context, String)}, but doesn't clear the invocation. Can be used to get the
+   * Like {@link #start(Context, int)}, but doesn't clear the invocation. Can be used to get the
    * invocation in a hook without breaking the real invocation instrumentation.
+   * Returns a copy, because the hook may be invoked after the frame has been reused.
    */
   @SuppressWarnings("unused") // used in HookSpec.INVOCATION
-  public static Invocation preStart(String signature) {
-    Invocation invocation = context().pendingInvocation;
-    if (invocation != null) {
-      if (signature.equals(invocation.signature)) {
-        return invocation;
-      }
+  public static Invocation preStart(int signatureId) {
+    Context context = context();
+    Invocation invocation = context.pendingInvocation;
+    if (invocation != null && invocation.signatureId == signatureId) {
+      return invocation.copy();
     }
     return null;
   }
@@ -160,14 +269,23 @@ public class Invocation {
     return name + " " + desc;
   }
 
+  /** Identifies a method signature in an invocation */
+  public static int signatureId(String signature) {
+    return signature.hashCode();
+  }
+
+  public static int signatureId(String name, String desc) {
+    return signatureId(signature(name, desc));
+  }
+
   /**
-   * Removes the current pending Invocation from the thread-local, to be restored later with
+   * Removes the current pending Invocation, to be restored later with
    * {@link #unsuspend(Invocation)}.
    * <p>
    * This is used to solve a problem caused by class loading and initialization triggered by a
    * method invocation.
    * The problem is that the loading and initialization can happen between when the caller calls
-   * {@link #calling(Context)} and when the callee calls {@link #start(Context, String)}. And it may
+   * {@link #calling(Context)} and when the callee calls {@link #start(Context, int)}. And it may
    * involve other method calls that use Invocation.
    * For example, calling `SomeClass.foo()` may not immediately call `foo`, but first calls methods
    * in the ClassLoader, and transformers like flowtracker, and `SomeClass.&lt;clinit&gt;`.
@@ -179,16 +297,31 @@ public class Invocation {
   public static Invocation suspend() {
     Context context = context();
     Invocation invocation = context.pendingInvocation;
+    if (invocation == null) {
+      return null;
+    }
     context.pendingInvocation = null;
-    return invocation;
+    // copy it, because the frame may get reused in the meantime
+    return invocation.copy();
   }
 
   /** @see #suspend() */
   public static void unsuspend(Invocation invocation) {
-    context().pendingInvocation = invocation;
+    if (invocation != null) {
+      context().pendingInvocation = invocation;
+    }
   }
 
-  public static Invocation peekPending() {
-    return context().pendingInvocation;
+  /** Returns if there is a pending invocation of `signature` that passes any tracked arguments */
+  public static boolean isPendingWithArgs(String signature) {
+    Invocation invocation = context().pendingInvocation;
+    return invocation != null && invocation.argCount > 0
+        && invocation.signatureId == signatureId(signature);
+  }
+
+  /** Returns the stamp of the pending invocation, or 0 if there is none */
+  public static int pendingStamp() {
+    Invocation invocation = context().pendingInvocation;
+    return invocation == null ? 0 : invocation.stamp;
   }
 }
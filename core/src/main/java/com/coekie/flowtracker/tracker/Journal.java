@@ -0,0 +1,507 @@
+package com.coekie.flowtracker.tracker;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.coekie.flowtracker.tracker.Context.context;
+
+import com.coekie.flowtracker.tracker.TrackerTree.Node;
+import com.coekie.flowtracker.util.Config;
+import com.coekie.flowtracker.util.Logger;
+import com.coekie.flowtracker.util.Stats;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Continuously writes what happens to trackers to a file, so that it is not lost when the JVM
+ * crashes or gets killed. Enabled with the `journal` option. A snapshot can be rebuilt from the
+ * journal afterwards, with the `reconstruct` command.
+ * <p>
+ * The journal records trackers being added to the tree ({@link Tracker#addTo}), content being
+ * appended to origin and sink trackers, and sources being set on sink trackers. That is what
+ * the UI shows for them; except for stacktraces of where trackers were created, twins, and the
+ * line numbers of classes, which are not included.
+ * <p>
+ * Threads do not write to the file themselves. Each thread encodes its events in its own buffer
+ * (in its {@link Context}) without any locking, and publishes up to where the buffer is filled
+ * with an ordered write. A background thread regularly copies what was published from all buffers
+ * to the file, which is memory-mapped. When a buffer is full, the thread continues in a new one
+ * and links it from the full one, so that the background thread never has to wait for a thread to
+ * let go of a buffer. What has not been copied yet when the JVM crashes is lost; that is about
+ * `journalFlushInterval` milliseconds worth of events.
+ * <p>
+ * The order of events is preserved per thread, but not between threads. The format is made so that
+ * does not matter much: e.g. appended content includes the index where it was appended.
+ * <p>
+ * Format: {@link #MAGIC}, {@link #VERSION}, followed by events. Every event starts with its kind
+ * (e.g. {@link #CREATED}), the id of the tracker (varint) and its type (e.g.
+ * {@link #BYTE_ORIGIN}). A kind of 0 marks the end of the journal: when the JVM exited normally
+ * the file is truncated after the last event, otherwise the rest of the file is zeroes.
+ */
+public class Journal {
+  private static final Logger logger = new Logger("Journal");
+
+  public static final byte[] MAGIC = {'F', 'T', 'J', 'R', 'N', 'L'};
+  public static final byte VERSION = 1;
+
+  /**
+   * Tracker added to the tree. Followed by the number of nodes in its path, and for each node its
+   * name (number of chars followed by the chars) and 1 if it is optional or else 0.
+   */
+  public static final byte CREATED = 1;
+  /** Bytes appended. Followed by the index, length, and the bytes. */
+  public static final byte BYTES = 2;
+  /** Chars appended. Followed by the index, length, and the chars (two bytes each). */
+  public static final byte CHARS = 3;
+  /**
+   * Source of a range of a sink set. Followed by the index, length, source tracker id + 1 (0 for
+   * unknown source), source index, and target and source block of the growth.
+   */
+  public static final byte SOURCE = 4;
+
+  // types of trackers
+  public static final byte OTHER = 0;
+  public static final byte BYTE_ORIGIN = 1;
+  public static final byte BYTE_SINK = 2;
+  public static final byte CHAR_ORIGIN = 3;
+  public static final byte CHAR_SINK = 4;
+  public static final byte CLASS_ORIGIN = 5;
+
+  private static final int BUFFER_SIZE = 32 * 1024;
+  /** Upper bound of the size of an event, not counting content and paths */
+  private static final int MAX_HEADER = 64;
+  /** Size of the regions of the file that are mapped at once */
+  private static final int REGION_SIZE = 16 * 1024 * 1024;
+
+  /** If the journal is enabled. Checked by trackers before calling into the journal. */
+  static boolean enabled;
+  private static volatile Journal instance;
+
+  private final Path path;
+  private final long flushIntervalNanos;
+  private final FileChannel channel;
+  /** Mapped region of the file that is being written to */
+  private MappedByteBuffer region;
+  /** Position in the file where {@link #region} starts */
+  private long regionStart;
+  private volatile boolean closed;
+
+  /** Buffers of threads that have not been seen by the writer yet */
+  private final ConcurrentLinkedQueue<Buffer> newBuffers = new ConcurrentLinkedQueue<>();
+  /** For each thread, the buffer being written; only used by the writer, guarded by `this` */
+  private final List<Buffer> buffers = new ArrayList<>();
+
+  private Journal(Path path, long flushIntervalMillis) throws IOException {
+    this.path = path;
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    this.region = channel.map(MapMode.READ_WRITE, 0, REGION_SIZE);
+    region.put(MAGIC);
+    region.put(VERSION);
+  }
+
+  /**
+   * Start journaling if the `journal` option is set. If a journal was already being written, it is
+   * completed and closed.
+   */
+  public static void initialize(Config config) {
+    stop();
+
+    String path = config.get("journal");
+    if (path == null) {
+      return;
+    }
+    Journal journal;
+    try {
+      journal = new Journal(Path.of(path),
+          Long.parseLong(config.get("journalFlushInterval", "100")));
+    } catch (IOException e) {
+      logger.error(e, "Failed to create journal %s", path);
+      return;
+    }
+    Thread writer = new Thread(journal::run, "flowtracker-journal");
+    writer.setDaemon(true);
+    writer.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(journal::close));
+    Stats.register("journal.bytes", journal::size);
+    instance = journal;
+    enabled = true;
+  }
+
+  /**
+   * Complete and close the journal, if one is being written, and stop its writer thread. Used when
+   * FlowTracker is detached from a JVM.
+   */
+  public static void stop() {
+    Journal previous = instance;
+    if (previous != null) {
+      enabled = false;
+      instance = null;
+      previous.close();
+    }
+  }
+
+  private void run() {
+    context().suspend();
+    while (!closed) {
+      LockSupport.parkNanos(flushIntervalNanos);
+      flush();
+    }
+  }
+
+  /** Copy what threads have published from their buffers to the file */
+  private synchronized void flush() {
+    if (closed) {
+      return;
+    }
+    for (Buffer buffer; (buffer = newBuffers.poll()) != null; ) {
+      buffers.add(buffer);
+    }
+    try {
+      for (int i = 0; i < buffers.size(); i++) {
+        Buffer buffer = buffers.get(i);
+        // when the thread has ended, its last events have been published
+        boolean ended = !buffer.owner.isAlive();
+        while (true) {
+          // read `next` before `committed`: when there is a next buffer, this one is complete
+          Buffer next = buffer.next;
+          int committed = buffer.committed.get();
+          write(buffer.bytes, buffer.written, committed - buffer.written);
+          buffer.written = committed;
+          if (next == null) {
+            break;
+          }
+          buffer = next;
+        }
+        if (ended) {
+          buffers.set(i, buffers.get(buffers.size() - 1));
+          buffers.remove(buffers.size() - 1);
+          i--;
+        } else {
+          buffers.set(i, buffer);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.error(e, "Failed to write journal %s; disabling it", path);
+      enabled = false;
+      closeChannel();
+    }
+  }
+
+  /** Write complete events to the file */
+  private void write(byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0) {
+      return;
+    }
+    // the first byte is written last, so that if the JVM dies while we're writing, the file does
+    // not end with an incomplete event: readers stop at the 0 that is there until then.
+    ensureRemaining();
+    MappedByteBuffer firstRegion = region;
+    int firstPosition = region.position();
+    byte first = bytes[offset];
+    region.put((byte) 0);
+    offset++;
+    length--;
+    while (length > 0) {
+      ensureRemaining();
+      int count = Math.min(length, region.remaining());
+      region.put(bytes, offset, count);
+      offset += count;
+      length -= count;
+    }
+    VarHandle.storeStoreFence();
+    firstRegion.put(firstPosition, first);
+  }
+
+  private void ensureRemaining() throws IOException {
+    if (!region.hasRemaining()) {
+      regionStart += region.capacity();
+      region = channel.map(MapMode.READ_WRITE, regionStart, REGION_SIZE);
+    }
+  }
+
+  /** Number of bytes written to the file */
+  private long size() {
+    return regionStart + region.position();
+  }
+
+  /** Write everything that was published, and truncate the file to remove unused space */
+  private void close() {
+    Context context = context();
+    context.suspend();
+    try {
+      flush();
+      synchronized (this) {
+        closeChannel();
+      }
+    } finally {
+      context.unsuspend();
+    }
+  }
+
+  private void closeChannel() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      channel.truncate(size());
+      channel.close();
+    } catch (IOException e) {
+      logger.error(e, "Failed to close journal %s", path);
+    }
+  }
+
+  /** Get the buffer of this thread to write an event of `size` bytes to */
+  private Buffer buffer(Context context, int size) {
+    Buffer buffer = context.journalBuffer;
+    if (buffer == null || buffer.journal != this) {
+      buffer = new Buffer(this, Math.max(size, BUFFER_SIZE));
+      newBuffers.add(buffer);
+      context.journalBuffer = buffer;
+    } else if (buffer.pos + size > buffer.bytes.length) {
+      Buffer next = new Buffer(this, Math.max(size, BUFFER_SIZE));
+      buffer.next = next;
+      buffer = next;
+      context.journalBuffer = buffer;
+    }
+    return buffer;
+  }
+
+  /** Called when a tracker has been added to the tree */
+  static void created(Tracker tracker) {
+    Journal journal = instance;
+    if (journal == null) {
+      return;
+    }
+    Context context = context();
+    // don't track what happens in the JDK classes we use (e.g. StringBuilder.charAt)
+    context.suspend();
+    try {
+      List<Node> nodes = new ArrayList<>();
+      int size = MAX_HEADER;
+      for (Node node = tracker.getNode(); node.parent != null; node = node.parent) {
+        nodes.add(node);
+        size += 6 + node.name.length() * 2;
+      }
+      Buffer buffer = journal.buffer(context, size);
+      buffer.header(CREATED, tracker);
+      buffer.putVarint(nodes.size());
+      for (int i = nodes.size() - 1; i >= 0; i--) {
+        Node node = nodes.get(i);
+        buffer.putChars(node.name, 0, node.name.length());
+        buffer.put((byte) (node.optional ? 1 : 0));
+      }
+      buffer.commit();
+    } finally {
+      context.unsuspend();
+    }
+  }
+
+  /** Called when a byte is appended to a tracker at `index` */
+  static void appended(Tracker tracker, int index, byte b) {
+    Journal journal = instance;
+    if (journal == null) {
+      return;
+    }
+    Context context = context();
+    Buffer buffer = journal.buffer(context, MAX_HEADER + 1);
+    buffer.header(BYTES, tracker);
+    buffer.putVarint(index);
+    buffer.putVarint(1);
+    buffer.put(b);
+    buffer.commit();
+  }
+
+  /** Called when bytes are appended to a tracker at `index` */
+  static void appended(Tracker tracker, int index, byte[] bytes, int offset, int length) {
+    Journal journal = instance;
+    if (journal == null) {
+      return;
+    }
+    Context context = context();
+    // split big appends, so they fit in a normal buffer
+    while (length > 0) {
+      int count = Math.min(length, BUFFER_SIZE - MAX_HEADER);
+      Buffer buffer = journal.buffer(context, MAX_HEADER + count);
+      buffer.header(BYTES, tracker);
+      buffer.putVarint(index);
+      buffer.putVarint(count);
+      System.arraycopy(bytes, offset, buffer.bytes, buffer.pos, count);
+      buffer.pos += count;
+      buffer.commit();
+      index += count;
+      offset += count;
+      length -= count;
+    }
+  }
+
+  /** Called when a char is appended to a tracker at `index` */
+  static void appended(Tracker tracker, int index, char c) {
+    Journal journal = instance;
+    if (journal == null) {
+      return;
+    }
+    Context context = context();
+    Buffer buffer = journal.buffer(context, MAX_HEADER + 2);
+    buffer.header(CHARS, tracker);
+    buffer.putVarint(index);
+    buffer.putVarint(1);
+    buffer.putChar(c);
+    buffer.commit();
+  }
+
+  /** Called when chars are appended to a tracker at `index` */
+  static void appended(Tracker tracker, int index, char[] chars, int offset, int length) {
+    appended(tracker, index, CharBuffer.wrap(chars), offset, offset + length);
+  }
+
+  /**
+   * Called when chars are appended to a tracker at `index`. The chars are the ones from `start`
+   * (inclusive) to `end` (exclusive) in `chars`.
+   */
+  static void appended(Tracker tracker, int index, CharSequence chars, int start, int end) {
+    Journal journal = instance;
+    if (journal == null) {
+      return;
+    }
+    Context context = context();
+    // don't track what happens in the JDK classes we use (e.g. StringBuilder.charAt)
+    context.suspend();
+    try {
+      while (start < end) {
+        int count = Math.min(end - start, (BUFFER_SIZE - MAX_HEADER) / 2);
+        Buffer buffer = journal.buffer(context, MAX_HEADER + count * 2);
+        buffer.header(CHARS, tracker);
+        buffer.putVarint(index);
+        buffer.putChars(chars, start, start + count);
+        buffer.commit();
+        index += count;
+        start += count;
+      }
+    } finally {
+      context.unsuspend();
+    }
+  }
+
+  /** Called when the source of a range of a tracker is set. Only recorded for sinks. */
+  static void sourceSet(Tracker tracker, int index, int length, Tracker sourceTracker,
+      int sourceIndex, Growth growth) {
+    Journal journal = instance;
+    if (journal == null || !(tracker instanceof ByteSinkTracker
+        || tracker instanceof CharSinkTracker)) {
+      return;
+    }
+    Context context = context();
+    Buffer buffer = journal.buffer(context, MAX_HEADER);
+    buffer.header(SOURCE, tracker);
+    buffer.putVarint(index);
+    buffer.putVarint(length);
+    buffer.putVarint(sourceTracker == null ? 0 : sourceTracker.getTrackerId() + 1);
+    buffer.putVarint(sourceIndex);
+    buffer.putVarint(growth.targetBlock);
+    buffer.putVarint(growth.sourceBlock);
+    buffer.commit();
+  }
+
+  private static byte type(Tracker tracker) {
+    if (tracker instanceof ByteOriginTracker) {
+      return BYTE_ORIGIN;
+    } else if (tracker instanceof ByteSinkTracker) {
+      return BYTE_SINK;
+    } else if (tracker instanceof CharOriginTracker) {
+      return CHAR_ORIGIN;
+    } else if (tracker instanceof CharSinkTracker) {
+      return CHAR_SINK;
+    } else if (tracker instanceof ClassOriginTracker) {
+      return CLASS_ORIGIN;
+    } else {
+      return OTHER;
+    }
+  }
+
+  /**
+   * Buffer that one thread writes events into. Only its owner writes to it; the writer only reads
+   * up to {@link #committed}.
+   */
+  static class Buffer {
+    final Journal journal;
+    final Thread owner = Thread.currentThread();
+    final byte[] bytes;
+    /** Where the next event will be written. Only used by the owner. */
+    int pos;
+    /** Up to where the buffer contains complete events, published to the writer */
+    final AtomicInteger committed = new AtomicInteger();
+    /** Buffer that the owner continued in when this one was full */
+    volatile Buffer next;
+    /** Up to where the writer has written this buffer to the file. Only used by the writer. */
+    int written;
+
+    Buffer(Journal journal, int size) {
+      this.journal = journal;
+      this.bytes = new byte[size];
+    }
+
+    void put(byte b) {
+      bytes[pos++] = b;
+    }
+
+    void putVarint(long value) {
+      while ((value & ~0x7FL) != 0) {
+        bytes[pos++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      bytes[pos++] = (byte) value;
+    }
+
+    void putChar(char c) {
+      bytes[pos++] = (byte) (c >>> 8);
+      bytes[pos++] = (byte) c;
+    }
+
+    /** Write the number of chars, followed by the chars */
+    void putChars(CharSequence chars, int start, int end) {
+      putVarint(end - start);
+      for (int i = start; i < end; i++) {
+        putChar(chars.charAt(i));
+      }
+    }
+
+    void header(byte kind, Tracker tracker) {
+      put(kind);
+      putVarint(tracker.getTrackerId());
+      put(type(tracker));
+    }
+
+    /** Publish the events written so far to the writer */
+    void commit() {
+      committed.lazySet(pos);
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package com.coekie.flowtracker.tracker;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.coekie.flowtracker.tracker.TrackerTree.Node;
+import com.coekie.flowtracker.util.Config;
+import com.coekie.flowtracker.util.Stats;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how many trackers are kept in the {@link TrackerTree}, so that memory usage of long-running
+ * applications stays bounded. When a limit is exceeded, trackers are evicted: removed from the tree
+ * (which only keeps a count of them, see {@link Node#evicted()}), and their content is dropped.
+ * Other trackers can still refer to evicted trackers as their source, but the content of those
+ * is not available anymore.
+ * <p>
+ * Limits are configured with the `retainTrackers` (number of trackers), `retainBudget` (size of
+ * their content, in megabytes) and `retainPerNode` (number of trackers in one node) options.
+ * <p>
+ * Limits are checked when a tracker is added to the tree. For the global limits, the least recently
+ * used tracker is evicted first, where "used" means content was added to it. That is approximated
+ * without any cost when content is added: trackers are kept in a queue, and when a tracker at the
+ * head of the queue has grown since it was last there, it gets a second chance by moving it to the
+ * back. For `retainPerNode`, the oldest tracker of the node is evicted.
+ * <p>
+ * For `retainBudget` we keep a running total of the size of the content. Content added to trackers
+ * is charged when the tracker reaches the head of the queue, and by re-measuring all trackers
+ * after as many trackers have been added as there were at the previous measurement, so that
+ * adding a tracker stays (amortized) constant time.
+ * <p>
+ * {@link ClassOriginTracker}s are never evicted; they are needed to instrument and run classes.
+ */
+public class Retention {
+  private static final AtomicLong evictedCount = new AtomicLong();
+
+  private static boolean enabled;
+  /** Maximum number of trackers to retain, or 0 for no limit */
+  private static int maxTrackers;
+  /** Maximum size of content of retained trackers in bytes, or 0 for no limit */
+  private static long budget;
+  /** Maximum number of trackers in one node, or 0 for no limit */
+  private static int maxPerNode;
+
+  // all state below is guarded by Retention.class
+
+  /** Trackers in the tree, in least recently used order. Can contain removed entries. */
+  private static final ArrayDeque<Entry> queue = new ArrayDeque<>();
+  /** The entries in {@link #queue} that have not been removed */
+  private static final Map<Tracker, Entry> entries = new IdentityHashMap<>();
+  /** Sum of {@link Entry#size} of all entries */
+  private static long retainedBytes;
+  /** Number of trackers added since the last {@link #measure()} */
+  private static int addedSinceMeasure;
+  /** Number of entries at the last {@link #measure()} */
+  private static int measuredEntries;
+
+  public static void initialize(Config config) {
+    maxTrackers = Integer.parseInt(config.get("retainTrackers", "0"));
+    budget = Long.parseLong(config.get("retainBudget", "0")) * 1024 * 1024;
+    maxPerNode = Integer.parseInt(config.get("retainPerNode", "0"));
+    synchronized (Retention.class) {
+      queue.clear();
+      entries.clear();
+      retainedBytes = 0;
+      addedSinceMeasure = 0;
+      measuredEntries = 0;
+    }
+    evictedCount.set(0);
+    enabled = maxTrackers > 0 || budget > 0 || maxPerNode > 0;
+    Stats.register("retention.evicted", evictedCount::get);
+  }
+
+  /** If any limit is configured, so that trackers can get evicted */
+  static boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Called when a tracker has been added to the tree, see {@link Tracker#addTo(Node)} */
+  static void added(Tracker tracker) {
+    if (!enabled || tracker instanceof ClassOriginTracker) {
+      return;
+    }
+    synchronized (Retention.class) {
+      if (maxPerNode > 0) {
+        Node node = tracker.getNode();
+        while (node.trackerCount() > maxPerNode) {
+          evict(node.oldestTracker());
+        }
+      }
+
+      if (maxTrackers > 0 || budget > 0) {
+        if (!tracker.isEvicted()) {
+          Entry entry = new Entry(tracker);
+          queue.add(entry);
+          entries.put(tracker, entry);
+          retainedBytes += entry.size;
+        }
+        if (budget > 0 && ++addedSinceMeasure > measuredEntries) {
+          measure();
+        }
+        while (isOverLimit()) {
+          if (!evictLeastRecentlyUsed()) {
+            break;
+          }
+        }
+        // don't let evictions by maxPerNode make the queue grow unbounded
+        if (queue.size() > 2 * entries.size() + 64) {
+          queue.removeIf(entry -> entry.removed);
+        }
+      }
+    }
+  }
+
+  /** Update the sizes of all entries, because content may have been added to them */
+  private static void measure() {
+    long total = 0;
+    for (Entry entry : entries.values()) {
+      entry.size = size(entry.tracker);
+      total += entry.size;
+    }
+    retainedBytes = total;
+    addedSinceMeasure = 0;
+    measuredEntries = entries.size();
+  }
+
+  private static boolean isOverLimit() {
+    return (maxTrackers > 0 && entries.size() > maxTrackers)
+        || (budget > 0 && retainedBytes > budget);
+  }
+
+  /** Evict the least recently used tracker. Returns false if there was nothing to evict. */
+  private static boolean evictLeastRecentlyUsed() {
+    int secondChances = queue.size();
+    Entry entry;
+    while ((entry = queue.poll()) != null) {
+      if (entry.removed) {
+        continue;
+      }
+      int size = size(entry.tracker);
+      retainedBytes += size - entry.size;
+      entry.size = size;
+      if (size != entry.inspectedSize && secondChances-- > 0) {
+        // content was added since we last looked at it, so it was used recently
+        entry.inspectedSize = size;
+        queue.add(entry);
+      } else {
+        evict(entry.tracker);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void evict(Tracker tracker) {
+    Entry entry = entries.remove(tracker);
+    if (entry != null) {
+      entry.removed = true;
+      retainedBytes -= entry.size;
+    }
+    tracker.evict();
+    tracker.getNode().evict(tracker);
+    evictedCount.incrementAndGet();
+  }
+
+  /** Approximate number of bytes the content of the tracker takes */
+  private static int size(Tracker tracker) {
+    if (tracker instanceof ByteContentTracker) {
+      return ((ByteContentTracker) tracker).getContent().size();
+    } else if (tracker instanceof CharContentTracker) {
+      return tracker.getLength() * 2;
+    } else {
+      return 0;
+    }
+  }
+
+  private static class Entry {
+    final Tracker tracker;
+    /** Size of the content when we last measured it, for the budget */
+    int size;
+    /** Size of the content when it was last at the head of the queue, or -1 if it wasn't yet */
+    int inspectedSize;
+    /** Set when the tracker has been evicted (e.g. because of maxPerNode) */
+    boolean removed;
+
+    Entry(Tracker tracker) {
+      this.tracker = tracker;
+      this.size = size(tracker);
+      // a new tracker counts as recently used, so that it gets a second chance
+      this.inspectedSize = -1;
+    }
+  }
+}
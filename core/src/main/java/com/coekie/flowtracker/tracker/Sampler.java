@@ -0,0 +1,147 @@
+package com.coekie.flowtracker.tracker;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.coekie.flowtracker.util.Config;
+import com.coekie.flowtracker.util.Stats;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which units of work get tracked, when only a sample of them should be. Depending on the
+ * `sampleBy` option, a unit is a thread or a connection accepted by a server socket.
+ * <p>
+ * A thread that is not sampled is suspended (see {@link Context#isActive()}) for its whole life,
+ * from the moment its {@link Context} is created, so it pays no more than the cost of checking
+ * that. Threads that already had a Context before the Sampler got initialized (e.g. the main
+ * thread) are always tracked. For a connection that is not sampled, no tracker is created, so reads
+ * from and writes to it are not tracked. But the thread handling that connection is still tracked:
+ * what it does with the data (e.g. building Strings from it) still creates trackers, they just
+ * don't point to the connection; so sampling by connection saves less than sampling by thread.
+ */
+public class Sampler {
+  // not registered in Stats in a static initializer: this class may get initialized while creating
+  // a Context, when it's not safe to call into instrumented code yet.
+  private static final AtomicLong sampled = new AtomicLong();
+  private static final AtomicLong skipped = new AtomicLong();
+
+  /** Source of randomness, see {@link #random()} */
+  private static final AtomicLong seed = new AtomicLong(System.nanoTime());
+
+  /** If false, everything is tracked */
+  private static boolean enabled;
+  private static boolean byConnection;
+  private static double probability = 1;
+  /** Maximum number of units sampled per second; 0 for no limit */
+  private static int rate;
+
+  // state for rate limiting, guarded by Sampler.class
+  private static long windowStart;
+  private static int windowCount;
+
+  public static void initialize(Config config) {
+    probability = Double.parseDouble(config.get("sample", "1"));
+    if (!(probability >= 0 && probability <= 1)) {
+      throw new IllegalArgumentException("sample should be between 0 and 1: " + probability);
+    }
+    rate = Integer.parseInt(config.get("sampleRate", "0"));
+    String sampleBy = config.get("sampleBy", "thread");
+    if (sampleBy.equals("connection")) {
+      byConnection = true;
+    } else if (sampleBy.equals("thread")) {
+      byConnection = false;
+    } else {
+      throw new IllegalArgumentException("Unknown sampleBy: " + sampleBy);
+    }
+    synchronized (Sampler.class) {
+      windowStart = System.nanoTime();
+      windowCount = 0;
+    }
+    sampled.set(0);
+    skipped.set(0);
+    enabled = probability < 1 || rate > 0;
+    Stats.register("sampling.sampled", sampled::get);
+    Stats.register("sampling.skipped", skipped::get);
+  }
+
+  /** Decides if a thread, for which a Context is being created, should be tracked */
+  static boolean sampleThread() {
+    return !enabled || byConnection || sample();
+  }
+
+  /** Decides if a newly accepted connection should be tracked */
+  public static boolean sampleConnection() {
+    return !enabled || !byConnection || sample();
+  }
+
+  private static boolean sample() {
+    boolean result = random() < probability && withinRate();
+    (result ? sampled : skipped).incrementAndGet();
+    return result;
+  }
+
+  private static synchronized boolean withinRate() {
+    if (rate == 0) {
+      return true;
+    }
+    long now = System.nanoTime();
+    if (now - windowStart >= 1_000_000_000L) {
+      windowStart = now;
+      windowCount = 0;
+    }
+    if (windowCount >= rate) {
+      return false;
+    }
+    windowCount++;
+    return true;
+  }
+
+  /**
+   * Random number in [0, 1). We don't use {@link java.util.concurrent.ThreadLocalRandom} because
+   * that is instrumented, and gets called from inside Context creation. This is the SplitMix64
+   * generator.
+   */
+  private static double random() {
+    long z = seed.addAndGet(0x9E3779B97F4A7C15L);
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    z = z ^ (z >>> 31);
+    return (z >>> 11) * 0x1.0p-53;
+  }
+
+  /** Human-readable description of the sampling configuration, or null if everything is tracked */
+  public static String description() {
+    if (!enabled) {
+      return null;
+    }
+    String unit = byConnection ? "connections" : "threads";
+    StringBuilder sb = new StringBuilder("Sampling ");
+    if (probability < 1) {
+      double percentage = Math.round(probability * 1000) / 10.0;
+      sb.append(percentage == Math.rint(percentage)
+          ? Long.toString((long) percentage) : Double.toString(percentage));
+      sb.append("% of ").append(unit);
+      if (rate > 0) {
+        sb.append(", at most ").append(rate).append(" per second");
+      }
+    } else {
+      sb.append("at most ").append(rate).append(' ').append(unit).append(" per second");
+    }
+    sb.append(" (").append(sampled.get()).append(" tracked, ").append(skipped.get())
+        .append(" skipped)");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,118 @@
+package com.coekie.flowtracker.tracker;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+import java.util.List;
+
+/**
+ * Call site through which instrumented application code calls hooks, so that it can be turned off
+ * by {@link TrackingSwitch}. While tracking is on it calls the hook; while it is off it does what
+ * the code would have done without instrumentation (usually nothing).
+ * <p>
+ * The target is guarded by a {@link SwitchPoint} that gets invalidated every time tracking is
+ * turned on or off. That makes the JIT treat the current state as a constant, and compile
+ * instrumented code without the hook calls while tracking is off. After an invalidation, the first
+ * call through the site relinks it for the new state.
+ * <p>
+ * This is only used from classes outside the JDK, see SwitchableHooks in the weaver: the JDK calls
+ * hooks directly, because hooks get called while java.lang.invoke itself is being loaded. For the
+ * same reason, {@link TrackingSwitch} only refers to this class once it has been initialized.
+ */
+public class SwitchableCallSite extends MutableCallSite {
+  /** Invalidated, and replaced by a new one, when tracking is turned on or off */
+  private static volatile SwitchPoint switchPoint = new SwitchPoint();
+
+  private static final MethodHandle RELINK;
+
+  static {
+    try {
+      RELINK = MethodHandles.lookup().findVirtual(SwitchableCallSite.class, "relink",
+          MethodType.methodType(void.class));
+    } catch (ReflectiveOperationException e) {
+      throw new Error(e);
+    }
+    TrackingSwitch.callSitesInitialized = true;
+  }
+
+  private final MethodHandle hook;
+  private final MethodHandle off;
+  /** Relinks this call site, and then calls it */
+  private final MethodHandle relinkAndCall;
+
+  private SwitchableCallSite(MethodHandle hook, MethodHandle off) {
+    super(hook.type());
+    this.hook = hook;
+    this.off = off;
+    this.relinkAndCall = MethodHandles.foldArguments(dynamicInvoker(),
+        MethodHandles.dropArguments(RELINK.bindTo(this), 0, type().parameterList()));
+    relink();
+  }
+
+  private void relink() {
+    // read the switchPoint before the state. if the state changes after this, then this
+    // switchPoint gets invalidated, so we get relinked again.
+    SwitchPoint currentSwitchPoint = switchPoint;
+    setTarget(currentSwitchPoint.guardWithTest(TrackingSwitch.isOn() ? hook : off,
+        relinkAndCall));
+  }
+
+  /** Makes all call sites relink, called when tracking was turned on or off */
+  static synchronized void switched() {
+    SwitchPoint old = switchPoint;
+    switchPoint = new SwitchPoint();
+    SwitchPoint.invalidateAll(new SwitchPoint[]{old});
+  }
+
+  /**
+   * Bootstrap method for a call to `hook`. While tracking is off, the call returns its first
+   * argument if that has the return type (e.g. the Context for Invocation.create); otherwise it
+   * returns null, 0 or nothing.
+   */
+  @SuppressWarnings("unused") // invoked from SwitchableHooks
+  public static CallSite hook(MethodHandles.Lookup lookup, String name, MethodType type,
+      MethodHandle hook) {
+    MethodHandle off;
+    List<Class<?>> parameters = type.parameterList();
+    if (!parameters.isEmpty() && parameters.get(0) == type.returnType()) {
+      off = MethodHandles.dropArguments(MethodHandles.identity(type.returnType()), 1,
+          parameters.subList(1, parameters.size()));
+    } else {
+      off = MethodHandles.empty(type);
+    }
+    return new SwitchableCallSite(hook.asType(type), off);
+  }
+
+  /**
+   * Bootstrap method for a call to a hook that replaces an array store (see ArrayHook.setChar).
+   * While tracking is off, the call only stores the value, that is the first three arguments.
+   */
+  @SuppressWarnings("unused") // invoked from SwitchableHooks
+  public static CallSite arrayStore(MethodHandles.Lookup lookup, String name, MethodType type,
+      MethodHandle hook) {
+    List<Class<?>> parameters = type.parameterList();
+    MethodHandle off = MethodHandles.dropArguments(
+        MethodHandles.arrayElementSetter(type.parameterType(0)), 3,
+        parameters.subList(3, parameters.size()));
+    return new SwitchableCallSite(hook.asType(type), off);
+  }
+}
@@ -18,6 +18,7 @@ package com.coekie.flowtracker.tracker;
 
 import com.coekie.flowtracker.tracker.TrackerTree.Node;
 import com.coekie.flowtracker.util.Config;
+import com.coekie.flowtracker.util.Stats;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -45,6 +46,9 @@ public abstract class Tracker implements WritableTracker {
 
   private Tracker twin;
 
+  /** Set when this tracker has been removed from the tree by {@link Retention} */
+  private volatile boolean evicted;
+
   Tracker() {
   }
 
@@ -105,14 +109,18 @@ public abstract class Tracker implements WritableTracker {
 
   /** Registers this tracker in the tree, at the given node */
   public Tracker addTo(Node node) {
-    node.internalAddTracker(this);
-    this.node = node;
+    // the node we actually get added to can be a different one, if `node` was pruned from the tree
+    this.node = node.internalAddTracker(this);
+    if (Journal.enabled) {
+      Journal.created(this);
+    }
     if (trackCreation) {
       // we set the stacktrace in this method, because we only want to track stacktraces of Trackers
       // that have a node. (doing it for every Tracker would be useless, add too much overhead, and
       // lead to infinite recursion).
       creationStackTrace = new Throwable().getStackTrace();
     }
+    Retention.added(this);
     return this;
   }
 
@@ -123,6 +131,24 @@ public abstract class Tracker implements WritableTracker {
     return node;
   }
 
+  /**
+   * If this tracker has been evicted from the tree to limit memory usage. Its content is not
+   * available anymore then.
+   */
+  public boolean isEvicted() {
+    return evicted;
+  }
+
+  /** Should only be used by {@link Retention} */
+  void evict() {
+    evicted = true;
+    releaseContent();
+  }
+
+  /** Drop the content of this tracker, if it has any. Its length should still be kept. */
+  void releaseContent() {
+  }
+
   /** Stacktrace that was collected when a tracker was created, if `trackCreation` is enabled. */
   public StackTraceElement[] getCreationStackTrace() {
     return creationStackTrace;
@@ -130,6 +156,7 @@ public abstract class Tracker implements WritableTracker {
 
   public static void initialize(Config config) {
     trackCreation = config.getBoolean("trackCreation", false);
+    Stats.register("trackers", idGenerator::get);
   }
 
   /** Generates a unique tracker id ({@link Tracker#getTrackerId()}) */
@@ -76,14 +76,66 @@ public class TrackerPoint {
     if (depth.isAcceptableContent(tracker)) {
       return new TrackerPoint(tracker, index, length);
     } else {
-      // possible future optimization: add method in Tracker to read a single value directly.
-      // instead of reading it, we let it push it to us
+      // instead of reading it, we let it push it to us. see resolve() for a faster way to read a
+      // single value
       Gimme gimme = new Gimme();
       tracker.pushSourceTo(index, gimme, 0, length, Growth.NONE);
       return new TrackerPoint(gimme.sourceTracker, gimme.sourceIndex, gimme.sourceLength);
     }
   }
 
+  /**
+   * Resolve the point at {@code index} in {@code tracker} like {@link #of(Tracker, int, int)}, but
+   * without allocating a TrackerPoint: returns the tracker of the point, and stores its index and
+   * length in {@link Context#pointIndex()} and {@link Context#pointLength()}. Returns null if the
+   * source is unknown.
+   */
+  public static Tracker resolve(Context context, Tracker tracker, int index, int length) {
+    if (depth.isAcceptableContent(tracker)) {
+      context.pointIndex = index;
+      context.pointLength = length;
+      return tracker;
+    } else if (length == 1 && tracker instanceof DefaultTracker
+        && ((DefaultTracker) tracker).moveCursor(context, index)) {
+      // single value in the part that the cursor is on (see DefaultTracker.moveCursor)
+      Growth growth = context.cursorGrowth;
+      context.pointIndex =
+          context.cursorSourceIndex + growth.targetToSource(index - context.cursorStart);
+      context.pointLength = growth.targetToSource(1);
+      return context.cursorSource;
+    } else {
+      Gimme gimme = context.gimme;
+      tracker.pushSourceTo(index, gimme, 0, length, Growth.NONE);
+      Tracker result = gimme.sourceTracker;
+      gimme.sourceTracker = null; // reset for the next use
+      context.pointIndex = gimme.sourceIndex;
+      context.pointLength = gimme.sourceLength;
+      return result;
+    }
+  }
+
+  /**
+   * Take apart {@code point} like {@link #resolve(Context, Tracker, int, int)} does: returns its
+   * tracker, and stores its index and length in the context.
+   */
+  public static Tracker unpack(TrackerPoint point, Context context) {
+    if (point == null) {
+      return null;
+    }
+    context.pointIndex = point.index;
+    context.pointLength = point.length;
+    return point.tracker;
+  }
+
+  /**
+   * Create a TrackerPoint from a tracker, index and length that were resolved with
+   * {@link #resolve(Context, Tracker, int, int)}; or null if {@code tracker} is null.
+   */
+  @SuppressWarnings("UnusedDeclaration") // used by instrumented code (PointLocals)
+  public static TrackerPoint ofResolved(Tracker tracker, int index, int length) {
+    return tracker == null ? null : new TrackerPoint(tracker, index, length);
+  }
+
   @SuppressWarnings("UnusedDeclaration") // used by instrumented code (ArrayLoadValue)
   public static Tracker getTracker(TrackerPoint trackerPoint) {
     return trackerPoint == null ? null : trackerPoint.tracker;
@@ -94,7 +146,7 @@ public class TrackerPoint {
     return trackerPoint == null ? -1 : trackerPoint.index;
   }
 
-  private static class Gimme implements WritableTracker {
+  static class Gimme implements WritableTracker {
     Tracker sourceTracker;
     int sourceIndex;
     int sourceLength;
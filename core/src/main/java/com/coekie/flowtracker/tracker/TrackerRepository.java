@@ -18,18 +18,43 @@ package com.coekie.flowtracker.tracker;
 
 import static com.coekie.flowtracker.tracker.Context.context;
 
-import com.coekie.flowtracker.util.ConcurrentWeakIdentityHashMap;
+import com.coekie.flowtracker.util.Config;
+import com.coekie.flowtracker.util.Stats;
+import com.coekie.flowtracker.util.WeakIdentityMap;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Holds the mapping from objects to their {@link Tracker}s.
  */
 public class TrackerRepository {
-  private static final ConcurrentWeakIdentityHashMap<Object, Tracker> objectToTracker =
-      new ConcurrentWeakIdentityHashMap<>();
+  private static final WeakIdentityMap<Object, Tracker> objectToTracker = new WeakIdentityMap<>();
+
+  /** Hits and misses of the per-thread cache are added to these in batches */
+  private static final int STATS_BATCH = 0x100;
+  private static final AtomicLong cacheHits = Stats.counter("trackerCache.hits");
+  private static final AtomicLong cacheMisses = Stats.counter("trackerCache.misses");
+
+  /** Number of entries in the per-thread cache ({@link Context#trackerCache}) */
+  static int cacheSize = 16;
+
+  /** Thread that periodically expunges {@link #objectToTracker}, see {@link #startExpunging} */
+  private static Thread expungeThread;
+
+  /**
+   * Incremented when the tracker of an object is replaced or removed, or the cache size changes, so
+   * that every thread drops its cache before its next lookup.
+   */
+  static final AtomicInteger generation = new AtomicInteger();
 
   /** Get the tracker for `obj`, or null if it doesn't have one or tracking is disabled. */
   public static Tracker getTracker(Context context, Object obj) {
     if (!context.isActive()) return null;
+    if (obj == context.pendingArray) {
+      TrackerUpdater.flushElementStores(context);
+    }
     return forceGetTracker(context, obj);
   }
 
@@ -38,6 +63,14 @@ public class TrackerRepository {
    */
   public static Tracker getOrCreateTracker(Context context, Object obj) {
     if (!context.isActive()) return null;
+    if (obj == context.pendingArray) {
+      TrackerUpdater.flushElementStores(context);
+    }
+    return forceGetOrCreateTracker(context, obj);
+  }
+
+  /** Like {@link #getOrCreateTracker}, without checking if tracking is active */
+  static Tracker forceGetOrCreateTracker(Context context, Object obj) {
     Tracker existingTracker = forceGetTracker(context, obj);
     if (existingTracker != null) {
       return existingTracker;
@@ -56,6 +89,9 @@ public class TrackerRepository {
     if (obj == null) {
       throw new NullPointerException("Can't track null");
     } else {
+      if (obj == context.pendingArray) {
+        TrackerUpdater.flushElementStores(context);
+      }
       Tracker existingTracker = objectToTracker.putIfAbsent(obj, tracker);
       if (existingTracker != null) {
         throw new IllegalStateException("Object already has a tracker: " + obj
@@ -65,22 +101,48 @@ public class TrackerRepository {
     }
   }
 
+  /**
+   * Sets or overwrites the tracker for `obj`, an object that was just created and has not been
+   * seen by any other thread yet. Unlike {@link #forceSetTracker} this does not invalidate the
+   * caches of all threads, so it's cheap enough to use for every object of some kind (e.g. for
+   * constant Strings).
+   */
+  public static void setFreshTracker(Context context, Object obj, Tracker tracker) {
+    if (obj == null) {
+      throw new NullPointerException("Can't track null");
+    }
+    objectToTracker.put(obj, tracker);
+    overwriteCachedTracker(context, obj, tracker);
+  }
+
   /**
    * Overwrites the tracker for `obj`.
    * We don't usually change the tracker associated to an object; this should be used rarely.
+   * Because other threads may have cached the old tracker, this invalidates the cache of all
+   * threads. For objects that did not escape their thread yet use {@link #setFreshTracker}.
    */
   public static void forceSetTracker(Object obj, Tracker tracker) {
     if (obj == null) {
       throw new NullPointerException("Can't track null");
     } else {
       objectToTracker.put(obj, tracker);
-      overwriteCachedTracker(context(), obj, tracker);
+      generation.incrementAndGet();
     }
   }
 
   public static void removeTracker(Object obj) {
     objectToTracker.remove(obj);
-    overwriteCachedTracker(context(), obj, null);
+    generation.incrementAndGet();
+  }
+
+  /**
+   * Forget the trackers of all objects, and stop expunging. Used when FlowTracker is detached from
+   * a JVM, to drop what it kept about the objects of the application.
+   */
+  public static void clear() {
+    stopExpunging();
+    objectToTracker.clear();
+    generation.incrementAndGet();
   }
 
   /** Set a {@link FakeOriginTracker} for `obj`, for testing */
@@ -95,46 +157,119 @@ public class TrackerRepository {
    */
   // For the cache, we store recently queried objects in the Context, with the assumption that the
   // same objects are often queried repeatedly in the same thread.
-  // It's a very small cache, just to avoid querying {@link #objectToTracker}.
-  private static Tracker forceGetTracker(Context context, Object obj) {
+  // It's a small cache, just to avoid querying {@link #objectToTracker}.
+  static Tracker forceGetTracker(Context context, Object obj) {
     if (obj == null) {
       return null;
-    } else if (context.cachedObj0 == obj) {
-      return context.cachedTracker0;
-    } else if (context.cachedObj1 == obj) {
-      return context.cachedTracker1;
-    } else if (context.cachedObj2 == obj) {
-      return context.cachedTracker2;
+    }
+    Object[] cache = validCache(context);
+    int i = setIndex(cache, obj);
+    if (cache[i] == obj) {
+      countHit(context);
+      return (Tracker) cache[i + 1];
+    } else if (cache[i + 2] == obj) {
+      countHit(context);
+      // swap, so that the least recently used one is the one that gets evicted
+      Object tracker = cache[i + 3];
+      cache[i + 2] = cache[i];
+      cache[i + 3] = cache[i + 1];
+      cache[i] = obj;
+      cache[i + 1] = tracker;
+      return (Tracker) tracker;
     } else { // cache miss
-      Tracker result = objectToTracker.get(obj);
-      // store it in the cache
-      if (context.nextCache == 0) {
-        context.cachedObj0 = obj;
-        context.cachedTracker0 = result;
-        context.nextCache = 1;
-      } else if (context.nextCache == 1) {
-        context.cachedObj1 = obj;
-        context.cachedTracker1 = result;
-        context.nextCache = 2;
-      } else {
-        context.cachedObj2 = obj;
-        context.cachedTracker2 = result;
-        context.nextCache = 0;
+      if ((++context.trackerCacheMisses & (STATS_BATCH - 1)) == 0) {
+        cacheMisses.addAndGet(STATS_BATCH);
       }
+      Tracker result = objectToTracker.get(obj);
+      // store it in the cache, evicting the least recently used one
+      cache[i + 2] = cache[i];
+      cache[i + 3] = cache[i + 1];
+      cache[i] = obj;
+      cache[i + 1] = result;
       return result;
     }
   }
 
+  private static void countHit(Context context) {
+    if ((++context.trackerCacheHits & (STATS_BATCH - 1)) == 0) {
+      cacheHits.addAndGet(STATS_BATCH);
+    }
+  }
+
+  /** The cache of `context`, cleared first if trackers have been changed since it was filled */
+  private static Object[] validCache(Context context) {
+    Object[] cache = context.trackerCache;
+    int currentGeneration = generation.get();
+    if (context.trackerCacheGeneration != currentGeneration) {
+      if (cache.length == cacheSize * 2) {
+        Arrays.fill(cache, null);
+      } else { // Context was created before initialize changed the size
+        cache = context.trackerCache = new Object[cacheSize * 2];
+      }
+      context.trackerCacheGeneration = currentGeneration;
+    }
+    return cache;
+  }
+
+  /** Index in `cache` of the first entry of the set that `obj` belongs to */
+  private static int setIndex(Object[] cache, Object obj) {
+    // each set takes four slots in the array
+    return (System.identityHashCode(obj) << 2) & (cache.length - 1);
+  }
+
   // overwrite existing cache entry, if any.
-  // we assume that the setting of a tracker happens in the thread that created it, before it
-  // escapes; so it's not necessary to clear the caches of any other threads.
+  // this only updates the cache of the current thread. that's enough for setTracker,
+  // getOrCreateTracker and setFreshTracker, where the object didn't have a tracker yet or did not
+  // escape its thread yet, so other threads can't have cached it. when the tracker of an object
+  // that other threads may have seen is replaced or removed, the generation gets bumped instead.
   private static void overwriteCachedTracker(Context context, Object obj, Tracker tracker) {
-    if (context.cachedObj0 == obj) {
-      context.cachedTracker0 = tracker;
-    } else if (context.cachedObj1 == obj) {
-      context.cachedTracker1 = tracker;
-    } else if (context.cachedObj2 == obj) {
-      context.cachedTracker2 = tracker;
+    Object[] cache = validCache(context);
+    int i = setIndex(cache, obj);
+    if (cache[i] == obj) {
+      cache[i + 1] = tracker;
+    } else if (cache[i + 2] == obj) {
+      cache[i + 3] = tracker;
+    }
+  }
+
+  public static void initialize(Config config) {
+    // at least one set of two entries, and a power of two
+    cacheSize = Math.max(2,
+        Integer.highestOneBit(Integer.parseInt(config.get("trackerCacheSize", "16"))));
+    generation.incrementAndGet();
+    startExpunging(Long.parseLong(config.get("expungeInterval", "10000")));
+  }
+
+  /**
+   * Start a thread that drops the trackers of objects that have been garbage collected every
+   * `intervalMillis`. Writes to {@link #objectToTracker} already do that for a few entries at a
+   * time, but when the application stops creating tracked objects, the trackers of the ones it
+   * created before would otherwise stay in memory.
+   */
+  private static synchronized void startExpunging(long intervalMillis) {
+    stopExpunging();
+    if (intervalMillis <= 0) {
+      return;
+    }
+    Thread thread = new Thread(() -> expungeLoop(intervalMillis * 1_000_000),
+        "flowtracker-expunge");
+    thread.setDaemon(true);
+    thread.start();
+    expungeThread = thread;
+  }
+
+  private static synchronized void stopExpunging() {
+    if (expungeThread != null) {
+      expungeThread.interrupt();
+      expungeThread = null;
+    }
+  }
+
+  private static void expungeLoop(long intervalNanos) {
+    context().suspend();
+    while (!Thread.currentThread().isInterrupted()) {
+      LockSupport.parkNanos(intervalNanos);
+      objectToTracker.expunge();
     }
   }
 }
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -58,7 +59,14 @@ public class TrackerTree {
     public final boolean optional;
 
     private final Map<String, Node> children = new HashMap<>();
-    private final List<Tracker> trackers = new ArrayList<>();
+    /** Trackers in this node, oldest first. A set, so that evicting one is cheap */
+    private final LinkedHashSet<Tracker> trackers = new LinkedHashSet<>();
+
+    /**
+     * Number of trackers that were evicted by {@link Retention} from this node, or from descendants
+     * that have been pruned
+     */
+    private int evicted;
 
     Node(Node parent, String name, boolean optional) {
       this.parent = parent;
@@ -109,9 +117,100 @@ public class TrackerTree {
       return new Node(this, name, true);
     }
 
-    /** Should only be used by {@link Tracker#addTo(Node)} */
-    synchronized void internalAddTracker(Tracker tracker) {
-      trackers.add(tracker);
+    /**
+     * Should only be used by {@link Tracker#addTo(Node)}. Returns the node the tracker was added
+     * to, see {@link #attached()}.
+     */
+    Node internalAddTracker(Tracker tracker) {
+      Node node = attached();
+      synchronized (node) {
+        node.trackers.add(tracker);
+      }
+      return node;
+    }
+
+    /**
+     * Returns the node that is in the tree at our path: this node, unless it has been pruned. A
+     * pruned node gets put back into the tree, unless it has been replaced by a new one.
+     */
+    private Node attached() {
+      if (parent == null) {
+        return this;
+      }
+      Node attachedParent = parent.attached();
+      synchronized (attachedParent) {
+        Node existing = attachedParent.children.get(name);
+        if (existing != null) {
+          return existing;
+        } else if (attachedParent == parent) {
+          parent.children.put(name, this);
+          return this;
+        } else {
+          Node replacement = new Node(attachedParent, name, optional);
+          attachedParent.children.put(name, replacement);
+          return replacement;
+        }
+      }
+    }
+
+    /**
+     * Removes an evicted tracker, only counting it in {@link #evicted()}. If that leaves this node
+     * empty, it (and ancestors that become empty) gets pruned from the tree. Top-level nodes are
+     * never pruned.
+     * <p>
+     * Should only be used by {@link Retention}.
+     */
+    void evict(Tracker tracker) {
+      remove(tracker, true);
+    }
+
+    /**
+     * Removes a tracker that should not be shown after all, without counting it in
+     * {@link #evicted()}. Like {@link #evict(Tracker)}, this can prune this node.
+     */
+    void remove(Tracker tracker) {
+      remove(tracker, false);
+    }
+
+    private void remove(Tracker tracker, boolean evict) {
+      synchronized (this) {
+        if (!trackers.remove(tracker)) {
+          return;
+        }
+        if (evict) {
+          evicted++;
+        }
+      }
+      Node node = this;
+      while (node.parent != null && node.parent.parent != null) {
+        Node parent = node.parent;
+        synchronized (parent) {
+          synchronized (node) {
+            if (!node.trackers.isEmpty() || !node.children.isEmpty()
+                || parent.children.get(node.name) != node) {
+              return;
+            }
+            parent.children.remove(node.name);
+            parent.evicted += node.evicted;
+            node.evicted = 0;
+          }
+        }
+        node = parent;
+      }
+    }
+
+    /** Number of trackers evicted from this node; see {@link #evict(Tracker)} */
+    public synchronized int evicted() {
+      return evicted;
+    }
+
+    /** Oldest tracker still in this node, or null */
+    synchronized Tracker oldestTracker() {
+      return trackers.isEmpty() ? null : trackers.iterator().next();
+    }
+
+    synchronized int trackerCount() {
+      return trackers.size();
     }
 
     public synchronized List<Node> children() {
@@ -60,6 +60,93 @@ public class TrackerUpdater {
     }
   }
 
+  /**
+   * Like {@link #setSourceTrackerPoint(Context, Object, int, int, TrackerPoint)}, for a point that
+   * has been taken apart in its tracker, index and length.
+   */
+  public static void setSourceTrackerPoint(Context context, Object target, int targetIndex,
+      int length, Tracker sourceTracker, int sourceIndex, int sourceLength) {
+    if (sourceTracker == null) {
+      setSourceTracker(context, target, targetIndex, length, null, -1, Growth.NONE);
+    } else {
+      setSourceTracker(context, target, targetIndex, length, sourceTracker, sourceIndex,
+          Growth.of(length, sourceLength));
+    }
+  }
+
+  /**
+   * Set the source of one element of an array, for storing elements in an array one by one (e.g.
+   * `array[i] = value`).
+   * <p>
+   * Consecutive stores in the same array that also have consecutive sources are combined, and only
+   * applied as one {@link Tracker#setSource} for the whole range: when the next store does not
+   * continue it, or when {@link #flushElementStores(Context)} is called. That turns a loop copying an
+   * array element by element into one update of the tracker instead of one per element.
+   * The pending stores are applied before the tracker of the array is looked up in
+   * {@link TrackerRepository}, when tracking is suspended, and when the method doing the stores
+   * returns or throws; so for this thread the result is the same as applying every store
+   * immediately. The weaver also applies them before the method could hand the array over to other
+   * code (e.g. passing it to a method, or storing it in a field), so that other threads see them
+   * when they get the array.
+   */
+  public static void setElementSource(Context context, Object array, int index,
+      Tracker sourceTracker, int sourceIndex, int sourceLength) {
+    if (!context.isActive()) return;
+    if (array == context.pendingArray
+        && index == context.pendingIndex + context.pendingLength
+        && sourceTracker == context.pendingSource
+        && (sourceTracker == null
+        || (sourceLength == context.pendingSourceLength
+        && sourceIndex == context.pendingSourceIndex + context.pendingLength * sourceLength))) {
+      context.pendingLength++;
+      return;
+    }
+    flushElementStores(context);
+    context.pendingArray = array;
+    context.pendingIndex = index;
+    context.pendingLength = 1;
+    context.pendingSource = sourceTracker;
+    context.pendingSourceIndex = sourceIndex;
+    context.pendingSourceLength = sourceLength;
+  }
+
+  /**
+   * Like {@link #setElementSource(Context, Object, int, Tracker, int, int)}, with the source as a
+   * point.
+   */
+  public static void setElementSource(Context context, Object array, int index,
+      TrackerPoint sourcePoint) {
+    if (sourcePoint == null) {
+      setElementSource(context, array, index, null, -1, 0);
+    } else {
+      setElementSource(context, array, index, sourcePoint.tracker, sourcePoint.index,
+          sourcePoint.length);
+    }
+  }
+
+  /**
+   * Apply the stores combined by {@link #setElementSource}, if there are any. This also applies
+   * them when tracking has been disabled since they were combined (e.g. by {@link TrackingSwitch}),
+   * because they happened while it was still enabled.
+   */
+  public static void flushElementStores(Context context) {
+    Object array = context.pendingArray;
+    if (array == null) return;
+    Tracker sourceTracker = context.pendingSource;
+    context.pendingArray = null;
+    context.pendingSource = null;
+    Tracker targetTracker;
+    if (sourceTracker == null) {
+      targetTracker = TrackerRepository.forceGetTracker(context, array);
+      if (targetTracker == null) return;
+      targetTracker.setSource(context.pendingIndex, context.pendingLength, null, -1, Growth.NONE);
+    } else {
+      targetTracker = TrackerRepository.forceGetOrCreateTracker(context, array);
+      targetTracker.setSource(context.pendingIndex, context.pendingLength, sourceTracker,
+          context.pendingSourceIndex, Growth.of(1, context.pendingSourceLength));
+    }
+  }
+
   public static void appendBytes(Context context, ByteSinkTracker tracker, byte[] src, int offset,
       int length) {
     Tracker sourceTracker = TrackerRepository.getTracker(context, src);
@@ -0,0 +1,58 @@
+package com.coekie.flowtracker.tracker;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.coekie.flowtracker.util.Config;
+
+/**
+ * Turns tracking off or on for all threads at once; e.g. to leave FlowTracker attached to an
+ * application, and only turn tracking on while something interesting is happening.
+ * <p>
+ * Instrumented application code calls hooks through {@link SwitchableCallSite}s, that skip the
+ * hooks while tracking is off, so that the JIT compiles that code down to (nearly) what it was
+ * without instrumentation. The JDK calls hooks directly (hooks get called while java.lang.invoke
+ * itself is being loaded, so they can't go through method handles there); for those
+ * {@link Context#isActive()} returns false while tracking is off, so they return without doing
+ * anything.
+ */
+public class TrackingSwitch {
+  private static volatile boolean on = true;
+
+  /**
+   * If {@link SwitchableCallSite} has been initialized. Before that there are no call sites to
+   * relink, and we avoid loading it (and java.lang.invoke) too early.
+   */
+  static volatile boolean callSitesInitialized;
+
+  public static void initialize(Config config) {
+    setOn(config.getBoolean("tracking", true));
+  }
+
+  /** Returns true unless tracking has been turned off */
+  public static boolean isOn() {
+    return on;
+  }
+
+  public static synchronized void setOn(boolean on) {
+    if (TrackingSwitch.on != on) {
+      TrackingSwitch.on = on;
+      if (callSitesInitialized) {
+        SwitchableCallSite.switched();
+      }
+    }
+  }
+}
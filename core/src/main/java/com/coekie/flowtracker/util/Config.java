@@ -16,8 +16,10 @@ package com.coekie.flowtracker.util;
  * limitations under the License.
  */
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Contains configuration settings for flowtracker, specified as arguments to the agent or using the
@@ -50,6 +52,10 @@ public class Config {
     return map.containsKey(key);
   }
 
+  public Set<String> keySet() {
+    return Collections.unmodifiableSet(map.keySet());
+  }
+
   public boolean hideInternals() {
     return getBoolean("hideInternals", true);
   }
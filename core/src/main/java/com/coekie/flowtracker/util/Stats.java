@@ -0,0 +1,84 @@
+package com.coekie.flowtracker.util;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.coekie.flowtracker.tracker.Context.context;
+
+import com.coekie.flowtracker.tracker.Context;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters about what flowtracker itself is doing, to measure its overhead (e.g. how much time is
+ * spent instrumenting classes). These are cheap enough to always be enabled. They can be written to
+ * a file on exit, with the `statsOnExit` option.
+ */
+public class Stats {
+  private static final Map<String, LongSupplier> stats = new TreeMap<>();
+
+  /**
+   * Creates and registers a counter.
+   * <p>
+   * This is a plain AtomicLong rather than a LongAdder, because counters may be updated while a
+   * class is being transformed, and LongAdder lazily loads classes when there is contention.
+   */
+  public static AtomicLong counter(String name) {
+    AtomicLong counter = new AtomicLong();
+    register(name, counter::get);
+    return counter;
+  }
+
+  /** Registers a value that is computed when the stats are read */
+  public static synchronized void register(String name, LongSupplier supplier) {
+    stats.put(name, supplier);
+  }
+
+  /** Current values of all stats, sorted by name */
+  public static synchronized Map<String, Long> snapshot() {
+    Map<String, Long> result = new TreeMap<>();
+    for (Map.Entry<String, LongSupplier> entry : stats.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().getAsLong());
+    }
+    return result;
+  }
+
+  public static void initialize(Config config) {
+    String path = config.get("statsOnExit");
+    if (path != null) {
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> writeTo(path)));
+    }
+  }
+
+  /** Write stats in the format of a properties file: one `name=value` per line */
+  private static void writeTo(String path) {
+    Context context = context();
+    context.suspend();
+    try (PrintStream out = new PrintStream(path)) {
+      for (Map.Entry<String, Long> entry : snapshot().entrySet()) {
+        out.println(entry.getKey() + "=" + entry.getValue());
+      }
+    } catch (IOException e) {
+      new Logger("Stats").error(e, "Failed to write stats to %s", path);
+    } finally {
+      context.unsuspend();
+    }
+  }
+}
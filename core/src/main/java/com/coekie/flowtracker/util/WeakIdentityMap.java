@@ -0,0 +1,312 @@
+package com.coekie.flowtracker.util;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+
+/**
+ * Concurrent map with weak keys compared by identity, optimized for lookups.
+ * <p>
+ * Unlike {@link ConcurrentWeakIdentityHashMap}, {@link #get(Object)} does not allocate and does not
+ * take a lock: it probes an open-addressing table indexed by {@link System#identityHashCode} and
+ * compares the referent of each slot. Writes lock one of a fixed number of shards, picked by the
+ * high bits of the hash.
+ * <p>
+ * Entries whose key has been garbage collected are not removed eagerly. Every write sweeps a few
+ * slots of its shard (like {@link ThreadLocal}'s map does), and all dead entries of a shard are
+ * dropped when its table is rebuilt; {@link #expunge()} sweeps everything (TrackerRepository
+ * calls that periodically).
+ * <p>
+ * Slots of a table only ever go from empty to non-empty, never back; removed or dead entries are
+ * replaced by a tombstone. That way a reader that is concurrently probing a table never sees a
+ * probe sequence cut short. Tombstones are cleaned up when the table is rebuilt.
+ */
+public class WeakIdentityMap<K, V> {
+  private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Entry[].class);
+
+  private static final int DEFAULT_SHARDS = 16;
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** Marks a slot that used to contain an entry */
+  private static final Entry<?, ?> TOMBSTONE = new Entry<>(null, 0, null);
+
+  private final Shard<K, V>[] shards;
+  private final int shardMask;
+
+  public WeakIdentityMap() {
+    this(DEFAULT_SHARDS);
+  }
+
+  /** @param shardCount number of shards, must be a power of two, at most 256 */
+  @SuppressWarnings("unchecked")
+  public WeakIdentityMap(int shardCount) {
+    if (shardCount <= 0 || shardCount > 256 || Integer.bitCount(shardCount) != 1) {
+      throw new IllegalArgumentException("Invalid shardCount: " + shardCount);
+    }
+    shards = new Shard[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = new Shard<>();
+    }
+    shardMask = shardCount - 1;
+  }
+
+  public V get(Object key) {
+    if (key == null) {
+      return null;
+    }
+    int hash = hash(key);
+    Entry<?, ?>[] table = shardFor(hash).table;
+    int mask = table.length - 1;
+    for (int i = hash & mask; ; i = (i + 1) & mask) {
+      Entry<?, ?> entry = (Entry<?, ?>) SLOTS.getAcquire(table, i);
+      if (entry == null) {
+        return null;
+      } else if (entry.hash == hash && entry.get() == key) {
+        @SuppressWarnings("unchecked")
+        V value = (V) entry.value;
+        return value;
+      }
+    }
+  }
+
+  /** Associates `value` to `key`, returning the previous value */
+  public V put(K key, V value) {
+    return putVal(key, value, false);
+  }
+
+  /** Associates `value` to `key` if it doesn't have a value yet. Returns the existing value. */
+  public V putIfAbsent(K key, V value) {
+    return putVal(key, value, true);
+  }
+
+  private V putVal(K key, V value, boolean onlyIfAbsent) {
+    if (key == null || value == null) {
+      throw new NullPointerException();
+    }
+    int hash = hash(key);
+    Shard<K, V> shard = shardFor(hash);
+    synchronized (shard) {
+      return shard.put(key, hash, value, onlyIfAbsent);
+    }
+  }
+
+  /** Removes the value for `key`, returning the previous value */
+  public V remove(Object key) {
+    if (key == null) {
+      return null;
+    }
+    int hash = hash(key);
+    Shard<K, V> shard = shardFor(hash);
+    synchronized (shard) {
+      return shard.remove(key, hash);
+    }
+  }
+
+  /**
+   * Number of entries. Can include entries of which the key has been garbage collected but that
+   * have not been expunged yet.
+   */
+  public int size() {
+    int result = 0;
+    for (Shard<K, V> shard : shards) {
+      synchronized (shard) {
+        result += shard.live;
+      }
+    }
+    return result;
+  }
+
+  /** Removes all entries */
+  public void clear() {
+    for (Shard<K, V> shard : shards) {
+      synchronized (shard) {
+        shard.clear();
+      }
+    }
+  }
+
+  /** Removes all entries of which the key has been garbage collected */
+  public void expunge() {
+    for (Shard<K, V> shard : shards) {
+      synchronized (shard) {
+        shard.expunge(0, shard.table.length);
+      }
+    }
+  }
+
+  private Shard<K, V> shardFor(int hash) {
+    return shards[(hash >>> 24) & shardMask];
+  }
+
+  /**
+   * Spread identity hash codes. Low bits are used to index into a table, high bits to pick a shard.
+   */
+  private static int hash(Object key) {
+    int h = System.identityHashCode(key) * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static class Shard<K, V> {
+    /** Table with a power of two length. Always contains at least one null slot. */
+    volatile Entry<?, ?>[] table = new Entry<?, ?>[INITIAL_CAPACITY];
+    /** Number of non-null slots, including tombstones */
+    int used;
+    /** Number of entries that haven't been removed or expunged */
+    int live;
+    /** Where the next incremental sweep starts */
+    int sweepIndex;
+
+    V put(K key, int hash, V value, boolean onlyIfAbsent) {
+      Entry<?, ?>[] table = this.table;
+      int mask = table.length - 1;
+      int free = -1; // first tombstone or dead entry we passed, that can be reused
+      int i = hash & mask;
+      for (Entry<?, ?> entry; (entry = table[i]) != null; i = (i + 1) & mask) {
+        Object k = entry.get();
+        if (k == key) {
+          @SuppressWarnings("unchecked")
+          Entry<K, V> existing = (Entry<K, V>) entry;
+          V oldValue = existing.value;
+          if (!onlyIfAbsent) {
+            existing.value = value;
+          }
+          return oldValue;
+        } else if (k == null && free == -1) {
+          free = i;
+        }
+      }
+
+      Entry<K, V> newEntry = new Entry<>(key, hash, value);
+      if (free != -1) {
+        bury(table, free);
+        SLOTS.setRelease(table, free, newEntry);
+      } else {
+        SLOTS.setRelease(table, i, newEntry);
+        used++;
+      }
+      live++;
+
+      sweep(table);
+      if (used >= table.length - (table.length >>> 2)) {
+        rebuild();
+      }
+      return null;
+    }
+
+    V remove(Object key, int hash) {
+      Entry<?, ?>[] table = this.table;
+      int mask = table.length - 1;
+      for (int i = hash & mask; table[i] != null; i = (i + 1) & mask) {
+        Entry<?, ?> entry = table[i];
+        if (entry.hash == hash && entry.get() == key) {
+          @SuppressWarnings("unchecked")
+          V oldValue = (V) entry.value;
+          bury(table, i);
+          return oldValue;
+        }
+      }
+      return null;
+    }
+
+    void clear() {
+      Entry<?, ?>[] table = this.table;
+      for (int i = 0; i < table.length; i++) {
+        if (table[i] != null) {
+          bury(table, i);
+        }
+      }
+      used = 0;
+      sweepIndex = 0;
+      this.table = new Entry<?, ?>[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Replace the entry at `i` (if it isn't a tombstone yet) with a tombstone. The entry is
+     * cleared, so that readers that still see it in this or an older table skip it.
+     */
+    private void bury(Entry<?, ?>[] table, int i) {
+      Entry<?, ?> entry = table[i];
+      if (entry != TOMBSTONE) {
+        entry.clear();
+        entry.value = null;
+        SLOTS.setRelease(table, i, TOMBSTONE);
+        live--;
+      }
+    }
+
+    /**
+     * Incremental expunging: look at log2(capacity) slots, continuing where the previous sweep
+     * stopped. Keeps the cost of reclaiming values of dead keys spread out over writes.
+     */
+    private void sweep(Entry<?, ?>[] table) {
+      int count = Integer.numberOfTrailingZeros(table.length);
+      int start = sweepIndex & (table.length - 1);
+      expunge(start, Math.min(start + count, table.length));
+      sweepIndex = start + count;
+    }
+
+    private void expunge(int from, int to) {
+      Entry<?, ?>[] table = this.table;
+      for (int i = from; i < to; i++) {
+        Entry<?, ?> entry = table[i];
+        if (entry != null && entry != TOMBSTONE && entry.get() == null) {
+          bury(table, i);
+        }
+      }
+    }
+
+    /**
+     * Copy live entries into a new table, dropping tombstones and dead entries. Grows the table if
+     * it is more than a third full after that.
+     */
+    private void rebuild() {
+      Entry<?, ?>[] oldTable = this.table;
+      expunge(0, oldTable.length);
+      int capacity = oldTable.length;
+      while (live >= capacity / 3) {
+        capacity <<= 1;
+      }
+      Entry<?, ?>[] newTable = new Entry<?, ?>[capacity];
+      int mask = capacity - 1;
+      for (Entry<?, ?> entry : oldTable) {
+        if (entry != null && entry != TOMBSTONE) {
+          int i = entry.hash & mask;
+          while (newTable[i] != null) {
+            i = (i + 1) & mask;
+          }
+          newTable[i] = entry;
+        }
+      }
+      used = live;
+      sweepIndex = 0;
+      this.table = newTable; // volatile write publishes the filled in table
+    }
+  }
+
+  private static class Entry<K, V> extends WeakReference<K> {
+    final int hash;
+    volatile V value;
+
+    Entry(K key, int hash, V value) {
+      super(key);
+      this.hash = hash;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package com.coekie.flowtracker.tracker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.Test;
+
+public class ByteSequenceTest {
+  @Test public void testSmall() {
+    ByteSequence sequence = new ByteSequence(new ContentStore(false, -1, null));
+    sequence.write('a');
+    sequence.write(new byte[]{'x', 'b', 'c', 'y'}, 1, 2);
+    assertThat(sequence.size()).isEqualTo(3);
+    assertThat(sequence.getByteContent()).isEqualTo(ByteBuffer.wrap("abc".getBytes()));
+    assertThat(sequence.getByteContent(1, 3)).isEqualTo(ByteBuffer.wrap("bc".getBytes()));
+    assertThat(sequence.toByteArray()).isEqualTo("abc".getBytes());
+  }
+
+  @Test public void testMultipleChunks() {
+    testMultipleChunks(new ContentStore(false, -1, null));
+  }
+
+  @Test public void testMultipleChunksDirect() {
+    testMultipleChunks(new ContentStore(true, -1, null));
+  }
+
+  /** Spill everything except the last chunk to a file */
+  @Test public void testSpill() {
+    testMultipleChunks(new ContentStore(false, 0, null));
+  }
+
+  /** Spill chunks of multiple sequences that are being written to at the same time */
+  @Test public void testSpillConcurrently() throws Exception {
+    ContentStore store = new ContentStore(false, 0, null);
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> failures = new CopyOnWriteArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      int seed = t;
+      Thread thread = new Thread(() -> {
+        try {
+          testMultipleChunks(store, seed);
+        } catch (Throwable e) {
+          failures.add(e);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(failures).isEmpty();
+  }
+
+  private void testMultipleChunks(ContentStore store) {
+    testMultipleChunks(store, 0);
+  }
+
+  private void testMultipleChunks(ContentStore store, int seed) {
+    ByteSequence sequence = new ByteSequence(store);
+    byte[] expected = new byte[ByteSequence.CHUNK_SIZE * 3 + 10];
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = (byte) (i + seed);
+    }
+    // write some byte by byte, and the rest in pieces that don't line up with chunks
+    for (int i = 0; i < 100; i++) {
+      sequence.write(expected[i]);
+    }
+    for (int i = 100; i < expected.length; i += 1000) {
+      sequence.write(expected, i, Math.min(1000, expected.length - i));
+    }
+
+    assertThat(sequence.size()).isEqualTo(expected.length);
+    assertThat(sequence.toByteArray()).isEqualTo(expected);
+    assertThat(sequence.getByteContent()).isEqualTo(ByteBuffer.wrap(expected));
+    // within one chunk
+    assertThat(sequence.getByteContent(ByteSequence.CHUNK_SIZE + 5, ByteSequence.CHUNK_SIZE + 8))
+        .isEqualTo(ByteBuffer.wrap(expected, ByteSequence.CHUNK_SIZE + 5, 3));
+    // spanning multiple chunks
+    assertThat(sequence.getByteContent(10, ByteSequence.CHUNK_SIZE * 2 + 10))
+        .isEqualTo(ByteBuffer.wrap(expected, 10, ByteSequence.CHUNK_SIZE * 2));
+  }
+}
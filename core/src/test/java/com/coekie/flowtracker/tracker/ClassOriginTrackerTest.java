@@ -12,6 +12,21 @@ public class ClassOriginTrackerTest {
     assertThat(ClassOriginTracker.get(tracker.classId)).isSameInstanceAs(tracker);
   }
 
+  @Test public void unregister() {
+    ClassOriginTracker tracker =
+        ClassOriginTracker.registerClass(null, "unregister/MyClass", null);
+    assertThat(TrackerTree.CLASS.pathNode("unregister/MyClass").trackers()).contains(tracker);
+    int nextClassId = ClassOriginTracker.nextClassId();
+
+    ClassOriginTracker.unregister(tracker);
+    assertThat(TrackerTree.CLASS.pathNode("unregister/MyClass").trackers()).isEmpty();
+    assertThat(TrackerTree.CLASS.pathNode("unregister/MyClass").evicted()).isEqualTo(0);
+    assertThat(ClassOriginTracker.findRegisteredSince(tracker.classId, null, "unregister/MyClass"))
+        .isNull();
+    // classIds are not reused
+    assertThat(ClassOriginTracker.nextClassId()).isEqualTo(nextClassId);
+  }
+
   @Test public void testSimpleChar() {
     ClassOriginTracker tracker = ClassOriginTracker.registerClass(null, "myClass", null);
 
@@ -0,0 +1,85 @@
+package com.coekie.flowtracker.tracker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class FieldRepositoryTest {
+  private final Tracker source = new FakeOriginTracker(1000);
+
+  @Test
+  public void testFieldId() {
+    int id = FieldRepository.fieldId("Foo", "a");
+    assertThat(id).isGreaterThan(0);
+    assertThat(FieldRepository.fieldId("Foo", "a")).isEqualTo(id);
+    assertThat(FieldRepository.fieldId("Foo", "b")).isNotEqualTo(id);
+  }
+
+  @Test
+  public void testGetAndSet() {
+    Object target = new Object();
+    int a = FieldRepository.fieldId("FieldRepositoryTest", "a");
+    int b = FieldRepository.fieldId("FieldRepositoryTest", "b");
+    assertThat(FieldRepository.getPoint(target, a)).isNull();
+
+    TrackerPoint pointA = TrackerPoint.of(source, 1);
+    TrackerPoint pointB = TrackerPoint.of(source, 2);
+    FieldRepository.setPoint(target, a, pointA);
+    FieldRepository.setPoint(target, b, pointB);
+    assertThat(FieldRepository.getPoint(target, a)).isSameInstanceAs(pointA);
+    assertThat(FieldRepository.getPoint(target, b)).isSameInstanceAs(pointB);
+    assertThat(FieldRepository.getPoint(new Object(), a)).isNull();
+
+    FieldRepository.setPoint(target, a, null);
+    assertThat(FieldRepository.getPoint(target, a)).isNull();
+    assertThat(FieldRepository.getPoint(target, b)).isSameInstanceAs(pointB);
+  }
+
+  /** More fields than fit in one FieldSlots */
+  @Test
+  public void testManyFields() {
+    Object target = new Object();
+    for (int i = 0; i < 20; i++) {
+      FieldRepository.setPoint(target, FieldRepository.fieldId("Many", "f" + i),
+          TrackerPoint.of(source, i));
+    }
+    for (int i = 0; i < 20; i++) {
+      assertThat(FieldRepository.getPoint(target, FieldRepository.fieldId("Many", "f" + i)).index)
+          .isEqualTo(i);
+    }
+  }
+
+  /** Threads concurrently setting different fields of the same object don't lose updates */
+  @Test
+  public void testConcurrentWriters() throws InterruptedException {
+    Object target = new Object();
+    int threadCount = 4;
+    int fieldsPerThread = 10;
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < threadCount; t++) {
+      int thread = t;
+      threads.add(new Thread(() -> {
+        for (int round = 0; round < 1000; round++) {
+          for (int f = 0; f < fieldsPerThread; f++) {
+            FieldRepository.setPoint(target,
+                FieldRepository.fieldId("Concurrent", thread + "-" + f),
+                TrackerPoint.of(source, round));
+          }
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (int t = 0; t < threadCount; t++) {
+      for (int f = 0; f < fieldsPerThread; f++) {
+        TrackerPoint point =
+            FieldRepository.getPoint(target, FieldRepository.fieldId("Concurrent", t + "-" + f));
+        assertThat(point.index).isEqualTo(999);
+      }
+    }
+  }
+}
@@ -2,52 +2,152 @@ package com.coekie.flowtracker.tracker;
 
 import static com.coekie.flowtracker.tracker.Context.context;
 import static com.google.common.truth.Truth.assertThat;
-import static java.util.Objects.requireNonNull;
 
 import org.junit.Test;
 
 public class InvocationTest {
+  private static final int READ = Invocation.signatureId("read", "()I");
+  private static final int WRITE = Invocation.signatureId("write", "(I)V");
+
   @Test
   public void testReturnValue() {
+    Context context = context();
     Tracker tracker = new CharOriginTracker();
-    TrackerPoint trackerPoint = TrackerPoint.of(tracker, 2);
 
-    Invocation callingInvocation = Invocation.create("read").calling(context());
+    int callingStamp = Invocation.calling(Invocation.create(context, READ));
     // inside the called read() method:
     {
-      Invocation calledInvocation = Invocation.start(context(), "read");
-      assertThat(calledInvocation).isSameInstanceAs(callingInvocation);
-      Invocation.returning(calledInvocation, trackerPoint);
+      int calledStamp = Invocation.start(context, READ);
+      assertThat(calledStamp).isEqualTo(callingStamp);
+      Invocation.returning(context, calledStamp, tracker, 2, 1);
     }
 
-    assertThat(callingInvocation.returnPoint).isSameInstanceAs(trackerPoint);
+    assertThat(Invocation.returnTracker(context, callingStamp)).isSameInstanceAs(tracker);
+    assertThat(context.pointIndex()).isEqualTo(2);
+    assertThat(context.pointLength()).isEqualTo(1);
   }
 
   @Test
   public void testArgumentValue() {
+    Context context = context();
     Tracker tracker = new CharOriginTracker();
 
     TrackerPoint trackerPoint = TrackerPoint.of(tracker, 2);
-    Invocation callingInvocation =
-        Invocation.create("write").setArg(0, trackerPoint).calling(context());
+    int callingStamp = Invocation.calling(
+        Invocation.setArg(Invocation.create(context, WRITE), 0, trackerPoint));
     // inside the called write() method:
     {
-      Invocation calledInvocation = requireNonNull(Invocation.start(context(), "write"));
-      assertThat(calledInvocation).isSameInstanceAs(callingInvocation);
-      assertThat(Invocation.getArgPoint(calledInvocation, 0)).isSameInstanceAs(trackerPoint);
+      int calledStamp = Invocation.start(context, WRITE);
+      assertThat(calledStamp).isEqualTo(callingStamp);
+      assertThat(Invocation.argTracker(context, calledStamp, 0)).isSameInstanceAs(tracker);
+      assertThat(context.pointIndex()).isEqualTo(2);
+      assertThat(Invocation.argTracker(context, calledStamp, 1)).isNull();
     }
   }
 
   @Test
   public void testStartWithoutCalling() {
-    assertThat(Invocation.start(context(), "read")).isNull();
+    Invocation.create(context(), READ); // created, but calling() was never called
+    assertThat(Invocation.start(context(), READ)).isEqualTo(0);
   }
 
   @Test
   public void testUseEachInvocationOnlyOnce() {
-    Invocation calling = Invocation.create("read").calling(context());
-    Invocation called = Invocation.start(context(), "read");
-    assertThat(called).isSameInstanceAs(calling);
-    assertThat(Invocation.start(context(), "read")).isNull();
+    int calling = Invocation.calling(Invocation.create(context(), READ));
+    int called = Invocation.start(context(), READ);
+    assertThat(called).isEqualTo(calling);
+    assertThat(Invocation.start(context(), READ)).isEqualTo(0);
+  }
+
+  @Test
+  public void testSignatureMismatch() {
+    Invocation.calling(Invocation.create(context(), READ));
+    assertThat(Invocation.start(context(), WRITE)).isEqualTo(0);
+  }
+
+  /** A nested call reuses the frame, but does not get mixed up with the outer invocation */
+  @Test
+  public void testNested() {
+    Context context = context();
+    Tracker outerTracker = new CharOriginTracker();
+    Tracker innerTracker = new CharOriginTracker();
+
+    int outerStamp = Invocation.calling(Invocation.setArg(Invocation.create(context, WRITE),
+        0, outerTracker, 5, 1));
+    // inside the outer write() method:
+    {
+      int calledStamp = Invocation.start(context, WRITE);
+      assertThat(Invocation.argTracker(context, calledStamp, 0)).isSameInstanceAs(outerTracker);
+
+      int innerStamp = Invocation.calling(Invocation.create(context, READ));
+      // inside the inner read() method:
+      {
+        Invocation.returning(context, Invocation.start(context, READ), innerTracker, 3, 1);
+      }
+      assertThat(Invocation.returnTracker(context, innerStamp)).isSameInstanceAs(innerTracker);
+
+      // the arguments of the outer invocation are gone by now (so should have been copied before)
+      assertThat(Invocation.argTracker(context, calledStamp, 0)).isNull();
+    }
+    // the outer write() did not return anything, so we should not see what read() returned
+    assertThat(Invocation.returnTracker(context, outerStamp)).isNull();
+  }
+
+  /** Another invocation happening while preparing one, e.g. to resolve a dynamic constant */
+  @Test
+  public void testNestedPreparation() {
+    Context context = context();
+    Tracker tracker = new CharOriginTracker();
+
+    Invocation.create(context, WRITE);
+    // while preparing the write() invocation:
+    {
+      Invocation.calling(Invocation.setArg(Invocation.create(context, READ),
+          0, new CharOriginTracker(), 1, 1));
+      Invocation.start(context, READ);
+    }
+    int stamp = Invocation.calling(Invocation.setArg(context, 0, tracker, 5, 1));
+
+    int calledStamp = Invocation.start(context, WRITE);
+    assertThat(calledStamp).isEqualTo(stamp);
+    assertThat(Invocation.argTracker(context, calledStamp, 0)).isSameInstanceAs(tracker);
+  }
+
+  @Test
+  public void testSuspend() {
+    Context context = context();
+    Tracker tracker = new CharOriginTracker();
+    int stamp = Invocation.calling(Invocation.setArg(Invocation.create(context, WRITE),
+        0, tracker, 5, 1));
+
+    Invocation suspended = Invocation.suspend();
+    assertThat(Invocation.pendingStamp()).isEqualTo(0);
+    // something else happening in between, e.g. class loading
+    Invocation.calling(Invocation.create(context, READ));
+    Invocation.start(context, READ);
+    Invocation.unsuspend(suspended);
+
+    assertThat(Invocation.pendingStamp()).isEqualTo(stamp);
+    int calledStamp = Invocation.start(context, WRITE);
+    assertThat(calledStamp).isEqualTo(stamp);
+    assertThat(Invocation.argTracker(context, calledStamp, 0)).isSameInstanceAs(tracker);
+  }
+
+  @Test
+  public void testPreStart() {
+    Context context = context();
+    Tracker tracker = new CharOriginTracker();
+    int stamp = Invocation.calling(Invocation.setArg(Invocation.create(context, READ),
+        0, tracker, 5, 1));
+
+    Invocation invocation = Invocation.preStart(READ);
+    assertThat(Invocation.getArgPoint(invocation, 0).tracker).isSameInstanceAs(tracker);
+    assertThat(Invocation.getArgPoint(invocation, 0).index).isEqualTo(5);
+    // preStart does not clear the pending invocation
+    assertThat(Invocation.start(context, READ)).isEqualTo(stamp);
+
+    Invocation.returning(invocation, TrackerPoint.of(tracker, 7));
+    assertThat(Invocation.returnTracker(context, stamp)).isSameInstanceAs(tracker);
+    assertThat(context.pointIndex()).isEqualTo(7);
   }
 }
@@ -0,0 +1,150 @@
+package com.coekie.flowtracker.tracker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.coekie.flowtracker.tracker.TrackerTree.Node;
+import com.coekie.flowtracker.util.Config;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Test;
+
+public class RetentionTest {
+  private final Node root = TrackerTree.node("RetentionTest");
+
+  @After public void after() {
+    Retention.initialize(Config.empty());
+  }
+
+  @Test public void testMaxTrackers() {
+    Retention.initialize(Config.forTesting(Map.of("retainTrackers", "2")));
+    Node node = root.node("testMaxTrackers");
+    ByteOriginTracker tracker1 = tracker(node, 3);
+    ByteOriginTracker tracker2 = tracker(node, 3);
+    ByteOriginTracker tracker3 = tracker(node, 3);
+
+    assertThat(node.trackers()).containsExactly(tracker2, tracker3);
+    assertThat(node.evicted()).isEqualTo(1);
+    assertThat(tracker1.isEvicted()).isTrue();
+    assertThat(tracker1.getContent().isReleased()).isTrue();
+    assertThat(tracker1.getLength()).isEqualTo(3);
+    assertThat(tracker2.isEvicted()).isFalse();
+  }
+
+  /** Trackers that content got added to are evicted last */
+  @Test public void testLeastRecentlyUsed() {
+    Retention.initialize(Config.forTesting(Map.of("retainTrackers", "2")));
+    Node node = root.node("testLeastRecentlyUsed");
+    ByteOriginTracker tracker1 = tracker(node, 3);
+    ByteOriginTracker tracker2 = tracker(node, 3);
+    ByteOriginTracker tracker3 = tracker(node, 3);
+    // new trackers get a second chance, so the first time it's just the oldest that's evicted
+    assertThat(tracker1.isEvicted()).isTrue();
+
+    tracker2.append((byte) 1);
+    ByteOriginTracker tracker4 = tracker(node, 3);
+
+    assertThat(node.trackers()).containsExactly(tracker2, tracker4);
+    assertThat(tracker3.isEvicted()).isTrue();
+  }
+
+  @Test public void testBudget() {
+    Retention.initialize(Config.forTesting(Map.of("retainBudget", "1")));
+    Node node = root.node("testBudget");
+    ByteOriginTracker tracker1 = tracker(node, 600 * 1024);
+    ByteOriginTracker tracker2 = tracker(node, 0);
+    tracker2.append(new byte[600 * 1024], 0, 600 * 1024);
+    assertThat(tracker1.isEvicted()).isFalse();
+
+    // growth of existing trackers is only noticed after as many trackers have been added as there
+    // were at the previous measurement (one, when tracker1 was added)
+    tracker(node, 0);
+    assertThat(tracker1.isEvicted()).isTrue();
+    assertThat(tracker2.isEvicted()).isFalse();
+  }
+
+  @Test public void testBudgetMeasuredPeriodically() {
+    Retention.initialize(Config.forTesting(Map.of("retainBudget", "1")));
+    Node node = root.node("testBudgetMeasuredPeriodically");
+    ByteOriginTracker tracker1 = tracker(node, 0); // measured: one tracker
+    tracker(node, 0);
+    tracker(node, 0); // measured: three trackers
+    tracker1.append(new byte[1200 * 1024], 0, 1200 * 1024);
+
+    for (int i = 0; i < 3; i++) {
+      tracker(node, 0);
+    }
+    assertThat(tracker1.isEvicted()).isFalse();
+    tracker(node, 0); // measured
+    assertThat(tracker1.isEvicted()).isTrue();
+  }
+
+  @Test public void testPerNode() {
+    Retention.initialize(Config.forTesting(Map.of("retainPerNode", "2")));
+    Node node = root.node("testPerNode");
+    ByteOriginTracker tracker1 = tracker(node, 1);
+    ByteOriginTracker tracker2 = tracker(node, 1);
+    ByteOriginTracker other = tracker(root.node("testPerNode-other"), 1);
+    ByteOriginTracker tracker3 = tracker(node, 1);
+
+    assertThat(node.trackers()).containsExactly(tracker2, tracker3);
+    assertThat(tracker1.isEvicted()).isTrue();
+    assertThat(other.isEvicted()).isFalse();
+  }
+
+  @Test public void testCharContent() {
+    Retention.initialize(Config.forTesting(Map.of("retainTrackers", "1")));
+    Node node = root.node("testCharContent");
+    CharSinkTracker tracker1 = new CharSinkTracker();
+    tracker1.addTo(node);
+    tracker1.append("abc", 0, 3);
+    tracker(node, 1);
+
+    assertThat(tracker1.isEvicted()).isTrue();
+    assertThat(tracker1.getLength()).isEqualTo(3);
+    assertThat(tracker1.getContent().length()).isEqualTo(0);
+
+    // content appended after eviction is dropped too, but still counted
+    tracker1.append("de", 0, 2);
+    assertThat(tracker1.getLength()).isEqualTo(5);
+    assertThat(tracker1.getContent().length()).isEqualTo(0);
+  }
+
+  /** Nodes that become empty are removed, and put back when needed again */
+  @Test public void testPrune() {
+    Retention.initialize(Config.forTesting(Map.of("retainTrackers", "1")));
+    Node top = root.node("testPrune");
+    Node a = top.node("a");
+    Node b = a.node("b");
+    tracker(b, 1);
+    tracker(top, 1);
+
+    assertThat(top.children()).isEmpty();
+    assertThat(top.evicted()).isEqualTo(1);
+
+    ByteOriginTracker tracker3 = tracker(b, 1);
+    assertThat(tracker3.getNode()).isSameInstanceAs(b);
+    assertThat(top.node("a").node("b")).isSameInstanceAs(b);
+  }
+
+  /** A pruned node that has been replaced by a new node with the same path */
+  @Test public void testPruneReplaced() {
+    Retention.initialize(Config.forTesting(Map.of("retainTrackers", "1")));
+    Node top = root.node("testPruneReplaced");
+    Node a = top.node("a");
+    Node b = a.node("b");
+    tracker(b, 1);
+    tracker(top, 1);
+
+    Node newB = top.node("a").node("b");
+    assertThat(newB).isNotSameInstanceAs(b);
+    ByteOriginTracker tracker3 = tracker(b, 1);
+    assertThat(tracker3.getNode()).isSameInstanceAs(newB);
+  }
+
+  private static ByteOriginTracker tracker(Node node, int length) {
+    ByteOriginTracker tracker = new ByteOriginTracker();
+    tracker.append(new byte[length], 0, length);
+    tracker.addTo(node);
+    return tracker;
+  }
+}
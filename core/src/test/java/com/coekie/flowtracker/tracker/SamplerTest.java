@@ -0,0 +1,74 @@
+package com.coekie.flowtracker.tracker;
+
+import static com.coekie.flowtracker.tracker.Context.context;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.coekie.flowtracker.util.Config;
+import com.google.common.collect.Range;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Test;
+
+public class SamplerTest {
+  @After public void after() {
+    Sampler.initialize(Config.empty());
+  }
+
+  @Test public void testDefault() {
+    Sampler.initialize(Config.empty());
+    assertThat(Sampler.description()).isNull();
+    assertThat(Sampler.sampleThread()).isTrue();
+    assertThat(Sampler.sampleConnection()).isTrue();
+  }
+
+  @Test public void testProbability() {
+    Sampler.initialize(Config.forTesting(Map.of("sample", "0.25")));
+    int count = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (Sampler.sampleThread()) {
+        count++;
+      }
+    }
+    assertThat(count).isIn(Range.closed(2000, 3000));
+    assertThat(Sampler.description()).startsWith("Sampling 25% of threads");
+  }
+
+  @Test public void testNone() {
+    Sampler.initialize(Config.forTesting(Map.of("sample", "0")));
+    assertThat(Sampler.sampleThread()).isFalse();
+    assertThat(Sampler.description())
+        .isEqualTo("Sampling 0% of threads (0 tracked, 1 skipped)");
+  }
+
+  @Test public void testRate() {
+    Sampler.initialize(Config.forTesting(Map.of("sampleRate", "3")));
+    assertThat(Sampler.sampleThread()).isTrue();
+    assertThat(Sampler.sampleThread()).isTrue();
+    assertThat(Sampler.sampleThread()).isTrue();
+    // assuming this test doesn't take more than a second
+    assertThat(Sampler.sampleThread()).isFalse();
+    assertThat(Sampler.description())
+        .isEqualTo("Sampling at most 3 threads per second (3 tracked, 1 skipped)");
+  }
+
+  /** When sampling connections, threads are always tracked */
+  @Test public void testByConnection() {
+    Sampler.initialize(Config.forTesting(Map.of("sample", "0.1", "sampleBy", "connection")));
+    assertThat(Sampler.sampleThread()).isTrue();
+    for (int i = 0; i < 100; i++) {
+      Sampler.sampleConnection();
+    }
+    assertThat(Sampler.description()).startsWith("Sampling 10% of connections");
+  }
+
+  /** A thread that is not sampled is suspended */
+  @Test public void testThreadNotSampled() throws InterruptedException {
+    Sampler.initialize(Config.forTesting(Map.of("sample", "0")));
+    AtomicBoolean active = new AtomicBoolean(true);
+    Thread thread = new Thread(() -> active.set(context().isActive()));
+    thread.start();
+    thread.join();
+    assertThat(active.get()).isFalse();
+  }
+}
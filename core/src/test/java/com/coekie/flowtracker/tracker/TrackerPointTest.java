@@ -40,4 +40,64 @@ public class TrackerPointTest {
     assertThat(point.index).isEqualTo(3);
     assertThat(point.length).isEqualTo(6);
   }
+
+  @Test
+  public void testResolve() {
+    Context context = new Context();
+    assertThat(TrackerPoint.resolve(context, source, 5, 2)).isSameInstanceAs(source);
+    assertThat(context.pointIndex()).isEqualTo(5);
+    assertThat(context.pointLength()).isEqualTo(2);
+  }
+
+  @Test
+  public void testResolveMiddleman() {
+    Context context = new Context();
+    DefaultTracker middleman = new DefaultTracker();
+    middleman.setSource(5, 10, source, 3, Growth.HALF);
+    assertThat(TrackerPoint.resolve(context, middleman, 5, 3)).isSameInstanceAs(source);
+    assertThat(context.pointIndex()).isEqualTo(3);
+    assertThat(context.pointLength()).isEqualTo(6);
+
+    // reusing the same context for a point without a source
+    assertThat(TrackerPoint.resolve(context, middleman, 20, 1)).isNull();
+    assertThat(TrackerPoint.ofResolved(null, 0, 0)).isNull();
+  }
+
+  /** Resolving consecutive values one by one, using the read cursor */
+  @Test
+  public void testResolveSequential() {
+    Context context = new Context();
+    Tracker source2 = new FakeOriginTracker(1000);
+    DefaultTracker middleman = new DefaultTracker();
+    middleman.setSource(0, 3, source, 10, Growth.NONE);
+    middleman.setSource(3, 2, source2, 20, Growth.HALF);
+    for (int i = 0; i < 3; i++) {
+      assertThat(TrackerPoint.resolve(context, middleman, i, 1)).isSameInstanceAs(source);
+      assertThat(context.pointIndex()).isEqualTo(10 + i);
+      assertThat(context.pointLength()).isEqualTo(1);
+    }
+    for (int i = 3; i < 5; i++) {
+      assertThat(TrackerPoint.resolve(context, middleman, i, 1)).isSameInstanceAs(source2);
+      assertThat(context.pointIndex()).isEqualTo(20 + (i - 3) * 2);
+      assertThat(context.pointLength()).isEqualTo(2);
+    }
+    assertThat(TrackerPoint.resolve(context, middleman, 5, 1)).isNull();
+  }
+
+  /** Modifying the tracker invalidates the read cursor */
+  @Test
+  public void testResolveAfterModification() {
+    Context context = new Context();
+    DefaultTracker middleman = new DefaultTracker();
+    middleman.setSource(0, 10, source, 0, Growth.NONE);
+    assertThat(TrackerPoint.resolve(context, middleman, 1, 1)).isSameInstanceAs(source);
+    assertThat(context.pointIndex()).isEqualTo(1);
+
+    middleman.setSource(2, 1, source, 100, Growth.NONE);
+    assertThat(TrackerPoint.resolve(context, middleman, 2, 1)).isSameInstanceAs(source);
+    assertThat(context.pointIndex()).isEqualTo(100);
+
+    middleman.setSource(3, 1, null, -1, Growth.NONE);
+    assertThat(TrackerPoint.resolve(context, middleman, 3, 1)).isNull();
+  }
 }
@@ -0,0 +1,137 @@
+package com.coekie.flowtracker.tracker;
+
+import static com.coekie.flowtracker.tracker.Context.context;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.coekie.flowtracker.util.Config;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class TrackerRepositoryTest {
+  /** Looking up more objects than fit in the per-thread cache */
+  @Test public void testManyObjects() {
+    List<Object> objects = new ArrayList<>();
+    List<Tracker> trackers = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      Object o = new Object();
+      objects.add(o);
+      trackers.add(TrackerRepository.getOrCreateTracker(context(), o));
+    }
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < objects.size(); i++) {
+        assertThat(TrackerRepository.getTracker(context(), objects.get(i)))
+            .isSameInstanceAs(trackers.get(i));
+      }
+    }
+  }
+
+  @Test public void testNotTracked() {
+    Object o = new Object();
+    assertThat(TrackerRepository.getTracker(context(), o)).isNull();
+    assertThat(TrackerRepository.getTracker(context(), o)).isNull(); // cached
+    Tracker tracker = new CharOriginTracker();
+    TrackerRepository.setTracker(context(), o, tracker);
+    assertThat(TrackerRepository.getTracker(context(), o)).isSameInstanceAs(tracker);
+  }
+
+  @Test public void testRemoveTracker() {
+    Object o = new Object();
+    Tracker tracker = TrackerRepository.getOrCreateTracker(context(), o);
+    assertThat(TrackerRepository.getTracker(context(), o)).isSameInstanceAs(tracker);
+    TrackerRepository.removeTracker(o);
+    assertThat(TrackerRepository.getTracker(context(), o)).isNull();
+  }
+
+  /** Changing the tracker in another thread invalidates the cache of this thread */
+  @Test public void testForceSetTrackerInOtherThread() throws InterruptedException {
+    Object o = new Object();
+    Tracker tracker = TrackerRepository.getOrCreateTracker(context(), o);
+    assertThat(TrackerRepository.getTracker(context(), o)).isSameInstanceAs(tracker);
+
+    Tracker newTracker = new CharOriginTracker();
+    Thread thread = new Thread(() -> TrackerRepository.forceSetTracker(o, newTracker));
+    thread.start();
+    thread.join();
+
+    assertThat(TrackerRepository.getTracker(context(), o)).isSameInstanceAs(newTracker);
+  }
+
+  /** Removing the tracker in another thread invalidates the cache of this thread */
+  @Test public void testRemoveTrackerInOtherThread() throws InterruptedException {
+    Object o = new Object();
+    Tracker tracker = TrackerRepository.getOrCreateTracker(context(), o);
+    assertThat(TrackerRepository.getTracker(context(), o)).isSameInstanceAs(tracker);
+
+    Thread thread = new Thread(() -> TrackerRepository.removeTracker(o));
+    thread.start();
+    thread.join();
+
+    assertThat(TrackerRepository.getTracker(context(), o)).isNull();
+  }
+
+  /** Setting the tracker of a fresh object updates the cache, without invalidating all caches */
+  @Test public void testSetFreshTracker() {
+    Object o = new Object();
+    assertThat(TrackerRepository.getTracker(context(), o)).isNull(); // cached
+    int generation = TrackerRepository.generation.get();
+
+    Tracker tracker = new CharOriginTracker();
+    TrackerRepository.setFreshTracker(context(), o, tracker);
+
+    assertThat(TrackerRepository.generation.get()).isEqualTo(generation);
+    assertThat(TrackerRepository.getTracker(context(), o)).isSameInstanceAs(tracker);
+  }
+
+  /** A tracker set for a fresh object in another thread is seen by this thread */
+  @Test public void testSetFreshTrackerInOtherThread() throws InterruptedException {
+    Object[] holder = new Object[1];
+    Tracker tracker = new CharOriginTracker();
+    Thread thread = new Thread(() -> {
+      holder[0] = new Object();
+      TrackerRepository.setFreshTracker(context(), holder[0], tracker);
+    });
+    thread.start();
+    thread.join();
+
+    assertThat(TrackerRepository.getTracker(context(), holder[0])).isSameInstanceAs(tracker);
+  }
+
+  /** What detaching does to drop references to objects of the application */
+  @Test public void testClear() {
+    Object o = new Object();
+    TrackerRepository.getOrCreateTracker(context(), o);
+    context().pendingArray = new byte[1];
+
+    TrackerRepository.clear();
+    Context.clearAll();
+
+    assertThat(context().trackerCache).asList().doesNotContain(o);
+    assertThat(context().pendingArray).isNull();
+    assertThat(TrackerRepository.getTracker(context(), o)).isNull();
+  }
+
+  /**
+   * Trackers of objects that have been garbage collected get dropped in the background, even when
+   * no other trackers are being set
+   */
+  @Test public void testExpunge() throws InterruptedException {
+    TrackerRepository.initialize(Config.forTesting(Map.of("expungeInterval", "10")));
+    try {
+      Tracker tracker = new CharOriginTracker();
+      WeakReference<Tracker> trackerRef = new WeakReference<>(tracker);
+      TrackerRepository.forceSetTracker(new Object(), tracker);
+      tracker = null;
+
+      for (int i = 0; i < 500 && trackerRef.get() != null; i++) {
+        System.gc();
+        Thread.sleep(10);
+      }
+      assertThat(trackerRef.get()).isNull();
+    } finally {
+      TrackerRepository.initialize(Config.empty());
+    }
+  }
+}
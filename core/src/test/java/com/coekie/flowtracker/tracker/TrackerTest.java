@@ -2,6 +2,7 @@ package com.coekie.flowtracker.tracker;
 
 import static com.coekie.flowtracker.tracker.TrackerSnapshot.assertThatTracker;
 import static com.coekie.flowtracker.tracker.TrackerSnapshot.snapshot;
+import static com.google.common.truth.Truth.assertThat;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -37,6 +38,16 @@ public class TrackerTest {
         snapshot().gap(5).part(3, source, 105).gap(1).part(2, source, 109));
   }
 
+  /** Appending an unknown source at the end, and then a source after it; don't merge */
+  @Test public void testAppendAfterUntracked() {
+    target.setSource(5, 3, source, 105); // setting 5,6,7
+    target.setSource(8, 2, null, -1); // setting 8,9 to unknown
+    target.setSource(10, 2, source, 110); // setting 10,11
+
+    assertThatTracker(target).matches(
+        snapshot().gap(5).part(3, source, 105).gap(2).part(2, source, 110));
+  }
+
   /** Set one source, then a second one before it, leaving a gap in between */
   @Test public void setSecondSourceBeforeGap() {
     target.setSource(5, 3, source, 105); // setting 5,6,7
@@ -266,6 +277,25 @@ public class TrackerTest {
     assertThatTracker(target).matches(snapshot().part(10, source, 0));
   }
 
+  /**
+   * Copying through a chain of mutable trackers does not make a chain: every copy points directly
+   * to the origin, so resolving its source does not depend on the length of the chain.
+   */
+  @Test public void testChainOfCopies() {
+    middleman.setSource(0, 10, source, 100);
+    Tracker previous = middleman;
+    for (int i = 0; i < 5; i++) {
+      DefaultTracker copy = new DefaultTracker();
+      copy.setSource(0, 10, previous, 0);
+      assertThat(copy.getEntryCount()).isEqualTo(1);
+      assertThatTracker(copy).matches(snapshot().part(10, source, 100));
+      previous = copy;
+    }
+    // a copy of a byte[] decoded into a char[]
+    target.setSource(0, 5, previous, 0, Growth.HALF);
+    assertThatTracker(target).matches(snapshot().part(5, source, 100, Growth.HALF));
+  }
+
   /**
    * Get the source of the source composed of two parts,
    * but only partly: dropping the begin and ending
@@ -433,6 +463,59 @@ public class TrackerTest {
         .part(2, source, 1001, Growth.of(2, 1)));
   }
 
+  /** Many parts, added out of order, so that parts have to be inserted in the middle */
+  @Test public void testManyParts() {
+    for (int i = 99; i >= 0; i--) {
+      target.setSource(i * 3, 2, source, i * 10);
+    }
+    TrackerSnapshot.Builder expected = snapshot().part(2, source, 0);
+    for (int i = 1; i < 100; i++) {
+      expected.gap(1).part(2, source, i * 10);
+    }
+    assertThatTracker(target).matches(expected);
+
+    // overwrite most of them at once
+    target.setSource(4, 290, source2, 0);
+    assertThatTracker(target).matches(
+        snapshot().part(2, source, 0).gap(1).part(1, source, 10).part(290, source2, 0)
+            .part(2, source, 980).gap(1).part(2, source, 990));
+  }
+
+  /**
+   * Reading (without locking) while another thread is writing should always see a consistent
+   * state
+   */
+  @Test public void testReadWhileWriting() throws InterruptedException {
+    int length = 1000;
+    for (int i = 0; i < length; i++) {
+      setAlternating(i);
+    }
+    Thread writer = new Thread(() -> {
+      // overwrite parts with the same values again. that does not change the end result, but in
+      // between it removes and re-adds the part, shifting all parts after it.
+      for (int n = 0; n < 200_000; n++) {
+        setAlternating(n % length);
+      }
+    });
+    writer.start();
+    while (writer.isAlive()) {
+      TrackerSnapshot snapshot = TrackerSnapshot.of(target);
+      assertThat(snapshot.getParts()).hasSize(length);
+      for (TrackerSnapshot.Part part : snapshot.getParts()) {
+        if (part.length != 1 || part.sourceIndex != part.index
+            || part.source != (part.index % 2 == 0 ? source : source2)) {
+          throw new AssertionError("Inconsistent part " + part);
+        }
+      }
+    }
+    writer.join();
+  }
+
+  /** Set index `i` of target to index `i` of source or source2, alternating to avoid merging */
+  private void setAlternating(int i) {
+    target.setSource(i, 1, i % 2 == 0 ? source : source2, i);
+  }
+
   @Test public void testOverwriteSelfBackwards() {
     target.setSource(5, 5, source, 105); // setting 5,6,7,8,9
     target.setSource(6, 2, target, 8);
@@ -0,0 +1,93 @@
+package com.coekie.flowtracker.tracker;
+
+import static com.coekie.flowtracker.tracker.Context.context;
+import static com.coekie.flowtracker.tracker.TrackerSnapshot.assertThatTrackerOf;
+import static com.coekie.flowtracker.tracker.TrackerSnapshot.snapshot;
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TrackerUpdaterTest {
+  private final Tracker source = new CharOriginTracker();
+
+  @After
+  public void after() {
+    TrackingSwitch.setOn(true);
+    TrackerUpdater.flushElementStores(context());
+  }
+
+  /** Consecutive stores with consecutive sources are applied together, when they're looked up */
+  @Test public void testCombineElementStores() {
+    byte[] array = new byte[10];
+    for (int i = 0; i < 5; i++) {
+      TrackerUpdater.setElementSource(context(), array, i + 2, source, i + 7, 1);
+    }
+    assertThat(context().pendingLength).isEqualTo(5);
+    assertThatTrackerOf(array).matches(snapshot().gap(2).part(5, source, 7));
+    assertThat(context().pendingArray).isNull();
+  }
+
+  @Test public void testCombineElementStoresWithGrowth() {
+    char[] array = new char[3];
+    for (int i = 0; i < 3; i++) {
+      TrackerUpdater.setElementSource(context(), array, i, source, i * 2, 2);
+    }
+    assertThatTrackerOf(array).matches(snapshot().part(3, source, 0, Growth.HALF));
+  }
+
+  /** Stores that don't continue the previous ones are applied separately */
+  @Test public void testPatternBreaks() {
+    byte[] array = new byte[10];
+    byte[] other = new byte[10];
+    TrackerUpdater.setElementSource(context(), array, 0, source, 0, 1);
+    TrackerUpdater.setElementSource(context(), array, 1, source, 1, 1);
+    TrackerUpdater.setElementSource(context(), array, 2, source, 5, 1); // other source index
+    TrackerUpdater.setElementSource(context(), array, 4, source, 6, 1); // other index
+    TrackerUpdater.setElementSource(context(), other, 5, source, 7, 1); // other array
+    TrackerUpdater.setElementSource(context(), array, 5, source, 7, 1);
+    assertThatTrackerOf(array).matches(snapshot()
+        .part(2, source, 0)
+        .part(1, source, 5)
+        .gap(1)
+        .part(2, source, 6));
+    assertThatTrackerOf(other).matches(snapshot().gap(5).part(1, source, 7));
+  }
+
+  /** Storing values with an unknown source removes what was known about those elements */
+  @Test public void testUnknownSource() {
+    byte[] array = new byte[4];
+    TrackerUpdater.setSourceTracker(context(), array, 0, 4, source, 0);
+    TrackerUpdater.setElementSource(context(), array, 1, null, -1, 0);
+    TrackerUpdater.setElementSource(context(), array, 2, null, -1, 0);
+    assertThatTrackerOf(array).matches(snapshot()
+        .part(1, source, 0)
+        .gap(2)
+        .part(1, source, 3));
+  }
+
+  /** Pending stores are applied before tracking gets suspended */
+  @Test public void testSuspend() {
+    byte[] array = new byte[1];
+    TrackerUpdater.setElementSource(context(), array, 0, source, 0, 1);
+    context().suspend();
+    try {
+      assertThat(context().pendingArray).isNull();
+      TrackerUpdater.setElementSource(context(), array, 0, source, 5, 1); // ignored
+    } finally {
+      context().unsuspend();
+    }
+    assertThatTrackerOf(array).matches(snapshot().part(1, source, 0));
+  }
+
+  /** Stores that were combined while tracking was on are applied after it's turned off */
+  @Test public void testFlushAfterSwitchedOff() {
+    byte[] array = new byte[2];
+    TrackerUpdater.setElementSource(context(), array, 0, source, 0, 1);
+    TrackerUpdater.setElementSource(context(), array, 1, source, 1, 1);
+    TrackingSwitch.setOn(false);
+    TrackerUpdater.flushElementStores(context());
+    TrackingSwitch.setOn(true);
+    assertThatTrackerOf(array).matches(snapshot().part(2, source, 0));
+  }
+}
@@ -0,0 +1,106 @@
+package com.coekie.flowtracker.tracker;
+
+import static com.coekie.flowtracker.tracker.Context.context;
+import static com.google.common.truth.Truth.assertThat;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import org.junit.After;
+import org.junit.Test;
+
+public class TrackingSwitchTest {
+  @After
+  public void after() {
+    TrackingSwitch.setOn(true);
+  }
+
+  @Test
+  public void testSwitch() throws InterruptedException {
+    assertThat(context().isActive()).isTrue();
+
+    TrackingSwitch.setOn(false);
+    assertThat(TrackingSwitch.isOn()).isFalse();
+    assertThat(context().isActive()).isFalse();
+    assertThat(TrackerRepository.getOrCreateTracker(context(), new byte[1])).isNull();
+    // applies to all threads
+    boolean[] activeInOtherThread = new boolean[1];
+    Thread thread = new Thread(() -> activeInOtherThread[0] = context().isActive());
+    thread.start();
+    thread.join();
+    assertThat(activeInOtherThread[0]).isFalse();
+
+    TrackingSwitch.setOn(true);
+    assertThat(context().isActive()).isTrue();
+    assertThat(TrackerRepository.getOrCreateTracker(context(), new byte[1])).isNotNull();
+  }
+
+  @Test
+  public void testInvocation() {
+    TrackingSwitch.setOn(false);
+    assertThat(Invocation.calling(Invocation.create(context(), 1))).isEqualTo(0);
+    TrackingSwitch.setOn(true);
+    int stamp = Invocation.calling(Invocation.create(context(), 1));
+    assertThat(stamp).isNotEqualTo(0);
+    assertThat(Invocation.start(context(), 1)).isEqualTo(stamp);
+  }
+
+  @Test
+  public void testSwitchableCallSite() throws Throwable {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    MethodType type = MethodType.methodType(String.class, String.class, int.class);
+    MethodHandle hook = lookup.findStatic(TrackingSwitchTest.class, "hook", type);
+    MethodHandle call = SwitchableCallSite.hook(lookup, "hook", type, hook).dynamicInvoker();
+    MethodHandle voidCall = SwitchableCallSite.hook(lookup, "voidHook",
+        MethodType.methodType(void.class), lookup.findStatic(TrackingSwitchTest.class,
+            "voidHook", MethodType.methodType(void.class))).dynamicInvoker();
+
+    assertThat((String) call.invokeExact("a", 1)).isEqualTo("hooked a 1");
+    voidCall.invokeExact();
+    assertThat(voidHookCalls).isEqualTo(1);
+
+    // when off, returns the first argument, or does nothing
+    TrackingSwitch.setOn(false);
+    assertThat((String) call.invokeExact("a", 1)).isEqualTo("a");
+    voidCall.invokeExact();
+    assertThat(voidHookCalls).isEqualTo(1);
+
+    TrackingSwitch.setOn(true);
+    assertThat((String) call.invokeExact("a", 1)).isEqualTo("hooked a 1");
+    voidCall.invokeExact();
+    assertThat(voidHookCalls).isEqualTo(2);
+  }
+
+  @Test
+  public void testSwitchableArrayStore() throws Throwable {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    MethodType type = MethodType.methodType(void.class, char[].class, int.class, char.class,
+        String.class);
+    MethodHandle call = SwitchableCallSite.arrayStore(lookup, "setChar", type,
+        lookup.findStatic(TrackingSwitchTest.class, "setChar", type)).dynamicInvoker();
+
+    char[] array = new char[2];
+    call.invokeExact(array, 0, 'a', "hooked");
+    TrackingSwitch.setOn(false);
+    // when off, only stores the value
+    call.invokeExact(array, 1, 'b', "hooked");
+    assertThat(new String(array)).isEqualTo("Ab");
+  }
+
+  private static int voidHookCalls;
+
+  @SuppressWarnings("unused") // invoked through SwitchableCallSite
+  private static String hook(String str, int i) {
+    return "hooked " + str + " " + i;
+  }
+
+  @SuppressWarnings("unused") // invoked through SwitchableCallSite
+  private static void voidHook() {
+    voidHookCalls++;
+  }
+
+  @SuppressWarnings("unused") // invoked through SwitchableCallSite
+  private static void setChar(char[] array, int index, char c, String source) {
+    array[index] = Character.toUpperCase(c);
+  }
+}
@@ -0,0 +1,126 @@
+package com.coekie.flowtracker.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class WeakIdentityMapTest {
+  @Test public void testPutGetRemove() {
+    WeakIdentityMap<Object, String> map = new WeakIdentityMap<>();
+    String a = new String("a");
+    String equalToA = new String("a");
+    assertThat(map.get(a)).isNull();
+    assertThat(map.put(a, "1")).isNull();
+    assertThat(map.get(a)).isEqualTo("1");
+    assertThat(map.get(equalToA)).isNull(); // identity, not equals
+    assertThat(map.put(a, "2")).isEqualTo("1");
+    assertThat(map.putIfAbsent(a, "3")).isEqualTo("2");
+    assertThat(map.get(a)).isEqualTo("2");
+    assertThat(map.size()).isEqualTo(1);
+    assertThat(map.remove(a)).isEqualTo("2");
+    assertThat(map.get(a)).isNull();
+    assertThat(map.size()).isEqualTo(0);
+    assertThat(map.putIfAbsent(a, "4")).isNull();
+    assertThat(map.get(a)).isEqualTo("4");
+  }
+
+  /** Many entries in few shards, with removals in between, so that tables get rebuilt */
+  @Test public void testMany() {
+    WeakIdentityMap<Object, Integer> map = new WeakIdentityMap<>(2);
+    Object[] keys = new Object[10_000];
+    boolean[] removed = new boolean[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = new Object();
+      map.put(keys[i], i);
+      if (i % 3 == 0) {
+        map.remove(keys[i / 2]);
+        removed[i / 2] = true;
+      }
+    }
+    for (int i = 0; i < keys.length; i++) {
+      assertThat(map.get(keys[i])).isEqualTo(removed[i] ? null : i);
+    }
+  }
+
+  @Test public void testClear() {
+    WeakIdentityMap<Object, Integer> map = new WeakIdentityMap<>(2);
+    Object[] keys = new Object[100];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = new Object();
+      map.put(keys[i], i);
+    }
+    map.clear();
+    assertThat(map.size()).isEqualTo(0);
+    for (Object key : keys) {
+      assertThat(map.get(key)).isNull();
+    }
+    map.put(keys[0], 0);
+    assertThat(map.get(keys[0])).isEqualTo(0);
+  }
+
+  @Test public void testExpunge() throws InterruptedException {
+    WeakIdentityMap<Object, Object> map = new WeakIdentityMap<>();
+    Object kept = new Object();
+    map.put(kept, "kept");
+    Object value = new Object();
+    WeakReference<Object> valueRef = new WeakReference<>(value);
+    map.put(new Object(), value);
+    value = null;
+
+    for (int i = 0; i < 100 && valueRef.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+      map.expunge();
+    }
+    assertThat(valueRef.get()).isNull();
+    assertThat(map.size()).isEqualTo(1);
+    assertThat(map.get(kept)).isEqualTo("kept");
+  }
+
+  @Test public void testConcurrent() throws InterruptedException {
+    WeakIdentityMap<Object, Integer> map = new WeakIdentityMap<>(4);
+    Object[] keys = new Object[1000];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = new Object();
+    }
+    List<Throwable> failures = new ArrayList<>();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      int offset = t;
+      threads[t] = new Thread(() -> {
+        try {
+          for (int round = 0; round < 100; round++) {
+            for (int i = offset; i < keys.length; i += threads.length) {
+              map.put(keys[i], i);
+            }
+            for (int i = 0; i < keys.length; i++) {
+              Integer value = map.get(keys[i]);
+              if (value != null && value != i) {
+                throw new AssertionError("Wrong value for " + i + ": " + value);
+              }
+            }
+            for (int i = offset; i < keys.length; i += threads.length) {
+              if (map.get(keys[i]) != i) {
+                throw new AssertionError("Missing " + i);
+              }
+              map.remove(keys[i]);
+            }
+          }
+        } catch (Throwable e) {
+          synchronized (failures) {
+            failures.add(e);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(failures).isEmpty();
+    assertThat(map.size()).isEqualTo(0);
+  }
+}
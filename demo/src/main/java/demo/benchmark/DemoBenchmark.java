@@ -0,0 +1,212 @@
+package demo.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the overhead of flowtracker on the demos. Runs each demo without the agent and with the
+ * agent in different configurations, and writes a report with wall time, allocation, peak heap
+ * usage, number of trackers and time spent transforming classes.
+ * <p>
+ * Usage: {@code DemoBenchmark <agentJar> <jvmArgs> <reportFile>}. This is invoked from the pom of
+ * the demo module, with the `benchmark-demos` profile. System properties `demos` and `configs`
+ * (comma-separated) select which demos and configurations to run, and `runs` how many times each
+ * one is run (the run with the median wall time is reported).
+ */
+public class DemoBenchmark {
+  private static final List<String> DEMOS = List.of("HelloWorld", "AsmDemo", "EncodeDemo",
+      "GsonDemo", "JdkHttpDemo", "ProtobufDemo", "SerializationDemo", "SnakeYamlDemo");
+
+  /** Agent arguments for each configuration. null means running without the agent. */
+  private static final Map<String, String> CONFIGS = new LinkedHashMap<>();
+
+  static {
+    CONFIGS.put("none", null);
+    CONFIGS.put("agent", "");
+    CONFIGS.put("base-filter", "filter=%base");
+    // not eager for everything (+*), because that breaks on JDK internals
+    CONFIGS.put("eager", "eager=+demo.*,+com.google.*,+org.*");
+  }
+
+  private final String agentJar;
+  private final List<String> jvmArgs;
+  private final String classpath;
+
+  DemoBenchmark(String agentJar, String jvmArgs) {
+    this.agentJar = new File(agentJar).getAbsolutePath();
+    this.jvmArgs = Arrays.asList(jvmArgs.trim().split("\\s+"));
+    // the flowtracker jar is on our classpath only to make maven build it first, see pom.xml
+    this.classpath = Arrays.stream(System.getProperty("java.class.path").split(File.pathSeparator))
+        .filter(entry -> !new File(entry).getName().startsWith("flowtracker-"))
+        .collect(Collectors.joining(File.pathSeparator));
+  }
+
+  public static void main(String... args) throws Exception {
+    DemoBenchmark benchmark = new DemoBenchmark(args[0], args[1]);
+    List<String> demos = select("demos", DEMOS);
+    List<String> configs = select("configs", new ArrayList<>(CONFIGS.keySet()));
+    int runs = Integer.getInteger("runs", 3);
+
+    System.out.println(Result.HEADER);
+    List<Result> results = new ArrayList<>();
+    for (String demo : demos) {
+      Result baseline = null;
+      for (String config : configs) {
+        Result result = benchmark.run(demo, config, runs);
+        if (CONFIGS.get(config) == null) {
+          baseline = result;
+          result.slowdown = 1;
+        } else if (baseline != null) {
+          result.slowdown = (double) result.wallNanos / baseline.wallNanos;
+        }
+        System.out.println(result.format());
+        results.add(result);
+      }
+    }
+
+    try (PrintStream out = new PrintStream(args[2])) {
+      out.println(Result.HEADER);
+      for (Result result : results) {
+        out.println(result.format());
+      }
+    }
+    System.out.println("Report written to " + args[2]);
+  }
+
+  private static List<String> select(String property, List<String> all) {
+    String selected = System.getProperty(property);
+    if (selected == null || selected.isBlank()) {
+      return all;
+    }
+    List<String> result = Arrays.asList(selected.split(","));
+    for (String s : result) {
+      if (!all.contains(s)) {
+        throw new IllegalArgumentException("Unknown " + property + ": " + s + ", expected " + all);
+      }
+    }
+    return result;
+  }
+
+  /** Run `demo` in `config` `runs` times, and return the median result */
+  private Result run(String demo, String config, int runs) throws Exception {
+    List<Result> results = new ArrayList<>();
+    for (int i = 0; i < runs; i++) {
+      results.add(runOnce(demo, config));
+    }
+    results.sort(Comparator.comparingLong(r -> r.wallNanos));
+    return results.get(results.size() / 2);
+  }
+
+  private Result runOnce(String demo, String config) throws Exception {
+    Path harnessOut = Files.createTempFile("demo-harness", ".properties");
+    Path statsOut = Files.createTempFile("demo-stats", ".properties");
+    try {
+      List<String> command = new ArrayList<>();
+      command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+      String agentArgs = CONFIGS.get(config);
+      if (agentArgs != null) {
+        command.add("-javaagent:" + agentJar + "=webserver=false;statsOnExit=" + statsOut
+            + (agentArgs.isEmpty() ? "" : ";" + agentArgs));
+        command.addAll(jvmArgs);
+      }
+      command.add("-cp");
+      command.add(classpath);
+      command.add(DemoHarness.class.getName());
+      command.add("demo." + demo);
+      command.add(harnessOut.toString());
+
+      long start = System.nanoTime();
+      Process process = new ProcessBuilder(command)
+          .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+          .redirectError(ProcessBuilder.Redirect.INHERIT)
+          .start();
+      int exitCode = process.waitFor();
+      long wallNanos = System.nanoTime() - start;
+      if (exitCode != 0) {
+        throw new IllegalStateException(demo + " in " + config + " failed with exit code "
+            + exitCode);
+      }
+
+      Properties harness = load(harnessOut);
+      Properties stats = load(statsOut);
+      Result result = new Result(demo, config);
+      result.wallNanos = wallNanos;
+      result.mainNanos = getLong(harness, "main.nanos");
+      result.allocatedBytes = getLong(harness, "allocated.bytes");
+      result.peakHeapBytes = getLong(harness, "peakHeap.bytes");
+      result.trackers = getLong(stats, "trackers");
+      result.transformedClasses = getLong(stats, "transform.classes");
+      result.transformNanos = getLong(stats, "transform.nanos");
+      result.trackerCacheHits = getLong(stats, "trackerCache.hits");
+      result.trackerCacheMisses = getLong(stats, "trackerCache.misses");
+      return result;
+    } finally {
+      Files.deleteIfExists(harnessOut);
+      Files.deleteIfExists(statsOut);
+    }
+  }
+
+  private static Properties load(Path path) throws IOException {
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(path)) {
+      properties.load(reader);
+    }
+    return properties;
+  }
+
+  private static long getLong(Properties properties, String key) {
+    String value = properties.getProperty(key);
+    return value == null ? -1 : Long.parseLong(value);
+  }
+
+  /** Measurements of one demo in one configuration. -1 for unknown values. */
+  private static class Result {
+    static final String HEADER = String.format("%-18s %-12s %9s %8s %9s %9s %9s %9s %8s %9s %6s",
+        "demo", "config", "wall_ms", "slowdown", "main_ms", "alloc_mb", "heap_mb", "trackers",
+        "classes", "xform_ms", "hit%");
+
+    final String demo;
+    final String config;
+    long wallNanos;
+    /** Wall time relative to running without the agent */
+    double slowdown = Double.NaN;
+    long mainNanos;
+    long allocatedBytes;
+    long peakHeapBytes;
+    long trackers;
+    long transformedClasses;
+    long transformNanos;
+    long trackerCacheHits;
+    long trackerCacheMisses;
+
+    Result(String demo, String config) {
+      this.demo = demo;
+      this.config = config;
+    }
+
+    String format() {
+      return String.format("%-18s %-12s %9d %8.2f %9d %9d %9d %9d %8d %9d %6.1f", demo, config,
+          wallNanos / 1_000_000, slowdown, mainNanos / 1_000_000, allocatedBytes >> 20,
+          peakHeapBytes >> 20, trackers, transformedClasses,
+          transformNanos < 0 ? -1 : transformNanos / 1_000_000, trackerCacheHitRate());
+    }
+
+    /** Percentage of lookups of trackers that hit the per-thread cache */
+    double trackerCacheHitRate() {
+      long lookups = trackerCacheHits + trackerCacheMisses;
+      return trackerCacheHits < 0 || lookups <= 0 ? Double.NaN : 100.0 * trackerCacheHits / lookups;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package demo.benchmark;
+
+import com.sun.management.ThreadMXBean;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Properties;
+
+/**
+ * Runs the main method of a demo, and then writes measurements about it to a properties file.
+ * This runs in the JVM that is being measured, launched by {@link DemoBenchmark}.
+ * <p>
+ * Usage: {@code DemoHarness <mainClass> <outputFile>}
+ */
+public class DemoHarness {
+  public static void main(String... args) throws Throwable {
+    long start = System.nanoTime();
+    try {
+      Class.forName(args[0]).getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+    long mainNanos = System.nanoTime() - start;
+
+    Properties result = new Properties();
+    result.setProperty("main.nanos", Long.toString(mainNanos));
+    result.setProperty("allocated.bytes", Long.toString(
+        ((ThreadMXBean) ManagementFactory.getThreadMXBean()).getTotalThreadAllocatedBytes()));
+    result.setProperty("peakHeap.bytes", Long.toString(peakHeap()));
+    try (OutputStream out = new FileOutputStream(args[1])) {
+      result.store(out, null);
+    }
+  }
+
+  /**
+   * Sum of the peak usage of all heap memory pools. Pools don't necessarily reach their peak at the
+   * same time, so this is an upper bound.
+   */
+  private static long peakHeap() {
+    long result = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        result += pool.getPeakUsage().getUsed();
+      }
+    }
+    return result;
+  }
+}
@@ -4,7 +4,6 @@ import static com.coekie.flowtracker.tracker.Context.context;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.coekie.flowtracker.tracker.ByteContentTracker;
-import com.coekie.flowtracker.tracker.ByteSequence;
 import com.coekie.flowtracker.tracker.ByteSinkTracker;
 import com.coekie.flowtracker.tracker.ClassOriginTracker;
 import com.coekie.flowtracker.tracker.Tracker;
@@ -15,16 +14,18 @@ import com.google.common.collect.Iterables;
 import com.google.common.primitives.Bytes;
 import com.google.common.truth.IterableSubject;
 import com.google.common.truth.StringSubject;
+import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.junit.rules.ExternalResource;
 
 public class DemoTestRule extends ExternalResource {
-  private final ByteSequence bout = new ByteSequence();
+  private final Bout bout = new Bout();
   private PrintStream originalOut;
   private final long trackerIdAtStart = Tracker.nextId();
 
@@ -40,7 +41,7 @@ public class DemoTestRule extends ExternalResource {
   }
 
   private Tracker outTracker() {
-    return TrackerRepository.getTracker(context(), bout.getByteContent().array());
+    return TrackerRepository.getTracker(context(), bout.buf());
   }
 
   /** Find a new Tracker that was created since this test started */
@@ -67,26 +68,25 @@ public class DemoTestRule extends ExternalResource {
 
   /** Returns a TrackerSubject for what the test wrote to System.out */
   TrackerSubject out() {
-    return new TrackerSubject(outTracker(), bout);
+    return new TrackerSubject(outTracker(), bout::toByteArray);
   }
 
   // like a Truth Subject, but too lazy to actually be one.
   static class TrackerSubject {
     private final Tracker tracker;
-    private final ByteSequence content;
+    private final Supplier<byte[]> content;
 
-    private TrackerSubject(Tracker tracker, ByteSequence content) {
+    private TrackerSubject(Tracker tracker, Supplier<byte[]> content) {
       this.tracker = tracker;
       this.content = content;
     }
 
     private TrackerSubject(Tracker tracker) {
-      this.tracker = tracker;
-      this.content = ((ByteContentTracker) tracker).getContent();
+      this(tracker, ((ByteContentTracker) tracker).getContent()::toByteArray);
     }
 
     private TrackerSnapshot snapshotOutput(byte[] prefix, byte[] expectedOutput) {
-      byte[] output = content.toByteArray();
+      byte[] output = content.get();
 
       int startIndex;
       if (prefix == null) {
@@ -165,4 +165,11 @@ public class DemoTestRule extends ExternalResource {
       return assertThat(tracker().getNode().path());
     }
   }
+
+  /** ByteArrayOutputStream that gives access to its buffer, to find the tracker of it */
+  private static class Bout extends ByteArrayOutputStream {
+    byte[] buf() {
+      return buf;
+    }
+  }
 }
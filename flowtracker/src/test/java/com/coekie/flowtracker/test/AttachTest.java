@@ -0,0 +1,164 @@
+package com.coekie.flowtracker.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import com.coekie.flowtracker.agent.FlowTrackerAgent;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Test for attaching to a running JVM and detaching again, see the `attach` command in
+ * {@link com.coekie.flowtracker.agent.Main}.
+ */
+public class AttachTest {
+  @Test public void attachAndDetach() throws Exception {
+    Process target = new ProcessBuilder(java(), "-cp", location(Target.class),
+        Target.class.getName())
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+    try {
+      BufferedReader targetOut = new BufferedReader(
+          new InputStreamReader(target.getInputStream(), StandardCharsets.UTF_8));
+      List<String> states = new ArrayList<>();
+      states.add(targetOut.readLine());
+
+      Process attach = new ProcessBuilder(java(), "-jar", location(FlowTrackerAgent.class),
+          "attach", Long.toString(target.pid()), "2",
+          "webmodule=false;retransformFilter=%base,+com.coekie.flowtracker.test.*")
+          .redirectErrorStream(true)
+          .start();
+      String attachOut = new String(attach.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+      attach.waitFor();
+      // e.g. when running in a sandbox
+      assumeFalse("Attaching not supported here: " + attachOut,
+          attachOut.contains("AttachNotSupportedException"));
+      assertEquals(attachOut, 0, attach.exitValue());
+
+      for (String line; (line = targetOut.readLine()) != null; ) {
+        states.add(line);
+      }
+      assertEquals(List.of("waiting", "tracking", "restored"), states);
+    } finally {
+      target.destroy();
+      target.waitFor(10, TimeUnit.SECONDS);
+    }
+  }
+
+  /** Attaching to a JVM that was started with FlowTracker as agent is refused */
+  @Test public void attachWhenAlreadyRunning() throws Exception {
+    File targetErr = File.createTempFile("flowtracker-attach", ".txt");
+    Process target = new ProcessBuilder(java(),
+        "-javaagent:" + location(FlowTrackerAgent.class) + "=webmodule=false;bypassJvmArgsCheck",
+        "-cp", location(Target.class), Target.class.getName())
+        .redirectError(targetErr)
+        .start();
+    try {
+      BufferedReader targetOut = new BufferedReader(
+          new InputStreamReader(target.getInputStream(), StandardCharsets.UTF_8));
+      assertEquals("waiting", targetOut.readLine());
+      assertEquals("tracking", targetOut.readLine());
+
+      Process attach = new ProcessBuilder(java(), "-jar", location(FlowTrackerAgent.class),
+          "attach", Long.toString(target.pid()), "1", "webmodule=false")
+          .redirectErrorStream(true)
+          .start();
+      String attachOut = new String(attach.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+      attach.waitFor();
+      assumeFalse("Attaching not supported here: " + attachOut,
+          attachOut.contains("AttachNotSupportedException"));
+
+      // if it had been attached, it would have detached after a second, and printed "restored"
+      Thread.sleep(3000);
+      assertTrue(target.isAlive());
+      assertFalse(targetOut.ready());
+      String err = Files.readString(targetErr.toPath());
+      assertTrue(err, err.contains("FlowTracker is already running in this JVM"));
+    } finally {
+      target.destroy();
+      target.waitFor(10, TimeUnit.SECONDS);
+      targetErr.delete();
+    }
+  }
+
+  private static String java() {
+    return System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+  }
+
+  private static String location(Class<?> clazz) throws Exception {
+    return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+  }
+
+  /**
+   * Application that FlowTracker gets attached to. Prints its state when it changes: "waiting"
+   * until copying an array gets tracked, then "tracking", and "restored" when that is not tracked
+   * anymore even though tracking is turned on, because the class has been restored to its original
+   * bytecode. FlowTracker classes are only available once it is attached, so we access them with
+   * reflection.
+   */
+  public static class Target {
+    public static void main(String[] args) throws Exception {
+      String state = "waiting";
+      System.out.println(state);
+      long deadline = System.currentTimeMillis() + 60_000;
+      while (!state.equals("restored") && System.currentTimeMillis() < deadline) {
+        boolean tracked = copyTracked();
+        String newState = tracked ? "tracking" : state.equals("waiting") ? "waiting" : "restored";
+        if (!newState.equals(state)) {
+          state = newState;
+          System.out.println(state);
+        }
+        Thread.sleep(100);
+      }
+    }
+
+    /** If copying a tracked array with instrumented code gets tracked */
+    private static boolean copyTracked() {
+      try {
+        Class<?> contextClass = flowTrackerClass("Context");
+        Class<?> repository = flowTrackerClass("TrackerRepository");
+        Method context = contextClass.getMethod("context");
+        Method getTracker = repository.getMethod("getTracker", contextClass, Object.class);
+        Method createFakeOriginTracker =
+            repository.getMethod("createFakeOriginTracker", Object.class, int.class);
+        // detaching turns tracking off. turn it on again, to check that the class was restored
+        flowTrackerClass("TrackingSwitch")
+            .getMethod("setOn", boolean.class)
+            .invoke(null, true);
+
+        byte[] src = new byte[3];
+        createFakeOriginTracker.invoke(null, src, src.length);
+        byte[] dst = new byte[3];
+        copy(src, dst);
+        return getTracker.invoke(null, context.invoke(null), dst) != null;
+      } catch (ReflectiveOperationException | LinkageError e) {
+        return false; // not attached (completely) yet
+      }
+    }
+
+    /**
+     * Class from the tracker package, as loaded by the bootstrap class loader. Attaching also adds
+     * the agent jar to the application class path, so we must not let the application class
+     * loader load it from there.
+     */
+    private static Class<?> flowTrackerClass(String name) throws ClassNotFoundException {
+      return Class.forName("com.coekie.flowtracker.tracker." + name, true, null);
+    }
+
+    private static void copy(byte[] src, byte[] dst) {
+      for (int i = 0; i < src.length; i++) {
+        dst[i] = src[i];
+      }
+    }
+  }
+}
@@ -8,7 +8,9 @@ import static com.coekie.flowtracker.tracker.TrackerSnapshot.assertThatTrackerOf
 import static com.coekie.flowtracker.tracker.TrackerSnapshot.snapshot;
 import static com.google.common.truth.Truth.assertThat;
 
+import com.coekie.flowtracker.tracker.Tracker;
 import com.coekie.flowtracker.tracker.TrackerSnapshot;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 /**
@@ -124,4 +126,91 @@ public class ArrayTest {
         .part(ft.point())
         .part(ft2.point()));
   }
+
+  /**
+   * Consecutive stores get combined (see TrackerUpdater.setElementSource). They are applied before
+   * the array is handed over to other code, that could pass it on to another thread.
+   */
+  @Test public void storesSeenByOtherThread() {
+    byte[] abc = trackedByteArray("abc");
+    byte[] array = new byte[3];
+    for (int i = 0; i < 3; i++) {
+      array[i] = abc[i];
+    }
+    assertThat(snapshotInOtherThread(array)).isEqualTo(snapshot().track(3, abc, 0).build());
+  }
+
+  /** Combined stores are applied when the method doing them is left by an exception */
+  @Test public void storesUntilException() {
+    byte[] abc = trackedByteArray("abc");
+    byte[] array = new byte[3];
+    boolean thrown = false;
+    try {
+      copyUntil(abc, array, 2);
+    } catch (IllegalStateException e) {
+      thrown = true;
+    }
+    TrackerSnapshot seen = snapshotInOtherThread(array);
+
+    assertThat(thrown).isTrue();
+    assertThat(seen).isEqualTo(snapshot().track(2, abc, 0).build());
+  }
+
+  /** Copy `src` into `dst`, until {@link #STOP} is thrown at index `stopAt` */
+  private static void copyUntil(byte[] src, byte[] dst, int stopAt) {
+    for (int i = 0; i < src.length; i++) {
+      checkStop(i, stopAt);
+      dst[i] = src[i];
+    }
+  }
+
+  // preallocated, because creating an exception stores in other arrays, and that would already
+  // apply the combined stores
+  private static final IllegalStateException STOP = new IllegalStateException("stop");
+
+  private static void checkStop(int i, int stopAt) {
+    if (i == stopAt) {
+      throw STOP;
+    }
+  }
+
+  /** Array handed over to {@link #startOtherThread the other thread} */
+  private static volatile Object handOver;
+  /** Snapshot of the tracker of {@link #handOver}, taken by the other thread */
+  private static volatile TrackerSnapshot seenByOtherThread;
+
+  /**
+   * Start a thread that takes snapshots of arrays for {@link #snapshotInOtherThread}. That has to be
+   * started in advance, and the handing over of arrays to it does not call any other code, because
+   * that could store in other arrays, and that would already apply the combined stores.
+   */
+  @BeforeClass
+  public static void startOtherThread() {
+    Thread thread = new Thread(() -> {
+      while (true) {
+        Object array = handOver;
+        if (array != null) {
+          Tracker tracker = getTracker(context(), array);
+          seenByOtherThread = tracker == null ? null : TrackerSnapshot.of(tracker);
+          handOver = null;
+        }
+        try {
+          Thread.sleep(1);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Snapshot of the tracker of `array`, as seen by another thread */
+  private static TrackerSnapshot snapshotInOtherThread(Object array) {
+    handOver = array;
+    while (handOver != null) {
+      // wait for the other thread
+    }
+    return seenByOtherThread;
+  }
 }
@@ -19,7 +19,7 @@ public class FieldTest {
   public void testFieldStore() {
     FlowTester tester = new FlowTester();
     c = tester.createSourceChar('a');
-    String fieldId =
+    int fieldId =
         FieldRepository.fieldId("com/coekie/flowtracker/test/FieldTest", "c");
     TrackerPoint point = requireNonNull(FieldRepository.getPoint(this, fieldId));
     assertThat(point).isEqualTo(tester.point());
@@ -29,7 +29,7 @@ public class FieldTest {
   @Test
   public void testFieldValue() {
     TrackerPoint point = TrackerPoint.of(new FakeOriginTracker(2), 42);
-    String fieldId =
+    int fieldId =
         FieldRepository.fieldId("com/coekie/flowtracker/test/FieldTest", "c");
     FieldRepository.setPoint(this, fieldId, point);
 
@@ -0,0 +1,91 @@
+package com.coekie.flowtracker.test;
+
+import static com.coekie.flowtracker.test.TrackTestHelper.trackedByteArray;
+import static com.coekie.flowtracker.tracker.Context.context;
+import static com.coekie.flowtracker.tracker.TrackerRepository.getTracker;
+import static com.coekie.flowtracker.tracker.TrackerSnapshot.assertThatTrackerOf;
+import static com.coekie.flowtracker.tracker.TrackerSnapshot.snapshot;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.coekie.flowtracker.tracker.TrackingSwitch;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test for turning tracking off and on again with {@link TrackingSwitch}, for code that calls hooks
+ * through SwitchableCallSites
+ */
+public class TrackingSwitchTest {
+  @After
+  public void after() {
+    TrackingSwitch.setOn(true);
+  }
+
+  @Test public void arrayStore() {
+    byte[] abc = trackedByteArray("abc");
+
+    TrackingSwitch.setOn(false);
+    byte[] copiedWhileOff = copy(abc);
+    TrackingSwitch.setOn(true);
+    byte[] copiedWhileOn = copy(abc);
+    TrackingSwitch.setOn(false);
+    byte[] copiedWhileOffAgain = copy(abc);
+    TrackingSwitch.setOn(true);
+
+    // the values are still stored, only not tracked
+    assertThat(new String(copiedWhileOff, StandardCharsets.UTF_8)).isEqualTo("abc");
+    assertThat(getTracker(context(), copiedWhileOff)).isNull();
+    assertThatTrackerOf(copiedWhileOn).matches(snapshot().track(3, abc, 0));
+    assertThat(new String(copiedWhileOffAgain, StandardCharsets.UTF_8)).isEqualTo("abc");
+    assertThat(getTracker(context(), copiedWhileOffAgain)).isNull();
+  }
+
+  @Test public void invocation() {
+    byte[] abc = trackedByteArray("abc");
+    byte[] result = new byte[2];
+
+    TrackingSwitch.setOn(false);
+    byte whileOff = second(abc);
+    TrackingSwitch.setOn(true);
+    result[0] = whileOff;
+    result[1] = second(abc);
+
+    assertThat(whileOff).isEqualTo((byte) 'b');
+    assertThatTrackerOf(result).matches(snapshot().gap(1).track(1, abc, 1));
+  }
+
+  /**
+   * Tracking through invocations the first time they are called, when their call sites get linked.
+   * These methods are not called anywhere else.
+   */
+  @Test public void invocationFirstCall() {
+    byte[] abc = trackedByteArray("abc");
+    byte[] result = new byte[2];
+    result[0] = third(abc);
+    result[1] = wrap(abc[1])[0];
+    assertThatTrackerOf(result).matches(snapshot().track(1, abc, 2).track(1, abc, 1));
+  }
+
+  private static byte[] copy(byte[] src) {
+    byte[] result = new byte[src.length];
+    for (int i = 0; i < src.length; i++) {
+      result[i] = src[i];
+    }
+    return result;
+  }
+
+  private static byte second(byte[] array) {
+    return array[1];
+  }
+
+  private static byte third(byte[] array) {
+    return array[2];
+  }
+
+  private static byte[] wrap(byte b) {
+    byte[] result = new byte[1];
+    result[0] = b;
+    return result;
+  }
+}
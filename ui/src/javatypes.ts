@@ -42,6 +42,10 @@ export interface NodeDetail {
   names: string[];
   children: NodeDetail[];
   tracker: Tracker | null;
+  // number of trackers that were evicted to limit memory usage
+  evicted?: number;
+  // only on the root, if not everything is tracked
+  sampling?: string;
 
   // added on client side (TrackerTree.enrich)
   path: string[];
@@ -63,4 +67,5 @@ export interface Line {
 export interface Settings {
   snapshot: boolean;
   suspendShutdown: boolean;
+  tracking: boolean;
 }
@@ -1,6 +1,7 @@
 import {render, screen} from '@testing-library/svelte';
 import userEvent, {type UserEvent} from '@testing-library/user-event';
 import {expect, test} from 'vitest';
+import {http, HttpResponse} from 'msw';
 
 import TrackerTree from './TrackerTree.svelte';
 import {Coloring} from './coloring';
@@ -137,3 +138,25 @@ test('node with multiple names: coloring of full name', async () => {
     'background-color': coloring.assignments[0].color,
   });
 });
+
+test('sampling', async () => {
+  server.use(
+    http.get('/tree/all', () =>
+      HttpResponse.json({
+        names: ['<root>'],
+        children: [],
+        tracker: null,
+        sampling: 'Sampling 10% of threads (1 tracked, 9 skipped)',
+      })
+    )
+  );
+  render(TrackerTree, {
+    onTrackerSelected: null,
+    selection: null,
+    coloring: new Coloring(),
+  }).component;
+
+  expect(
+    await screen.findByText('Sampling 10% of threads (1 tracked, 9 skipped)')
+  ).toBeInTheDocument();
+});
@@ -18,29 +18,49 @@ package com.coekie.flowtracker.weaver;
 
 import static com.coekie.flowtracker.tracker.Context.context;
 
+import com.coekie.flowtracker.tracker.ClassOriginTracker;
 import com.coekie.flowtracker.tracker.Context;
 import com.coekie.flowtracker.tracker.Invocation;
 import com.coekie.flowtracker.util.Config;
 import com.coekie.flowtracker.util.Logger;
+import com.coekie.flowtracker.util.Stats;
 import com.coekie.flowtracker.weaver.debug.DumpTextTransformer;
 import com.coekie.flowtracker.weaver.debug.RealCommentator;
 import com.coekie.flowtracker.weaver.flow.FlowTransformer;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
 import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.util.CheckClassAdapter;
 
 class AsmTransformer implements ClassFileTransformer {
   private static final Logger logger = new Logger("AsmTransformer");
+  private static final AtomicLong transformedClasses = Stats.counter("transform.classes");
+  private static final AtomicLong transformNanos = Stats.counter("transform.nanos");
+  private static final AtomicLong precomputeMismatches =
+      Stats.counter("startup.precompute.mismatches");
   private static final String BASE_FILTER = "+java.util.Arrays,"
       + "+java.lang.String*," // String and friends like StringBuilder, StringLatin1
       + "+java.lang.AbstractStringBuilder,"
@@ -75,12 +95,34 @@ class AsmTransformer implements ClassFileTransformer {
       + "+*";
 
   private final ClassFilter toInstrumentFilter;
+  /**
+   * Which of the classes that were already loaded at startup get retransformed (unless they have
+   * hooks, those always are). See `retransformFilter` in USAGE.md.
+   */
+  private final ClassFilter retransformFilter;
   private final File dumpByteCodePath;
   private final File dumpTextPath;
   private final String dumpTextPrefix;
   private final Config config;
   private final HookSpecTransformer hookSpecTransformer;
   private final FlowTransformer flowTransformer;
+  /** Variant of flowTransformer for classes that will be stored in the cache */
+  private final FlowTransformer cachingFlowTransformer;
+  /** Cache of transformed classes; null if disabled */
+  private final BytecodeCache cache;
+
+  /**
+   * Instrumented classes that are about to be retransformed, that have been computed in advance.
+   * See {@link #precompute(Class)}.
+   */
+  private final Map<Class<?>, Precomputed> precomputed = new ConcurrentHashMap<>();
+
+  /**
+   * Names of the classes that we changed the bytecode of, so that they can be restored when
+   * detaching (see {@link WeaverInitializer#detach}). Names instead of classes, because when a
+   * class is being loaded for the first time we don't get its Class.
+   */
+  final Set<String> transformedClassNames = ConcurrentHashMap.newKeySet();
 
   boolean firstRoundDone = false;
   /** When non-null this gets called for every class that is being transformed by our agent */
@@ -88,6 +130,7 @@ class AsmTransformer implements ClassFileTransformer {
 
   AsmTransformer(Config config) {
     toInstrumentFilter = new ClassFilter(config.get("filter", DEFAULT_FILTER), BASE_FILTER);
+    retransformFilter = new ClassFilter(config.get("retransformFilter", "+*"), BASE_FILTER);
     dumpByteCodePath = config.containsKey("dumpByteCode")
         ? new File(config.get("dumpByteCode"))
         : null;
@@ -98,27 +141,55 @@ class AsmTransformer implements ClassFileTransformer {
     this.config = config;
     hookSpecTransformer = GeneratedHookSpecs.createTransformer(config);
     flowTransformer = new FlowTransformer(config);
+    cachingFlowTransformer = flowTransformer.withClassIdPlaceholder();
+    cache = BytecodeCache.create(config);
   }
 
   public byte[] transform(ClassLoader loader, String className,
       Class<?> classBeingRedefined, ProtectionDomain protectionDomain,
       byte[] classfileBuffer) {
+    byte[] result = transform(loader, className, classBeingRedefined, classfileBuffer, true);
+    if (result != null) {
+      transformedClassNames.add(className);
+    }
+    return result;
+  }
+
+  /** @param reportErrors if exceptions during transformation should be logged as errors */
+  private byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+      byte[] classfileBuffer, boolean reportErrors) {
     Invocation suspended = Invocation.suspend();
     Context context = context();
     context.suspend();
+    long start = System.nanoTime();
     try {
       // instrumenting these classes can cause ClassCircularityError when running with -Xverify:all,
       // because they are used indirectly by Modules.transformedByAgent.
       // so we don't instrument them in the first round of instrumentation (see WeaverInitializer).
-      if (!firstRoundDone && (className.startsWith("java/lang/WeakPairMap")
-          || className.startsWith("java/lang/Module"))) {
+      if (deferredToSecondRound(className)) {
         return null;
       }
       if (transformListener != null) {
         transformListener.accept(className);
       }
+      if (classBeingRedefined != null && !precomputed.isEmpty()) {
+        Precomputed p = precomputed.remove(classBeingRedefined);
+        if (p != null) {
+          if (p.structure.equals(structure(classfileBuffer))) {
+            return p.result;
+          }
+          // the class file that we found was not what the class was actually loaded from. e.g.
+          // the JDK's LambdaForm holder classes are regenerated when creating a CDS archive, or
+          // another agent changed the class.
+          precomputeMismatches.incrementAndGet();
+          if (p.classOriginTracker != null) {
+            ClassOriginTracker.unregister(p.classOriginTracker);
+          }
+          logger.info("Precomputed %s does not match the loaded class", className);
+        }
+      }
 
-      Transformer adapterFactory = getAdapterFactory(loader, className);
+      Transformer adapterFactory = getAdapterFactory(loader, className, false);
       if (adapterFactory == null) {
         return null;
       }
@@ -134,43 +205,315 @@ class AsmTransformer implements ClassFileTransformer {
           ? new CheckClassAdapter(new ClassVisitor(Opcodes.ASM9, writer) {})
           : writer;
 
-      ClassVisitor adapter = adapterFactory.transform(loader, className, wrappedWriter);
-      if (className.equals("java/lang/String")) {
-        adapter = new StringAdapter(adapter, config);
-      }
+      ClassVisitor adapter = createAdapter(adapterFactory, loader, className, wrappedWriter);
 
       // optimization: if we aren't changing anything, then don't process the class
       if (adapter == wrappedWriter) {
         return null;
       }
 
+      String cacheKey = null;
+      int firstClassId = 0;
+      if (cache != null) {
+        cacheKey = cache.key(className, classfileBuffer);
+        byte[] cached = cache.load(cacheKey, loader, className);
+        if (cached != null) {
+          logger.info("Loaded transformed %s from cache", className);
+          return cached;
+        }
+        if (BytecodeCache.containsPlaceholder(classfileBuffer)) {
+          cacheKey = null; // we could not tell our placeholder apart from the class's own constant
+        } else {
+          adapter = createAdapter(getAdapterFactory(loader, className, true), loader, className,
+              wrappedWriter);
+          firstClassId = ClassOriginTracker.nextClassId();
+        }
+      }
+
       new ClassReader(classfileBuffer).accept(adapter, ClassReader.EXPAND_FRAMES);
       byte[] result = writer.toByteArray();
 
+      if (cacheKey != null) {
+        result = cache.store(cacheKey, loader, className, result, firstClassId);
+      }
+
       maybeDumpByteCode(className, result);
 
+      transformedClasses.incrementAndGet();
       logger.info("Transformed %s", className);
       return result;
     } catch (Throwable t) {
-      logger.error(t, "Exception transforming %s", className);
+      if (reportErrors) {
+        logger.error(t, "Exception transforming %s", className);
+      }
       throw new RuntimeException("Exception transforming class " + className, t);
     } finally {
+      transformNanos.addAndGet(System.nanoTime() - start);
       Invocation.unsuspend(suspended);
       context.unsuspend();
     }
   }
 
+  private boolean deferredToSecondRound(String className) {
+    return !firstRoundDone && (className.startsWith("java/lang/WeakPairMap")
+        || className.startsWith("java/lang/Module"));
+  }
+
+  /**
+   * Instrument an already loaded class in advance, based on its class file as found as resource,
+   * so that retransforming it later does not have to do that work. This allows instrumenting
+   * classes that are loaded at startup in parallel, while the JVM calls {@link #transform} for
+   * retransformed classes one by one.
+   *
+   * @return false if it turns out the class does not need to be retransformed
+   */
+  boolean precompute(Class<?> clazz) {
+    String className = Type.getInternalName(clazz);
+    if (deferredToSecondRound(className)) {
+      return true;
+    }
+    byte[] original;
+    try (InputStream in = clazz.getResourceAsStream('/' + className + ".class")) {
+      if (in == null) { // e.g. generated at runtime. will be instrumented when retransformed.
+        return true;
+      }
+      original = in.readAllBytes();
+    } catch (IOException e) {
+      return true;
+    }
+    ClassLoader loader = clazz.getClassLoader();
+    int firstClassId = ClassOriginTracker.nextClassId();
+    byte[] result;
+    try {
+      result = transform(loader, className, null, original, false);
+    } catch (RuntimeException e) {
+      // try again when retransforming, with the class file that it was actually loaded from
+      ClassOriginTracker tracker =
+          ClassOriginTracker.findRegisteredSince(firstClassId, loader, className);
+      if (tracker != null) {
+        ClassOriginTracker.unregister(tracker);
+      }
+      return true;
+    }
+    if (result == null) {
+      return false;
+    }
+    // other classes can get registered concurrently, but not this one
+    precomputed.put(clazz, new Precomputed(structure(original), result,
+        ClassOriginTracker.findRegisteredSince(firstClassId, loader, className)));
+    return true;
+  }
+
+  /** A class that was instrumented by {@link #precompute(Class)} */
+  private static class Precomputed {
+    /** {@link #structure(byte[])} of the class file that was instrumented */
+    final String structure;
+    /** The instrumented class */
+    final byte[] result;
+    /**
+     * Tracker registered for the constants in {@link #result}, if any; to unregister when the
+     * result is not used.
+     */
+    final ClassOriginTracker classOriginTracker;
+
+    Precomputed(String structure, byte[] result, ClassOriginTracker classOriginTracker) {
+      this.structure = structure;
+      this.result = result;
+      this.classOriginTracker = classOriginTracker;
+    }
+  }
+
+  /**
+   * Description of the declaration of a class and of its fields and methods, and a hash of the
+   * instructions of each method. Used to check that a precomputed class was based on the same class
+   * as the one that is being retransformed: the class file that the JVM gives us when
+   * retransforming is reconstructed from the loaded class, so it is not byte-for-byte the same as
+   * the original class file. Comparing the instructions detects classes of which another agent
+   * changed the code; without that we would replace their changes with our precomputed class.
+   * Debug information (line numbers, local variable names) and stack map frames are not included.
+   */
+  private static String structure(byte[] classfileBuffer) {
+    List<String> result = new ArrayList<>();
+    new ClassReader(classfileBuffer).accept(new ClassVisitor(Opcodes.ASM9) {
+      @Override
+      public void visit(int version, int access, String name, String signature, String superName,
+          String[] interfaces) {
+        result.add("class " + flags(access) + " " + name + " " + superName + " "
+            + Arrays.toString(interfaces));
+      }
+
+      @Override
+      public FieldVisitor visitField(int access, String name, String descriptor,
+          String signature, Object value) {
+        result.add("field " + flags(access) + " " + name + " " + descriptor);
+        return null;
+      }
+
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor,
+          String signature, String[] exceptions) {
+        String method = "method " + flags(access) + " " + name + descriptor;
+        return new CodeHasher() {
+          @Override
+          public void visitEnd() {
+            result.add(method + " " + Integer.toHexString(code.toString().hashCode()));
+          }
+        };
+      }
+    }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    Collections.sort(result);
+    return String.join("\n", result);
+  }
+
+  /**
+   * Collects a description of the instructions of a method in {@link #code}, in a form that does
+   * not depend on how the constant pool is laid out.
+   */
+  private static class CodeHasher extends MethodVisitor {
+    final StringBuilder code = new StringBuilder();
+    /** Labels numbered in the order we first see them, because offsets can differ */
+    private final Map<Label, Integer> labels = new HashMap<>();
+
+    CodeHasher() {
+      super(Opcodes.ASM9);
+    }
+
+    private String label(Label label) {
+      Integer index = labels.get(label);
+      if (index == null) {
+        index = labels.size();
+        labels.put(label, index);
+      }
+      return "L" + index;
+    }
+
+    private void add(Object... parts) {
+      for (Object part : parts) {
+        code.append(part).append(' ');
+      }
+      code.append('\n');
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+      add(opcode);
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+      add(opcode, operand);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int varIndex) {
+      add(opcode, varIndex);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+      add(opcode, type);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+      add(opcode, owner, name, descriptor);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor,
+        boolean isInterface) {
+      add(opcode, owner, name, descriptor);
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle,
+        Object... bootstrapMethodArguments) {
+      add("indy", name, descriptor, bootstrapMethodHandle,
+          Arrays.toString(bootstrapMethodArguments));
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+      add(opcode, label(label));
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+      add(label(label));
+    }
+
+    @Override
+    public void visitLdcInsn(Object value) {
+      add("ldc", value.getClass().getSimpleName(), value);
+    }
+
+    @Override
+    public void visitIincInsn(int varIndex, int increment) {
+      add("iinc", varIndex, increment);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+      add("tableswitch", min, max, label(dflt));
+      for (Label label : labels) {
+        add(label(label));
+      }
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+      add("lookupswitch", label(dflt), Arrays.toString(keys));
+      for (Label label : labels) {
+        add(label(label));
+      }
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+      add("multianewarray", descriptor, numDimensions);
+    }
+
+    @Override
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+      add("try", label(start), label(end), label(handler), type);
+    }
+  }
+
+  /**
+   * Access flags, without ACC_DEPRECATED. ASM adds that flag for the Deprecated attribute, which is
+   * not included in the class file that the JVM gives us when retransforming.
+   */
+  private static int flags(int access) {
+    return access & ~Opcodes.ACC_DEPRECATED;
+  }
+
   boolean shouldRetransformOnStartup(Class<?> clazz, Instrumentation instrumentation) {
     if (!instrumentation.isModifiableClass(clazz)) {
       return false;
     }
-    Transformer transformer =
-        getAdapterFactory(clazz.getClassLoader(), Type.getInternalName(clazz));
+    String className = Type.getInternalName(clazz);
+    if (!retransformFilter.include(className) && !hookSpecTransformer.hasHooks(className)) {
+      return false;
+    }
+    Transformer transformer = getAdapterFactory(clazz.getClassLoader(), className, false);
     return transformer != null
-        && transformer.transform(clazz.getClassLoader(), Type.getInternalName(clazz), null) != null;
+        && transformer.transform(clazz.getClassLoader(), className, null) != null;
+  }
+
+  private ClassVisitor createAdapter(Transformer adapterFactory, ClassLoader loader,
+      String className, ClassVisitor writer) {
+    ClassVisitor adapter = adapterFactory.transform(loader, className, writer);
+    if (className.equals("java/lang/String")) {
+      adapter = new StringAdapter(adapter, config);
+    }
+    return adapter;
   }
 
-  private Transformer getAdapterFactory(ClassLoader classLoader, String className) {
+  /**
+   * @param forCache if the transformed class is going to be stored in the {@link BytecodeCache}
+   */
+  private Transformer getAdapterFactory(ClassLoader classLoader, String className,
+      boolean forCache) {
     // don't transform classes without a name,
     // e.g. classes created at runtime through Unsafe.defineAnonymousClass
     if (className == null) {
@@ -199,7 +542,7 @@ class AsmTransformer implements ClassFileTransformer {
     if (toInstrumentFilter.include(className)) {
       result = Transformer.and(result, new SuspendInvocationTransformer());
       if (dumpTextPath == null || !className.startsWith(dumpTextPrefix)) {
-        result = Transformer.and(result, flowTransformer);
+        result = Transformer.and(result, forCache ? cachingFlowTransformer : flowTransformer);
       } else {
         // if we're dumping the text, then use RealCommentator to instrument it, so that the dumped
         // text includes comments
@@ -0,0 +1,382 @@
+package com.coekie.flowtracker.weaver;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.coekie.flowtracker.tracker.ClassOriginTracker;
+import com.coekie.flowtracker.util.Config;
+import com.coekie.flowtracker.util.Logger;
+import com.coekie.flowtracker.util.Stats;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.objectweb.asm.ClassReader;
+
+/**
+ * On-disk cache of instrumented classes, so that they don't have to be analyzed and instrumented
+ * again in the next run. Enabled with the `bytecodeCache` option.
+ * <p>
+ * Entries are keyed by a hash of the original class, the version of flowtracker, and the
+ * configuration options that can influence instrumentation. Next to the instrumented class, an
+ * entry contains the content of the {@link ClassOriginTracker} that was built while instrumenting
+ * it, so that can be registered again when the class is loaded from the cache.
+ * <p>
+ * Instrumented code refers to its {@link ClassOriginTracker} by classId, and that is different in
+ * every run. So classes that are cached are instrumented using a placeholder value
+ * ({@link #CLASS_ID_PLACEHOLDER}) instead, that is replaced in the constant pool by the actual
+ * classId before the class is returned to the JVM.
+ */
+public class BytecodeCache {
+  private static final Logger logger = new Logger("BytecodeCache");
+  private static final AtomicLong hits = Stats.counter("bytecodeCache.hits");
+  private static final AtomicLong misses = Stats.counter("bytecodeCache.misses");
+
+  /**
+   * Value used in instrumented code in place of the classId, when it is going to be cached.
+   * Arbitrary, but it must not be used in the original class. Classes that do contain this value as
+   * a constant are not cached.
+   */
+  public static final int CLASS_ID_PLACEHOLDER = 0x7ead_c1d5;
+
+  private static final int MAGIC = 0x46544243; // "FTBC"
+  private static final int FORMAT_VERSION = 1;
+  /** Tag of CONSTANT_Integer entries in the constant pool */
+  private static final int CONSTANT_INTEGER_TAG = 3;
+
+  /**
+   * Options that only affect what happens at runtime, not how classes get instrumented; so that
+   * changing them doesn't invalidate the cache
+   */
+  private static final Set<String> RUNTIME_OPTIONS = Set.of("port", "webserver", "webmodule",
+      "suspendShutdown", "snapshotOnExit", "snapshotOnExitMinimized", "trackCreation", "logging",
+      "exitOnError", "verify", "dumpByteCode", "statsOnExit", "contentStore", "contentBudget",
+      "contentSpillDir", "bypassJvmArgsCheck", "bytecodeCache", "detachAfter",
+      "retransformFilter");
+
+  private final Path dir;
+  /** Digest initialized with everything that applies to all classes */
+  private final MessageDigest baseDigest;
+
+  private BytecodeCache(Path dir, Config config) throws IOException {
+    this.dir = dir;
+    Files.createDirectories(dir);
+    try {
+      baseDigest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    addFingerprint(baseDigest, Config.class);
+    addFingerprint(baseDigest, BytecodeCache.class);
+    for (String key : new TreeSet<>(config.keySet())) {
+      if (!RUNTIME_OPTIONS.contains(key)) {
+        update(baseDigest, key + "=" + config.get(key) + ";");
+      }
+    }
+    warmUp();
+  }
+
+  /** Create the cache if it is enabled in the configuration, or return null */
+  static BytecodeCache create(Config config) {
+    String path = config.get("bytecodeCache");
+    if (path == null) {
+      return null;
+    }
+    if (config.containsKey("dumpText")) {
+      // dumping text happens while instrumenting, so that wouldn't work for cached classes
+      logger.info("bytecodeCache disabled because dumpText is enabled");
+      return null;
+    }
+    if (config.containsKey("lazy")) {
+      // how lazily instrumented classes are instrumented depends on what happened at runtime
+      logger.info("bytecodeCache disabled because lazy is enabled");
+      return null;
+    }
+    try {
+      return new BytecodeCache(Paths.get(path), config);
+    } catch (IOException e) {
+      logger.error(e, "Failed to initialize bytecodeCache in %s", path);
+      return null;
+    }
+  }
+
+  /** Key for the cache entry of a class */
+  String key(String className, byte[] classfileBuffer) {
+    MessageDigest digest;
+    try {
+      digest = (MessageDigest) baseDigest.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new IllegalStateException(e);
+    }
+    update(digest, className);
+    digest.update(classfileBuffer);
+    StringBuilder sb = new StringBuilder();
+    for (byte b : digest.digest()) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the instrumented class from the cache, registering its {@link ClassOriginTracker}; or
+   * null if it is not in the cache.
+   */
+  byte[] load(String key, ClassLoader loader, String className) {
+    Path file = dir.resolve(key);
+    if (!Files.isRegularFile(file)) {
+      misses.incrementAndGet();
+      return null;
+    }
+    Entry entry;
+    try {
+      entry = read(file);
+    } catch (IOException e) {
+      logger.info("Ignoring unreadable cache entry %s for %s: %s", file, className, e);
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    if (entry.content == null) {
+      return entry.bytes;
+    }
+    ClassOriginTracker tracker = ClassOriginTracker.registerClass(loader, className,
+        entry.sourceFile, entry.content, entry.lineEntries);
+    return patchClassId(entry.bytes, tracker.classId);
+  }
+
+  /**
+   * Store an instrumented class, which was instrumented with the {@link #CLASS_ID_PLACEHOLDER}.
+   * Returns the class with the placeholder replaced, as it should be returned to the JVM.
+   *
+   * @param firstClassId {@link ClassOriginTracker#nextClassId()} from before instrumentation
+   */
+  byte[] store(String key, ClassLoader loader, String className, byte[] instrumented,
+      int firstClassId) {
+    ClassOriginTracker tracker =
+        ClassOriginTracker.findRegisteredSince(firstClassId, loader, className);
+    Entry entry = new Entry();
+    entry.bytes = instrumented;
+    if (tracker != null) {
+      synchronized (tracker) {
+        entry.sourceFile = tracker.sourceFile;
+        entry.content = tracker.getContent().toString();
+        List<Integer> lineEntries = new ArrayList<>();
+        tracker.pushLineNumbers((start, end, line) -> {
+          lineEntries.add(start);
+          lineEntries.add(end - start);
+          lineEntries.add(line);
+        });
+        // not using a stream: this runs while classes are being loaded, and loading the classes
+        // that needs from here can cause ClassCircularityErrors
+        entry.lineEntries = new int[lineEntries.size()];
+        for (int i = 0; i < lineEntries.size(); i++) {
+          entry.lineEntries[i] = lineEntries.get(i);
+        }
+      }
+    }
+    try {
+      write(dir.resolve(key), entry);
+    } catch (IOException e) {
+      logger.error(e, "Failed to write cache entry for %s", className);
+    }
+    return tracker == null ? instrumented : patchClassId(instrumented, tracker.classId);
+  }
+
+  /**
+   * Returns if the class contains {@link #CLASS_ID_PLACEHOLDER} in its constant pool, in which
+   * case we cannot cache it.
+   */
+  static boolean containsPlaceholder(byte[] classfileBuffer) {
+    ClassReader reader = new ClassReader(classfileBuffer);
+    for (int i = 1; i < reader.getItemCount(); i++) {
+      if (isPlaceholder(classfileBuffer, reader.getItem(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Replace {@link #CLASS_ID_PLACEHOLDER} with `classId` in the constant pool */
+  static byte[] patchClassId(byte[] bytes, int classId) {
+    byte[] result = bytes.clone();
+    ClassReader reader = new ClassReader(bytes);
+    for (int i = 1; i < reader.getItemCount(); i++) {
+      int offset = reader.getItem(i);
+      if (isPlaceholder(bytes, offset)) {
+        result[offset] = (byte) (classId >>> 24);
+        result[offset + 1] = (byte) (classId >>> 16);
+        result[offset + 2] = (byte) (classId >>> 8);
+        result[offset + 3] = (byte) classId;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Checks if the constant pool entry at `offset` (as returned by {@link ClassReader#getItem(int)},
+   * that is just after the tag) is the placeholder
+   */
+  private static boolean isPlaceholder(byte[] bytes, int offset) {
+    // offset is 0 for the unused entries after long and double constants
+    return offset != 0
+        && bytes[offset - 1] == CONSTANT_INTEGER_TAG
+        && ((bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+            | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff))
+            == CLASS_ID_PLACEHOLDER;
+  }
+
+  /** Contents of a cache entry */
+  private static class Entry {
+    byte[] bytes;
+    /** Content of the ClassOriginTracker, or null if none was registered */
+    String content;
+    String sourceFile;
+    int[] lineEntries;
+  }
+
+  private void write(Path file, Entry entry) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bout);
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeBoolean(entry.content != null);
+    if (entry.content != null) {
+      out.writeBoolean(entry.sourceFile != null);
+      if (entry.sourceFile != null) {
+        out.writeUTF(entry.sourceFile);
+      }
+      writeBytes(out, entry.content.getBytes(StandardCharsets.UTF_8));
+      out.writeInt(entry.lineEntries.length);
+      for (int i : entry.lineEntries) {
+        out.writeInt(i);
+      }
+    }
+    writeBytes(out, entry.bytes);
+    out.flush();
+
+    // write to a temporary file first, so that other JVMs never see a partially written entry
+    Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+    try {
+      Files.write(tmp, bout.toByteArray());
+      Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private static Entry read(Path file) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)));
+    if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+      throw new IOException("Unsupported format");
+    }
+    Entry entry = new Entry();
+    if (in.readBoolean()) {
+      entry.sourceFile = in.readBoolean() ? in.readUTF() : null;
+      entry.content = new String(readBytes(in), StandardCharsets.UTF_8);
+      entry.lineEntries = new int[in.readInt()];
+      for (int i = 0; i < entry.lineEntries.length; i++) {
+        entry.lineEntries[i] = in.readInt();
+      }
+    }
+    entry.bytes = readBytes(in);
+    return entry;
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  /**
+   * Exercise writing and reading an entry, to make sure all classes needed for that are loaded
+   * before we start instrumenting. Loading them while instrumenting another class could lead to
+   * ClassCircularityErrors.
+   */
+  private void warmUp() throws IOException {
+    Entry entry = new Entry();
+    entry.bytes = new byte[0];
+    entry.content = "";
+    entry.sourceFile = "";
+    entry.lineEntries = new int[0];
+    Path file = dir.resolve(key("warmUp", new byte[0]));
+    write(file, entry);
+    read(file);
+    Files.delete(file);
+    Files.isRegularFile(file);
+  }
+
+  /**
+   * Add the version of the code of flowtracker that `clazz` belongs to, to the digest. We use
+   * the path, size and modification time of the jar (or the directory with classes, when running
+   * from a development environment) that it was loaded from. That way the cache is not reused
+   * when flowtracker itself changed.
+   */
+  private static void addFingerprint(MessageDigest digest, Class<?> clazz) throws IOException {
+    String resourceName = clazz.getName().replace('.', '/') + ".class";
+    URL url = clazz.getResource('/' + resourceName);
+    if (url == null) {
+      throw new IOException("Cannot find " + resourceName);
+    }
+    update(digest, url.toString());
+    File root;
+    if (url.getProtocol().equals("jar")) {
+      String path = url.getPath();
+      root = new File(path.substring("file:".length(), path.indexOf('!')));
+    } else if (url.getProtocol().equals("file")) {
+      String path = new File(url.getPath()).getPath();
+      root = new File(path.substring(0, path.length() - resourceName.length()));
+    } else {
+      throw new IOException("Unsupported location " + url);
+    }
+
+    if (root.isDirectory()) {
+      try (Stream<Path> files = Files.walk(root.toPath())) {
+        files.forEach(f -> {
+          File file = f.toFile();
+          update(digest, file.getPath() + ':' + file.length() + ':' + file.lastModified() + ';');
+        });
+      }
+    } else {
+      update(digest, root.getPath() + ':' + root.length() + ':' + root.lastModified() + ';');
+    }
+  }
+
+  private static void update(MessageDigest digest, String s) {
+    digest.update(s.getBytes(StandardCharsets.UTF_8));
+  }
+}
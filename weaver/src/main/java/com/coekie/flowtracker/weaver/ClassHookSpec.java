@@ -17,6 +17,7 @@ package com.coekie.flowtracker.weaver;
  */
 
 import com.coekie.flowtracker.annotation.HookLocation;
+import com.coekie.flowtracker.util.Config;
 import com.coekie.flowtracker.util.Logger;
 import com.coekie.flowtracker.weaver.HookSpec.HookArgument;
 import java.util.ArrayList;
@@ -33,10 +34,20 @@ class ClassHookSpec implements Transformer {
   private static final Logger logger = new Logger("ClassHookSpec");
 
   private class HookClassAdapter extends ClassVisitor {
+    /** If hooks are called through a SwitchableCallSite, see {@link SwitchableHooks} */
+    private boolean switchable;
+
     private HookClassAdapter(ClassVisitor cv) {
       super(Opcodes.ASM9, cv);
     }
 
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName,
+        String[] interfaces) {
+      super.visit(version, access, name, signature, superName, interfaces);
+      switchable = switchableHooks.canUse(name, version);
+    }
+
     @Override
     public MethodVisitor visitMethod(int access, String name, String desc, String signature,
         String[] exceptions) {
@@ -51,7 +62,7 @@ class ClassHookSpec implements Transformer {
 
       logger.info("Transforming %s.%s%s", targetClass.getClassName(), name, desc);
       for (HookSpec hookSpec : hookSpecs) {
-        mv = hookSpec.createMethodAdapter(mv, access, name, desc);
+        mv = hookSpec.createMethodAdapter(mv, access, name, desc, switchable);
       }
       return mv;
     }
@@ -60,8 +71,15 @@ class ClassHookSpec implements Transformer {
   private final Type targetClass;
   private final Map<Method, List<HookSpec>> methodHookSpecs = new HashMap<>();
 
+  private final SwitchableHooks switchableHooks;
+
   ClassHookSpec(Type targetClass) {
+    this(targetClass, new SwitchableHooks(Config.empty()));
+  }
+
+  ClassHookSpec(Type targetClass, SwitchableHooks switchableHooks) {
     this.targetClass = targetClass;
+    this.switchableHooks = switchableHooks;
   }
 
   ClassHookSpec addMethodHookSpec(Method targetMethod, Type hookClass, Method hookMethod,
@@ -168,9 +168,9 @@ class HookSpec {
     @Override
     void loadOnMethodEnter(GeneratorAdapter generator) {
       generator.push(
-          Invocation.signature(spec.targetMethod.getName(), spec.targetMethod.getDescriptor()));
+          Invocation.signatureId(spec.targetMethod.getName(), spec.targetMethod.getDescriptor()));
       generator.invokeStatic(Type.getType(Invocation.class), Method.getMethod(
-          "com.coekie.flowtracker.tracker.Invocation preStart(String)"));
+          "com.coekie.flowtracker.tracker.Invocation preStart(int)"));
     }
   };
 
@@ -180,9 +180,13 @@ class HookSpec {
    */
   private class HookMethodAdapter extends AdviceAdapter {
     private final List<HookArgumentInstance> argumentInstances = createArgumentInstance();
+    /** If the hook is called through a SwitchableCallSite, see {@link SwitchableHooks} */
+    private final boolean switchable;
 
-    private HookMethodAdapter(MethodVisitor mv, int access, String name, String desc) {
+    private HookMethodAdapter(MethodVisitor mv, int access, String name, String desc,
+        boolean switchable) {
       super(Opcodes.ASM9, mv, access, name, desc);
+      this.switchable = switchable;
     }
 
     @Override
@@ -207,7 +211,13 @@ class HookSpec {
       for (HookArgumentInstance argumentInstance : argumentInstances) {
         argumentInstance.load(this);
       }
-      invokeStatic(hookClass, hookMethod);
+      if (switchable) {
+        invokeDynamic(hookMethod.getName(), hookMethod.getDescriptor(), SwitchableHooks.HOOK,
+            SwitchableHooks.hookHandle(hookClass.getInternalName(), hookMethod.getName(),
+                hookMethod.getDescriptor()));
+      } else {
+        invokeStatic(hookClass, hookMethod);
+      }
     }
 
     @Override
@@ -243,8 +253,9 @@ class HookSpec {
     this.cacheTargetMethodArgumentTypes = targetMethod.getArgumentTypes();
   }
 
-  MethodVisitor createMethodAdapter(MethodVisitor mv, int access, String name, String desc) {
-    return new HookMethodAdapter(mv, access, name, desc);
+  MethodVisitor createMethodAdapter(MethodVisitor mv, int access, String name, String desc,
+      boolean switchable) {
+    return new HookMethodAdapter(mv, access, name, desc, switchable);
   }
 
   private List<HookArgumentInstance> createArgumentInstance() {
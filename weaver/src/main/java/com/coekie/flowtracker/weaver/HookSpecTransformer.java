@@ -17,6 +17,7 @@ package com.coekie.flowtracker.weaver;
  */
 
 import com.coekie.flowtracker.annotation.HookLocation;
+import com.coekie.flowtracker.util.Config;
 import com.coekie.flowtracker.weaver.HookSpec.HookArgument;
 import java.util.HashMap;
 import java.util.Map;
@@ -27,13 +28,18 @@ import org.objectweb.asm.commons.Method;
 class HookSpecTransformer implements Transformer {
 
   private final Map<String, ClassHookSpec> specs = new HashMap<>();
+  private final SwitchableHooks switchableHooks;
+
+  HookSpecTransformer(Config config) {
+    this.switchableHooks = new SwitchableHooks(config);
+  }
 
   void register(String targetClass, String targetMethodName, String targetMethodDesc,
       String hookMethodClass, String hookMethodName, String hookMethodDesc, HookLocation location,
       HookArgument... args) {
     ClassHookSpec spec = specs.get(targetClass);
     if (spec == null) {
-      spec = new ClassHookSpec(Type.getObjectType(targetClass));
+      spec = new ClassHookSpec(Type.getObjectType(targetClass), switchableHooks);
       specs.put(targetClass, spec);
     }
     spec.addMethodHookSpec(new Method(targetMethodName, targetMethodDesc),
@@ -47,6 +53,11 @@ class HookSpecTransformer implements Transformer {
     return spec == null ? cv : spec.transform(classLoader, className, cv);
   }
 
+  /** If there are hooks in the class with the given name */
+  boolean hasHooks(String className) {
+    return specs.containsKey(className);
+  }
+
   void typeCheck() {
     for (ClassHookSpec classHookSpec : specs.values()) {
       classHookSpec.typeCheck();
@@ -0,0 +1,93 @@
+package com.coekie.flowtracker.weaver;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.coekie.flowtracker.tracker.SwitchableCallSite;
+import com.coekie.flowtracker.tracker.TrackingSwitch;
+import com.coekie.flowtracker.util.Config;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+
+/**
+ * Creates calls from instrumented code to hook methods that can be turned off with
+ * {@link TrackingSwitch}: in application classes they go through an invokedynamic
+ * {@link SwitchableCallSite}. In the JDK, and in class files too old for invokedynamic, hooks are
+ * called directly; those calls only become cheaper, not free, when tracking is turned off.
+ */
+public class SwitchableHooks {
+  private static final String BOOTSTRAP_DESC = "(Ljava/lang/invoke/MethodHandles$Lookup;"
+      + "Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;)"
+      + "Ljava/lang/invoke/CallSite;";
+
+  /** Bootstrap for a normal hook, see {@link SwitchableCallSite#hook} */
+  static final Handle HOOK = new Handle(Opcodes.H_INVOKESTATIC,
+      "com/coekie/flowtracker/tracker/SwitchableCallSite", "hook", BOOTSTRAP_DESC, false);
+
+  /** Bootstrap for a hook that replaces an array store, see {@link SwitchableCallSite#arrayStore} */
+  private static final Handle ARRAY_STORE = new Handle(Opcodes.H_INVOKESTATIC,
+      "com/coekie/flowtracker/tracker/SwitchableCallSite", "arrayStore", BOOTSTRAP_DESC, false);
+
+  private final boolean enabled;
+
+  public SwitchableHooks(Config config) {
+    this.enabled = config.getBoolean("switchableHooks", true);
+  }
+
+  /** If hooks called from the given class should go through a {@link SwitchableCallSite} */
+  public boolean canUse(String className, int version) {
+    return enabled && (version & 0xFFFF) >= Opcodes.V1_7 && !isJdk(className);
+  }
+
+  /**
+   * If the class is part of the JDK. Code in there can run while java.lang.invoke is being loaded or
+   * is bootstrapping a call site, so it should not depend on invokedynamic or ConstantDynamic.
+   */
+  public static boolean isJdk(String className) {
+    return className.startsWith("java/") || className.startsWith("jdk/")
+        || className.startsWith("sun/");
+  }
+
+  /**
+   * Instruction calling static method `name` in `owner`; through a {@link SwitchableCallSite} if
+   * `switchable`. While tracking is off, that call returns its first argument if it has the return
+   * type, and otherwise does nothing and returns null or 0.
+   */
+  public static AbstractInsnNode call(boolean switchable, String owner, String name, String desc) {
+    return switchable
+        ? new InvokeDynamicInsnNode(name, desc, HOOK, hookHandle(owner, name, desc))
+        : new MethodInsnNode(Opcodes.INVOKESTATIC, owner, name, desc, false);
+  }
+
+  /**
+   * Like {@link #call}, for a hook that replaces storing an element in an array. Its first three
+   * parameters are the array, the index and the value. While tracking is off, it only stores the
+   * value.
+   */
+  public static AbstractInsnNode callArrayStore(boolean switchable, String owner, String name,
+      String desc) {
+    return switchable
+        ? new InvokeDynamicInsnNode(name, desc, ARRAY_STORE, hookHandle(owner, name, desc))
+        : new MethodInsnNode(Opcodes.INVOKESTATIC, owner, name, desc, false);
+  }
+
+  static Handle hookHandle(String owner, String name, String desc) {
+    return new Handle(Opcodes.H_INVOKESTATIC, owner, name, desc, false);
+  }
+}
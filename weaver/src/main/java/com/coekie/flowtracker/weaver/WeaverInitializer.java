@@ -19,16 +19,28 @@ package com.coekie.flowtracker.weaver;
 import com.coekie.flowtracker.hook.ArrayLoadHook;
 import com.coekie.flowtracker.tracker.TrackerRepository;
 import com.coekie.flowtracker.util.Config;
+import com.coekie.flowtracker.util.Logger;
+import com.coekie.flowtracker.util.Stats;
 import com.coekie.flowtracker.weaver.flow.InvocationArgStore;
+import com.coekie.flowtracker.weaver.flow.LazyInstrumentation;
 import java.lang.instrument.Instrumentation;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import org.objectweb.asm.Type;
 
 @SuppressWarnings("UnusedDeclaration") // called with reflection from FlowTrackerAgent
 public class WeaverInitializer {
+  private static final Logger logger = new Logger("WeaverInitializer");
+
+  /** The installed transformer, or null if not initialized or detached */
+  private static AsmTransformer transformer;
+
   public static void initialize(Instrumentation inst, Config config) throws Exception {
     // avoid ClassCircularityErrors: Make sure these hook classes are loaded before we start
     // transforming
@@ -36,23 +48,41 @@ public class WeaverInitializer {
     TrackerRepository.class.getName();
 
     InvocationArgStore.initialize(config);
+    LazyInstrumentation.initialize(inst, config);
 
     AsmTransformer transformer = new AsmTransformer(config);
-    inst.addTransformer(transformer, true);
+    WeaverInitializer.transformer = transformer;
 
-    // keep track of classes that are getting transformed while we are initializing
-    Set<String> transformed = new HashSet<>();
+    // keep track of classes that are getting transformed while we are initializing.
+    // set up before adding the transformer: creating the first lambda loads classes, and when
+    // attaching to a JVM that did not use lambdas yet, loading them through our transformer leads
+    // to ClassCircularityErrors.
+    Set<String> transformed = ConcurrentHashMap.newKeySet();
     transformer.transformListener = transformed::add;
 
+    inst.addTransformer(transformer, true);
+
     // retransform classes that have already been loaded
+    long start = System.nanoTime();
     List<Class<?>> toTransform = new ArrayList<>();
     for (Class<?> loadedClass : inst.getAllLoadedClasses()) {
       if (transformer.shouldRetransformOnStartup(loadedClass, inst)) {
         toTransform.add(loadedClass);
       }
     }
+    long scanned = System.nanoTime();
+
+    // instrumenting them is what takes time, so do that in parallel before retransforming, because
+    // when retransforming the JVM calls our transformer for one class at a time.
+    int threads = Integer.parseInt(config.get("startupThreads",
+        Integer.toString(Runtime.getRuntime().availableProcessors())));
+    toTransform = precompute(transformer, toTransform, threads);
+    long precomputed = System.nanoTime();
+
     doRetransform(inst, toTransform);
     transformer.firstRoundDone = true;
+    long retransformed = System.nanoTime();
+    int firstRoundCount = toTransform.size();
 
     // second round of retransformations, to retransforms classes that were loaded while handling
     // the first round, but didn't get transformed yet.
@@ -65,6 +95,77 @@ public class WeaverInitializer {
       }
     }
     doRetransform(inst, toTransform);
+    long end = System.nanoTime();
+    int secondRoundCount = toTransform.size();
+
+    Stats.register("startup.scan.nanos", () -> scanned - start);
+    Stats.register("startup.precompute.nanos", () -> precomputed - scanned);
+    Stats.register("startup.retransform.nanos", () -> retransformed - precomputed);
+    Stats.register("startup.secondRound.nanos", () -> end - retransformed);
+    Stats.register("startup.firstRound.classes", () -> firstRoundCount);
+    Stats.register("startup.secondRound.classes", () -> secondRoundCount);
+    logger.info("Startup: scanning %dms, instrumenting %dms (%d threads), retransforming %dms,"
+            + " second round %dms",
+        (scanned - start) / 1_000_000, (precomputed - scanned) / 1_000_000, threads,
+        (retransformed - precomputed) / 1_000_000, (end - retransformed) / 1_000_000);
+  }
+
+  /**
+   * Undo {@link #initialize}: stop instrumenting classes, and retransform the classes that were
+   * instrumented, so that they get their original bytecode back. Used when detaching from a JVM
+   * that FlowTracker was attached to.
+   */
+  public static void detach(Instrumentation inst) throws Exception {
+    if (transformer == null) {
+      return;
+    }
+    LazyInstrumentation.stop();
+    inst.removeTransformer(transformer);
+    List<Class<?>> toRestore = new ArrayList<>();
+    for (Class<?> loadedClass : inst.getAllLoadedClasses()) {
+      if (inst.isModifiableClass(loadedClass)
+          && transformer.transformedClassNames.contains(Type.getInternalName(loadedClass))) {
+        toRestore.add(loadedClass);
+      }
+    }
+    transformer = null;
+    // without our transformer, retransforming gives them their original bytecode
+    doRetransform(inst, toRestore);
+    logger.info("Detached: restored %d classes", toRestore.size());
+  }
+
+  /**
+   * Instrument `classes` in parallel using {@link AsmTransformer#precompute(Class)}. Returns the
+   * classes that still need to be retransformed.
+   */
+  private static List<Class<?>> precompute(AsmTransformer transformer, List<Class<?>> classes,
+      int threads) throws InterruptedException {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      List<Callable<Boolean>> tasks = new ArrayList<>();
+      for (Class<?> clazz : classes) {
+        tasks.add(() -> transformer.precompute(clazz));
+      }
+      List<Future<Boolean>> results = pool.invokeAll(tasks);
+      List<Class<?>> result = new ArrayList<>();
+      for (int i = 0; i < classes.size(); i++) {
+        if (needsRetransform(results.get(i))) {
+          result.add(classes.get(i));
+        }
+      }
+      return result;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static boolean needsRetransform(Future<Boolean> result) throws InterruptedException {
+    try {
+      return result.get();
+    } catch (ExecutionException e) {
+      // retransforming will try again, and report the error if it happens again
+      return true;
+    }
   }
 
   private static void doRetransform(Instrumentation inst, List<Class<?>> toTransform)
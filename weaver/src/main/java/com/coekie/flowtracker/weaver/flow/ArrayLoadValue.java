@@ -29,8 +29,8 @@ class ArrayLoadValue extends TrackableValue {
   /** The CALOAD/BALOAD/IALOAD call */
   private final InsnNode insn;
 
-  /** Local variable storing the PointTracker for the loaded char or byte */
-  private TrackLocal pointTrackerLocal;
+  /** Local variables storing the source of the loaded char or byte */
+  private PointLocals pointLocals;
 
   ArrayLoadValue(FlowMethod method, InsnNode insn, Type type) {
     super(method, type, insn);
@@ -40,26 +40,24 @@ class ArrayLoadValue extends TrackableValue {
   @Override void insertTrackStatements() {
     // on the stack before the CALOAD call: char[] target, int index
 
-    pointTrackerLocal = method.newLocalForObject(
-        Type.getType("Lcom/coekie/flowtracker/tracker/TrackerPoint;"),
-        "ArrayLoadValue PointTracker");
+    pointLocals = new PointLocals(method, "ArrayLoadValue");
 
     InsnList toInsert = new InsnList();
     method.addComment(toInsert, "begin ArrayLoadValue.insertTrackStatements");
 
-    // insert code for: pointTracker = ArrayLoadHook.getElementTracker(target, index, context)
+    // insert code for: tracker = ArrayLoadHook.getElementTracker(target, index, context), and
+    // index and length from the context.
     // use DUP2 to copy target and index for getElementTracker while leaving it on the stack for the
     // actual CALOAD
     toInsert.add(new InsnNode(Opcodes.DUP2));
     toInsert.add(method.loadContext());
     toInsert.add(
-        new MethodInsnNode(Opcodes.INVOKESTATIC,
+        method.callHook(
             "com/coekie/flowtracker/hook/ArrayLoadHook",
             "getElementTracker",
             "(Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)"
-                + "Lcom/coekie/flowtracker/tracker/TrackerPoint;",
-            false));
-    toInsert.add(pointTrackerLocal.store());
+                + "Lcom/coekie/flowtracker/tracker/Tracker;"));
+    pointLocals.storeResolved(toInsert);
     method.maxStack = Math.max(method.maxStack,
         getCreationFrame().fullStackSize() + 3);
 
@@ -71,6 +69,17 @@ class ArrayLoadValue extends TrackableValue {
   @Override
   void loadSourcePoint(InsnList toInsert, FallbackSource fallback) {
     method.addComment(toInsert, "ArrayLoadValue.loadSourcePoint");
-    toInsert.add(pointTrackerLocal.load());
+    pointLocals.loadPoint(toInsert);
+  }
+
+  @Override
+  boolean hasSourcePointParts() {
+    return true;
+  }
+
+  @Override
+  void loadSourcePointParts(InsnList toInsert) {
+    method.addComment(toInsert, "ArrayLoadValue.loadSourcePointParts");
+    pointLocals.loadParts(toInsert);
   }
 }
@@ -20,10 +20,18 @@ import com.coekie.flowtracker.weaver.Types;
 import com.coekie.flowtracker.weaver.flow.FlowTransformer.FlowMethod;
 import java.util.List;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.Method;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FrameNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.analysis.Frame;
 
 /** The storing of a value in an array, e.g. a char in a char[]. */
 // on the stack: char[] target, int index, char toStore 
@@ -31,12 +39,15 @@ class ArrayStore extends Store {
   private final InsnNode storeInsn;
   /** Method in ArrayHook to call as a replacement for the array store operation */
   private final String hookMethod;
+  /** Type of the elements of the array: char, byte or int */
+  private final String elementType;
   private final FlowValue storedValue = getStackFromTop(0);
 
-  private ArrayStore(InsnNode storeInsn, FlowFrame frame, String hookMethod) {
+  private ArrayStore(InsnNode storeInsn, FlowFrame frame, String hookMethod, String elementType) {
     super(frame);
     this.storeInsn = storeInsn;
     this.hookMethod = hookMethod;
+    this.elementType = elementType;
   }
 
   void instrument(FlowMethod methodNode) {
@@ -47,16 +58,24 @@ class ArrayStore extends Store {
 
     // note: we do this even for UntrackableValues
     storedValue.ensureTracked();
-    loadSourcePointOrFallback(storedValue, toInsert);
+    String sourceParameters;
+    if (storedValue.hasSourcePointParts() && !methodNode.useDynamicFallback()) {
+      // pass tracker, index and length separately, to avoid allocating a TrackerPoint
+      storedValue.loadSourcePointParts(toInsert);
+      sourceParameters = "com.coekie.flowtracker.tracker.Tracker,int,int";
+    } else {
+      loadSourcePointOrFallback(storedValue, toInsert);
+      sourceParameters = "com.coekie.flowtracker.tracker.TrackerPoint";
+    }
     toInsert.add(methodNode.loadContext());
 
-    methodNode.maxStack = Math.max(frame.fullStackSize() + 3, methodNode.maxStack);
+    methodNode.maxStack = Math.max(frame.fullStackSize() + 4, methodNode.maxStack);
 
-    Method hook = Method.getMethod(hookMethod);
+    Method hook = Method.getMethod("void " + hookMethod + "(" + elementType + "[],int,"
+        + elementType + "," + sourceParameters + ",com.coekie.flowtracker.tracker.Context)");
 
-    toInsert.add(new MethodInsnNode(Opcodes.INVOKESTATIC,
-        "com/coekie/flowtracker/hook/ArrayHook", hook.getName(), hook.getDescriptor(),
-        false));
+    toInsert.add(methodNode.callArrayStoreHook(
+        "com/coekie/flowtracker/hook/ArrayHook", hook.getName(), hook.getDescriptor()));
 
     methodNode.addComment(toInsert, "end ArrayStore.instrument");
 
@@ -67,18 +86,14 @@ class ArrayStore extends Store {
   /** Add a {@link ArrayStore} to `toInstrument` when we need to instrument it */
   static void analyzeCharArrayStore(List<Instrumentable> toInstrument, InsnNode insn,
       FlowFrame frame) {
-    toInstrument.add(new ArrayStore(insn, frame,
-        "void setChar(char[],int,char,com.coekie.flowtracker.tracker.TrackerPoint,"
-            + "com.coekie.flowtracker.tracker.Context)"));
+    toInstrument.add(new ArrayStore(insn, frame, "setChar", "char"));
   }
 
   /** Add a {@link ArrayStore} to `toInstrument` when we need to instrument it */
   static void analyzeByteArrayStore(List<Instrumentable> toInstrument, InsnNode insn,
       FlowFrame frame) {
     if (Types.BYTE_ARRAY.equals(frame.getStack(frame.getStackSize() - 3).getType())) {
-      toInstrument.add(new ArrayStore(insn, frame,
-          "void setByte(byte[],int,byte,com.coekie.flowtracker.tracker.TrackerPoint,"
-              + "com.coekie.flowtracker.tracker.Context)"));
+      toInstrument.add(new ArrayStore(insn, frame, "setByte", "byte"));
     }
   }
 
@@ -91,9 +106,197 @@ class ArrayStore extends Store {
     // (heisenbug).
     // ideally we'd only do this for arrays that deal with codepoints, which are very rare.
     if (!owner.startsWith("java/lang") && !owner.startsWith("java/util")) {
-      toInstrument.add(new ArrayStore(insn, frame,
-          "void setInt(int[],int,int,com.coekie.flowtracker.tracker.TrackerPoint,"
-              + "com.coekie.flowtracker.tracker.Context)"));
+      toInstrument.add(new ArrayStore(insn, frame, "setInt", "int"));
+    }
+  }
+
+  // not using streams or lambdas here: this runs while classes are being loaded, and loading the
+  // classes those need from here can cause ClassCircularityErrors
+  private static boolean containsArrayStore(List<Instrumentable> toInstrument) {
+    for (Instrumentable instrumentable : toInstrument) {
+      if (instrumentable instanceof ArrayStore) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * If `toInstrument` contains array stores, add a {@link Flush} everywhere the stores combined by
+   * ArrayHook must have been applied: before each instruction that leaves the method, and before
+   * each instruction that could hand an array over to other code, that might pass it on to another
+   * thread. A {@link FlushOnException} takes care of leaving the method by an exception that is not
+   * thrown explicitly (by the array store itself, or by an invoked method).
+   */
+  static void analyzeFlushes(List<Instrumentable> toInstrument, FlowMethod method,
+      Frame<FlowValue>[] frames) {
+    if (!containsArrayStore(toInstrument)) {
+      return;
+    }
+    InsnList instructions = method.instructions;
+    for (int i = 0; i < instructions.size(); i++) {
+      AbstractInsnNode insn = instructions.get(i);
+      FlowFrame frame = (FlowFrame) frames[i];
+      // frame is null for unreachable code
+      if (frame != null && (isExit(insn) || mayPassArray(insn, frame))) {
+        toInstrument.add(new Flush(insn, frame));
+      }
+    }
+    AbstractInsnNode handledStart = FlushOnException.handledStart(method);
+    if (handledStart != null) {
+      toInstrument.add(new FlushOnException(handledStart));
+    }
+  }
+
+  private static boolean isExit(AbstractInsnNode insn) {
+    int opcode = insn.getOpcode();
+    return (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) || opcode == Opcodes.ATHROW;
+  }
+
+  /**
+   * If `insn` could make an array reachable for other code or other threads: passing it to a
+   * method, storing it in a field or array, or releasing a lock (for an array that other threads
+   * can already reach).
+   */
+  private static boolean mayPassArray(AbstractInsnNode insn, FlowFrame frame) {
+    // we look at the declared types (from descriptors), because FlowValues often don't have a
+    // precise type
+    switch (insn.getOpcode()) {
+      case Opcodes.INVOKEVIRTUAL:
+      case Opcodes.INVOKESPECIAL:
+      case Opcodes.INVOKEINTERFACE:
+      case Opcodes.INVOKESTATIC:
+        MethodInsnNode mInsn = (MethodInsnNode) insn;
+        return (insn.getOpcode() != Opcodes.INVOKESTATIC
+            && mayBeArray(Type.getObjectType(mInsn.owner)))
+            || anyMayBeArray(Type.getArgumentTypes(mInsn.desc));
+      case Opcodes.INVOKEDYNAMIC:
+        return anyMayBeArray(Type.getArgumentTypes(((InvokeDynamicInsnNode) insn).desc));
+      case Opcodes.PUTFIELD:
+      case Opcodes.PUTSTATIC:
+        return mayBeArray(Type.getType(((FieldInsnNode) insn).desc));
+      case Opcodes.AASTORE:
+        Type storedType = frame.getStack(frame.getStackSize() - 1).getType();
+        return storedType == null || mayBeArray(storedType);
+      case Opcodes.MONITOREXIT:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean anyMayBeArray(Type[] types) {
+    for (Type type : types) {
+      if (mayBeArray(type)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** If a value of type `type` could be an array: an array type, or a supertype of arrays */
+  private static boolean mayBeArray(Type type) {
+    if (type.getSort() == Type.ARRAY) {
+      return true;
+    } else if (type.getSort() == Type.OBJECT) {
+      String name = type.getInternalName();
+      return name.equals("java/lang/Object") || name.equals("java/lang/Cloneable")
+          || name.equals("java/io/Serializable");
+    } else {
+      return false;
+    }
+  }
+
+  /** Calls ArrayHook.flush before leaving the method, or handing an array over to other code */
+  private static class Flush extends Instrumentable {
+    private final AbstractInsnNode insn;
+    private final FlowFrame frame;
+
+    private Flush(AbstractInsnNode insn, FlowFrame frame) {
+      this.insn = insn;
+      this.frame = frame;
     }
+
+    void instrument(FlowMethod methodNode) {
+      InsnList toInsert = new InsnList();
+      methodNode.addComment(toInsert, "ArrayStore.Flush: ArrayHook.flush(context)");
+      toInsert.add(methodNode.loadContext());
+      toInsert.add(flushCall());
+      methodNode.maxStack = Math.max(frame.fullStackSize() + 1, methodNode.maxStack);
+      methodNode.instructions.insertBefore(insn, toInsert);
+    }
+  }
+
+  /**
+   * Calls ArrayHook.flush when an exception is thrown out of the method, by wrapping the method in
+   * a catch-all handler that flushes and rethrows the exception.
+   */
+  private static class FlushOnException extends Instrumentable {
+    /** First instruction covered by the handler */
+    private final AbstractInsnNode handledStart;
+
+    private FlushOnException(AbstractInsnNode handledStart) {
+      this.handledStart = handledStart;
+    }
+
+    /**
+     * Returns the first instruction that the handler can cover, or null if there is none. In a
+     * constructor that is the one after the call to the super (or this) constructor, because the
+     * verifier does not allow a handler to cover code where `this` is not initialized yet.
+     */
+    static AbstractInsnNode handledStart(FlowMethod method) {
+      if (!method.name.equals("<init>")) {
+        return method.instructions.getFirst();
+      }
+      // the super constructor call is the first constructor call that isn't for a `new` object,
+      // that could be created when evaluating arguments for the super constructor call.
+      int newCount = 0;
+      for (AbstractInsnNode insn : method.instructions) {
+        if (insn.getOpcode() == Opcodes.NEW) {
+          newCount++;
+        } else if (insn.getOpcode() == Opcodes.INVOKESPECIAL
+            && ((MethodInsnNode) insn).name.equals("<init>")) {
+          if (newCount == 0) {
+            return insn.getNext();
+          }
+          newCount--;
+        }
+      }
+      return null;
+    }
+
+    void instrument(FlowMethod methodNode) {
+      InsnList instructions = methodNode.instructions;
+      LabelNode start = new LabelNode();
+      LabelNode end = new LabelNode();
+      LabelNode handler = new LabelNode();
+      instructions.insertBefore(handledStart, start);
+
+      InsnList toAdd = new InsnList();
+      toAdd.add(end);
+      toAdd.add(handler);
+      if ((methodNode.version & 0xFFFF) >= Opcodes.V1_6) { // classes with stack map frames
+        // only our own locals (including the context) are added to the frame, see
+        // TransparentLocalVariablesSorter
+        toAdd.add(new FrameNode(Opcodes.F_NEW, 0, new Object[0], 1,
+            new Object[]{"java/lang/Throwable"}));
+      }
+      methodNode.addComment(toAdd,
+          "ArrayStore.FlushOnException: ArrayHook.flush(context) and rethrow");
+      toAdd.add(methodNode.loadContext());
+      toAdd.add(flushCall());
+      toAdd.add(new InsnNode(Opcodes.ATHROW));
+      instructions.add(toAdd);
+
+      // added last, so that handlers of the method itself take precedence
+      methodNode.tryCatchBlocks.add(new TryCatchBlockNode(start, end, handler, null));
+      methodNode.maxStack = Math.max(2, methodNode.maxStack);
+    }
+  }
+
+  private static MethodInsnNode flushCall() {
+    return new MethodInsnNode(Opcodes.INVOKESTATIC,
+        "com/coekie/flowtracker/hook/ArrayHook", "flush",
+        "(Lcom/coekie/flowtracker/tracker/Context;)V", false);
   }
 }
@@ -68,6 +68,16 @@ class CastValue extends FlowValue {
     target.loadSourcePoint(toInsert, fallback);
   }
 
+  @Override
+  boolean hasSourcePointParts() {
+    return target.hasSourcePointParts();
+  }
+
+  @Override
+  void loadSourcePointParts(InsnList toInsert) {
+    target.loadSourcePointParts(toInsert);
+  }
+
   @Override
   FlowValue doMergeInPlace(FlowValue o) {
     CastValue other = (CastValue) o;
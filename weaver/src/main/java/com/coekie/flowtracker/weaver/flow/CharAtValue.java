@@ -35,8 +35,8 @@ class CharAtValue extends TrackableValue {
   private final MethodInsnNode insn;
   private final boolean onCharSequence;
 
-  /** Local variable storing the PointTracker for the loaded char */
-  private TrackLocal pointTrackerLocal;
+  /** Local variables storing the source of the loaded char */
+  private PointLocals pointLocals;
 
   CharAtValue(FlowMethod method, MethodInsnNode insn, boolean onCharSequence) {
     super(method, Type.CHAR_TYPE, insn);
@@ -47,29 +47,27 @@ class CharAtValue extends TrackableValue {
   @Override void insertTrackStatements() {
     // on the stack before the call: String target, int index
 
-    pointTrackerLocal = method.newLocalForObject(
-        Type.getType("Lcom/coekie/flowtracker/tracker/TrackerPoint;"),
-        "CharAtValue PointTracker");
+    pointLocals = new PointLocals(method, "CharAtValue");
 
     InsnList toInsert = new InsnList();
     method.addComment(toInsert, "begin CharAtValue.insertTrackStatements");
 
-    // insert code for: pointTracker = StringHook.chatAtTracker(target, index, context)
+    // insert code for: tracker = StringHook.chatAtTracker(target, index, context), and index and
+    // length from the context.
     // use DUP2 to copy target and index for chatAtTracker while leaving it on the stack for the
     // actual chatAt call
     toInsert.add(new InsnNode(Opcodes.DUP2));
     toInsert.add(method.loadContext());
     toInsert.add(
-        new MethodInsnNode(Opcodes.INVOKESTATIC,
+        method.callHook(
             "com/coekie/flowtracker/hook/StringHook",
             "charAtTracker",
             onCharSequence
             ? "(Ljava/lang/CharSequence;ILcom/coekie/flowtracker/tracker/Context;)"
-                + "Lcom/coekie/flowtracker/tracker/TrackerPoint;"
+                + "Lcom/coekie/flowtracker/tracker/Tracker;"
                 : "(Ljava/lang/String;ILcom/coekie/flowtracker/tracker/Context;)"
-                + "Lcom/coekie/flowtracker/tracker/TrackerPoint;",
-            false));
-    toInsert.add(pointTrackerLocal.store());
+                + "Lcom/coekie/flowtracker/tracker/Tracker;"));
+    pointLocals.storeResolved(toInsert);
     method.maxStack = Math.max(method.maxStack,
         getCreationFrame().fullStackSize() + 3);
 
@@ -81,6 +79,17 @@ class CharAtValue extends TrackableValue {
   @Override
   void loadSourcePoint(InsnList toInsert, FallbackSource fallback) {
     method.addComment(toInsert, "CharAtValue.loadSourcePoint");
-    toInsert.add(pointTrackerLocal.load());
+    pointLocals.loadPoint(toInsert);
+  }
+
+  @Override
+  boolean hasSourcePointParts() {
+    return true;
+  }
+
+  @Override
+  void loadSourcePointParts(InsnList toInsert) {
+    method.addComment(toInsert, "CharAtValue.loadSourcePointParts");
+    pointLocals.loadParts(toInsert);
   }
 }
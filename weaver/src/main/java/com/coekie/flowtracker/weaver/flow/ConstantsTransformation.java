@@ -19,6 +19,7 @@ package com.coekie.flowtracker.weaver.flow;
 import com.coekie.flowtracker.tracker.ClassOriginTracker;
 import com.coekie.flowtracker.tracker.ClassOriginTracker.ClassEntry;
 import com.coekie.flowtracker.util.RecursionChecker;
+import com.coekie.flowtracker.weaver.BytecodeCache;
 import com.coekie.flowtracker.weaver.ClassFilter;
 import com.coekie.flowtracker.weaver.flow.FlowTransformer.FlowMethod;
 import org.objectweb.asm.ConstantDynamic;
@@ -37,15 +38,21 @@ class ConstantsTransformation {
   private final ClassLoader classLoader;
   private final String className;
   private final ClassFilter breakStringInterningFilter;
+  /**
+   * Refer to the classId using {@link BytecodeCache#CLASS_ID_PLACEHOLDER} instead of the actual
+   * value, so that the result can be cached
+   */
+  private final boolean classIdPlaceholder;
   private ClassOriginTracker tracker;
   private FlowMethod lastMethod;
   private String sourceFile;
 
   ConstantsTransformation(ClassLoader classLoader, String className,
-      ClassFilter breakStringInterningFilter) {
+      ClassFilter breakStringInterningFilter, boolean classIdPlaceholder) {
     this.classLoader = classLoader;
     this.className = className;
     this.breakStringInterningFilter = breakStringInterningFilter;
+    this.classIdPlaceholder = classIdPlaceholder;
   }
 
   /**
@@ -96,13 +103,26 @@ class ConstantsTransformation {
             "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;IILjava/lang/String;)"
                 + "Ljava/lang/String;",
             false),
-        classId(), offset, value);
+        classIdConstant(classId()), offset, value);
   }
 
   int classId() {
     return tracker().classId;
   }
 
+  /** Value to use in the instrumented code to refer to `classId` */
+  private int classIdConstant(int classId) {
+    return classIdPlaceholder ? BytecodeCache.CLASS_ID_PLACEHOLDER : classId;
+  }
+
+  /** Create an InsnNode that loads `classId` */
+  AbstractInsnNode classIdInsn(int classId) {
+    // the placeholder must be in the constant pool, where BytecodeCache can replace it
+    return classIdPlaceholder
+        ? new LdcInsnNode(BytecodeCache.CLASS_ID_PLACEHOLDER)
+        : iconst(classId);
+  }
+
   boolean canBreakStringInterning() {
     return breakStringInterningFilter.include(className);
   }
@@ -172,7 +192,8 @@ class ConstantsTransformation {
             "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;III)"
                 + "Lcom/coekie/flowtracker/tracker/TrackerPoint;",
             false),
-        constant.classId, constant.offset, constant.length);
+        method.constantsTransformation.classIdConstant(constant.classId), constant.offset,
+        constant.length);
     toInsert.add(new LdcInsnNode(cd));
     if (RecursionChecker.enabled()) {
       toInsert.add(new MethodInsnNode(Opcodes.INVOKESTATIC,
@@ -185,7 +206,7 @@ class ConstantsTransformation {
     method.addComment(toInsert,
         "loadClassConstantPoint: ConstantHook.constantPoint(%s, %s)",
         constant.classId, constant.offset);
-    toInsert.add(iconst(constant.classId));
+    toInsert.add(method.constantsTransformation.classIdInsn(constant.classId));
     toInsert.add(iconst(constant.offset));
     toInsert.add(
         new MethodInsnNode(Opcodes.INVOKESTATIC,
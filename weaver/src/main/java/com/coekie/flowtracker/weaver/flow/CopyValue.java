@@ -74,6 +74,16 @@ class CopyValue extends FlowValue {
     original.loadSourcePoint(toInsert, fallback);
   }
 
+  @Override
+  boolean hasSourcePointParts() {
+    return original.hasSourcePointParts();
+  }
+
+  @Override
+  void loadSourcePointParts(InsnList toInsert) {
+    original.loadSourcePointParts(toInsert);
+  }
+
   @Override
   public boolean equals(Object o) {
     if (o == this) {
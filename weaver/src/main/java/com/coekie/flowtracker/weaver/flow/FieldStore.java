@@ -16,14 +16,12 @@ package com.coekie.flowtracker.weaver.flow;
  * limitations under the License.
  */
 
-import com.coekie.flowtracker.tracker.FieldRepository;
 import com.coekie.flowtracker.weaver.flow.FlowTransformer.FlowMethod;
 import java.util.List;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
-import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 
 /** The storing of a value in a field. */
@@ -52,18 +50,17 @@ class FieldStore extends Store {
     toInsert.add(new InsnNode(Opcodes.DUP2));
     // pop -> (target, value, target).
     toInsert.add(new InsnNode(Opcodes.POP));
-    toInsert.add(new LdcInsnNode(FieldRepository.fieldId(storeInsn.owner, storeInsn.name)));
+    FieldValue.loadFieldId(toInsert, methodNode, storeInsn);
 
     // note: we do this even for UntrackableValues
     storedValue.ensureTracked();
     loadSourcePointOrFallback(storedValue, toInsert);
 
-    methodNode.maxStack = Math.max(frame.fullStackSize() + 5, methodNode.maxStack);
+    methodNode.maxStack = Math.max(frame.fullStackSize() + 6, methodNode.maxStack);
 
-    toInsert.add(new MethodInsnNode(Opcodes.INVOKESTATIC,
+    toInsert.add(methodNode.callHook(
         "com/coekie/flowtracker/tracker/FieldRepository", "setPoint",
-        "(Ljava/lang/Object;Ljava/lang/String;Lcom/coekie/flowtracker/tracker/TrackerPoint;)V",
-        false));
+        "(Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/TrackerPoint;)V"));
 
     methodNode.addComment(toInsert, "end FieldStore.instrument");
 
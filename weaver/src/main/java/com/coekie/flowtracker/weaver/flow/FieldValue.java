@@ -17,7 +17,10 @@ package com.coekie.flowtracker.weaver.flow;
  */
 
 import com.coekie.flowtracker.tracker.FieldRepository;
+import com.coekie.flowtracker.weaver.SwitchableHooks;
 import com.coekie.flowtracker.weaver.flow.FlowTransformer.FlowMethod;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.FieldInsnNode;
@@ -52,14 +55,12 @@ class FieldValue extends TrackableValue {
     // insert code for: pointTracker = FieldRepository.getPoint(target, fieldId)
     // use DUP to copy target for getPoint while leaving it on the stack for the actual GETFIELD
     toInsert.add(new InsnNode(Opcodes.DUP));
-    toInsert.add(new LdcInsnNode(FieldRepository.fieldId(insn.owner, insn.name)));
+    loadFieldId(toInsert, method, insn);
     toInsert.add(
-        new MethodInsnNode(Opcodes.INVOKESTATIC,
+        method.callHook(
             "com/coekie/flowtracker/tracker/FieldRepository",
             "getPoint",
-            "(Ljava/lang/Object;Ljava/lang/String;)"
-                + "Lcom/coekie/flowtracker/tracker/TrackerPoint;",
-            false));
+            "(Ljava/lang/Object;I)Lcom/coekie/flowtracker/tracker/TrackerPoint;"));
     toInsert.add(pointTrackerLocal.store());
 
     method.maxStack = Math.max(method.maxStack,
@@ -76,6 +77,34 @@ class FieldValue extends TrackableValue {
     toInsert.add(pointTrackerLocal.load());
   }
 
+  /**
+   * Add instructions to load the id of the field that `insn` accesses, see
+   * {@link FieldRepository#fieldId(String)}. Field ids are different in every JVM, so we don't put
+   * them in the bytecode directly, but get them when the constant is resolved (or, for older class
+   * files and the JDK, every time).
+   */
+  static void loadFieldId(InsnList toInsert, FlowMethod method, FieldInsnNode insn) {
+    String fieldKey = FieldRepository.fieldKey(insn.owner, insn.name);
+    // not using condy in the JDK, because resolving it goes through code that uses tracked fields
+    // itself (e.g. Byte.value, through MemberName.hashCode), which would recursively need the same
+    // constant
+    if (method.canUseConstantDynamic() && !SwitchableHooks.isJdk(method.owner)) {
+      toInsert.add(new LdcInsnNode(new ConstantDynamic("fieldId", "I",
+          new Handle(Opcodes.H_INVOKESTATIC,
+              "com/coekie/flowtracker/tracker/FieldRepository",
+              "fieldId",
+              "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;"
+                  + "Ljava/lang/String;)I",
+              false),
+          fieldKey)));
+    } else {
+      toInsert.add(new LdcInsnNode(fieldKey));
+      toInsert.add(new MethodInsnNode(Opcodes.INVOKESTATIC,
+          "com/coekie/flowtracker/tracker/FieldRepository", "fieldId", "(Ljava/lang/String;)I",
+          false));
+    }
+  }
+
   static boolean shouldTrack(Type type, FieldInsnNode node) {
     if (!shouldTrackType(type)) {
       return false;
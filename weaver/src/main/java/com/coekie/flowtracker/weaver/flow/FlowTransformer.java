@@ -19,12 +19,15 @@ package com.coekie.flowtracker.weaver.flow;
 import com.coekie.flowtracker.tracker.Context;
 import com.coekie.flowtracker.util.Config;
 import com.coekie.flowtracker.util.Logger;
+import com.coekie.flowtracker.weaver.BytecodeCache;
 import com.coekie.flowtracker.weaver.ClassFilter;
+import com.coekie.flowtracker.weaver.SwitchableHooks;
 import com.coekie.flowtracker.weaver.Transformer;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
@@ -94,6 +97,8 @@ public class FlowTransformer implements Transformer {
   private final AnalysisListener listener;
   private final ClassFilter breakStringInterningFilter;
   private final boolean dynamicFallback;
+  private final SwitchableHooks switchableHooks;
+  private final boolean classIdPlaceholder;
 
   public FlowTransformer(Config config) {
     this(config,
@@ -124,18 +129,42 @@ public class FlowTransformer implements Transformer {
         // breaks some libraries.
         "+java.net.*,+java.io.*,-java.*,+sun.net.*,-sun.*,+jdk.internal.net.*,-jdk.*");
     this.dynamicFallback = config.getBoolean("dynamicFallback", false);
+    this.switchableHooks = new SwitchableHooks(config);
+    this.classIdPlaceholder = false;
+  }
+
+  private FlowTransformer(FlowTransformer original, boolean classIdPlaceholder) {
+    this.commentator = original.commentator;
+    this.listener = original.listener;
+    this.breakStringInterningFilter = original.breakStringInterningFilter;
+    this.dynamicFallback = original.dynamicFallback;
+    this.switchableHooks = original.switchableHooks;
+    this.classIdPlaceholder = classIdPlaceholder;
+  }
+
+  /**
+   * Variant of this transformer that produces code that can be stored in the
+   * {@link BytecodeCache}: referring to the classId with a placeholder.
+   */
+  public FlowTransformer withClassIdPlaceholder() {
+    return new FlowTransformer(this, true);
   }
 
   private class FlowClassAdapter extends ClassVisitor {
+    private final ClassLoader classLoader;
     private final String className;
     private final ConstantsTransformation constantsTransformation;
     private int version;
+    /** Ids of methods, if this class is instrumented lazily. See {@link LazyInstrumentation}. */
+    private Map<String, Integer> lazyMethodIds;
 
     private FlowClassAdapter(ClassLoader classLoader, String className, ClassVisitor cv) {
       super(Opcodes.ASM9, cv);
+      this.classLoader = classLoader;
       this.className = className;
       this.constantsTransformation =
-          new ConstantsTransformation(classLoader, className, breakStringInterningFilter);
+          new ConstantsTransformation(classLoader, className, breakStringInterningFilter,
+              classIdPlaceholder);
     }
 
     @Override
@@ -146,6 +175,7 @@ public class FlowTransformer implements Transformer {
       if (!className.equals(name)) {
         throw new IllegalStateException("Class name mismatch: " + name + " != " + className);
       }
+      this.lazyMethodIds = LazyInstrumentation.methodIds(classLoader, className, version);
     }
 
     @Override
@@ -158,6 +188,14 @@ public class FlowTransformer implements Transformer {
     public MethodVisitor visitMethod(int access, String name, String desc, String signature,
         String[] exceptions) {
       MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+      // static initializers only run once, so no use waiting for it to be used
+      if (lazyMethodIds != null && mv != null && !name.equals("<clinit>")) {
+        MethodVisitor stub =
+            LazyInstrumentation.stubUnlessPromoted(mv, lazyMethodIds, className, name, desc);
+        if (stub != null) {
+          return stub;
+        }
+      }
       return new FlowMethod(mv, className, version, access, name, desc, signature,
           exceptions, constantsTransformation);
     }
@@ -166,6 +204,8 @@ public class FlowTransformer implements Transformer {
   class FlowMethod extends MethodNode {
     final String owner;
     final int version;
+    /** If hooks are called through a SwitchableCallSite, see {@link #callHook} */
+    private final boolean switchable;
     /** The next visitor in the chain after this one */
     private final TransparentLocalVariablesSorter varSorter;
     final InsnList intro = new InsnList();
@@ -180,6 +220,7 @@ public class FlowTransformer implements Transformer {
       super(Opcodes.ASM9, access, name, desc, signature, exceptions);
       this.owner = owner;
       this.version = version;
+      this.switchable = switchableHooks.canUse(owner, version);
       this.varSorter = new TransparentLocalVariablesSorter(access, desc, mv);
       this.constantsTransformation = constantsTransformation;
     }
@@ -228,6 +269,7 @@ public class FlowTransformer implements Transformer {
         for (int i = 0; i < instructions.size(); i++) {
           analyzeInstruction(toInstrument, i, frames);
         }
+        ArrayStore.analyzeFlushes(toInstrument, this, frames);
       } catch (Exception e) {
         // up to this point we haven't made any changes yet, so we can handle failures somewhat
         // gracefully by just outputting what we have now. that way at least the other methods in
@@ -344,6 +386,23 @@ public class FlowTransformer implements Transformer {
       return contextLoader.load(this);
     }
 
+    /**
+     * Returns an instruction that calls static hook method `name` in `owner`, that does nothing when
+     * tracking is turned off, see {@link SwitchableHooks#call}.
+     * <p>
+     * Not for hooks that read state that the Context got from the code that ran right before it (like
+     * Invocation.start and returnTracker): the first call through such a site links it, which runs
+     * instrumented JDK code that would overwrite that state.
+     */
+    AbstractInsnNode callHook(String owner, String name, String desc) {
+      return SwitchableHooks.call(switchable, owner, name, desc);
+    }
+
+    /** Like {@link #callHook}, for hooks that replace an array store */
+    AbstractInsnNode callArrayStoreHook(String owner, String name, String desc) {
+      return SwitchableHooks.callArrayStore(switchable, owner, name, desc);
+    }
+
     /**
      * Dump ASM code to generate the currently analyzed method to stderr.
      * This can be useful when debugging a problem with "real" code, to help extract a minimal test
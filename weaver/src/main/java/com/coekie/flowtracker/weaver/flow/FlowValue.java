@@ -89,12 +89,31 @@ abstract class FlowValue extends BasicValue {
 
   /**
    * Add the {@link TrackerPoint} from which this value came on top of the stack.
-   * The instructions inserted should use maximum 2 stack entries.
+   * The instructions inserted should use maximum 3 stack entries.
    *
    * @param toInsert list of instructions where the needed statements are added to at the end
    */
   abstract void loadSourcePoint(InsnList toInsert, FallbackSource fallback);
 
+  /**
+   * Returns if {@link #loadSourcePointParts(InsnList)} is supported; that is if the source of this
+   * value is kept as separate tracker, index and length, so that it can be passed on without
+   * creating a {@link TrackerPoint}.
+   */
+  boolean hasSourcePointParts() {
+    return false;
+  }
+
+  /**
+   * Add the tracker, index and length of the {@link TrackerPoint} from which this value came on top
+   * of the stack, as three separate values (Tracker, int, int). Only supported if
+   * {@link #hasSourcePointParts()}. The tracker can be null, as for
+   * {@link #loadSourcePoint(InsnList, FallbackSource)}.
+   */
+  void loadSourcePointParts(InsnList toInsert) {
+    throw new UnsupportedOperationException();
+  }
+
   /**
    * Combine `this` and `other` into a single FlowValue, if the combination can be represented with
    * a single FlowValue. This is meant for handling merges ({@link Interpreter#merge} where we have
@@ -26,6 +26,7 @@ import java.util.List;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.analysis.Frame;
 
@@ -36,7 +37,7 @@ import org.objectweb.asm.tree.analysis.Frame;
 public class InvocationArgStore extends Store {
   // Reasons we don't want to instrument arguments beyond this:
   // - the ICONST_0 + i doesn't work for higher ones (we could fix that by using LdcInsNode)
-  // - in Invocation we have getArg0Tracker/getArg0Index methods up to arg 5
+  // - Invocation has room for 6 arguments (Invocation.MAX_ARGS)
   // - methods with more arguments than that are probably not as likely to be worth instrumenting
   static final int MAX_ARG_NUM_TO_INSTRUMENT = 5;
 
@@ -82,8 +83,8 @@ public class InvocationArgStore extends Store {
       return;
     }
 
-    // we add these instructions using insertInvocationPreparation, so Invocation is on top of the
-    // stack. setArg returns the Invocation, so it's on top of the stack again.
+    // we add these instructions using insertInvocationPreparation, so the Context is on top of the
+    // stack. setArg returns the Context, so it's on top of the stack again.
     InsnList toInsert = new InsnList();
     methodNode.addComment(toInsert, "begin InvocationArgStore.instrument");
 
@@ -92,13 +93,22 @@ public class InvocationArgStore extends Store {
       // if we know where the value passed in as argument came from
       if (arg != null && shouldTrack(arg)) {
         arg.ensureTracked();
-        loadSourcePointOrFallback(arg, toInsert);
+        toInsert.add(new InsnNode(Opcodes.ICONST_0 + i));
+        String sourceDesc;
+        if (arg.hasSourcePointParts() && !methodNode.useDynamicFallback()) {
+          // pass tracker, index and length separately, to avoid allocating a TrackerPoint
+          arg.loadSourcePointParts(toInsert);
+          sourceDesc = "Lcom/coekie/flowtracker/tracker/Tracker;II";
+        } else {
+          loadSourcePointOrFallback(arg, toInsert);
+          sourceDesc = "Lcom/coekie/flowtracker/tracker/TrackerPoint;";
+        }
         toInsert.add(
-            new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
+            methodNode.callHook(
                 "com/coekie/flowtracker/tracker/Invocation",
-                "setArg" + i,
-                "(Lcom/coekie/flowtracker/tracker/TrackerPoint;)"
-                    + "Lcom/coekie/flowtracker/tracker/Invocation;"));
+                "setArg",
+                "(Lcom/coekie/flowtracker/tracker/Context;I" + sourceDesc + ")"
+                    + "Lcom/coekie/flowtracker/tracker/Context;"));
       }
     }
     methodNode.addComment(toInsert, "end InvocationArgStore.instrument");
@@ -106,8 +116,8 @@ public class InvocationArgStore extends Store {
     transformation.ensureInstrumented();
     transformation.insertInvocationPreparation(toInsert);
 
-    // +3: 1 for the Invocation + 2 for loadSourcePoint
-    methodNode.maxStack = Math.max(frame.fullStackSize() + 3, methodNode.maxStack);
+    // +5: 1 for the Context, 1 for the argument number, 3 for loadSourcePoint(Parts)
+    methodNode.maxStack = Math.max(frame.fullStackSize() + 5, methodNode.maxStack);
   }
 
   private boolean anyArgIsTrackable() {
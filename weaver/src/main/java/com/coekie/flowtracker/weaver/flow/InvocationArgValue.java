@@ -28,6 +28,10 @@ import org.objectweb.asm.tree.MethodInsnNode;
 /** Value passed as an argument in a method that we track using {@link Invocation} */
 class InvocationArgValue extends TrackableValue {
   private final int argNum;
+
+  /** Local variables storing the source of the argument */
+  private PointLocals pointLocals;
+
   InvocationArgValue(FlowMethod method, AbstractInsnNode insn, int argNum) {
     super(method, Type.getArgumentTypes(method.desc)[argNum], insn);
     if (argNum > InvocationArgStore.MAX_ARG_NUM_TO_INSTRUMENT + 1) {
@@ -37,18 +41,23 @@ class InvocationArgValue extends TrackableValue {
   }
 
   @Override void insertTrackStatements() {
-    method.invocation.ensureStarted(method);
+    pointLocals = method.invocation.argPointLocals(method, argNum);
   }
 
   @Override
   void loadSourcePoint(InsnList toInsert, FallbackSource fallback) {
     method.addComment(toInsert, "InvocationArgValue.loadSourcePoint");
-    toInsert.add(method.invocation.invocationLocal.load());
-    toInsert.add(new InsnNode(Opcodes.ICONST_0 + argNum));
-    toInsert.add(new MethodInsnNode(Opcodes.INVOKESTATIC,
-        "com/coekie/flowtracker/tracker/Invocation",
-        "getArgPoint",
-        "(Lcom/coekie/flowtracker/tracker/Invocation;I)"
-            + "Lcom/coekie/flowtracker/tracker/TrackerPoint;"));
+    pointLocals.loadPoint(toInsert);
+  }
+
+  @Override
+  boolean hasSourcePointParts() {
+    return true;
+  }
+
+  @Override
+  void loadSourcePointParts(InsnList toInsert) {
+    method.addComment(toInsert, "InvocationArgValue.loadSourcePointParts");
+    pointLocals.loadParts(toInsert);
   }
 }
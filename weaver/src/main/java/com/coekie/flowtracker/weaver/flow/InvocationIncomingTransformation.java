@@ -22,6 +22,7 @@ import com.coekie.flowtracker.weaver.flow.FlowTransformer.FlowMethod;
 import java.util.List;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 
@@ -34,27 +35,53 @@ import org.objectweb.asm.tree.MethodInsnNode;
  * @see InvocationOutgoingTransformation
  */
 class InvocationIncomingTransformation {
-  /** Local variable that represents the Invocation of the method we're in */
+  /** Local variable with the stamp of the Invocation of the method we're in */
   TrackLocal invocationLocal;
 
-  /** Ensure that we called {@link Invocation#start(Context, String)} at the beginning */
+  /** Local variables with the source of each argument, copied from the Invocation at the start */
+  private final PointLocals[] argPointLocals =
+      new PointLocals[InvocationArgStore.MAX_ARG_NUM_TO_INSTRUMENT + 1];
+
+  /** Ensure that we called {@link Invocation#start(Context, int)} at the beginning */
   void ensureStarted(FlowMethod method) {
     if (invocationLocal != null) {
       return;
     }
     invocationLocal = method.newLocal(
-        Type.getType("Lcom/coekie/flowtracker/tracker/Invocation;"),
+        Type.INT_TYPE,
         List.of(
             method.loadContext(),
-            new LdcInsnNode(Invocation.signature(method.name, method.desc)),
+            new LdcInsnNode(Invocation.signatureId(method.name, method.desc)),
             new MethodInsnNode(Opcodes.INVOKESTATIC,
             "com/coekie/flowtracker/tracker/Invocation",
             "start",
-            "(Lcom/coekie/flowtracker/tracker/Context;Ljava/lang/String;)"
-                + "Lcom/coekie/flowtracker/tracker/Invocation;",
+            "(Lcom/coekie/flowtracker/tracker/Context;I)I",
             false)
         ),
         2,
         "InvocationTransformation invocation");
   }
+
+  /**
+   * Local variables with the source of argument `argNum`. They are initialized at the beginning of
+   * the method, right after {@link Invocation#start(Context, int)}, because the Invocation only
+   * holds the arguments until the method makes another call.
+   */
+  PointLocals argPointLocals(FlowMethod method, int argNum) {
+    if (argPointLocals[argNum] == null) {
+      ensureStarted(method);
+      argPointLocals[argNum] = new PointLocals(method, List.of(
+          method.loadContext(),
+          invocationLocal.load(),
+          new InsnNode(Opcodes.ICONST_0 + argNum),
+          new MethodInsnNode(Opcodes.INVOKESTATIC,
+              "com/coekie/flowtracker/tracker/Invocation",
+              "argTracker",
+              "(Lcom/coekie/flowtracker/tracker/Context;II)"
+                  + "Lcom/coekie/flowtracker/tracker/Tracker;",
+              false)),
+          3, "InvocationArgValue " + argNum);
+    }
+    return argPointLocals[argNum];
+  }
 }
@@ -41,7 +41,7 @@ class InvocationOutgoingTransformation {
   /** Instruction where our call to {@link Invocation#calling(Context)} starts */
   private AbstractInsnNode callingInsn;
 
-  /** Last instruction of our instrumentation, that removes the {@link Invocation} from the stack */
+  /** Last instruction of our instrumentation, that removes the invocation stamp from the stack */
   private AbstractInsnNode endInsn;
 
   InvocationOutgoingTransformation(MethodInsnNode mInsn, FlowMethod methodNode) {
@@ -50,8 +50,8 @@ class InvocationOutgoingTransformation {
   }
 
   /**
-   * Insert call to {@link Invocation#create(String)} and {@link Invocation#calling(Context)} if
-   * it hasn't been added yet
+   * Insert call to {@link Invocation#create(Context, int)} and {@link Invocation#calling(Context)}
+   * if it hasn't been added yet
    */
   void ensureInstrumented() {
     if (endInsn != null) {
@@ -60,20 +60,20 @@ class InvocationOutgoingTransformation {
 
     InsnList toInsert = new InsnList();
     methodNode.addComment(toInsert, "begin InvocationOutgoingTransformation.ensureInstrumented");
-    toInsert.add(new LdcInsnNode(Invocation.signature(mInsn.name, mInsn.desc)));
-    toInsert.add(new MethodInsnNode(Opcodes.INVOKESTATIC,
+    toInsert.add(methodNode.loadContext());
+    toInsert.add(new LdcInsnNode(Invocation.signatureId(mInsn.name, mInsn.desc)));
+    toInsert.add(methodNode.callHook(
         "com/coekie/flowtracker/tracker/Invocation",
         "create",
-        "(Ljava/lang/String;)Lcom/coekie/flowtracker/tracker/Invocation;"));
+        "(Lcom/coekie/flowtracker/tracker/Context;I)Lcom/coekie/flowtracker/tracker/Context;"));
 
-    callingInsn = methodNode.loadContext();
-    toInsert.add(callingInsn);
-    toInsert.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
+    callingInsn = methodNode.callHook(
         "com/coekie/flowtracker/tracker/Invocation",
         "calling",
-        "(Lcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Invocation;"));
+        "(Lcom/coekie/flowtracker/tracker/Context;)I");
+    toInsert.add(callingInsn);
 
-    // initially we assume we're not going to need the Invocation anymore. Pop it away.
+    // initially we assume we're not going to need the stamp of the invocation. Pop it away.
     endInsn = new InsnNode(Opcodes.POP);
     toInsert.add(endInsn);
 
@@ -82,9 +82,9 @@ class InvocationOutgoingTransformation {
   }
 
   /**
-   * Insert instructions that operate on the Invocation, before the actual method invocation.
-   * Concretely, this is used for adding `Invocation.setArg*` calls.
-   * At this point the {@link Invocation} is on top of the stack, and at the end of the inserted
+   * Insert instructions that prepare the Invocation, before the actual method invocation.
+   * Concretely, this is used for adding `Invocation.setArg` calls.
+   * At this point the {@link Context} is on top of the stack, and at the end of the inserted
    * instructions it should still be there.
    */
   void insertInvocationPreparation(InsnList toInsert) {
@@ -92,7 +92,7 @@ class InvocationOutgoingTransformation {
   }
 
   /**
-   * Instead of popping the {@link Invocation} at the end, store it in the given local var.
+   * Instead of popping the stamp of the invocation at the end, store it in the given local var.
    */
   void storeInvocation(TrackLocal invocationLocal) {
     if (endInsn == null || endInsn.getOpcode() != Opcodes.POP) {
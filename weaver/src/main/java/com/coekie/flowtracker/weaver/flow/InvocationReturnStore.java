@@ -47,17 +47,25 @@ class InvocationReturnStore extends Store {
       returnedValue.ensureTracked();
       invocation.ensureStarted(methodNode);
 
+      toInsert.add(methodNode.loadContext());
       toInsert.add(invocation.invocationLocal.load());
-      loadSourcePointOrFallback(returnedValue, toInsert);
+      String sourceDesc;
+      if (returnedValue.hasSourcePointParts() && !methodNode.useDynamicFallback()) {
+        // pass tracker, index and length separately, to avoid allocating a TrackerPoint
+        returnedValue.loadSourcePointParts(toInsert);
+        sourceDesc = "Lcom/coekie/flowtracker/tracker/Tracker;II";
+      } else {
+        loadSourcePointOrFallback(returnedValue, toInsert);
+        sourceDesc = "Lcom/coekie/flowtracker/tracker/TrackerPoint;";
+      }
 
-      toInsert.add(new MethodInsnNode(Opcodes.INVOKESTATIC,
+      toInsert.add(methodNode.callHook(
           "com/coekie/flowtracker/tracker/Invocation", "returning",
-          "(Lcom/coekie/flowtracker/tracker/Invocation;"
-              + "Lcom/coekie/flowtracker/tracker/TrackerPoint;)V",
-          false));
+          "(Lcom/coekie/flowtracker/tracker/Context;I" + sourceDesc + ")V"));
 
       methodNode.addComment(toInsert, "end InvocationReturnStore.instrument");
-      methodNode.maxStack = Math.max(frame.fullStackSize() + 3, methodNode.maxStack);
+      // +5: Context, invocation stamp and 3 for loadSourcePoint(Parts)
+      methodNode.maxStack = Math.max(frame.fullStackSize() + 5, methodNode.maxStack);
 
       methodNode.instructions.insertBefore(returnInsn, toInsert);
     }
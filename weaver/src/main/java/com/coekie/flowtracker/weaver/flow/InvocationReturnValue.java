@@ -18,45 +18,71 @@ package com.coekie.flowtracker.weaver.flow;
 
 import com.coekie.flowtracker.tracker.Invocation;
 import com.coekie.flowtracker.weaver.flow.FlowTransformer.FlowMethod;
+import java.util.List;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
-import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 
 /** Value returned from a called method, that we track using {@link Invocation} */
 class InvocationReturnValue extends TrackableValue {
   final InvocationOutgoingTransformation transformation;
 
-  /** Local variable storing the Invocation */
+  /** Local variable storing the stamp of the Invocation */
   private TrackLocal invocationLocal;
 
+  /** Local variables storing the source of the returned value */
+  private PointLocals pointLocals;
+
   InvocationReturnValue(FlowMethod method, MethodInsnNode mInsn) {
     super(method, Type.getReturnType(mInsn.desc), mInsn);
     this.transformation = new InvocationOutgoingTransformation(mInsn, method);
   }
 
   @Override void insertTrackStatements() {
-    invocationLocal = method.newLocalForObject(
-        Type.getType("Lcom/coekie/flowtracker/tracker/Invocation;"),
+    invocationLocal = method.newLocal(Type.INT_TYPE, List.of(new InsnNode(Opcodes.ICONST_0)), 1,
         "InvocationReturnValue invocation");
+    pointLocals = new PointLocals(method, "InvocationReturnValue");
 
     transformation.ensureInstrumented();
     transformation.storeInvocation(invocationLocal);
 
-    // ensureInstrumented puts two extra value on the stack
+    // right after the call, before the Invocation gets reused, copy the source of the returned
+    // value into our local variables
+    InsnList toInsert = new InsnList();
+    method.addComment(toInsert, "begin InvocationReturnValue.insertTrackStatements");
+    toInsert.add(method.loadContext());
+    toInsert.add(invocationLocal.load());
+    toInsert.add(new MethodInsnNode(Opcodes.INVOKESTATIC,
+        "com/coekie/flowtracker/tracker/Invocation",
+        "returnTracker",
+        "(Lcom/coekie/flowtracker/tracker/Context;I)Lcom/coekie/flowtracker/tracker/Tracker;"));
+    pointLocals.storeResolved(toInsert);
+    method.addComment(toInsert, "end InvocationReturnValue.insertTrackStatements");
+    method.instructions.insert(getCreationInsn(), toInsert);
+
+    // ensureInstrumented puts two extra values on the stack before the call, and after the call
+    // (with the returned value on the stack) we use two more
     method.maxStack = Math.max(method.maxStack,
-        getCreationFrame().fullStackSize() + 2);
+        getCreationFrame().fullStackSize() + 3);
   }
 
   @Override
   void loadSourcePoint(InsnList toInsert, FallbackSource fallback) {
     method.addComment(toInsert, "InvocationReturnValue.loadSourcePoint");
-    toInsert.add(invocationLocal.load());
-    toInsert.add(new FieldInsnNode(Opcodes.GETFIELD,
-        "com/coekie/flowtracker/tracker/Invocation",
-        "returnPoint",
-        "Lcom/coekie/flowtracker/tracker/TrackerPoint;"));
+    pointLocals.loadPoint(toInsert);
+  }
+
+  @Override
+  boolean hasSourcePointParts() {
+    return true;
+  }
+
+  @Override
+  void loadSourcePointParts(InsnList toInsert) {
+    method.addComment(toInsert, "InvocationReturnValue.loadSourcePointParts");
+    pointLocals.loadParts(toInsert);
   }
 
   static boolean shouldInstrumentInvocation(String owner, String name, String desc) {
@@ -0,0 +1,195 @@
+package com.coekie.flowtracker.weaver.flow;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.coekie.flowtracker.tracker.Context.context;
+
+import com.coekie.flowtracker.hook.LazyInstrumentationHook;
+import com.coekie.flowtracker.tracker.Invocation;
+import com.coekie.flowtracker.util.Config;
+import com.coekie.flowtracker.util.Logger;
+import com.coekie.flowtracker.util.Stats;
+import com.coekie.flowtracker.util.WeakIdentityMap;
+import com.coekie.flowtracker.weaver.ClassFilter;
+import java.lang.instrument.Instrumentation;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Postpones the instrumentation of methods until they are used, for classes included by the `lazy`
+ * option. When such a class is loaded, its methods only get a call to
+ * {@link LazyInstrumentationHook#enter(Class, int, String)} added at the start. When that decides
+ * that a method should be instrumented, the class is retransformed, instrumenting the methods
+ * that have been promoted like that; the others keep their stub.
+ * <p>
+ * This saves the cost of analyzing and instrumenting methods that are never called or rarely
+ * called, at the cost of not tracking values flowing through methods while they are not
+ * instrumented yet.
+ */
+public class LazyInstrumentation {
+  private static final Logger logger = new Logger("LazyInstrumentation");
+  private static final AtomicLong stubbedMethods = Stats.counter("lazy.stubbed");
+  private static final AtomicLong retransformedClasses = Stats.counter("lazy.retransformed");
+
+  /** Classes to instrument lazily; null if lazy instrumentation is disabled */
+  static ClassFilter filter;
+
+  /**
+   * Ids (see {@link LazyInstrumentationHook#newMethodId()}) of methods of lazily instrumented
+   * classes; per class loader, per class, by {@link Invocation#signature(String, String)}.
+   */
+  private static final WeakIdentityMap<ClassLoader, Map<String, Map<String, Integer>>> methodIds =
+      new WeakIdentityMap<>();
+  /** Like {@link #methodIds}, for classes loaded by the bootstrap class loader */
+  private static final Map<String, Map<String, Integer>> bootstrapMethodIds =
+      new ConcurrentHashMap<>();
+
+  private static final BlockingQueue<Class<?>> toRetransform = new LinkedBlockingQueue<>();
+
+  /** Thread running {@link #retransformLoop}, or null if lazy instrumentation is disabled */
+  private static Thread retransformThread;
+
+  /**
+   * Returns the method ids of a class if it should be instrumented lazily, or null if it should be
+   * instrumented as normal.
+   */
+  static Map<String, Integer> methodIds(ClassLoader classLoader, String className, int version) {
+    // we need at least Java 5 class files, for loading the class as a constant
+    if (filter == null || (version & 0xFFFF) < Opcodes.V1_5 || !filter.include(className)
+        || isJdk(className)) {
+      return null;
+    }
+    Map<String, Map<String, Integer>> classes;
+    if (classLoader == null) {
+      classes = bootstrapMethodIds;
+    } else {
+      classes = methodIds.get(classLoader);
+      if (classes == null) {
+        Map<String, Map<String, Integer>> newClasses = new ConcurrentHashMap<>();
+        Map<String, Map<String, Integer>> existing =
+            methodIds.putIfAbsent(classLoader, newClasses);
+        classes = existing != null ? existing : newClasses;
+      }
+    }
+    return classes.computeIfAbsent(className, c -> new ConcurrentHashMap<>());
+  }
+
+  /**
+   * JDK classes are never instrumented lazily: they are used by LazyInstrumentationHook itself (e.g.
+   * String.equals), so adding stubs to them would lead to infinite recursion.
+   */
+  private static boolean isJdk(String className) {
+    return className.startsWith("java/") || className.startsWith("jdk/")
+        || className.startsWith("sun/");
+  }
+
+  /**
+   * Returns a MethodVisitor that adds a stub to a method, or null if the method has been promoted
+   * and should be instrumented now.
+   */
+  static MethodVisitor stubUnlessPromoted(MethodVisitor mv, Map<String, Integer> classMethodIds,
+      String owner, String name, String desc) {
+    String signature = Invocation.signature(name, desc);
+    int methodId = classMethodIds.computeIfAbsent(signature,
+        s -> LazyInstrumentationHook.newMethodId());
+    if (LazyInstrumentationHook.isPromoted(methodId)) {
+      return null;
+    }
+    stubbedMethods.incrementAndGet();
+    return new StubMethodVisitor(mv, owner, methodId, signature);
+  }
+
+  /** Adds a call to {@link LazyInstrumentationHook#enter(Class, int, String)} */
+  private static class StubMethodVisitor extends MethodVisitor {
+    private final String owner;
+    private final int methodId;
+    private final String signature;
+
+    StubMethodVisitor(MethodVisitor mv, String owner, int methodId, String signature) {
+      super(Opcodes.ASM9, mv);
+      this.owner = owner;
+      this.methodId = methodId;
+      this.signature = signature;
+    }
+
+    @Override
+    public void visitCode() {
+      super.visitCode();
+      super.visitLdcInsn(Type.getObjectType(owner));
+      super.visitLdcInsn(methodId);
+      super.visitLdcInsn(signature);
+      super.visitMethodInsn(Opcodes.INVOKESTATIC,
+          "com/coekie/flowtracker/hook/LazyInstrumentationHook", "enter",
+          "(Ljava/lang/Class;ILjava/lang/String;)V", false);
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+      super.visitMaxs(Math.max(maxStack, 3), maxLocals);
+    }
+  }
+
+  /** Retransform classes of which methods have been promoted, in batches */
+  private static void retransformLoop(Instrumentation inst) {
+    context().suspend();
+    while (true) {
+      Set<Class<?>> batch = new LinkedHashSet<>();
+      try {
+        batch.add(toRetransform.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      toRetransform.drainTo(batch);
+      try {
+        inst.retransformClasses(batch.toArray(new Class<?>[0]));
+        retransformedClasses.addAndGet(batch.size());
+      } catch (Throwable t) {
+        logger.error(t, "Failed to retransform %s", batch);
+      }
+    }
+  }
+
+  public static void initialize(Instrumentation inst, Config config) {
+    String lazyConfig = config.get("lazy");
+    if (lazyConfig != null) {
+      filter = new ClassFilter(lazyConfig, "");
+      LazyInstrumentationHook.initialize(config, toRetransform::add);
+      Thread thread = new Thread(() -> retransformLoop(inst), "flowtracker-lazy");
+      thread.setDaemon(true);
+      thread.start();
+      retransformThread = thread;
+    }
+  }
+
+  /** Stop instrumenting lazily, and stop the retransforming thread. Used when detaching. */
+  public static void stop() {
+    filter = null;
+    if (retransformThread != null) {
+      retransformThread.interrupt();
+      retransformThread = null;
+    }
+    toRetransform.clear();
+  }
+}
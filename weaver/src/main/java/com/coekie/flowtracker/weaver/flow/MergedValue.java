@@ -136,6 +136,11 @@ class MergedValue extends FlowValue {
       // that when we get to the point where they get merged, it already has the right TrackerPoint
       value.loadSourcePoint(toInsert, NullFallbackSource.INSTANCE);
       toInsert.add(pointTrackerLocal.store());
+      FlowFrame creationFrame = value.getCreationFrame();
+      if (creationFrame != null) {
+        // +5: up to 2 pushed by the creation instruction itself, 3 for loadSourcePoint
+        methodNode.maxStack = Math.max(methodNode.maxStack, creationFrame.fullStackSize() + 5);
+      }
 
       // avoid inserting instructions between a label and a frame; because for verification to
       // succeed the frame must stay right after the label if it's a jump target.
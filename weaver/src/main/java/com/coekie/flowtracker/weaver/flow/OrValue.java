@@ -79,8 +79,8 @@ class OrValue extends FlowValue {
 
   @Override
   void loadSourcePoint(InsnList toInsert, FallbackSource fallback) {
-    // for now loadSourcePoint is only allowed to use two values on the stack.
-    // so we use a temporary variable to avoid using more than that.
+    // loadSourcePoint is only allowed to use three values on the stack, and target1 and target2
+    // could each use that many. so we use a temporary variable to avoid using more than that.
 
     TrackLocal pointTrackerLocal = method.newLocalForObject(
         Type.getType("Lcom/coekie/flowtracker/tracker/TrackerPoint;"),
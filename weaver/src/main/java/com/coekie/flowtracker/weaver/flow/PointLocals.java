@@ -0,0 +1,102 @@
+package com.coekie.flowtracker.weaver.flow;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.coekie.flowtracker.weaver.flow.FlowTransformer.FlowMethod;
+import java.util.List;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+
+/**
+ * The source of a value, stored in three local variables (tracker, index and length) instead of in
+ * a {@link com.coekie.flowtracker.tracker.TrackerPoint}. That avoids allocating a TrackerPoint for
+ * every value that we track: it is only created when the value escapes into something that needs a
+ * TrackerPoint (e.g. a field or an invocation), see {@link #loadPoint(InsnList)}. Consumers that
+ * support it (e.g. {@link ArrayStore}) use the parts directly, see {@link #loadParts(InsnList)}.
+ */
+class PointLocals {
+  private final FlowMethod method;
+  private final TrackLocal trackerLocal;
+  private final TrackLocal indexLocal;
+  private final TrackLocal lengthLocal;
+
+  PointLocals(FlowMethod method, String sourceForComment) {
+    this.method = method;
+    trackerLocal = method.newLocalForObject(
+        Type.getType("Lcom/coekie/flowtracker/tracker/Tracker;"), sourceForComment + " tracker");
+    indexLocal = method.newLocal(Type.INT_TYPE, List.of(new InsnNode(Opcodes.ICONST_0)), 1,
+        sourceForComment + " index");
+    lengthLocal = method.newLocal(Type.INT_TYPE, List.of(new InsnNode(Opcodes.ICONST_0)), 1,
+        sourceForComment + " length");
+  }
+
+  /**
+   * Locals initialized at the start of the method, with the tracker resulting from
+   * `trackerInitialValue`, and the index and length that it put in the Context.
+   */
+  PointLocals(FlowMethod method, List<AbstractInsnNode> trackerInitialValue, int maxStack,
+      String sourceForComment) {
+    this.method = method;
+    trackerLocal = method.newLocal(Type.getType("Lcom/coekie/flowtracker/tracker/Tracker;"),
+        trackerInitialValue, maxStack, sourceForComment + " tracker");
+    indexLocal = method.newLocal(Type.INT_TYPE, List.of(method.loadContext(),
+            new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
+                "com/coekie/flowtracker/tracker/Context", "pointIndex", "()I")),
+        1, sourceForComment + " index");
+    lengthLocal = method.newLocal(Type.INT_TYPE, List.of(method.loadContext(),
+            new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
+                "com/coekie/flowtracker/tracker/Context", "pointLength", "()I")),
+        1, sourceForComment + " length");
+  }
+
+  /**
+   * Store the Tracker on top of the stack, and the index and length that were put in the Context
+   * when it was resolved (see {@link com.coekie.flowtracker.tracker.TrackerPoint#resolve}).
+   * Uses one more stack entry.
+   */
+  void storeResolved(InsnList toInsert) {
+    toInsert.add(trackerLocal.store());
+    toInsert.add(method.loadContext());
+    toInsert.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
+        "com/coekie/flowtracker/tracker/Context", "pointIndex", "()I"));
+    toInsert.add(indexLocal.store());
+    toInsert.add(method.loadContext());
+    toInsert.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL,
+        "com/coekie/flowtracker/tracker/Context", "pointLength", "()I"));
+    toInsert.add(lengthLocal.store());
+  }
+
+  /** Load the tracker, index and length on the stack */
+  void loadParts(InsnList toInsert) {
+    toInsert.add(trackerLocal.load());
+    toInsert.add(indexLocal.load());
+    toInsert.add(lengthLocal.load());
+  }
+
+  /** Load a TrackerPoint (or null) on the stack, creating it from the parts */
+  void loadPoint(InsnList toInsert) {
+    loadParts(toInsert);
+    toInsert.add(new MethodInsnNode(Opcodes.INVOKESTATIC,
+        "com/coekie/flowtracker/tracker/TrackerPoint", "ofResolved",
+        "(Lcom/coekie/flowtracker/tracker/Tracker;II)"
+            + "Lcom/coekie/flowtracker/tracker/TrackerPoint;"));
+  }
+}
@@ -133,7 +133,7 @@ class StringConcatenation extends Store {
         }
       }
       methodNode.instructions.insertBefore(insn, toInsert);
-      methodNode.maxStack = Math.max(methodNode.maxStack, frame.fullStackSize() + trackedCount + 1);
+      methodNode.maxStack = Math.max(methodNode.maxStack, frame.fullStackSize() + trackedCount + 2);
 
       // update signature of called method handle: add the TrackerPoint parameters
       insn.desc = insn.desc.replace(")",
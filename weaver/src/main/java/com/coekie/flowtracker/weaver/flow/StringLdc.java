@@ -55,7 +55,7 @@ class StringLdc extends Instrumentable {
       } else {
         InsnList toInsert = new InsnList();
         methodNode.addComment(toInsert, "begin StringLdc.instrument");
-        toInsert.add(ConstantsTransformation.iconst(constantsTransformation.classId()));
+        toInsert.add(constantsTransformation.classIdInsn(constantsTransformation.classId()));
         toInsert.add(ConstantsTransformation.iconst(offset));
         toInsert.add(new MethodInsnNode(Opcodes.INVOKESTATIC,
             "com/coekie/flowtracker/hook/StringHook", "constantString",
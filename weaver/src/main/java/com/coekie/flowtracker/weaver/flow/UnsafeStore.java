@@ -51,7 +51,7 @@ class UnsafeStore extends Store {
       methodNode.addComment(toInsert,
           "end UnsafeStore.instrument. also replaced next invocation");
 
-      methodNode.maxStack = Math.max(frame.fullStackSize() + 2, methodNode.maxStack);
+      methodNode.maxStack = Math.max(frame.fullStackSize() + 3, methodNode.maxStack);
 
       invokeInsn.owner = "com/coekie/flowtracker/hook/UnsafeHook";
       invokeInsn.setOpcode(Opcodes.INVOKESTATIC);
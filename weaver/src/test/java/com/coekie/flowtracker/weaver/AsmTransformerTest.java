@@ -0,0 +1,99 @@
+package com.coekie.flowtracker.weaver;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.coekie.flowtracker.tracker.ClassOriginTracker;
+import com.coekie.flowtracker.tracker.Tracker;
+import com.coekie.flowtracker.tracker.TrackerTree;
+import com.coekie.flowtracker.util.Config;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Test for precomputing; using JDK classes, because our own classes are not instrumented.
+ */
+public class AsmTransformerTest {
+  private final AsmTransformer transformer = new AsmTransformer(Config.empty());
+
+  /** When retransforming the class it was computed for, the precomputed class is used */
+  @Test public void precompute() throws IOException {
+    Class<?> clazz = Properties.class;
+    assertThat(transformer.precompute(clazz)).isTrue();
+    ClassOriginTracker precomputedTracker = classOriginTrackers(clazz).get(0);
+
+    assertThat(retransform(clazz, classFile(clazz))).isNotNull();
+    // not instrumented again, which would have registered another tracker
+    assertThat(classOriginTrackers(clazz)).containsExactly(precomputedTracker);
+  }
+
+  /**
+   * When the code of the class that is retransformed is different (e.g. because another agent
+   * changed it), it is instrumented again, and the precomputed ClassOriginTracker is dropped.
+   */
+  @Test public void precomputeMismatch() throws IOException {
+    Class<?> clazz = URLEncoder.class;
+    assertThat(transformer.precompute(clazz)).isTrue();
+    ClassOriginTracker precomputedTracker = classOriginTrackers(clazz).get(0);
+
+    assertThat(retransform(clazz, changeCode(classFile(clazz)))).isNotNull();
+    List<ClassOriginTracker> trackers = classOriginTrackers(clazz);
+    assertThat(trackers).hasSize(1);
+    assertThat(trackers.get(0)).isNotSameInstanceAs(precomputedTracker);
+    assertThat(ClassOriginTracker.get(precomputedTracker.classId)).isNull();
+  }
+
+  private byte[] retransform(Class<?> clazz, byte[] classFile) {
+    return transformer.transform(clazz.getClassLoader(), Type.getInternalName(clazz), clazz,
+        null, classFile);
+  }
+
+  private static byte[] classFile(Class<?> clazz) throws IOException {
+    try (InputStream in =
+        clazz.getResourceAsStream('/' + Type.getInternalName(clazz) + ".class")) {
+      return in.readAllBytes();
+    }
+  }
+
+  /** Add a NOP at the start of every method, like another agent could have changed the class */
+  private static byte[] changeCode(byte[] classFile) {
+    ClassWriter writer = new ClassWriter(0);
+    new ClassReader(classFile).accept(new ClassVisitor(Opcodes.ASM9, writer) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor,
+          String signature, String[] exceptions) {
+        return new MethodVisitor(Opcodes.ASM9,
+            super.visitMethod(access, name, descriptor, signature, exceptions)) {
+          @Override
+          public void visitCode() {
+            super.visitCode();
+            super.visitInsn(Opcodes.NOP);
+          }
+        };
+      }
+    }, 0);
+    return writer.toByteArray();
+  }
+
+  private static List<ClassOriginTracker> classOriginTrackers(Class<?> clazz) {
+    List<ClassOriginTracker> result = new ArrayList<>();
+    for (Tracker tracker
+        : TrackerTree.CLASS.pathNode(Type.getInternalName(clazz)).trackers()) {
+      if (tracker instanceof ClassOriginTracker
+          && ((ClassOriginTracker) tracker).loader == clazz.getClassLoader()) {
+        result.add((ClassOriginTracker) tracker);
+      }
+    }
+    return result;
+  }
+}
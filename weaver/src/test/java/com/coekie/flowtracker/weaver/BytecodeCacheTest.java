@@ -0,0 +1,113 @@
+package com.coekie.flowtracker.weaver;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.coekie.flowtracker.tracker.ClassOriginTracker;
+import com.coekie.flowtracker.util.Config;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public class BytecodeCacheTest {
+  @Test public void testContainsPlaceholder() {
+    assertThat(BytecodeCache.containsPlaceholder(createClass(42L, 1234))).isFalse();
+    assertThat(BytecodeCache.containsPlaceholder(
+        createClass(42L, BytecodeCache.CLASS_ID_PLACEHOLDER))).isTrue();
+    // a long constant with the same bits is not the placeholder
+    assertThat(BytecodeCache.containsPlaceholder(
+        createClass(BytecodeCache.CLASS_ID_PLACEHOLDER, 1234))).isFalse();
+  }
+
+  @Test public void testPatchClassId() {
+    byte[] original = createClass(42L, BytecodeCache.CLASS_ID_PLACEHOLDER);
+    byte[] patched = BytecodeCache.patchClassId(original, 777_777);
+    assertThat(BytecodeCache.containsPlaceholder(original)).isTrue(); // original is not modified
+    assertThat(BytecodeCache.containsPlaceholder(patched)).isFalse();
+    assertThat(intConstants(patched)).containsExactly(777_777);
+  }
+
+  @Test public void testStoreAndLoad() throws IOException {
+    Path dir = Files.createTempDirectory("bytecodeCache");
+    BytecodeCache cache = BytecodeCache.create(
+        Config.forTesting(Map.of("bytecodeCache", dir.toString())));
+    byte[] original = createClass(42L, 1234);
+    String key = cache.key("Foo", original);
+    assertThat(cache.load(key, null, "Foo")).isNull();
+
+    int firstClassId = ClassOriginTracker.nextClassId();
+    ClassOriginTracker tracker = ClassOriginTracker.registerClass(null, "Foo", "Foo.java");
+    tracker.registerConstantString("bar", 7);
+    byte[] instrumented = createClass(42L, BytecodeCache.CLASS_ID_PLACEHOLDER);
+    byte[] stored = cache.store(key, null, "Foo", instrumented, firstClassId);
+    assertThat(intConstants(stored)).containsExactly(tracker.classId);
+
+    byte[] loaded = cache.load(key, null, "Foo");
+    ClassOriginTracker loadedTracker = ClassOriginTracker.get(ClassOriginTracker.nextClassId() - 1);
+    assertThat(loadedTracker).isNotSameInstanceAs(tracker);
+    assertThat(loadedTracker.sourceFile).isEqualTo("Foo.java");
+    assertThat(loadedTracker.getContent().toString()).isEqualTo(tracker.getContent().toString());
+    assertThat(lineNumbers(loadedTracker)).isEqualTo(lineNumbers(tracker));
+    assertThat(intConstants(loaded)).containsExactly(loadedTracker.classId);
+
+    // a different class, or a different configuration, uses a different key
+    assertThat(cache.key("Bar", original)).isNotEqualTo(key);
+    assertThat(BytecodeCache.create(
+        Config.forTesting(Map.of("bytecodeCache", dir.toString(), "filter", "+Foo")))
+        .key("Foo", original)).isNotEqualTo(key);
+  }
+
+  @Test public void testDisabled() {
+    assertThat(BytecodeCache.create(Config.empty())).isNull();
+    assertThat(BytecodeCache.create(
+        Config.forTesting(Map.of("bytecodeCache", "/tmp", "dumpText", "/tmp")))).isNull();
+  }
+
+  private static List<Integer> lineNumbers(ClassOriginTracker tracker) {
+    List<Integer> result = new ArrayList<>();
+    tracker.pushLineNumbers((start, end, line) -> {
+      result.add(start);
+      result.add(end);
+      result.add(line);
+    });
+    return result;
+  }
+
+  /** Create a class with a method that loads the given constants */
+  private static byte[] createClass(long longConstant, int intConstant) {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(Opcodes.V11, Opcodes.ACC_PUBLIC, "Foo", null, "java/lang/Object", null);
+    MethodVisitor mv = cw.visitMethod(Opcodes.ACC_STATIC, "m", "()V", null, null);
+    mv.visitCode();
+    mv.visitLdcInsn(longConstant);
+    mv.visitInsn(Opcodes.POP2);
+    mv.visitLdcInsn(intConstant);
+    mv.visitInsn(Opcodes.POP);
+    mv.visitInsn(Opcodes.RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  /** Values of the CONSTANT_Integer entries in the constant pool */
+  private static List<Integer> intConstants(byte[] bytes) {
+    ClassReader reader = new ClassReader(bytes);
+    char[] buf = new char[reader.getMaxStringLength()];
+    List<Integer> result = new ArrayList<>();
+    for (int i = 1; i < reader.getItemCount(); i++) {
+      int offset = reader.getItem(i);
+      if (offset != 0 && bytes[offset - 1] == 3) {
+        result.add((Integer) reader.readConst(i, buf));
+      }
+    }
+    return result;
+  }
+}
@@ -73,9 +73,9 @@ public class HookSpecTest {
 
   @Test
   public void testInvocation() throws ReflectiveOperationException {
-    Invocation.create("withInvocation ()V")
-        .setArg(0, TrackerPoint.of(new FakeOriginTracker(1000), 777))
-        .calling(context());
+    Invocation.calling(Invocation.setArg(
+        Invocation.create(context(), Invocation.signatureId("withInvocation", "()V")),
+        0, TrackerPoint.of(new FakeOriginTracker(1000), 777)));
     ClassHookSpec classHookSpec = new ClassHookSpec(Type.getType(HookedWithInvocation.class));
     transformAndRun(classHookSpec.addMethodHookSpec(Method.getMethod("void withInvocation()"),
         Type.getType(MyHook.class), Method.getMethod(
@@ -142,7 +142,7 @@ public class HookSpecTest {
 
     public static void afterWithSuspendedInvocation(Invocation invocation) {
       log("afterWithSuspendedInvocation", Invocation.getArgPoint(invocation, 0).index);
-      assertThat(Invocation.peekPending()).isNull();
+      assertThat(Invocation.pendingStamp()).isEqualTo(0);
       // to match its only use-case, unsuspend (restore) the invocation in the hook
       Invocation.unsuspend(invocation);
     }
@@ -207,7 +207,7 @@ class HookedWithInvocation implements Runnable {
   }
 
   void withInvocation() {
-    Invocation.create("something else").calling(context());
+    Invocation.calling(Invocation.create(context(), Invocation.signatureId("something else")));
     HookSpecTest.log("withInvocation");
   }
 }
@@ -2,7 +2,9 @@ package com.coekie.flowtracker.weaver.flow;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.coekie.flowtracker.hook.LazyInstrumentationHook;
 import com.coekie.flowtracker.util.Config;
+import com.coekie.flowtracker.weaver.ClassFilter;
 import com.coekie.flowtracker.weaver.debug.CommentTextifier;
 import com.coekie.flowtracker.weaver.debug.RealCommentator;
 import java.io.IOException;
@@ -10,6 +12,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Map;
 import java.util.function.Consumer;
 import org.junit.Test;
 import org.objectweb.asm.ClassReader;
@@ -66,6 +69,96 @@ public class FlowTransformerTest {
             + "MAXLOCALS = 3\n");
   }
 
+  /**
+   * Same as {@link #testTracker()}, but with hooks called through SwitchableCallSites, as they are
+   * in application classes by default
+   */
+  @Test
+  public void testSwitchableHooks() {
+    testTransform(new Object() {
+                    @SuppressWarnings("unused")
+                    void t(byte[] bytes1, byte[] bytes2) {
+                      bytes1[1] = bytes2[2];
+                    }
+                  },
+        Config.empty(),
+        // original code
+        "ALOAD 1\n"
+            + "ICONST_1\n"
+            + "ALOAD 2\n"
+            + "ICONST_2\n"
+            + "BALOAD\n"
+            + "BASTORE\n"
+            + "RETURN\n"
+            + "MAXSTACK = 4\n"
+            + "MAXLOCALS = 3\n",
+        // transformed code
+        "TRYCATCHBLOCK L0 L1 L2 null\n"
+            + "// Initialize newLocal ArrayLoadValue tracker\n"
+            + "ACONST_NULL\n"
+            + "ASTORE 3\n"
+            + "// Initialize newLocal ArrayLoadValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 4\n"
+            + "// Initialize newLocal ArrayLoadValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 5\n"
+            + "// Initialize newLocal ContextLoader context\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Context.context ()Lcom/coekie/flowtracker/tracker/Context;\n"
+            + "ASTORE 6\n"
+            + "L0\n"
+            + "ALOAD 1\n"
+            + "ICONST_1\n"
+            + "ALOAD 2\n"
+            + "ICONST_2\n"
+            + "// begin ArrayLoadValue.insertTrackStatements\n"
+            + "DUP2\n"
+            + "ALOAD 6\n"
+            + "INVOKEDYNAMIC getElementTracker(Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker; [\n"
+            + "// handle kind 0x6 : INVOKESTATIC\n"
+            + "com/coekie/flowtracker/tracker/SwitchableCallSite.hook(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;)Ljava/lang/invoke/CallSite;\n"
+            + "// arguments:\n"
+            + "// handle kind 0x6 : INVOKESTATIC\n"
+            + "com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker(Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker;\n"
+            + "]\n"
+            + "ASTORE 3\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 4\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 5\n"
+            + "// end ArrayLoadValue.insertTrackStatements\n"
+            + "BALOAD\n"
+            + "// begin ArrayStore.instrument: ArrayHook.set*(array, arrayIndex, value [already on stack], sourcePoint)\n"
+            + "// ArrayLoadValue.loadSourcePointParts\n"
+            + "ALOAD 3\n"
+            + "ILOAD 4\n"
+            + "ILOAD 5\n"
+            + "ALOAD 6\n"
+            + "INVOKEDYNAMIC setByte([BIBLcom/coekie/flowtracker/tracker/Tracker;IILcom/coekie/flowtracker/tracker/Context;)V [\n"
+            + "// handle kind 0x6 : INVOKESTATIC\n"
+            + "com/coekie/flowtracker/tracker/SwitchableCallSite.arrayStore(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;)Ljava/lang/invoke/CallSite;\n"
+            + "// arguments:\n"
+            + "// handle kind 0x6 : INVOKESTATIC\n"
+            + "com/coekie/flowtracker/hook/ArrayHook.setByte([BIBLcom/coekie/flowtracker/tracker/Tracker;IILcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "]\n"
+            + "// end ArrayStore.instrument\n"
+            + "// ArrayStore.Flush: ArrayHook.flush(context)\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "RETURN\n"
+            + "L1\n"
+            + "L2\n"
+            + "FRAME FULL [T T T com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context] [java/lang/Throwable]\n"
+            + "// ArrayStore.FlushOnException: ArrayHook.flush(context) and rethrow\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "ATHROW\n"
+            + "MAXSTACK = 7\n"
+            + "MAXLOCALS = 7\n");
+  }
+
   /**
    * Test insertion of code to get tracker and pass it to a hook, using the simple example of an
    * array load and store
@@ -89,32 +182,105 @@ public class FlowTransformerTest {
             + "MAXSTACK = 4\n"
             + "MAXLOCALS = 3\n",
         // transformed code
-        "// Initialize newLocal ArrayLoadValue PointTracker\n"
+        "TRYCATCHBLOCK L0 L1 L2 null\n"
+            + "// Initialize newLocal ArrayLoadValue tracker\n"
             + "ACONST_NULL\n"
             + "ASTORE 3\n"
+            + "// Initialize newLocal ArrayLoadValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 4\n"
+            + "// Initialize newLocal ArrayLoadValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 5\n"
             + "// Initialize newLocal ContextLoader context\n"
             + "INVOKESTATIC com/coekie/flowtracker/tracker/Context.context ()Lcom/coekie/flowtracker/tracker/Context;\n"
-            + "ASTORE 4\n"
+            + "ASTORE 6\n"
+            + "L0\n"
             + "ALOAD 1\n"
             + "ICONST_1\n"
             + "ALOAD 2\n"
             + "ICONST_2\n"
             + "// begin ArrayLoadValue.insertTrackStatements\n"
             + "DUP2\n"
-            + "ALOAD 4\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker;\n"
             + "ASTORE 3\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 4\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 5\n"
             + "// end ArrayLoadValue.insertTrackStatements\n"
             + "BALOAD\n"
             + "// begin ArrayStore.instrument: ArrayHook.set*(array, arrayIndex, value [already on stack], sourcePoint)\n"
-            + "// ArrayLoadValue.loadSourcePoint\n"
+            + "// ArrayLoadValue.loadSourcePointParts\n"
             + "ALOAD 3\n"
-            + "ALOAD 4\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setByte ([BIBLcom/coekie/flowtracker/tracker/TrackerPoint;Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "ILOAD 4\n"
+            + "ILOAD 5\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setByte ([BIBLcom/coekie/flowtracker/tracker/Tracker;IILcom/coekie/flowtracker/tracker/Context;)V\n"
             + "// end ArrayStore.instrument\n"
+            + "// ArrayStore.Flush: ArrayHook.flush(context)\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
             + "RETURN\n"
+            + "L1\n"
+            + "L2\n"
+            + "FRAME FULL [T T T com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context] [java/lang/Throwable]\n"
+            + "// ArrayStore.FlushOnException: ArrayHook.flush(context) and rethrow\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "ATHROW\n"
             + "MAXSTACK = 7\n"
-            + "MAXLOCALS = 5\n");
+            + "MAXLOCALS = 7\n");
+  }
+
+  /**
+   * Test that with lazy instrumentation a method first only gets a stub, and gets instrumented
+   * normally once it has been promoted
+   */
+  @Test
+  public void testLazy() {
+    Object o = new Object() {
+      @SuppressWarnings("unused")
+      void t(byte[] bytes1, byte[] bytes2) {
+        bytes1[1] = bytes2[2];
+      }
+    };
+    String className = o.getClass().getName().replace('.', '/');
+    // (this includes inner classes such as the one of `o`)
+    LazyInstrumentation.filter = new ClassFilter("+" + FlowTransformerTest.class.getName(), "");
+    try {
+      testTransformClass(o.getClass().getName(), c -> {},
+          transformedCode -> assertThat(transformedCode.replaceAll("LDC \\d+", "LDC <id>"))
+              .isEqualTo("LDC L$THIS$;.class\n"
+                  + "LDC <id>\n"
+                  + "LDC \"t ([B[B)V\"\n"
+                  + "INVOKESTATIC com/coekie/flowtracker/hook/LazyInstrumentationHook.enter (Ljava/lang/Class;ILjava/lang/String;)V\n"
+                  + "ALOAD 1\n"
+                  + "ICONST_1\n"
+                  + "ALOAD 2\n"
+                  + "ICONST_2\n"
+                  + "BALOAD\n"
+                  + "BASTORE\n"
+                  + "RETURN\n"
+                  + "MAXSTACK = 4\n"
+                  + "MAXLOCALS = 3\n"));
+
+      int methodId = LazyInstrumentation.methodIds(null, className, Opcodes.V11)
+          .get("t ([B[B)V");
+      for (int i = 0; i < 100; i++) { // default lazyThreshold
+        LazyInstrumentationHook.enter(o.getClass(), methodId, "t ([B[B)V");
+      }
+      assertThat(LazyInstrumentationHook.isPromoted(methodId)).isTrue();
+
+      testTransformClass(o.getClass().getName(), c -> {},
+          transformedCode -> assertThat(transformedCode)
+              .contains("INVOKEDYNAMIC setByte"));
+    } finally {
+      LazyInstrumentation.filter = null;
+    }
   }
 
   @Test
@@ -147,39 +313,68 @@ public class FlowTransformerTest {
             + "MAXSTACK = 3\n"
             + "MAXLOCALS = 5\n",
         // transformed code
-        "// Initialize newLocal ArrayLoadValue PointTracker\n"
+        "TRYCATCHBLOCK L0 L1 L2 null\n"
+            + "// Initialize newLocal ArrayLoadValue tracker\n"
             + "ACONST_NULL\n"
             + "ASTORE 4\n"
+            + "// Initialize newLocal ArrayLoadValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 5\n"
+            + "// Initialize newLocal ArrayLoadValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 6\n"
             + "// Initialize newLocal ContextLoader context\n"
             + "INVOKESTATIC com/coekie/flowtracker/tracker/Context.context ()Lcom/coekie/flowtracker/tracker/Context;\n"
-            + "ASTORE 5\n"
+            + "ASTORE 7\n"
+            + "L0\n"
             + "ALOAD 2\n"
             + "ICONST_0\n"
             + "// begin ArrayLoadValue.insertTrackStatements\n"
             + "DUP2\n"
-            + "ALOAD 5\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
+            + "ALOAD 7\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker;\n"
             + "ASTORE 4\n"
+            + "ALOAD 7\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 5\n"
+            + "ALOAD 7\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 6\n"
             + "// end ArrayLoadValue.insertTrackStatements\n"
             + "CALOAD\n"
-            + "ISTORE 6\n"
+            + "ISTORE 8\n"
             + "ILOAD 3\n"
-            + "IFEQ L0\n"
+            + "IFEQ L3\n"
+            + "// ArrayStore.Flush: ArrayHook.flush(context)\n"
+            + "ALOAD 7\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
             + "RETURN\n"
-            + "L0\n"
-            + "FRAME FULL [$THIS$ [C [C I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context I] []\n"
+            + "L3\n"
+            + "FRAME FULL [$THIS$ [C [C I com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context I] []\n"
             + "ALOAD 1\n"
             + "ICONST_0\n"
-            + "ILOAD 6\n"
+            + "ILOAD 8\n"
             + "// begin ArrayStore.instrument: ArrayHook.set*(array, arrayIndex, value [already on stack], sourcePoint)\n"
-            + "// ArrayLoadValue.loadSourcePoint\n"
+            + "// ArrayLoadValue.loadSourcePointParts\n"
             + "ALOAD 4\n"
-            + "ALOAD 5\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setChar ([CICLcom/coekie/flowtracker/tracker/TrackerPoint;Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "ILOAD 5\n"
+            + "ILOAD 6\n"
+            + "ALOAD 7\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setChar ([CICLcom/coekie/flowtracker/tracker/Tracker;IILcom/coekie/flowtracker/tracker/Context;)V\n"
             + "// end ArrayStore.instrument\n"
+            + "// ArrayStore.Flush: ArrayHook.flush(context)\n"
+            + "ALOAD 7\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
             + "RETURN\n"
-            + "MAXSTACK = 6\n"
-            + "MAXLOCALS = 7\n");
+            + "L1\n"
+            + "L2\n"
+            + "FRAME FULL [T T T T com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context] [java/lang/Throwable]\n"
+            + "// ArrayStore.FlushOnException: ArrayHook.flush(context) and rethrow\n"
+            + "ALOAD 7\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "ATHROW\n"
+            + "MAXSTACK = 7\n"
+            + "MAXLOCALS = 9\n");
   }
 
   static char[] myCharArray;
@@ -216,39 +411,65 @@ public class FlowTransformerTest {
             + "MAXSTACK = 4\n"
             + "MAXLOCALS = 1\n",
         // transformed code
-        "// Initialize newLocal ArrayLoadValue PointTracker\n"
+        "TRYCATCHBLOCK L0 L1 L2 null\n"
+            + "// Initialize newLocal ArrayLoadValue tracker\n"
             + "ACONST_NULL\n"
             + "ASTORE 1\n"
+            + "// Initialize newLocal ArrayLoadValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 2\n"
+            + "// Initialize newLocal ArrayLoadValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 3\n"
             + "// Initialize newLocal ContextLoader context\n"
             + "INVOKESTATIC com/coekie/flowtracker/tracker/Context.context ()Lcom/coekie/flowtracker/tracker/Context;\n"
-            + "ASTORE 2\n"
+            + "ASTORE 4\n"
             + "L0\n"
-            + "FRAME FULL [$THIS$ com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context] []\n"
+            + "L3\n"
+            + "FRAME FULL [$THIS$ com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context] []\n"
             + "GETSTATIC $THISTEST$.myBoolean : Z\n"
-            + "IFEQ L1\n"
+            + "IFEQ L4\n"
             + "GETSTATIC $THISTEST$.myCharArray : [C\n"
             + "ICONST_0\n"
             + "GETSTATIC $THISTEST$.myCharArray : [C\n"
             + "ICONST_1\n"
             + "// begin ArrayLoadValue.insertTrackStatements\n"
             + "DUP2\n"
-            + "ALOAD 2\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
+            + "ALOAD 4\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker;\n"
             + "ASTORE 1\n"
+            + "ALOAD 4\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 2\n"
+            + "ALOAD 4\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 3\n"
             + "// end ArrayLoadValue.insertTrackStatements\n"
             + "CALOAD\n"
             + "// begin ArrayStore.instrument: ArrayHook.set*(array, arrayIndex, value [already on stack], sourcePoint)\n"
-            + "// ArrayLoadValue.loadSourcePoint\n"
+            + "// ArrayLoadValue.loadSourcePointParts\n"
             + "ALOAD 1\n"
-            + "ALOAD 2\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setChar ([CICLcom/coekie/flowtracker/tracker/TrackerPoint;Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "ILOAD 2\n"
+            + "ILOAD 3\n"
+            + "ALOAD 4\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setChar ([CICLcom/coekie/flowtracker/tracker/Tracker;IILcom/coekie/flowtracker/tracker/Context;)V\n"
             + "// end ArrayStore.instrument\n"
-            + "GOTO L0\n"
-            + "L1\n"
-            + "FRAME FULL [$THIS$ com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context] []\n"
+            + "GOTO L3\n"
+            + "L4\n"
+            + "FRAME FULL [$THIS$ com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context] []\n"
+            + "// ArrayStore.Flush: ArrayHook.flush(context)\n"
+            + "ALOAD 4\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
             + "RETURN\n"
+            + "L1\n"
+            + "L2\n"
+            + "FRAME FULL [T com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context] [java/lang/Throwable]\n"
+            + "// ArrayStore.FlushOnException: ArrayHook.flush(context) and rethrow\n"
+            + "ALOAD 4\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "ATHROW\n"
             + "MAXSTACK = 7\n"
-            + "MAXLOCALS = 3\n");
+            + "MAXLOCALS = 5\n");
   }
 
   @Test
@@ -280,7 +501,8 @@ public class FlowTransformerTest {
             + "RETURN\n"
             + "MAXSTACK = 3\n"
             + "MAXLOCALS = 3\n",
-        "// Initialize newLocal MergedValue PointTracker\n"
+        "TRYCATCHBLOCK L0 L1 L2 null\n"
+            + "// Initialize newLocal MergedValue PointTracker\n"
             + "ACONST_NULL\n"
             + "ASTORE 3\n"
             + "// Initialize newLocal ContextLoader context\n"
@@ -288,20 +510,36 @@ public class FlowTransformerTest {
             + "ASTORE 4\n"
             + "// Initialize newLocal InvocationTransformation invocation\n"
             + "ALOAD 4\n"
-            + "LDC \"write (IZ)V\"\n"
-            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.start (Lcom/coekie/flowtracker/tracker/Context;Ljava/lang/String;)Lcom/coekie/flowtracker/tracker/Invocation;\n"
-            + "ASTORE 5\n"
+            + "LDC -119276827\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.start (Lcom/coekie/flowtracker/tracker/Context;I)I\n"
+            + "ISTORE 5\n"
+            + "// Initialize newLocal InvocationArgValue 0 tracker\n"
+            + "ALOAD 4\n"
+            + "ILOAD 5\n"
+            + "ICONST_0\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.argTracker (Lcom/coekie/flowtracker/tracker/Context;II)Lcom/coekie/flowtracker/tracker/Tracker;\n"
+            + "ASTORE 6\n"
+            + "// Initialize newLocal InvocationArgValue 0 index\n"
+            + "ALOAD 4\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 7\n"
+            + "// Initialize newLocal InvocationArgValue 0 length\n"
+            + "ALOAD 4\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 8\n"
             + "// FYI MergedValue merges here (TrackerPoint in 3)\n"
             + "L0\n"
-            + "FRAME FULL [$THIS$ I I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context com/coekie/flowtracker/tracker/Invocation] []\n"
+            + "L3\n"
+            + "FRAME FULL [$THIS$ I I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context I com/coekie/flowtracker/tracker/Tracker I I] []\n"
             + "// MergedValue (TrackerPoint in 3)\n"
             + "// InvocationArgValue.loadSourcePoint\n"
-            + "ALOAD 5\n"
-            + "ICONST_0\n"
-            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.getArgPoint (Lcom/coekie/flowtracker/tracker/Invocation;I)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
+            + "ALOAD 6\n"
+            + "ILOAD 7\n"
+            + "ILOAD 8\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/TrackerPoint.ofResolved (Lcom/coekie/flowtracker/tracker/Tracker;II)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
             + "ASTORE 3\n"
             + "ILOAD 2\n"
-            + "IFEQ L1\n"
+            + "IFEQ L4\n"
             + "ILOAD 1\n"
             + "I2B\n"
             + "ISTORE 1\n"
@@ -309,9 +547,9 @@ public class FlowTransformerTest {
             + "// MergedValue.loadSourcePoint\n"
             + "ALOAD 3\n"
             + "ASTORE 3\n"
-            + "GOTO L0\n"
-            + "L1\n"
-            + "FRAME FULL [$THIS$ I I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context com/coekie/flowtracker/tracker/Invocation] []\n"
+            + "GOTO L3\n"
+            + "L4\n"
+            + "FRAME FULL [$THIS$ I I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context I com/coekie/flowtracker/tracker/Tracker I I] []\n"
             + "GETSTATIC $THISTEST$.myByteArray : [B\n"
             + "ICONST_0\n"
             + "ILOAD 1\n"
@@ -322,9 +560,19 @@ public class FlowTransformerTest {
             + "ALOAD 4\n"
             + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setByte ([BIBLcom/coekie/flowtracker/tracker/TrackerPoint;Lcom/coekie/flowtracker/tracker/Context;)V\n"
             + "// end ArrayStore.instrument\n"
+            + "// ArrayStore.Flush: ArrayHook.flush(context)\n"
+            + "ALOAD 4\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
             + "RETURN\n"
-            + "MAXSTACK = 6\n"
-            + "MAXLOCALS = 6\n");
+            + "L1\n"
+            + "L2\n"
+            + "FRAME FULL [T T T com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context I com/coekie/flowtracker/tracker/Tracker I I] [java/lang/Throwable]\n"
+            + "// ArrayStore.FlushOnException: ArrayHook.flush(context) and rethrow\n"
+            + "ALOAD 4\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "ATHROW\n"
+            + "MAXSTACK = 7\n"
+            + "MAXLOCALS = 9\n");
   }
 
   /**
@@ -434,6 +682,90 @@ public class FlowTransformerTest {
             + "MAXLOCALS = 3\n");
   }
 
+  /** Array stores that were combined are applied before the array is passed to another method */
+  @Test
+  public void arrayStoreFlushBeforeInvocation() {
+    testTransform(new Object() {
+                    @SuppressWarnings("unused")
+                    void t(byte[] bytes, OutputStream out) throws IOException {
+                      bytes[0] = myByteArray[0];
+                      out.write(bytes);
+                    }
+                  },
+        // original code
+        "ALOAD 1\n"
+            + "ICONST_0\n"
+            + "GETSTATIC $THISTEST$.myByteArray : [B\n"
+            + "ICONST_0\n"
+            + "BALOAD\n"
+            + "BASTORE\n"
+            + "ALOAD 2\n"
+            + "ALOAD 1\n"
+            + "INVOKEVIRTUAL java/io/OutputStream.write ([B)V\n"
+            + "RETURN\n"
+            + "MAXSTACK = 4\n"
+            + "MAXLOCALS = 3\n",
+        // transformed code
+        "TRYCATCHBLOCK L0 L1 L2 null\n"
+            + "// Initialize newLocal ArrayLoadValue tracker\n"
+            + "ACONST_NULL\n"
+            + "ASTORE 3\n"
+            + "// Initialize newLocal ArrayLoadValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 4\n"
+            + "// Initialize newLocal ArrayLoadValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 5\n"
+            + "// Initialize newLocal ContextLoader context\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Context.context ()Lcom/coekie/flowtracker/tracker/Context;\n"
+            + "ASTORE 6\n"
+            + "L0\n"
+            + "ALOAD 1\n"
+            + "ICONST_0\n"
+            + "GETSTATIC $THISTEST$.myByteArray : [B\n"
+            + "ICONST_0\n"
+            + "// begin ArrayLoadValue.insertTrackStatements\n"
+            + "DUP2\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker;\n"
+            + "ASTORE 3\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 4\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 5\n"
+            + "// end ArrayLoadValue.insertTrackStatements\n"
+            + "BALOAD\n"
+            + "// begin ArrayStore.instrument: ArrayHook.set*(array, arrayIndex, value [already on stack], sourcePoint)\n"
+            + "// ArrayLoadValue.loadSourcePointParts\n"
+            + "ALOAD 3\n"
+            + "ILOAD 4\n"
+            + "ILOAD 5\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setByte ([BIBLcom/coekie/flowtracker/tracker/Tracker;IILcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "// end ArrayStore.instrument\n"
+            + "ALOAD 2\n"
+            + "ALOAD 1\n"
+            + "// ArrayStore.Flush: ArrayHook.flush(context)\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "INVOKEVIRTUAL java/io/OutputStream.write ([B)V\n"
+            + "// ArrayStore.Flush: ArrayHook.flush(context)\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "RETURN\n"
+            + "L1\n"
+            + "L2\n"
+            + "FRAME FULL [T T T com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context] [java/lang/Throwable]\n"
+            + "// ArrayStore.FlushOnException: ArrayHook.flush(context) and rethrow\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "ATHROW\n"
+            + "MAXSTACK = 7\n"
+            + "MAXLOCALS = 7\n");
+  }
+
   /** Test Instrumentation using {@link InvocationReturnValue} */
   @Test
   public void invocationReturnValue() {
@@ -454,34 +786,68 @@ public class FlowTransformerTest {
             + "MAXSTACK = 3\n"
             + "MAXLOCALS = 2\n",
         // transformed code
-        "// Initialize newLocal InvocationReturnValue invocation\n"
+        "TRYCATCHBLOCK L0 L1 L2 null\n"
+            + "// Initialize newLocal InvocationReturnValue invocation\n"
+            + "ICONST_0\n"
+            + "ISTORE 2\n"
+            + "// Initialize newLocal InvocationReturnValue tracker\n"
             + "ACONST_NULL\n"
-            + "ASTORE 2\n"
+            + "ASTORE 3\n"
+            + "// Initialize newLocal InvocationReturnValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 4\n"
+            + "// Initialize newLocal InvocationReturnValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 5\n"
             + "// Initialize newLocal ContextLoader context\n"
             + "INVOKESTATIC com/coekie/flowtracker/tracker/Context.context ()Lcom/coekie/flowtracker/tracker/Context;\n"
-            + "ASTORE 3\n"
+            + "ASTORE 6\n"
+            + "L0\n"
             + "ALOAD 1\n"
             + "ICONST_1\n"
             + "GETSTATIC $THISTEST$.inputStream : Ljava/io/InputStream;\n"
             + "// begin InvocationOutgoingTransformation.ensureInstrumented\n"
-            + "LDC \"read ()I\"\n"
-            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.create (Ljava/lang/String;)Lcom/coekie/flowtracker/tracker/Invocation;\n"
-            + "ALOAD 3\n"
-            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Invocation.calling (Lcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Invocation;\n"
-            + "ASTORE 2\n"
+            + "ALOAD 6\n"
+            + "LDC -869153314\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.create (Lcom/coekie/flowtracker/tracker/Context;I)Lcom/coekie/flowtracker/tracker/Context;\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.calling (Lcom/coekie/flowtracker/tracker/Context;)I\n"
+            + "ISTORE 2\n"
             + "// end InvocationOutgoingTransformation.ensureInstrumented\n"
             + "INVOKEVIRTUAL java/io/InputStream.read ()I\n"
+            + "// begin InvocationReturnValue.insertTrackStatements\n"
+            + "ALOAD 6\n"
+            + "ILOAD 2\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.returnTracker (Lcom/coekie/flowtracker/tracker/Context;I)Lcom/coekie/flowtracker/tracker/Tracker;\n"
+            + "ASTORE 3\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 4\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 5\n"
+            + "// end InvocationReturnValue.insertTrackStatements\n"
             + "I2B\n"
             + "// begin ArrayStore.instrument: ArrayHook.set*(array, arrayIndex, value [already on stack], sourcePoint)\n"
-            + "// InvocationReturnValue.loadSourcePoint\n"
-            + "ALOAD 2\n"
-            + "GETFIELD com/coekie/flowtracker/tracker/Invocation.returnPoint : Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
+            + "// InvocationReturnValue.loadSourcePointParts\n"
             + "ALOAD 3\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setByte ([BIBLcom/coekie/flowtracker/tracker/TrackerPoint;Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "ILOAD 4\n"
+            + "ILOAD 5\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setByte ([BIBLcom/coekie/flowtracker/tracker/Tracker;IILcom/coekie/flowtracker/tracker/Context;)V\n"
             + "// end ArrayStore.instrument\n"
+            + "// ArrayStore.Flush: ArrayHook.flush(context)\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
             + "RETURN\n"
-            + "MAXSTACK = 6\n"
-            + "MAXLOCALS = 4\n");
+            + "L1\n"
+            + "L2\n"
+            + "FRAME FULL [T T I com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context] [java/lang/Throwable]\n"
+            + "// ArrayStore.FlushOnException: ArrayHook.flush(context) and rethrow\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "ATHROW\n"
+            + "MAXSTACK = 7\n"
+            + "MAXLOCALS = 7\n");
   }
 
   /** Test Instrumentation using {@link InvocationReturnStore} */
@@ -501,35 +867,50 @@ public class FlowTransformerTest {
             + "MAXSTACK = 2\n"
             + "MAXLOCALS = 1\n",
         // transformed code
-        "// Initialize newLocal ArrayLoadValue PointTracker\n"
+        "// Initialize newLocal ArrayLoadValue tracker\n"
             + "ACONST_NULL\n"
             + "ASTORE 1\n"
+            + "// Initialize newLocal ArrayLoadValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 2\n"
+            + "// Initialize newLocal ArrayLoadValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 3\n"
             + "// Initialize newLocal ContextLoader context\n"
             + "INVOKESTATIC com/coekie/flowtracker/tracker/Context.context ()Lcom/coekie/flowtracker/tracker/Context;\n"
-            + "ASTORE 2\n"
+            + "ASTORE 4\n"
             + "// Initialize newLocal InvocationTransformation invocation\n"
-            + "ALOAD 2\n"
-            + "LDC \"read ()I\"\n"
-            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.start (Lcom/coekie/flowtracker/tracker/Context;Ljava/lang/String;)Lcom/coekie/flowtracker/tracker/Invocation;\n"
-            + "ASTORE 3\n"
+            + "ALOAD 4\n"
+            + "LDC -869153314\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.start (Lcom/coekie/flowtracker/tracker/Context;I)I\n"
+            + "ISTORE 5\n"
             + "GETSTATIC $THISTEST$.myByteArray : [B\n"
             + "ICONST_1\n"
             + "// begin ArrayLoadValue.insertTrackStatements\n"
             + "DUP2\n"
-            + "ALOAD 2\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
+            + "ALOAD 4\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker;\n"
             + "ASTORE 1\n"
+            + "ALOAD 4\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 2\n"
+            + "ALOAD 4\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 3\n"
             + "// end ArrayLoadValue.insertTrackStatements\n"
             + "BALOAD\n"
             + "// begin InvocationReturnStore.instrument\n"
-            + "ALOAD 3\n"
-            + "// ArrayLoadValue.loadSourcePoint\n"
+            + "ALOAD 4\n"
+            + "ILOAD 5\n"
+            + "// ArrayLoadValue.loadSourcePointParts\n"
             + "ALOAD 1\n"
-            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.returning (Lcom/coekie/flowtracker/tracker/Invocation;Lcom/coekie/flowtracker/tracker/TrackerPoint;)V\n"
+            + "ILOAD 2\n"
+            + "ILOAD 3\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.returning (Lcom/coekie/flowtracker/tracker/Context;ILcom/coekie/flowtracker/tracker/Tracker;II)V\n"
             + "// end InvocationReturnStore.instrument\n"
             + "IRETURN\n"
-            + "MAXSTACK = 5\n"
-            + "MAXLOCALS = 4\n");
+            + "MAXSTACK = 6\n"
+            + "MAXLOCALS = 6\n");
   }
 
   /** Test Instrumentation using {@link InvocationArgStore} */
@@ -551,38 +932,53 @@ public class FlowTransformerTest {
             + "MAXSTACK = 3\n"
             + "MAXLOCALS = 2\n",
         // transformed code
-        "// Initialize newLocal ArrayLoadValue PointTracker\n"
+        "// Initialize newLocal ArrayLoadValue tracker\n"
             + "ACONST_NULL\n"
             + "ASTORE 2\n"
+            + "// Initialize newLocal ArrayLoadValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 3\n"
+            + "// Initialize newLocal ArrayLoadValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 4\n"
             + "// Initialize newLocal ContextLoader context\n"
             + "INVOKESTATIC com/coekie/flowtracker/tracker/Context.context ()Lcom/coekie/flowtracker/tracker/Context;\n"
-            + "ASTORE 3\n"
+            + "ASTORE 5\n"
             + "GETSTATIC $THISTEST$.outputStream : Ljava/io/OutputStream;\n"
             + "ALOAD 1\n"
             + "ICONST_1\n"
             + "// begin ArrayLoadValue.insertTrackStatements\n"
             + "DUP2\n"
-            + "ALOAD 3\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
+            + "ALOAD 5\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker;\n"
             + "ASTORE 2\n"
+            + "ALOAD 5\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 3\n"
+            + "ALOAD 5\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 4\n"
             + "// end ArrayLoadValue.insertTrackStatements\n"
             + "BALOAD\n"
             + "// begin InvocationOutgoingTransformation.ensureInstrumented\n"
-            + "LDC \"write (I)V\"\n"
-            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.create (Ljava/lang/String;)Lcom/coekie/flowtracker/tracker/Invocation;\n"
+            + "ALOAD 5\n"
+            + "LDC -696585777\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.create (Lcom/coekie/flowtracker/tracker/Context;I)Lcom/coekie/flowtracker/tracker/Context;\n"
             + "// begin InvocationArgStore.instrument\n"
-            + "// ArrayLoadValue.loadSourcePoint\n"
+            + "ICONST_0\n"
+            + "// ArrayLoadValue.loadSourcePointParts\n"
             + "ALOAD 2\n"
-            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Invocation.setArg0 (Lcom/coekie/flowtracker/tracker/TrackerPoint;)Lcom/coekie/flowtracker/tracker/Invocation;\n"
+            + "ILOAD 3\n"
+            + "ILOAD 4\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.setArg (Lcom/coekie/flowtracker/tracker/Context;ILcom/coekie/flowtracker/tracker/Tracker;II)Lcom/coekie/flowtracker/tracker/Context;\n"
             + "// end InvocationArgStore.instrument\n"
-            + "ALOAD 3\n"
-            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Invocation.calling (Lcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Invocation;\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.calling (Lcom/coekie/flowtracker/tracker/Context;)I\n"
             + "POP\n"
             + "// end InvocationOutgoingTransformation.ensureInstrumented\n"
             + "INVOKEVIRTUAL java/io/OutputStream.write (I)V\n"
             + "RETURN\n"
-            + "MAXSTACK = 6\n"
-            + "MAXLOCALS = 4\n");
+            + "MAXSTACK = 7\n"
+            + "MAXLOCALS = 6\n");
   }
 
   /** Test Instrumentation using {@link InvocationArgValue} */
@@ -604,29 +1000,55 @@ public class FlowTransformerTest {
             + "MAXSTACK = 3\n"
             + "MAXLOCALS = 2\n",
         // transformed code
-        "// Initialize newLocal ContextLoader context\n"
+        "TRYCATCHBLOCK L0 L1 L2 null\n"
+            + "// Initialize newLocal ContextLoader context\n"
             + "INVOKESTATIC com/coekie/flowtracker/tracker/Context.context ()Lcom/coekie/flowtracker/tracker/Context;\n"
             + "ASTORE 2\n"
             + "// Initialize newLocal InvocationTransformation invocation\n"
             + "ALOAD 2\n"
-            + "LDC \"write (I)V\"\n"
-            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.start (Lcom/coekie/flowtracker/tracker/Context;Ljava/lang/String;)Lcom/coekie/flowtracker/tracker/Invocation;\n"
-            + "ASTORE 3\n"
+            + "LDC -696585777\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.start (Lcom/coekie/flowtracker/tracker/Context;I)I\n"
+            + "ISTORE 3\n"
+            + "// Initialize newLocal InvocationArgValue 0 tracker\n"
+            + "ALOAD 2\n"
+            + "ILOAD 3\n"
+            + "ICONST_0\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.argTracker (Lcom/coekie/flowtracker/tracker/Context;II)Lcom/coekie/flowtracker/tracker/Tracker;\n"
+            + "ASTORE 4\n"
+            + "// Initialize newLocal InvocationArgValue 0 index\n"
+            + "ALOAD 2\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 5\n"
+            + "// Initialize newLocal InvocationArgValue 0 length\n"
+            + "ALOAD 2\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 6\n"
+            + "L0\n"
             + "GETSTATIC $THISTEST$.myByteArray : [B\n"
             + "ICONST_1\n"
             + "ILOAD 1\n"
             + "I2B\n"
             + "// begin ArrayStore.instrument: ArrayHook.set*(array, arrayIndex, value [already on stack], sourcePoint)\n"
-            + "// InvocationArgValue.loadSourcePoint\n"
-            + "ALOAD 3\n"
-            + "ICONST_0\n"
-            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.getArgPoint (Lcom/coekie/flowtracker/tracker/Invocation;I)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
+            + "// InvocationArgValue.loadSourcePointParts\n"
+            + "ALOAD 4\n"
+            + "ILOAD 5\n"
+            + "ILOAD 6\n"
             + "ALOAD 2\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setByte ([BIBLcom/coekie/flowtracker/tracker/TrackerPoint;Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setByte ([BIBLcom/coekie/flowtracker/tracker/Tracker;IILcom/coekie/flowtracker/tracker/Context;)V\n"
             + "// end ArrayStore.instrument\n"
+            + "// ArrayStore.Flush: ArrayHook.flush(context)\n"
+            + "ALOAD 2\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
             + "RETURN\n"
-            + "MAXSTACK = 6\n"
-            + "MAXLOCALS = 4\n");
+            + "L1\n"
+            + "L2\n"
+            + "FRAME FULL [T T com/coekie/flowtracker/tracker/Context I com/coekie/flowtracker/tracker/Tracker I I] [java/lang/Throwable]\n"
+            + "// ArrayStore.FlushOnException: ArrayHook.flush(context) and rethrow\n"
+            + "ALOAD 2\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "ATHROW\n"
+            + "MAXSTACK = 7\n"
+            + "MAXLOCALS = 7\n");
   }
 
   /**
@@ -651,49 +1073,98 @@ public class FlowTransformerTest {
             + "RETURN\n"
             + "MAXSTACK = 4\n"
             + "MAXLOCALS = 2\n",
-        "// Initialize newLocal ArrayLoadValue PointTracker\n"
+        "TRYCATCHBLOCK L0 L1 L2 null\n"
+            + "// Initialize newLocal ArrayLoadValue tracker\n"
             + "ACONST_NULL\n"
             + "ASTORE 2\n"
+            + "// Initialize newLocal ArrayLoadValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 3\n"
+            + "// Initialize newLocal ArrayLoadValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 4\n"
             + "// Initialize newLocal ContextLoader context\n"
             + "INVOKESTATIC com/coekie/flowtracker/tracker/Context.context ()Lcom/coekie/flowtracker/tracker/Context;\n"
-            + "ASTORE 3\n"
+            + "ASTORE 5\n"
             + "// Initialize newLocal InvocationReturnValue invocation\n"
+            + "ICONST_0\n"
+            + "ISTORE 6\n"
+            + "// Initialize newLocal InvocationReturnValue tracker\n"
             + "ACONST_NULL\n"
-            + "ASTORE 4\n"
+            + "ASTORE 7\n"
+            + "// Initialize newLocal InvocationReturnValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 8\n"
+            + "// Initialize newLocal InvocationReturnValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 9\n"
+            + "L0\n"
             + "ALOAD 1\n"
             + "ICONST_1\n"
             + "ALOAD 1\n"
             + "ICONST_0\n"
             + "// begin ArrayLoadValue.insertTrackStatements\n"
             + "DUP2\n"
-            + "ALOAD 3\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
+            + "ALOAD 5\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker;\n"
             + "ASTORE 2\n"
+            + "ALOAD 5\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 3\n"
+            + "ALOAD 5\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 4\n"
             + "// end ArrayLoadValue.insertTrackStatements\n"
             + "BALOAD\n"
             + "// begin InvocationOutgoingTransformation.ensureInstrumented\n"
-            + "LDC \"trackInAndOut (B)B\"\n"
-            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.create (Ljava/lang/String;)Lcom/coekie/flowtracker/tracker/Invocation;\n"
+            + "ALOAD 5\n"
+            + "LDC -1558366612\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.create (Lcom/coekie/flowtracker/tracker/Context;I)Lcom/coekie/flowtracker/tracker/Context;\n"
             + "// begin InvocationArgStore.instrument\n"
-            + "// ArrayLoadValue.loadSourcePoint\n"
+            + "ICONST_0\n"
+            + "// ArrayLoadValue.loadSourcePointParts\n"
             + "ALOAD 2\n"
-            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Invocation.setArg0 (Lcom/coekie/flowtracker/tracker/TrackerPoint;)Lcom/coekie/flowtracker/tracker/Invocation;\n"
+            + "ILOAD 3\n"
+            + "ILOAD 4\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.setArg (Lcom/coekie/flowtracker/tracker/Context;ILcom/coekie/flowtracker/tracker/Tracker;II)Lcom/coekie/flowtracker/tracker/Context;\n"
             + "// end InvocationArgStore.instrument\n"
-            + "ALOAD 3\n"
-            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Invocation.calling (Lcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Invocation;\n"
-            + "ASTORE 4\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.calling (Lcom/coekie/flowtracker/tracker/Context;)I\n"
+            + "ISTORE 6\n"
             + "// end InvocationOutgoingTransformation.ensureInstrumented\n"
             + "INVOKESTATIC $THISTEST$.trackInAndOut (B)B\n"
+            + "// begin InvocationReturnValue.insertTrackStatements\n"
+            + "ALOAD 5\n"
+            + "ILOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.returnTracker (Lcom/coekie/flowtracker/tracker/Context;I)Lcom/coekie/flowtracker/tracker/Tracker;\n"
+            + "ASTORE 7\n"
+            + "ALOAD 5\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 8\n"
+            + "ALOAD 5\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 9\n"
+            + "// end InvocationReturnValue.insertTrackStatements\n"
             + "// begin ArrayStore.instrument: ArrayHook.set*(array, arrayIndex, value [already on stack], sourcePoint)\n"
-            + "// InvocationReturnValue.loadSourcePoint\n"
-            + "ALOAD 4\n"
-            + "GETFIELD com/coekie/flowtracker/tracker/Invocation.returnPoint : Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
-            + "ALOAD 3\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setByte ([BIBLcom/coekie/flowtracker/tracker/TrackerPoint;Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "// InvocationReturnValue.loadSourcePointParts\n"
+            + "ALOAD 7\n"
+            + "ILOAD 8\n"
+            + "ILOAD 9\n"
+            + "ALOAD 5\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setByte ([BIBLcom/coekie/flowtracker/tracker/Tracker;IILcom/coekie/flowtracker/tracker/Context;)V\n"
             + "// end ArrayStore.instrument\n"
+            + "// ArrayStore.Flush: ArrayHook.flush(context)\n"
+            + "ALOAD 5\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
             + "RETURN\n"
-            + "MAXSTACK = 7\n"
-            + "MAXLOCALS = 5\n");
+            + "L1\n"
+            + "L2\n"
+            + "FRAME FULL [T T com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context I com/coekie/flowtracker/tracker/Tracker I I] [java/lang/Throwable]\n"
+            + "// ArrayStore.FlushOnException: ArrayHook.flush(context) and rethrow\n"
+            + "ALOAD 5\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "ATHROW\n"
+            + "MAXSTACK = 8\n"
+            + "MAXLOCALS = 10\n");
   }
 
   @Test
@@ -723,63 +1194,94 @@ public class FlowTransformerTest {
         "// Initialize newLocal MergedValue PointTracker\n"
             + "ACONST_NULL\n"
             + "ASTORE 2\n"
-            + "// Initialize newLocal ArrayLoadValue PointTracker\n"
+            + "// Initialize newLocal ArrayLoadValue tracker\n"
             + "ACONST_NULL\n"
             + "ASTORE 3\n"
+            + "// Initialize newLocal ArrayLoadValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 4\n"
+            + "// Initialize newLocal ArrayLoadValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 5\n"
             + "// Initialize newLocal ContextLoader context\n"
             + "INVOKESTATIC com/coekie/flowtracker/tracker/Context.context ()Lcom/coekie/flowtracker/tracker/Context;\n"
-            + "ASTORE 4\n"
-            + "// Initialize newLocal ArrayLoadValue PointTracker\n"
+            + "ASTORE 6\n"
+            + "// Initialize newLocal ArrayLoadValue tracker\n"
             + "ACONST_NULL\n"
-            + "ASTORE 5\n"
+            + "ASTORE 7\n"
+            + "// Initialize newLocal ArrayLoadValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 8\n"
+            + "// Initialize newLocal ArrayLoadValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 9\n"
             + "// Initialize newLocal InvocationTransformation invocation\n"
-            + "ALOAD 4\n"
-            + "LDC \"read (Z)I\"\n"
-            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.start (Lcom/coekie/flowtracker/tracker/Context;Ljava/lang/String;)Lcom/coekie/flowtracker/tracker/Invocation;\n"
-            + "ASTORE 6\n"
+            + "ALOAD 6\n"
+            + "LDC -1173902788\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.start (Lcom/coekie/flowtracker/tracker/Context;I)I\n"
+            + "ISTORE 10\n"
             + "ILOAD 1\n"
             + "IFEQ L0\n"
             + "GETSTATIC $THISTEST$.myByteArray : [B\n"
             + "ICONST_0\n"
             + "// begin ArrayLoadValue.insertTrackStatements\n"
             + "DUP2\n"
-            + "ALOAD 4\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
-            + "ASTORE 5\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker;\n"
+            + "ASTORE 7\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 8\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 9\n"
             + "// end ArrayLoadValue.insertTrackStatements\n"
             + "BALOAD\n"
             + "// MergedValue (TrackerPoint in 2)\n"
             + "// ArrayLoadValue.loadSourcePoint\n"
-            + "ALOAD 5\n"
+            + "ALOAD 7\n"
+            + "ILOAD 8\n"
+            + "ILOAD 9\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/TrackerPoint.ofResolved (Lcom/coekie/flowtracker/tracker/Tracker;II)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
             + "ASTORE 2\n"
             + "GOTO L1\n"
             + "L0\n"
-            + "FRAME FULL [$THIS$ I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Invocation] []\n"
+            + "FRAME FULL [$THIS$ I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context com/coekie/flowtracker/tracker/Tracker I I I] []\n"
             + "GETSTATIC $THISTEST$.myByteArray : [B\n"
             + "ICONST_1\n"
             + "// begin ArrayLoadValue.insertTrackStatements\n"
             + "DUP2\n"
-            + "ALOAD 4\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker;\n"
             + "ASTORE 3\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 4\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 5\n"
             + "// end ArrayLoadValue.insertTrackStatements\n"
             + "BALOAD\n"
             + "// MergedValue (TrackerPoint in 2)\n"
             + "// ArrayLoadValue.loadSourcePoint\n"
             + "ALOAD 3\n"
+            + "ILOAD 4\n"
+            + "ILOAD 5\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/TrackerPoint.ofResolved (Lcom/coekie/flowtracker/tracker/Tracker;II)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
             + "ASTORE 2\n"
             + "// FYI MergedValue merges here (TrackerPoint in 2)\n"
             + "L1\n"
-            + "FRAME FULL [$THIS$ I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Invocation] [I]\n"
+            + "FRAME FULL [$THIS$ I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context com/coekie/flowtracker/tracker/Tracker I I I] [I]\n"
             + "// begin InvocationReturnStore.instrument\n"
             + "ALOAD 6\n"
+            + "ILOAD 10\n"
             + "// MergedValue.loadSourcePoint\n"
             + "ALOAD 2\n"
-            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.returning (Lcom/coekie/flowtracker/tracker/Invocation;Lcom/coekie/flowtracker/tracker/TrackerPoint;)V\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.returning (Lcom/coekie/flowtracker/tracker/Context;ILcom/coekie/flowtracker/tracker/TrackerPoint;)V\n"
             + "// end InvocationReturnStore.instrument\n"
             + "IRETURN\n"
-            + "MAXSTACK = 5\n"
-            + "MAXLOCALS = 7\n");
+            + "MAXSTACK = 7\n"
+            + "MAXLOCALS = 11\n");
   }
 
   @Test
@@ -815,67 +1317,98 @@ public class FlowTransformerTest {
         "// Initialize newLocal MergedValue PointTracker\n"
             + "ACONST_NULL\n"
             + "ASTORE 2\n"
-            + "// Initialize newLocal ArrayLoadValue PointTracker\n"
+            + "// Initialize newLocal ArrayLoadValue tracker\n"
             + "ACONST_NULL\n"
             + "ASTORE 3\n"
+            + "// Initialize newLocal ArrayLoadValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 4\n"
+            + "// Initialize newLocal ArrayLoadValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 5\n"
             + "// Initialize newLocal ContextLoader context\n"
             + "INVOKESTATIC com/coekie/flowtracker/tracker/Context.context ()Lcom/coekie/flowtracker/tracker/Context;\n"
-            + "ASTORE 4\n"
-            + "// Initialize newLocal ArrayLoadValue PointTracker\n"
+            + "ASTORE 6\n"
+            + "// Initialize newLocal ArrayLoadValue tracker\n"
             + "ACONST_NULL\n"
-            + "ASTORE 5\n"
+            + "ASTORE 7\n"
+            + "// Initialize newLocal ArrayLoadValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 8\n"
+            + "// Initialize newLocal ArrayLoadValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 9\n"
             + "// Initialize newLocal InvocationTransformation invocation\n"
-            + "ALOAD 4\n"
-            + "LDC \"read (Z)I\"\n"
-            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.start (Lcom/coekie/flowtracker/tracker/Context;Ljava/lang/String;)Lcom/coekie/flowtracker/tracker/Invocation;\n"
-            + "ASTORE 6\n"
+            + "ALOAD 6\n"
+            + "LDC -1173902788\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.start (Lcom/coekie/flowtracker/tracker/Context;I)I\n"
+            + "ISTORE 10\n"
             + "GETSTATIC $THISTEST$.myByteArray : [B\n"
             + "ICONST_0\n"
             + "// begin ArrayLoadValue.insertTrackStatements\n"
             + "DUP2\n"
-            + "ALOAD 4\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
-            + "ASTORE 5\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker;\n"
+            + "ASTORE 7\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 8\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 9\n"
             + "// end ArrayLoadValue.insertTrackStatements\n"
             + "BALOAD\n"
-            + "ISTORE 7\n"
+            + "ISTORE 11\n"
             + "GETSTATIC $THISTEST$.myByteArray : [B\n"
             + "ICONST_1\n"
             + "// begin ArrayLoadValue.insertTrackStatements\n"
             + "DUP2\n"
-            + "ALOAD 4\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker;\n"
             + "ASTORE 3\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 4\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 5\n"
             + "// end ArrayLoadValue.insertTrackStatements\n"
             + "BALOAD\n"
-            + "ISTORE 8\n"
+            + "ISTORE 12\n"
             + "ILOAD 1\n"
             + "IFEQ L0\n"
-            + "ILOAD 7\n"
+            + "ILOAD 11\n"
             + "// MergedValue (TrackerPoint in 2)\n"
             + "// ArrayLoadValue.loadSourcePoint\n"
-            + "ALOAD 5\n"
+            + "ALOAD 7\n"
+            + "ILOAD 8\n"
+            + "ILOAD 9\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/TrackerPoint.ofResolved (Lcom/coekie/flowtracker/tracker/Tracker;II)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
             + "ASTORE 2\n"
             + "GOTO L1\n"
             + "L0\n"
-            + "FRAME FULL [$THIS$ I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Invocation I I] []\n"
-            + "ILOAD 8\n"
+            + "FRAME FULL [$THIS$ I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context com/coekie/flowtracker/tracker/Tracker I I I I I] []\n"
+            + "ILOAD 12\n"
             + "// MergedValue (TrackerPoint in 2)\n"
             + "// ArrayLoadValue.loadSourcePoint\n"
             + "ALOAD 3\n"
+            + "ILOAD 4\n"
+            + "ILOAD 5\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/TrackerPoint.ofResolved (Lcom/coekie/flowtracker/tracker/Tracker;II)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
             + "ASTORE 2\n"
             + "// FYI MergedValue merges here (TrackerPoint in 2)\n"
             + "L1\n"
-            + "FRAME FULL [$THIS$ I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Invocation I I] [I]\n"
+            + "FRAME FULL [$THIS$ I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context com/coekie/flowtracker/tracker/Tracker I I I I I] [I]\n"
             + "// begin InvocationReturnStore.instrument\n"
             + "ALOAD 6\n"
+            + "ILOAD 10\n"
             + "// MergedValue.loadSourcePoint\n"
             + "ALOAD 2\n"
-            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.returning (Lcom/coekie/flowtracker/tracker/Invocation;Lcom/coekie/flowtracker/tracker/TrackerPoint;)V\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.returning (Lcom/coekie/flowtracker/tracker/Context;ILcom/coekie/flowtracker/tracker/TrackerPoint;)V\n"
             + "// end InvocationReturnStore.instrument\n"
             + "IRETURN\n"
-            + "MAXSTACK = 5\n"
-            + "MAXLOCALS = 9\n");
+            + "MAXSTACK = 6\n"
+            + "MAXLOCALS = 13\n");
   }
 
   @Test
@@ -920,70 +1453,101 @@ public class FlowTransformerTest {
         "// Initialize newLocal MergedValue PointTracker\n"
             + "ACONST_NULL\n"
             + "ASTORE 2\n"
-            + "// Initialize newLocal ArrayLoadValue PointTracker\n"
+            + "// Initialize newLocal ArrayLoadValue tracker\n"
             + "ACONST_NULL\n"
             + "ASTORE 3\n"
+            + "// Initialize newLocal ArrayLoadValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 4\n"
+            + "// Initialize newLocal ArrayLoadValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 5\n"
             + "// Initialize newLocal ContextLoader context\n"
             + "INVOKESTATIC com/coekie/flowtracker/tracker/Context.context ()Lcom/coekie/flowtracker/tracker/Context;\n"
-            + "ASTORE 4\n"
-            + "// Initialize newLocal ArrayLoadValue PointTracker\n"
+            + "ASTORE 6\n"
+            + "// Initialize newLocal ArrayLoadValue tracker\n"
             + "ACONST_NULL\n"
-            + "ASTORE 5\n"
+            + "ASTORE 7\n"
+            + "// Initialize newLocal ArrayLoadValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 8\n"
+            + "// Initialize newLocal ArrayLoadValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 9\n"
             + "// Initialize newLocal InvocationTransformation invocation\n"
-            + "ALOAD 4\n"
-            + "LDC \"read (Z)I\"\n"
-            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.start (Lcom/coekie/flowtracker/tracker/Context;Ljava/lang/String;)Lcom/coekie/flowtracker/tracker/Invocation;\n"
-            + "ASTORE 6\n"
+            + "ALOAD 6\n"
+            + "LDC -1173902788\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.start (Lcom/coekie/flowtracker/tracker/Context;I)I\n"
+            + "ISTORE 10\n"
             + "GETSTATIC $THISTEST$.myByteArray : [B\n"
             + "ICONST_0\n"
             + "// begin ArrayLoadValue.insertTrackStatements\n"
             + "DUP2\n"
-            + "ALOAD 4\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
-            + "ASTORE 5\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker;\n"
+            + "ASTORE 7\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 8\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 9\n"
             + "// end ArrayLoadValue.insertTrackStatements\n"
             + "BALOAD\n"
-            + "ISTORE 7\n"
+            + "ISTORE 11\n"
             + "GETSTATIC $THISTEST$.myByteArray : [B\n"
             + "ICONST_1\n"
             + "// begin ArrayLoadValue.insertTrackStatements\n"
             + "DUP2\n"
-            + "ALOAD 4\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
+            + "ALOAD 6\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker;\n"
             + "ASTORE 3\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 4\n"
+            + "ALOAD 6\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 5\n"
             + "// end ArrayLoadValue.insertTrackStatements\n"
             + "BALOAD\n"
-            + "ISTORE 8\n"
+            + "ISTORE 12\n"
             + "ILOAD 1\n"
             + "IFEQ L0\n"
-            + "ILOAD 7\n"
-            + "ISTORE 9\n"
+            + "ILOAD 11\n"
+            + "ISTORE 13\n"
             + "// MergedValue (TrackerPoint in 2)\n"
             + "// ArrayLoadValue.loadSourcePoint\n"
-            + "ALOAD 5\n"
+            + "ALOAD 7\n"
+            + "ILOAD 8\n"
+            + "ILOAD 9\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/TrackerPoint.ofResolved (Lcom/coekie/flowtracker/tracker/Tracker;II)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
             + "ASTORE 2\n"
             + "GOTO L1\n"
             + "L0\n"
-            + "FRAME FULL [$THIS$ I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Invocation I I] []\n"
-            + "ILOAD 8\n"
-            + "ISTORE 9\n"
+            + "FRAME FULL [$THIS$ I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context com/coekie/flowtracker/tracker/Tracker I I I I I] []\n"
+            + "ILOAD 12\n"
+            + "ISTORE 13\n"
             + "// MergedValue (TrackerPoint in 2)\n"
             + "// ArrayLoadValue.loadSourcePoint\n"
             + "ALOAD 3\n"
+            + "ILOAD 4\n"
+            + "ILOAD 5\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/TrackerPoint.ofResolved (Lcom/coekie/flowtracker/tracker/Tracker;II)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
             + "ASTORE 2\n"
             + "// FYI MergedValue merges here (TrackerPoint in 2)\n"
             + "L1\n"
-            + "FRAME FULL [$THIS$ I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Invocation I I I] []\n"
-            + "ILOAD 9\n"
+            + "FRAME FULL [$THIS$ I com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context com/coekie/flowtracker/tracker/Tracker I I I I I I] []\n"
+            + "ILOAD 13\n"
             + "// begin InvocationReturnStore.instrument\n"
             + "ALOAD 6\n"
+            + "ILOAD 10\n"
             + "// MergedValue.loadSourcePoint\n"
             + "ALOAD 2\n"
-            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.returning (Lcom/coekie/flowtracker/tracker/Invocation;Lcom/coekie/flowtracker/tracker/TrackerPoint;)V\n"
+            + "INVOKESTATIC com/coekie/flowtracker/tracker/Invocation.returning (Lcom/coekie/flowtracker/tracker/Context;ILcom/coekie/flowtracker/tracker/TrackerPoint;)V\n"
             + "// end InvocationReturnStore.instrument\n"
             + "IRETURN\n"
-            + "MAXSTACK = 5\n"
-            + "MAXLOCALS = 10\n");
+            + "MAXSTACK = 6\n"
+            + "MAXLOCALS = 14\n");
   }
 
   @Test
@@ -1024,49 +1588,75 @@ public class FlowTransformerTest {
             + "RETURN\n"
             + "MAXSTACK = 3\n"
             + "MAXLOCALS = 4\n",
-        "// Initialize newLocal ArrayLoadValue PointTracker\n"
+        "TRYCATCHBLOCK L0 L1 L2 null\n"
+            + "// Initialize newLocal ArrayLoadValue tracker\n"
             + "ACONST_NULL\n"
             + "ASTORE 1\n"
+            + "// Initialize newLocal ArrayLoadValue index\n"
+            + "ICONST_0\n"
+            + "ISTORE 2\n"
+            + "// Initialize newLocal ArrayLoadValue length\n"
+            + "ICONST_0\n"
+            + "ISTORE 3\n"
             + "// Initialize newLocal ContextLoader context\n"
             + "INVOKESTATIC com/coekie/flowtracker/tracker/Context.context ()Lcom/coekie/flowtracker/tracker/Context;\n"
-            + "ASTORE 2\n"
+            + "ASTORE 4\n"
+            + "L0\n"
             + "GETSTATIC $THISTEST$.myByteArray : [B\n"
             + "ICONST_0\n"
             + "// begin ArrayLoadValue.insertTrackStatements\n"
             + "DUP2\n"
-            + "ALOAD 2\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/TrackerPoint;\n"
+            + "ALOAD 4\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayLoadHook.getElementTracker (Ljava/lang/Object;ILcom/coekie/flowtracker/tracker/Context;)Lcom/coekie/flowtracker/tracker/Tracker;\n"
             + "ASTORE 1\n"
+            + "ALOAD 4\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointIndex ()I\n"
+            + "ISTORE 2\n"
+            + "ALOAD 4\n"
+            + "INVOKEVIRTUAL com/coekie/flowtracker/tracker/Context.pointLength ()I\n"
+            + "ISTORE 3\n"
             + "// end ArrayLoadValue.insertTrackStatements\n"
             + "BALOAD\n"
-            + "ISTORE 3\n"
+            + "ISTORE 5\n"
             + "GETSTATIC $THISTEST$.myByteArray : [B\n"
             + "ICONST_1\n"
             + "BALOAD\n"
-            + "ISTORE 4\n"
+            + "ISTORE 6\n"
             + "ICONST_0\n"
-            + "ISTORE 5\n"
-            + "L0\n"
-            + "FRAME FULL [$THIS$ com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context I I I] []\n"
-            + "ILOAD 5\n"
+            + "ISTORE 7\n"
+            + "L3\n"
+            + "FRAME FULL [$THIS$ com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context I I I] []\n"
+            + "ILOAD 7\n"
             + "ICONST_2\n"
-            + "IF_ICMPGE L1\n"
+            + "IF_ICMPGE L4\n"
             + "GETSTATIC $THISTEST$.myByteArray : [B\n"
             + "ICONST_2\n"
-            + "ILOAD 3\n"
+            + "ILOAD 5\n"
             + "// begin ArrayStore.instrument: ArrayHook.set*(array, arrayIndex, value [already on stack], sourcePoint)\n"
-            + "// ArrayLoadValue.loadSourcePoint\n"
+            + "// ArrayLoadValue.loadSourcePointParts\n"
             + "ALOAD 1\n"
-            + "ALOAD 2\n"
-            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setByte ([BIBLcom/coekie/flowtracker/tracker/TrackerPoint;Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "ILOAD 2\n"
+            + "ILOAD 3\n"
+            + "ALOAD 4\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.setByte ([BIBLcom/coekie/flowtracker/tracker/Tracker;IILcom/coekie/flowtracker/tracker/Context;)V\n"
             + "// end ArrayStore.instrument\n"
-            + "IINC 5 1\n"
-            + "GOTO L0\n"
-            + "L1\n"
-            + "FRAME FULL [$THIS$ com/coekie/flowtracker/tracker/TrackerPoint com/coekie/flowtracker/tracker/Context I I] []\n"
+            + "IINC 7 1\n"
+            + "GOTO L3\n"
+            + "L4\n"
+            + "FRAME FULL [$THIS$ com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context I I] []\n"
+            + "// ArrayStore.Flush: ArrayHook.flush(context)\n"
+            + "ALOAD 4\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
             + "RETURN\n"
-            + "MAXSTACK = 6\n"
-            + "MAXLOCALS = 6\n");
+            + "L1\n"
+            + "L2\n"
+            + "FRAME FULL [T com/coekie/flowtracker/tracker/Tracker I I com/coekie/flowtracker/tracker/Context] [java/lang/Throwable]\n"
+            + "// ArrayStore.FlushOnException: ArrayHook.flush(context) and rethrow\n"
+            + "ALOAD 4\n"
+            + "INVOKESTATIC com/coekie/flowtracker/hook/ArrayHook.flush (Lcom/coekie/flowtracker/tracker/Context;)V\n"
+            + "ATHROW\n"
+            + "MAXSTACK = 7\n"
+            + "MAXLOCALS = 8\n");
   }
 
   /** A class with some complex flow, which at some point made the analyzer go crazy */
@@ -1154,16 +1744,29 @@ public class FlowTransformerTest {
 
   /**
    * Given an object of a class that contains one method, tests if the code before and after
-   * transformation are as expected;
+   * transformation are as expected. Hooks are called directly instead of through
+   * SwitchableCallSites, because those make the expected code a lot more verbose; see
+   * {@link #testSwitchableHooks()}.
    */
   static void testTransform(Object o, String expectOriginalCode, String expectedTransformedCode) {
-    testTransformClass(o.getClass().getName(),
+    testTransform(o, Config.forTesting(Map.of("switchableHooks", "false")), expectOriginalCode,
+        expectedTransformedCode);
+  }
+
+  static void testTransform(Object o, Config config, String expectOriginalCode,
+      String expectedTransformedCode) {
+    testTransformClass(o.getClass().getName(), config,
         originalCode -> assertThat(originalCode).isEqualTo(expectOriginalCode),
         transformedCode -> assertThat(transformedCode).isEqualTo(expectedTransformedCode));
   }
 
   static void testTransformClass(String className, Consumer<String> assertOriginalCode,
       Consumer<String> assertTransformedCode) {
+    testTransformClass(className, Config.empty(), assertOriginalCode, assertTransformedCode);
+  }
+
+  static void testTransformClass(String className, Config config,
+      Consumer<String> assertOriginalCode, Consumer<String> assertTransformedCode) {
     ClassWriter classWriter = new ClassWriter(0);
     StringWriter verifyStringWriter = new StringWriter();
     PrintWriter verifyPrintWriter = new PrintWriter(verifyStringWriter);
@@ -1174,7 +1777,7 @@ public class FlowTransformerTest {
     MethodPrintingClassVisitor afterVisitor =
         new MethodPrintingClassVisitor(new CheckClassAdapter(classWriter), classInternalName);
     ClassVisitor transformingVisitor =
-        new FlowTransformer(Config.empty(), new RealCommentator())
+        new FlowTransformer(config, new RealCommentator())
             .transform(null, classInternalName, afterVisitor);
     // writes out original bytecode to text
     MethodPrintingClassVisitor beforeVisitor =
@@ -77,7 +77,7 @@ public class HookSpecGenerator {
         + "class GeneratedHookSpecs {\n"
         + "  static HookSpecTransformer createTransformer(Config config) {\n"
         + "    int version = Runtime.version().feature();\n"
-        + "    HookSpecTransformer t = new HookSpecTransformer();\n");
+        + "    HookSpecTransformer t = new HookSpecTransformer(config);\n");
 
     Path sourceRoot = Path.of(root + "core/src/main/java");
     try (var list = Files.list(sourceRoot.resolve("com/coekie/flowtracker/hook"))) {
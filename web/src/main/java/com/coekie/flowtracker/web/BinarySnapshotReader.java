@@ -0,0 +1,303 @@
+package com.coekie.flowtracker.web;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.coekie.flowtracker.web.BinarySnapshotWriter.DOCUMENT_ENTRY_SIZE;
+import static com.coekie.flowtracker.web.BinarySnapshotWriter.HAS_PATH;
+import static com.coekie.flowtracker.web.BinarySnapshotWriter.KIND_CODE;
+import static com.coekie.flowtracker.web.BinarySnapshotWriter.KIND_REVERSE;
+import static com.coekie.flowtracker.web.BinarySnapshotWriter.KIND_SETTINGS;
+import static com.coekie.flowtracker.web.BinarySnapshotWriter.KIND_TRACKER;
+import static com.coekie.flowtracker.web.BinarySnapshotWriter.KIND_TREE;
+import static com.coekie.flowtracker.web.BinarySnapshotWriter.MAGIC;
+import static com.coekie.flowtracker.web.BinarySnapshotWriter.ORIGIN;
+import static com.coekie.flowtracker.web.BinarySnapshotWriter.SINK;
+import static com.coekie.flowtracker.web.BinarySnapshotWriter.SUSPEND_SHUTDOWN;
+import static com.coekie.flowtracker.web.BinarySnapshotWriter.TRACKING;
+import static com.coekie.flowtracker.web.BinarySnapshotWriter.TRAILER_SIZE;
+import static com.coekie.flowtracker.web.BinarySnapshotWriter.TREES;
+import static com.coekie.flowtracker.web.BinarySnapshotWriter.VERSION;
+
+import com.coekie.flowtracker.web.CodeResource.CodeResponse;
+import com.coekie.flowtracker.web.CodeResource.Line;
+import com.coekie.flowtracker.web.SettingsResource.Settings;
+import com.coekie.flowtracker.web.TrackerResource.Region;
+import com.coekie.flowtracker.web.TrackerResource.TrackerDetailResponse;
+import com.coekie.flowtracker.web.TrackerResource.TrackerPartResponse;
+import com.coekie.flowtracker.web.TreeResource.NodeDetailResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a snapshot written by {@link BinarySnapshotWriter}, to serve it to the UI (see
+ * {@link BinarySnapshotResource}). The file is memory-mapped, and documents are decoded when they
+ * are requested; so that a big snapshot can be explored without loading it all into memory.
+ */
+class BinarySnapshotReader {
+  private final ByteBuffer buf;
+  private final int stringTable;
+  private final int stringCount;
+  private final int trackerTable;
+  private final int trackerCount;
+  private final int documentTable;
+  private final int documentCount;
+
+  BinarySnapshotReader(ByteBuffer buf) throws IOException {
+    this.buf = buf;
+    int trailer = buf.limit() - TRAILER_SIZE;
+    if (trailer < MAGIC.length + 1
+        || !hasMagic(0) || !hasMagic(buf.limit() - MAGIC.length)) {
+      throw new IOException("Not a FlowTracker binary snapshot");
+    }
+    if (buf.get(MAGIC.length) != VERSION) {
+      throw new IOException("Unsupported binary snapshot version " + buf.get(MAGIC.length));
+    }
+    stringTable = (int) buf.getLong(trailer);
+    stringCount = buf.getInt(trailer + 8);
+    trackerTable = (int) buf.getLong(trailer + 12);
+    trackerCount = buf.getInt(trailer + 20);
+    documentTable = (int) buf.getLong(trailer + 24);
+    documentCount = buf.getInt(trailer + 32);
+  }
+
+  /** Open a snapshot file, by memory-mapping it */
+  static BinarySnapshotReader open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Binary snapshots larger than 2GB are not supported: " + path);
+      }
+      // the mapping stays valid after the channel is closed
+      return new BinarySnapshotReader(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  private boolean hasMagic(int offset) {
+    byte[] bytes = new byte[MAGIC.length];
+    buf.duplicate().position(offset).get(bytes);
+    return Arrays.equals(bytes, MAGIC);
+  }
+
+  /** Content of a tracker, as returned by {@link TrackerResource#get(long)}; or null */
+  TrackerDetailResponse tracker(long id) {
+    int offset = findDocument(KIND_TRACKER, id, 0);
+    return offset == -1 ? null : new Cursor(offset).detail();
+  }
+
+  /** Reverse view of a tracker, as returned by {@link TrackerResource#reverse}; or null */
+  TrackerDetailResponse reverse(long id, long target) {
+    int offset = findDocument(KIND_REVERSE, id, target);
+    return offset == -1 ? null : new Cursor(offset).detail();
+  }
+
+  /** Tree, as returned by {@link TreeResource}; or null */
+  NodeDetailResponse tree(String name) {
+    int index = TREES.indexOf(name);
+    int offset = index == -1 ? -1 : findDocument(KIND_TREE, index, 0);
+    return offset == -1 ? null : new Cursor(offset).node();
+  }
+
+  /** Code of a class, as returned by {@link CodeResource#get(long)}; or null */
+  CodeResponse code(long id) {
+    int offset = findDocument(KIND_CODE, id, 0);
+    return offset == -1 ? null : new Cursor(offset).code();
+  }
+
+  Settings settings() {
+    Settings settings = new Settings();
+    settings.snapshot = true;
+    int offset = findDocument(KIND_SETTINGS, 0, 0);
+    if (offset != -1) {
+      settings.suspendShutdown = (buf.get(offset) & SUSPEND_SHUTDOWN) != 0;
+      settings.tracking = (buf.get(offset) & TRACKING) != 0;
+    }
+    return settings;
+  }
+
+  /** Binary search in the document table. Returns the offset of the document, or -1. */
+  private int findDocument(byte kind, long id, long target) {
+    int low = 0;
+    int high = documentCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int entry = documentTable + mid * DOCUMENT_ENTRY_SIZE;
+      int cmp = Byte.compare(buf.get(entry), kind);
+      if (cmp == 0) {
+        cmp = Long.compare(buf.getLong(entry + 1), id);
+      }
+      if (cmp == 0) {
+        cmp = Long.compare(buf.getLong(entry + 9), target);
+      }
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return (int) buf.getLong(entry + 17);
+      }
+    }
+    return -1;
+  }
+
+  private String string(int index) {
+    if (index < 0 || index >= stringCount) {
+      throw new IllegalStateException("Invalid string reference " + index);
+    }
+    Cursor cursor = new Cursor((int) buf.getLong(stringTable + index * 8));
+    int length = cursor.varint();
+    ByteBuffer bytes = buf.duplicate();
+    bytes.position(cursor.pos).limit(cursor.pos + length);
+    return StandardCharsets.UTF_8.decode(bytes).toString();
+  }
+
+  private TrackerResponse tracker(int index) {
+    if (index < 0 || index >= trackerCount) {
+      throw new IllegalStateException("Invalid tracker reference " + index);
+    }
+    Cursor cursor = new Cursor((int) buf.getLong(trackerTable + index * 8));
+    long id = cursor.varlong();
+    int flags = buf.get(cursor.pos++);
+    List<String> path = (flags & HAS_PATH) == 0 ? null : cursor.strings(cursor.varint());
+    return new TrackerResponse(id, path, (flags & ORIGIN) != 0, (flags & SINK) != 0);
+  }
+
+  /** Decodes a record, starting at the given position */
+  private class Cursor {
+    int pos;
+
+    Cursor(int pos) {
+      this.pos = pos;
+    }
+
+    long varlong() {
+      long result = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = buf.get(pos++);
+        result |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          return result;
+        }
+      }
+    }
+
+    int varint() {
+      return (int) varlong();
+    }
+
+    int zigZag() {
+      long value = varlong();
+      return (int) ((value >>> 1) ^ -(value & 1));
+    }
+
+    String optionalString() {
+      int ref = varint();
+      return ref == 0 ? null : string(ref - 1);
+    }
+
+    Integer optionalInt() {
+      int value = varint();
+      return value == 0 ? null : value - 1;
+    }
+
+    TrackerResponse optionalTracker() {
+      int ref = varint();
+      return ref == 0 ? null : tracker(ref - 1);
+    }
+
+    List<String> strings(int count) {
+      List<String> result = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        result.add(string(varint()));
+      }
+      return result;
+    }
+
+    TrackerDetailResponse detail() {
+      int pathSize = varint();
+      List<String> path = pathSize == 0 ? null : strings(pathSize - 1);
+      String creationStackTrace = optionalString();
+      boolean hasSource = buf.get(pos++) != 0;
+      TrackerResponse twin = optionalTracker();
+      int linkedCount = varint();
+      Map<Long, TrackerResponse> linkedTrackers = new HashMap<>();
+      for (int i = 0; i < linkedCount; i++) {
+        TrackerResponse linked = tracker(varint());
+        linkedTrackers.put(linked.id, linked);
+      }
+      int regionCount = varint();
+      List<Region> regions = new ArrayList<>(regionCount);
+      int previousEnd = 0;
+      for (int i = 0; i < regionCount; i++) {
+        int offset = previousEnd + zigZag();
+        int length = varint();
+        String content = optionalString();
+        Integer line = optionalInt();
+        String twinContent = optionalString();
+        regions.add(new Region(offset, length, content, parts(), line, twinContent));
+        previousEnd = offset + length;
+      }
+      return new TrackerDetailResponse(path, creationStackTrace, regions, linkedTrackers,
+          hasSource, twin);
+    }
+
+    NodeDetailResponse node() {
+      List<String> names = strings(varint());
+      TrackerResponse tracker = optionalTracker();
+      int trackerCount = varint();
+      int evicted = varint();
+      String sampling = optionalString();
+      int childCount = varint();
+      List<NodeDetailResponse> children = new ArrayList<>(childCount);
+      for (int i = 0; i < childCount; i++) {
+        children.add(node());
+      }
+      NodeDetailResponse result =
+          new NodeDetailResponse(names, children, tracker, trackerCount, evicted);
+      result.sampling = sampling;
+      return result;
+    }
+
+    CodeResponse code() {
+      int lineCount = varint();
+      List<Line> lines = new ArrayList<>(lineCount);
+      for (int i = 0; i < lineCount; i++) {
+        Integer line = optionalInt();
+        String content = string(varint());
+        lines.add(new Line(line, content, parts()));
+      }
+      return new CodeResponse(lines);
+    }
+
+    List<TrackerPartResponse> parts() {
+      int count = varint();
+      List<TrackerPartResponse> parts = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        parts.add(new TrackerPartResponse(varlong(), varint(), varint()));
+      }
+      return parts;
+    }
+  }
+}
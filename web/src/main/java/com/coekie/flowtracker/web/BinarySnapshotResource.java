@@ -0,0 +1,90 @@
+package com.coekie.flowtracker.web;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.coekie.flowtracker.web.CodeResource.CodeResponse;
+import com.coekie.flowtracker.web.SettingsResource.Settings;
+import com.coekie.flowtracker.web.TrackerResource.TrackerDetailResponse;
+import com.coekie.flowtracker.web.TreeResource.NodeDetailResponse;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Configuration;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+
+/**
+ * Serves the same endpoints as {@link TrackerResource}, {@link TreeResource},
+ * {@link CodeResource} and {@link SettingsResource}, but from a binary snapshot instead of from
+ * the live state. Used when viewing a snapshot with the "view" command.
+ */
+@Path("/")
+public class BinarySnapshotResource {
+  /** Property in the jersey configuration holding the {@link BinarySnapshotReader} */
+  static final String READER_PROPERTY = "flowtracker.binarySnapshotReader";
+
+  private final BinarySnapshotReader reader;
+
+  public BinarySnapshotResource(@Context Configuration configuration) {
+    this.reader = (BinarySnapshotReader) configuration.getProperty(READER_PROPERTY);
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("tracker/{id}")
+  public TrackerDetailResponse tracker(@PathParam("id") long id) {
+    return found(reader.tracker(id));
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("tracker/{id}_to_{target}")
+  public TrackerDetailResponse reverse(@PathParam("id") long id,
+      @PathParam("target") long targetId) {
+    return found(reader.reverse(id, targetId));
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("tree/{name}")
+  public NodeDetailResponse tree(@PathParam("name") String name) {
+    return found(reader.tree(name));
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("code/{id}")
+  public CodeResponse code(@PathParam("id") long id) {
+    return found(reader.code(id));
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @Path("settings")
+  public Settings settings() {
+    return reader.settings();
+  }
+
+  private static <T> T found(T response) {
+    if (response == null) {
+      throw new NotFoundException();
+    }
+    return response;
+  }
+}
@@ -0,0 +1,392 @@
+package com.coekie.flowtracker.web;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.coekie.flowtracker.web.CodeResource.CodeResponse;
+import com.coekie.flowtracker.web.CodeResource.Line;
+import com.coekie.flowtracker.web.SettingsResource.Settings;
+import com.coekie.flowtracker.web.TrackerResource.Region;
+import com.coekie.flowtracker.web.TrackerResource.TrackerDetailResponse;
+import com.coekie.flowtracker.web.TrackerResource.TrackerPartResponse;
+import com.coekie.flowtracker.web.TreeResource.NodeDetailResponse;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a snapshot in a compact binary format, as an alternative to the zip of json files.
+ * It can be explored with the UI using {@link BinarySnapshotReader}, without having to load it
+ * into memory.
+ * <p>
+ * Strings (including the content of regions) and references to trackers ({@link TrackerResponse})
+ * are stored only once, in a dictionary; documents refer to them by their index in it. Numbers are
+ * stored as varints. The layout of the file is:
+ * <pre>
+ * file      := MAGIC version(byte) record* stringTable trackerTable documentTable trailer
+ * record    := string | tracker | document
+ * string    := varint(length) utf8-bytes
+ * tracker   := varlong(id) flags(byte: ORIGIN|SINK|HAS_PATH) [varint(n) stringRef*n]
+ * stringTable, trackerTable := long(offset of record)*, so record i can be found directly
+ * documentTable := (byte(kind) long(id) long(target) long(offset))*, sorted by kind, id, target
+ * trailer   := (long(offset) int(count)) for each of the three tables, MAGIC
+ * </pre>
+ * Fixed-size numbers are big-endian. Optional references are stored as the reference plus one,
+ * with zero meaning null. The encoding of each kind of document mirrors the fields of the response
+ * object, see the encode methods in this class.
+ */
+class BinarySnapshotWriter implements Snapshot.Output, Closeable {
+  static final byte[] MAGIC = "FTSNAP".getBytes(StandardCharsets.US_ASCII);
+  static final int VERSION = 1;
+  static final int TRAILER_SIZE = 3 * (8 + 4) + MAGIC.length;
+  static final int DOCUMENT_ENTRY_SIZE = 1 + 8 + 8 + 8;
+
+  static final byte KIND_TRACKER = 1;
+  static final byte KIND_REVERSE = 2;
+  static final byte KIND_CODE = 3;
+  static final byte KIND_TREE = 4;
+  static final byte KIND_SETTINGS = 5;
+
+  /** Names of the trees, the index in this list is used as id of the document */
+  static final List<String> TREES = List.of("all", "origins", "sinks");
+
+  static final int ORIGIN = 1;
+  static final int SINK = 2;
+  static final int HAS_PATH = 4;
+
+  static final int SUSPEND_SHUTDOWN = 1;
+  static final int TRACKING = 2;
+
+  private final OutputStream out;
+  /** Number of bytes written to {@link #out} */
+  private long position;
+
+  /**
+   * Index in the dictionary of strings by a hash of their encoding, so that we don't keep all
+   * strings in memory.
+   */
+  private final Map<Long, Integer> stringsByHash = new HashMap<>();
+  private final List<Long> stringOffsets = new ArrayList<>();
+  /**
+   * Copy of the encoded strings, to compare a string with when their hashes match. That cannot be
+   * read back from {@link #out}, because that is not necessarily a file.
+   */
+  private final FileChannel scratch;
+  /** Position of each string in {@link #scratch} */
+  private final List<Long> scratchOffsets = new ArrayList<>();
+  private long scratchSize;
+  private final Map<Long, Integer> trackers = new HashMap<>();
+  private final List<Long> trackerOffsets = new ArrayList<>();
+  private final List<Document> documents = new ArrayList<>();
+
+  BinarySnapshotWriter(OutputStream out) throws IOException {
+    this.out = new BufferedOutputStream(out);
+    this.scratch = FileChannel.open(Files.createTempFile("flowtracker-snapshot", ".strings"),
+        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    Encoder header = new Encoder();
+    header.write(MAGIC);
+    header.write(VERSION);
+    append(header);
+  }
+
+  @Override
+  public Object prepare(Object o) {
+    // encoding is cheap, and must be done on the writing thread because of the dictionaries
+    return o;
+  }
+
+  @Override
+  public void write(String path, Object o) throws IOException {
+    // encode the document first, because that can append strings and trackers
+    Encoder encoder = new Encoder();
+    Document document;
+    if (o instanceof TrackerDetailResponse) {
+      String ids = path.substring("tracker/".length());
+      int to = ids.indexOf("_to_");
+      if (to == -1) {
+        document = new Document(KIND_TRACKER, Long.parseLong(ids), 0);
+      } else {
+        document = new Document(KIND_REVERSE, Long.parseLong(ids.substring(0, to)),
+            Long.parseLong(ids.substring(to + "_to_".length())));
+      }
+      encodeDetail(encoder, (TrackerDetailResponse) o);
+    } else if (o instanceof NodeDetailResponse) {
+      document = new Document(KIND_TREE, TREES.indexOf(path.substring("tree/".length())), 0);
+      encodeNode(encoder, (NodeDetailResponse) o);
+    } else if (o instanceof CodeResponse) {
+      document = new Document(KIND_CODE, Long.parseLong(path.substring("code/".length())), 0);
+      encodeCode(encoder, (CodeResponse) o);
+    } else if (o instanceof Settings) {
+      document = new Document(KIND_SETTINGS, 0, 0);
+      Settings settings = (Settings) o;
+      encoder.write((settings.suspendShutdown ? SUSPEND_SHUTDOWN : 0)
+          | (settings.tracking ? TRACKING : 0));
+    } else {
+      throw new IllegalArgumentException("Cannot write " + path + " in binary snapshot");
+    }
+    document.offset = position;
+    documents.add(document);
+    append(encoder);
+  }
+
+  /** Write the tables and trailer. Must be called after everything else has been written. */
+  void finish() throws IOException {
+    Encoder tables = new Encoder();
+    long stringTable = position;
+    for (long offset : stringOffsets) {
+      tables.writeLong(offset);
+    }
+    long trackerTable = stringTable + tables.size();
+    for (long offset : trackerOffsets) {
+      tables.writeLong(offset);
+    }
+    long documentTable = stringTable + tables.size();
+    documents.sort(Comparator.<Document>comparingInt(d -> d.kind)
+        .thenComparingLong(d -> d.id)
+        .thenComparingLong(d -> d.target));
+    for (Document document : documents) {
+      tables.write(document.kind);
+      tables.writeLong(document.id);
+      tables.writeLong(document.target);
+      tables.writeLong(document.offset);
+    }
+
+    tables.writeLong(stringTable);
+    tables.writeInt(stringOffsets.size());
+    tables.writeLong(trackerTable);
+    tables.writeInt(trackerOffsets.size());
+    tables.writeLong(documentTable);
+    tables.writeInt(documents.size());
+    tables.write(MAGIC);
+    append(tables);
+    out.flush();
+  }
+
+  /** Release the temporary file used while writing. Does not close the output stream. */
+  @Override
+  public void close() throws IOException {
+    scratch.close();
+  }
+
+  private void encodeDetail(Encoder encoder, TrackerDetailResponse detail) throws IOException {
+    encodePath(encoder, detail.path);
+    encoder.writeVarint(optionalString(detail.creationStackTrace));
+    encoder.write(detail.hasSource ? 1 : 0);
+    encoder.writeVarint(detail.twin == null ? 0 : tracker(detail.twin) + 1);
+    encoder.writeVarint(detail.linkedTrackers.size());
+    for (TrackerResponse linked : detail.linkedTrackers.values()) {
+      encoder.writeVarint(tracker(linked));
+    }
+    encoder.writeVarint(detail.regions.size());
+    int previousEnd = 0;
+    for (Region region : detail.regions) {
+      encoder.writeZigZag(region.offset - previousEnd);
+      encoder.writeVarint(region.length);
+      encoder.writeVarint(optionalString(region.content));
+      encoder.writeVarint(region.line == null ? 0 : region.line + 1);
+      encoder.writeVarint(optionalString(region.twinContent));
+      encodeParts(encoder, region.parts);
+      previousEnd = region.offset + region.length;
+    }
+  }
+
+  private void encodeNode(Encoder encoder, NodeDetailResponse node) throws IOException {
+    encoder.writeVarint(node.names.size());
+    for (String name : node.names) {
+      encoder.writeVarint(string(name));
+    }
+    encoder.writeVarint(node.tracker == null ? 0 : tracker(node.tracker) + 1);
+    encoder.writeVarint(node.trackerCount);
+    encoder.writeVarint(node.evicted);
+    encoder.writeVarint(optionalString(node.sampling));
+    encoder.writeVarint(node.children.size());
+    for (NodeDetailResponse child : node.children) {
+      encodeNode(encoder, child);
+    }
+  }
+
+  private void encodeCode(Encoder encoder, CodeResponse code) throws IOException {
+    encoder.writeVarint(code.lines.size());
+    for (Line line : code.lines) {
+      encoder.writeVarint(line.line == null ? 0 : line.line + 1);
+      encoder.writeVarint(string(line.content));
+      encodeParts(encoder, line.parts);
+    }
+  }
+
+  private static void encodeParts(Encoder encoder, List<TrackerPartResponse> parts) {
+    encoder.writeVarint(parts.size());
+    for (TrackerPartResponse part : parts) {
+      encoder.writeVarint(part.trackerId);
+      encoder.writeVarint(part.offset);
+      encoder.writeVarint(part.length);
+    }
+  }
+
+  private void encodePath(Encoder encoder, List<String> path) throws IOException {
+    if (path == null) {
+      encoder.writeVarint(0);
+    } else {
+      encoder.writeVarint(path.size() + 1);
+      for (String name : path) {
+        encoder.writeVarint(string(name));
+      }
+    }
+  }
+
+  /** Index of the string in the dictionary; adding it if it's not in there yet */
+  private int string(String str) throws IOException {
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    Encoder encoder = new Encoder();
+    encoder.writeVarint(bytes.length);
+    encoder.write(bytes);
+    byte[] encoded = encoder.toByteArray();
+    long hash = hash(encoded);
+
+    Integer index = stringsByHash.get(hash);
+    if (index != null && isWritten(index, encoded)) {
+      return index;
+    }
+    // if a different string with the same hash was already written, then this one replaces it in
+    // stringsByHash. that's very unlikely, and only makes us write duplicates.
+    index = stringOffsets.size();
+    stringsByHash.put(hash, index);
+    stringOffsets.add(position);
+    scratchOffsets.add(scratchSize);
+    ByteBuffer buffer = ByteBuffer.wrap(encoded);
+    while (buffer.hasRemaining()) {
+      scratchSize += scratch.write(buffer, scratchSize);
+    }
+    append(encoder);
+    return index;
+  }
+
+  /** If the string at `index` in the dictionary has the given encoding */
+  private boolean isWritten(int index, byte[] encoded) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(encoded.length);
+    long offset = scratchOffsets.get(index);
+    while (buffer.hasRemaining()) {
+      int read = scratch.read(buffer, offset + buffer.position());
+      if (read == -1) {
+        return false;
+      }
+    }
+    // the encoding starts with the length, so equal bytes means equal strings
+    return Arrays.equals(buffer.array(), encoded);
+  }
+
+  /** 64-bit FNV-1a hash */
+  private static long hash(byte[] bytes) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : bytes) {
+      hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private int optionalString(String str) throws IOException {
+    return str == null ? 0 : string(str) + 1;
+  }
+
+  /** Index of the tracker in the dictionary; adding it if it's not in there yet */
+  private int tracker(TrackerResponse tracker) throws IOException {
+    Integer index = trackers.get(tracker.id);
+    if (index == null) {
+      // encode the path first, because that can append strings
+      Encoder path = new Encoder();
+      if (tracker.path != null) {
+        path.writeVarint(tracker.path.size());
+        for (String name : tracker.path) {
+          path.writeVarint(string(name));
+        }
+      }
+
+      index = trackerOffsets.size();
+      trackers.put(tracker.id, index);
+      trackerOffsets.add(position);
+      Encoder encoder = new Encoder();
+      encoder.writeVarint(tracker.id);
+      encoder.write((tracker.origin ? ORIGIN : 0) | (tracker.sink ? SINK : 0)
+          | (tracker.path != null ? HAS_PATH : 0));
+      path.writeTo(encoder);
+      append(encoder);
+    }
+    return index;
+  }
+
+  private void append(Encoder encoder) throws IOException {
+    encoder.writeTo(out);
+    position += encoder.size();
+  }
+
+  private static class Document {
+    final byte kind;
+    final long id;
+    final long target;
+    long offset;
+
+    Document(byte kind, long id, long target) {
+      this.kind = kind;
+      this.id = id;
+      this.target = target;
+    }
+  }
+
+  /** Buffer to encode a record in */
+  private static class Encoder extends ByteArrayOutputStream {
+    void writeVarint(long value) {
+      while ((value & ~0x7FL) != 0) {
+        write((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      write((int) value);
+    }
+
+    void writeZigZag(long value) {
+      writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    void writeInt(int value) {
+      for (int shift = 24; shift >= 0; shift -= 8) {
+        write(value >>> shift);
+      }
+    }
+
+    void writeLong(long value) {
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        write((int) (value >>> shift));
+      }
+    }
+
+    @Override
+    public void write(byte[] b) {
+      write(b, 0, b.length);
+    }
+  }
+}
@@ -0,0 +1,296 @@
+package com.coekie.flowtracker.web;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.coekie.flowtracker.tracker.ByteOriginTracker;
+import com.coekie.flowtracker.tracker.ByteSinkTracker;
+import com.coekie.flowtracker.tracker.CharOriginTracker;
+import com.coekie.flowtracker.tracker.CharSinkTracker;
+import com.coekie.flowtracker.tracker.Growth;
+import com.coekie.flowtracker.tracker.Journal;
+import com.coekie.flowtracker.tracker.Tracker;
+import com.coekie.flowtracker.tracker.TrackerTree;
+import com.coekie.flowtracker.tracker.TrackerTree.Node;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rebuilds trackers from a {@link Journal}, e.g. to look at what happened in a JVM that crashed.
+ * The trackers are written as a normal (zip) snapshot.
+ * <p>
+ * Events for one tracker can come in any order (events of different threads are not ordered), so
+ * the journal is first read completely, and only then the trackers are created.
+ */
+public class JournalReconstructor {
+  /** Trackers that were in the journal, by the id they had when the journal was written */
+  private final Map<Long, Rebuilt> rebuilt = new LinkedHashMap<>();
+
+  /** Rebuild the trackers from `journal`, and write them as a zip snapshot to `output` */
+  @SuppressWarnings("UnusedDeclaration") // invoked by name from the agent's Main
+  public static void reconstruct(Path journal, Path output) throws IOException {
+    read(journal, TrackerTree.ROOT);
+    try (OutputStream out = Files.newOutputStream(output)) {
+      new Snapshot(TrackerTree.ROOT, false).write(out);
+    }
+  }
+
+  /**
+   * Rebuild the trackers from `journal`, adding them to the tree under `root`. Returns the trackers,
+   * by the id they had when the journal was written.
+   */
+  static Map<Long, Tracker> read(Path journal, Node root) throws IOException {
+    JournalReconstructor reconstructor = new JournalReconstructor();
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(journal)))) {
+      reconstructor.readHeader(in);
+      try {
+        while (reconstructor.readEvent(in)) {
+          // keep reading
+        }
+      } catch (EOFException e) {
+        // the journal of a JVM that crashed can end in the middle of an event
+      }
+    }
+    return reconstructor.build(root);
+  }
+
+  private void readHeader(DataInputStream in) throws IOException {
+    byte[] magic = new byte[Journal.MAGIC.length];
+    try {
+      in.readFully(magic);
+    } catch (EOFException e) {
+      throw new IOException("Not a FlowTracker journal");
+    }
+    if (!Arrays.equals(magic, Journal.MAGIC)) {
+      throw new IOException("Not a FlowTracker journal");
+    }
+    byte version = in.readByte();
+    if (version != Journal.VERSION) {
+      throw new IOException("Unsupported journal version " + version);
+    }
+  }
+
+  /** Read one event. Returns false at the end of the journal. */
+  private boolean readEvent(DataInputStream in) throws IOException {
+    int kind = in.read();
+    if (kind <= 0) { // end of the file, or of the part that was written
+      return false;
+    }
+    long id = varlong(in);
+    byte type = in.readByte();
+    // read the whole event before applying it, so an incomplete one at the end is ignored
+    switch (kind) {
+      case Journal.CREATED: {
+        int size = varint(in);
+        List<String> path = new ArrayList<>(size);
+        boolean[] optional = new boolean[size];
+        for (int i = 0; i < size; i++) {
+          path.add(new String(chars(in, varint(in))));
+          optional[i] = in.readByte() != 0;
+        }
+        Rebuilt tracker = rebuilt(id, type);
+        tracker.path = path;
+        tracker.optional = optional;
+        break;
+      }
+      case Journal.BYTES: {
+        int index = varint(in);
+        byte[] bytes = new byte[varint(in)];
+        in.readFully(bytes);
+        rebuilt(id, type).put(index, bytes, 1);
+        break;
+      }
+      case Journal.CHARS: {
+        int index = varint(in);
+        int length = varint(in);
+        byte[] bytes = new byte[length * 2];
+        in.readFully(bytes);
+        rebuilt(id, type).put(index, bytes, 2);
+        break;
+      }
+      case Journal.SOURCE: {
+        int index = varint(in);
+        int length = varint(in);
+        long sourceId = varlong(in) - 1;
+        int sourceIndex = varint(in);
+        int targetBlock = varint(in);
+        int sourceBlock = varint(in);
+        rebuilt(id, type).sources.add(
+            new Source(index, length, sourceId, sourceIndex, targetBlock, sourceBlock));
+        break;
+      }
+      default:
+        throw new IOException("Corrupt journal: unknown event " + kind);
+    }
+    return true;
+  }
+
+  private Rebuilt rebuilt(long id, byte type) {
+    Rebuilt result = rebuilt.computeIfAbsent(id, i -> new Rebuilt());
+    if (type != Journal.OTHER) {
+      result.type = type;
+    }
+    return result;
+  }
+
+  /** Create the trackers, and add them to the tree */
+  private Map<Long, Tracker> build(Node root) {
+    Map<Long, Tracker> trackers = new LinkedHashMap<>();
+    // first create all of them with their content, so they can be used as sources
+    for (Map.Entry<Long, Rebuilt> entry : rebuilt.entrySet()) {
+      trackers.put(entry.getKey(), entry.getValue().create());
+    }
+    for (Map.Entry<Long, Rebuilt> entry : rebuilt.entrySet()) {
+      Tracker tracker = trackers.get(entry.getKey());
+      Rebuilt r = entry.getValue();
+      for (Source source : r.sources) {
+        Tracker sourceTracker = null;
+        if (source.sourceId != -1) {
+          // a source that did not appear in the journal otherwise (e.g. without content)
+          sourceTracker = trackers.computeIfAbsent(source.sourceId, i -> new CharOriginTracker());
+        }
+        tracker.setSource(source.index, source.length, sourceTracker, source.sourceIndex,
+            Growth.of(source.targetBlock, source.sourceBlock));
+      }
+      if (r.path != null) {
+        Node node = root;
+        for (int i = 0; i < r.path.size(); i++) {
+          node = r.optional[i] ? node.optionalNode(r.path.get(i)) : node.node(r.path.get(i));
+        }
+        tracker.addTo(node);
+      }
+    }
+    return trackers;
+  }
+
+  private static long varlong(DataInputStream in) throws IOException {
+    long result = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = in.readByte();
+      result |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return result;
+      }
+    }
+  }
+
+  private static int varint(DataInputStream in) throws IOException {
+    return (int) varlong(in);
+  }
+
+  private static char[] chars(DataInputStream in, int length) throws IOException {
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = in.readChar();
+    }
+    return chars;
+  }
+
+  /** What we know about a tracker from the journal */
+  private static class Rebuilt {
+    byte type = Journal.OTHER;
+    /** Path of the node it was added to, or null if it wasn't added to the tree */
+    List<String> path;
+    boolean[] optional;
+    /** Content; for char content two bytes per char */
+    byte[] content = new byte[0];
+    /** Length of the content, in bytes or chars */
+    int length;
+    final List<Source> sources = new ArrayList<>();
+
+    /**
+     * Put content at `index` (in bytes or chars). The same content can be in the journal more than
+     * once (e.g. for classes), so this overwrites what was there.
+     *
+     * @param unit size of a byte or char in `bytes`: 1 or 2
+     */
+    void put(int index, byte[] bytes, int unit) {
+      int offset = index * unit;
+      int end = offset + bytes.length;
+      if (end > content.length) {
+        content = Arrays.copyOf(content, Math.max(end, content.length * 2));
+      }
+      System.arraycopy(bytes, 0, content, offset, bytes.length);
+      length = Math.max(length, end / unit);
+    }
+
+    Tracker create() {
+      switch (type) {
+        case Journal.BYTE_ORIGIN: {
+          ByteOriginTracker tracker = new ByteOriginTracker();
+          tracker.append(content, 0, length);
+          return tracker;
+        }
+        case Journal.BYTE_SINK: {
+          ByteSinkTracker tracker = new ByteSinkTracker();
+          tracker.append(content, 0, length);
+          return tracker;
+        }
+        case Journal.CHAR_SINK: {
+          CharSinkTracker tracker = new CharSinkTracker();
+          tracker.append(chars(), 0, length);
+          return tracker;
+        }
+        default: {
+          // classes are rebuilt as plain char origins, we don't have what else they need
+          CharOriginTracker tracker = new CharOriginTracker();
+          tracker.append(chars(), 0, length);
+          return tracker;
+        }
+      }
+    }
+
+    private char[] chars() {
+      char[] chars = new char[length];
+      for (int i = 0; i < length; i++) {
+        chars[i] = (char) (((content[i * 2] & 0xFF) << 8) | (content[i * 2 + 1] & 0xFF));
+      }
+      return chars;
+    }
+  }
+
+  /** Source set on a sink */
+  private static class Source {
+    final int index;
+    final int length;
+    /** Id of the source tracker, or -1 for an unknown source */
+    final long sourceId;
+    final int sourceIndex;
+    final int targetBlock;
+    final int sourceBlock;
+
+    Source(int index, int length, long sourceId, int sourceIndex, int targetBlock,
+        int sourceBlock) {
+      this.index = index;
+      this.length = length;
+      this.sourceId = sourceId;
+      this.sourceIndex = sourceIndex;
+      this.targetBlock = targetBlock;
+      this.sourceBlock = sourceBlock;
+    }
+  }
+}
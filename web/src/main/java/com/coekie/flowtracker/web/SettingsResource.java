@@ -16,6 +16,7 @@ package com.coekie.flowtracker.web;
  * limitations under the License.
  */
 
+import com.coekie.flowtracker.tracker.TrackingSwitch;
 import com.coekie.flowtracker.util.ShutdownSuspender;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
@@ -30,16 +31,25 @@ public class SettingsResource {
   public Settings get() {
     Settings settings = new Settings();
     settings.suspendShutdown = ShutdownSuspender.isSuspendShutdown();
+    settings.tracking = TrackingSwitch.isOn();
     return settings;
   }
 
   @POST
   public void set(Settings settings) {
     ShutdownSuspender.setSuspendShutdown(settings.suspendShutdown);
+    if (settings.tracking != null) {
+      TrackingSwitch.setOn(settings.tracking);
+    }
   }
 
   public static class Settings {
     public boolean snapshot;
     public boolean suspendShutdown;
+    /**
+     * If tracking is on, see {@link TrackingSwitch}. When setting settings, null leaves it
+     * unchanged.
+     */
+    public Boolean tracking;
   }
 }
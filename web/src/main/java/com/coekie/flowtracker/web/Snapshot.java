@@ -16,12 +16,14 @@ package com.coekie.flowtracker.web;
  * limitations under the License.
  */
 
+import static com.coekie.flowtracker.tracker.Context.context;
 import static java.util.Objects.requireNonNull;
 
 import com.coekie.flowtracker.tracker.ClassOriginTracker;
 import com.coekie.flowtracker.tracker.Tracker;
 import com.coekie.flowtracker.tracker.TrackerTree;
 import com.coekie.flowtracker.tracker.TrackerTree.Node;
+import com.coekie.flowtracker.util.Logger;
 import com.coekie.flowtracker.web.CodeResource.CodeResponse;
 import com.coekie.flowtracker.web.SettingsResource.Settings;
 import com.coekie.flowtracker.web.TrackerResource.Region;
@@ -29,16 +31,29 @@ import com.coekie.flowtracker.web.TrackerResource.TrackerDetailResponse;
 import com.coekie.flowtracker.web.TrackerResource.TrackerPartResponse;
 import com.coekie.flowtracker.web.TreeResource.NodeRequestParams;
 import com.google.gson.Gson;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.URL;
 import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -51,6 +66,8 @@ import java.util.zip.ZipOutputStream;
  * of the UI, that can be viewed in a browser just like the live interface.
  */
 public class Snapshot {
+  private static final Logger logger = new Logger("Snapshot");
+
   static final Gson GSON = new Gson();
   static final String PATH_PREFIX = "snapshot/";
 
@@ -66,45 +83,173 @@ public class Snapshot {
    */
   private final boolean minimized;
 
+  /** Number of threads used to serialize trackers */
+  private final int threads;
+
+  /**
+   * If not null, only trackers that changed since the previous snapshot with this baseline are
+   * written, see {@link SnapshotBaseline}.
+   */
+  private final SnapshotBaseline baseline;
+
   private final TrackerResource trackerResource = new TrackerResource();
   private final CodeResource codeResource = new CodeResource();
 
-  /** Ids of trackers that we already wrote in the snapshot */
+  /**
+   * Ids of trackers that are included in the snapshot. That is the trackers we wrote (or are
+   * writing), and for a delta also the ones written in previous snapshots.
+   */
   private final Set<Long> includedTrackers = new HashSet<>();
 
+  /** Ids of trackers that we wrote in this snapshot */
+  private final Set<Long> writtenTrackers = new HashSet<>();
+
+  /** Paths of reverse views ("x_to_y") we wrote; for a delta the same one can be found twice */
+  private final Set<String> writtenReverse = new HashSet<>();
+
+  /** Trackers we wrote, to record in {@link #baseline} when we're done */
+  private final List<SnapshotBaseline.Written> baselineUpdates = new ArrayList<>();
+
   Snapshot(TrackerTree.Node root, boolean minimized) {
+    this(root, minimized, Runtime.getRuntime().availableProcessors(), null);
+  }
+
+  Snapshot(TrackerTree.Node root, boolean minimized, SnapshotBaseline baseline) {
+    this(root, minimized, Runtime.getRuntime().availableProcessors(), baseline);
+  }
+
+  Snapshot(TrackerTree.Node root, boolean minimized, int threads, SnapshotBaseline baseline) {
     this.root = root;
     this.minimized = minimized;
+    this.threads = threads;
+    this.baseline = baseline;
   }
 
-  /** Write the zip file to the output stream */
+  /**
+   * Write the zip file to the output stream. If this is a delta (not the first snapshot with a
+   * {@link SnapshotBaseline}), then that does not include the UI; it needs to be merged with its
+   * base to view it.
+   */
   void write(OutputStream out) throws IOException {
     try (ZipOutputStream zos = new ZipOutputStream(out)) {
-      writeStaticFiles(zos);
-      writeSettings(zos);
+      if (baseline == null || baseline.isBase()) {
+        writeStaticFiles(zos);
+      }
+      write(new ZipOutput(zos));
+    }
+  }
+
+  /**
+   * Write the snapshot in the binary format to the output stream. That does not include the UI;
+   * it is viewed with the "view" command instead.
+   *
+   * @see BinarySnapshotWriter
+   */
+  void writeBinary(OutputStream out) throws IOException {
+    try (BinarySnapshotWriter writer = new BinarySnapshotWriter(out)) {
+      write(writer);
+      writer.finish();
+    }
+  }
+
+  private void write(Output output) throws IOException {
+    writeSettings(output);
 
-      // the order here matters because: Snapshot.includedTrackers is mutable: it is populated by
-      // writeTrackers and depended on by writeTree and writeCode.
-      writeTrackers(zos, TrackerTree.ROOT);
-      writeTree(zos);
-      writeCode(zos);
+    // the order here matters because: Snapshot.includedTrackers and writtenTrackers are mutable:
+    // they are populated by writeTrackers and depended on by writeTree and writeCode.
+    writeTrackers(output);
+    writeTree(output);
+    writeCode(output);
+
+    if (baseline != null) {
+      baseline.written(baselineUpdates);
     }
   }
 
   /** Write files for {@link TreeResource} */
-  private void writeTree(ZipOutputStream zos) throws IOException {
+  private void writeTree(Output output) throws IOException {
     TreeResource tree = new TreeResource(root);
     // only include trackers in the tree if we wrote the tracker; that excludes trackers that have
     // been "minimized" away.
     Predicate<Tracker> filter = tracker -> includedTrackers.contains(tracker.getTrackerId());
 
-    writeJson(zos, "tree/all", tree.tree(NodeRequestParams.ALL.and(filter)));
-    writeJson(zos, "tree/origins", tree.tree(NodeRequestParams.ORIGINS.and(filter)));
-    writeJson(zos, "tree/sinks", tree.tree(NodeRequestParams.SINKS.and(filter)));
+    output.write("tree/all", tree.tree(NodeRequestParams.ALL.and(filter)));
+    output.write("tree/origins", tree.tree(NodeRequestParams.ORIGINS.and(filter)));
+    output.write("tree/sinks", tree.tree(NodeRequestParams.SINKS.and(filter)));
   }
 
-  private void writeTrackers(ZipOutputStream zos, TrackerTree.Node node)
-      throws IOException {
+  /**
+   * Write the trackers in the tree, and all other trackers that they refer to.
+   * <p>
+   * Building the json for each tracker is done in parallel by worker threads. The results are
+   * written in the order the trackers were submitted, so the result is deterministic.
+   */
+  private void writeTrackers(Output output) throws IOException {
+    long start = System.nanoTime();
+    ArrayDeque<Long> toWrite = new ArrayDeque<>();
+    findTrackers(TrackerTree.ROOT, toWrite);
+    if (baseline != null) {
+      // trackers from previous snapshots that are not in the tree can also have changed
+      for (long trackerId : baseline.trackerIds()) {
+        if (includedTrackers.add(trackerId)) {
+          toWrite.add(trackerId);
+        }
+      }
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, Snapshot::newWorkerThread);
+    try {
+      ArrayDeque<Future<TrackerFiles>> inFlight = new ArrayDeque<>();
+      int unchanged = 0;
+      while (!toWrite.isEmpty() || !inFlight.isEmpty()) {
+        // limit how many results we keep in memory
+        while (!toWrite.isEmpty() && inFlight.size() < threads * 4) {
+          long trackerId = toWrite.remove();
+          Tracker tracker = InterestRepository.getContentTracker(trackerId);
+          if (baseline != null && baseline.isUnchanged(tracker)) {
+            unchanged++;
+            continue;
+          }
+          // for a delta, the reverse views to trackers that referred to this one in previous
+          // snapshots may have changed too
+          Set<Long> referencedBy =
+              baseline == null ? Set.of() : baseline.referencedBy(trackerId);
+          inFlight.add(executor.submit(() -> trackerFiles(output, tracker, referencedBy)));
+        }
+        if (inFlight.isEmpty()) {
+          break;
+        }
+
+        TrackerFiles files = await(inFlight.remove());
+        for (int i = 0; i < files.paths.size(); i++) {
+          String path = files.paths.get(i);
+          if (!path.contains("_to_") || writtenReverse.add(path)) {
+            output.write(path, files.contents.get(i));
+          }
+        }
+        for (long referenced : files.referenced) {
+          if (includedTrackers.add(referenced)) {
+            toWrite.add(referenced);
+          }
+        }
+        writtenTrackers.add(files.trackerId);
+        baselineUpdates.add(new SnapshotBaseline.Written(files.trackerId, files.fingerprint,
+            files.referenced));
+
+        if (writtenTrackers.size() % 10_000 == 0) {
+          logger.info("Snapshot: wrote %d trackers, %d to go", writtenTrackers.size(),
+              toWrite.size() + inFlight.size());
+        }
+      }
+      logger.info("Snapshot: wrote %d trackers (%d unchanged) in %dms, using %d threads",
+          writtenTrackers.size(), unchanged, (System.nanoTime() - start) / 1_000_000, threads);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Find the trackers in the tree to include in the snapshot */
+  private void findTrackers(TrackerTree.Node node, ArrayDeque<Long> toWrite) {
     for (Tracker tracker : node.trackers()) {
       // when minimized then don't include origin trackers or empty just because they are in
       // the tree. So they are only included if they are referenced from a sink.
@@ -115,59 +260,114 @@ public class Snapshot {
       }
 
       InterestRepository.register(tracker);
-      writeTracker(zos, tracker.getTrackerId());
+      if (includedTrackers.add(tracker.getTrackerId())) {
+        toWrite.add(tracker.getTrackerId());
+      }
     }
     for (Node child : node.children()) {
-      writeTrackers(zos, child);
+      findTrackers(child, toWrite);
     }
   }
 
-  /** Write a tracker, and all other trackers that it refers to */
-  private void writeTracker(ZipOutputStream zos, long trackerId) throws IOException {
-    if (includedTrackers.add(trackerId)) {
-      TrackerDetailResponse trackerDetail = trackerResource.get(trackerId);
-      writeJson(zos, "tracker/" + trackerId, trackerDetail);
-      if (trackerDetail.twin != null) {
-        writeTracker(zos, trackerDetail.twin.id);
+  /**
+   * Build the files for a tracker: the tracker itself, and for every tracker it refers to, the
+   * reverse view of that tracker to this one. And the reverse views from this tracker to the
+   * trackers in `referencedBy`. Called on worker threads.
+   */
+  private TrackerFiles trackerFiles(Output output, Tracker tracker, Set<Long> referencedBy) {
+    long trackerId = tracker.getTrackerId();
+    // take the fingerprint first, so that if it changes while we're writing, we write it again in
+    // the next delta
+    TrackerFiles files =
+        new TrackerFiles(output, trackerId, SnapshotBaseline.fingerprint(tracker));
+    TrackerDetailResponse trackerDetail = trackerResource.get(trackerId);
+    files.add("tracker/" + trackerId, trackerDetail);
+    if (trackerDetail.twin != null) {
+      files.referenced.add(trackerDetail.twin.id);
+    }
+    Set<Long> parts = new LinkedHashSet<>();
+    for (Region region : trackerDetail.regions) {
+      for (TrackerPartResponse part : region.parts) {
+        parts.add(part.trackerId);
       }
-      Set<Long> toWritten = new HashSet<>(); // for which trackers we wrote x_to_y already
-      for (Region region : trackerDetail.regions) {
-        for (TrackerPartResponse part : region.parts) {
-          writeTracker(zos, part.trackerId);
-          if (toWritten.add(part.trackerId)) {
-            writeJson(zos, "tracker/" + part.trackerId + "_to_" + trackerId,
-                trackerResource.reverse(part.trackerId, trackerId));
-          }
-        }
+    }
+    for (Entry<Long, TrackerDetailResponse> reverse
+        : trackerResource.reverseAll(parts, trackerId).entrySet()) {
+      files.add("tracker/" + reverse.getKey() + "_to_" + trackerId, reverse.getValue());
+    }
+    for (long target : referencedBy) {
+      files.add("tracker/" + trackerId + "_to_" + target,
+          trackerResource.reverse(trackerId, target, false));
+    }
+    files.referenced.addAll(parts);
+    return files;
+  }
+
+  private static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
       }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private static Thread newWorkerThread(Runnable runnable) {
+    Thread thread = new Thread(() -> {
+      // don't track what we're doing while making the snapshot
+      context().suspend();
+      runnable.run();
+    }, "flowtracker-snapshot");
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /** Files for one tracker, see {@link #trackerFiles(Output, Tracker, Set)} */
+  private static class TrackerFiles {
+    final Output output;
+    final long trackerId;
+    final long fingerprint;
+    final List<String> paths = new ArrayList<>();
+    /** Contents of the files, as returned by {@link Output#prepare(Object)} */
+    final List<Object> contents = new ArrayList<>();
+    /** Ids of trackers that the files refer to */
+    final List<Long> referenced = new ArrayList<>();
+
+    TrackerFiles(Output output, long trackerId, long fingerprint) {
+      this.output = output;
+      this.trackerId = trackerId;
+      this.fingerprint = fingerprint;
+    }
+
+    void add(String path, Object o) {
+      paths.add(path);
+      contents.add(output.prepare(o));
     }
   }
 
-  private void writeCode(ZipOutputStream zos) throws IOException {
-    List<Long> ids = includedTrackers.stream()
+  private void writeCode(Output output) throws IOException {
+    List<Long> ids = writtenTrackers.stream()
         .filter(id -> InterestRepository.getContentTracker(id) instanceof ClassOriginTracker)
         .collect(Collectors.toList());
     for (Entry<Long, CodeResponse> entry : codeResource.getAll(ids).entrySet()) {
-      writeJson(zos, "code/" + entry.getKey(), entry.getValue());
+      output.write("code/" + entry.getKey(), entry.getValue());
     }
   }
 
-  private void writeSettings(ZipOutputStream zos) throws IOException {
+  private void writeSettings(Output output) throws IOException {
     Settings settings = new SettingsResource().get();
     settings.snapshot = true;
-    writeJson(zos, "settings", settings);
+    output.write("settings", settings);
   }
 
-  /** Write a single json file */
-  private void writeJson(ZipOutputStream zos, String path, Object o) throws IOException {
-    ZipEntry entry = new ZipEntry(PATH_PREFIX + path);
-    zos.putNextEntry(entry);
-    zos.write(GSON.toJson(o).getBytes());
-    zos.closeEntry();
-  }
-
-  /** Write a single json file */
-  private void writeFile(ZipOutputStream zos, String path, byte[] bytes) throws IOException {
+  /** Write a single file */
+  private static void writeFile(ZipOutputStream zos, String path, byte[] bytes)
+      throws IOException {
     ZipEntry entry = new ZipEntry(PATH_PREFIX + path);
     zos.putNextEntry(entry);
     zos.write(bytes);
@@ -185,6 +385,56 @@ public class Snapshot {
     }
   }
 
+  /**
+   * Where the snapshot gets written to. The objects written are the responses of the resources
+   * (e.g. {@link TrackerDetailResponse}), for the path under which the resource serves them.
+   */
+  interface Output {
+    /**
+     * Prepare an object for writing, e.g. serialize it. This is called on worker threads, so that
+     * expensive work can be done in parallel. The result is passed to {@link #write}.
+     */
+    Object prepare(Object o);
+
+    /** Write an object, or the result of {@link #prepare(Object)} */
+    void write(String path, Object o) throws IOException;
+  }
+
+  /** Writes json files into a zip */
+  private static class ZipOutput implements Output {
+    private final ZipOutputStream zos;
+
+    ZipOutput(ZipOutputStream zos) {
+      this.zos = zos;
+    }
+
+    @Override
+    public Object prepare(Object o) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+        GSON.toJson(o, writer);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e); // can't happen for a ByteArrayOutputStream
+      }
+      return out.toByteArray();
+    }
+
+    @Override
+    public void write(String path, Object o) throws IOException {
+      if (o instanceof byte[]) {
+        writeFile(zos, path, (byte[]) o);
+        return;
+      }
+      ZipEntry entry = new ZipEntry(PATH_PREFIX + path);
+      zos.putNextEntry(entry);
+      // stream the json into the zip. we don't close the writer, because that would close `zos`.
+      Writer writer = new OutputStreamWriter(zos, StandardCharsets.UTF_8);
+      GSON.toJson(o, writer);
+      writer.flush();
+      zos.closeEntry();
+    }
+  }
+
   /**
    * Find all resources in the classpath under `dir`. Given an example file in that dir, so that we
    * can use {@link Class#getResource(String)}.
@@ -0,0 +1,121 @@
+package com.coekie.flowtracker.web;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.coekie.flowtracker.tracker.Tracker;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers what was written in previous snapshots, so that the next {@link Snapshot} can be a
+ * delta: only containing the trackers that were created or changed since then. A base snapshot
+ * followed by its deltas can be combined into one snapshot using {@link SnapshotMerger}.
+ * <p>
+ * Changes are detected at the level of whole trackers: a tracker that changed (e.g. content was
+ * appended to it, or it got new parts) is written again completely. That keeps the files of a delta
+ * the same as those of a normal snapshot, so merging them is just replacing files.
+ * <p>
+ * A baseline can only be used by one snapshot at a time.
+ */
+class SnapshotBaseline {
+  /** Fingerprint of the trackers written in previous snapshots, by tracker id */
+  private final Map<Long, Long> fingerprints = new HashMap<>();
+
+  /**
+   * For trackers written in previous snapshots, the ids of trackers that refer to them. When a
+   * tracker changes, the reverse view from it to those trackers ("x_to_y") also needs to be
+   * written again.
+   */
+  private final Map<Long, Set<Long>> referencedBy = new HashMap<>();
+
+  /** Number of snapshots taken with this baseline */
+  private int sequence;
+
+  /** Returns true if no snapshot was written yet; so the next one is the base */
+  boolean isBase() {
+    return sequence == 0;
+  }
+
+  int sequence() {
+    return sequence;
+  }
+
+  /** Ids of trackers that were written in previous snapshots */
+  Collection<Long> trackerIds() {
+    return new ArrayList<>(fingerprints.keySet());
+  }
+
+  /**
+   * Returns true if the tracker was written in a previous snapshot, and has not changed since.
+   * Trackers that have been evicted (see Retention) since they were written are considered
+   * unchanged, so that the content in the previous snapshot is kept.
+   */
+  boolean isUnchanged(Tracker tracker) {
+    Long previous = fingerprints.get(tracker.getTrackerId());
+    return previous != null && (tracker.isEvicted() || previous == fingerprint(tracker));
+  }
+
+  /** Ids of trackers that referred to the given tracker in previous snapshots */
+  Set<Long> referencedBy(long trackerId) {
+    Set<Long> result = referencedBy.get(trackerId);
+    return result == null ? Set.of() : new HashSet<>(result);
+  }
+
+  /** Record that a snapshot was completely written, with the given trackers */
+  void written(List<Written> trackers) {
+    for (Written written : trackers) {
+      fingerprints.put(written.trackerId, written.fingerprint);
+      for (long referenced : written.references) {
+        referencedBy.computeIfAbsent(referenced, id -> new HashSet<>()).add(written.trackerId);
+      }
+    }
+    sequence++;
+  }
+
+  /**
+   * A value that changes when what we write in a snapshot for the tracker changes. That's when
+   * content is added to it (or to its twin), or when its sources are changed. Tracking only
+   * appends content, so this is based on the length of the content and the number of sources.
+   */
+  static long fingerprint(Tracker tracker) {
+    Tracker twin = tracker.twin();
+    int twinLength = twin == null ? 0 : twin.getLength();
+    return ((long) TrackerResource.getContentLength(tracker) << 32)
+        ^ (tracker.getEntryCount() * 0x9E3779B9L)
+        ^ twinLength;
+  }
+
+  /** A tracker that was written in a snapshot */
+  static class Written {
+    final long trackerId;
+    /** Fingerprint of the tracker, from right before it was written */
+    final long fingerprint;
+    /** Ids of the trackers that it refers to */
+    final Collection<Long> references;
+
+    Written(long trackerId, long fingerprint, Collection<Long> references) {
+      this.trackerId = trackerId;
+      this.fingerprint = fingerprint;
+      this.references = references;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.coekie.flowtracker.web;
+
+/*-
+ * Copyright 2024 Wouter Coekaerts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Combines a base snapshot and its deltas (see {@link SnapshotBaseline}) into one snapshot.
+ * A delta contains the complete files for everything that changed, so merging comes down to taking
+ * each file from the last snapshot that contains it.
+ */
+public class SnapshotMerger {
+  /**
+   * Merge zip snapshots into `output`.
+   *
+   * @param snapshots the base snapshot followed by its deltas, in the order they were taken
+   */
+  @SuppressWarnings("UnusedDeclaration") // invoked by name from the agent's Main
+  public static void merge(Path output, List<Path> snapshots) throws IOException {
+    try (OutputStream out = Files.newOutputStream(output)) {
+      merge(out, snapshots);
+    }
+  }
+
+  static void merge(OutputStream out, List<Path> snapshots) throws IOException {
+    List<Path> newestFirst = new ArrayList<>(snapshots);
+    Collections.reverse(newestFirst);
+
+    Set<String> written = new HashSet<>();
+    try (ZipOutputStream zos = new ZipOutputStream(out)) {
+      for (Path snapshot : newestFirst) {
+        try (ZipFile zip = new ZipFile(snapshot.toFile())) {
+          for (ZipEntry entry : Collections.list(zip.entries())) {
+            // a newer snapshot already had this file
+            if (!written.add(entry.getName())) {
+              continue;
+            }
+            zos.putNextEntry(new ZipEntry(entry.getName()));
+            try (InputStream in = zip.getInputStream(entry)) {
+              in.transferTo(zos);
+            }
+            zos.closeEntry();
+          }
+        }
+      }
+    }
+  }
+}
@@ -26,6 +26,9 @@ import jakarta.ws.rs.core.StreamingOutput;
 /** Serves the {@link Snapshot} */
 @Path("/snapshot")
 public class SnapshotResource {
+  /** Baseline for {@link #delta()} */
+  private static final SnapshotBaseline deltaBaseline = new SnapshotBaseline();
+
   @GET
   @Path("full")
   public Response full() {
@@ -38,6 +41,36 @@ public class SnapshotResource {
     return get(true);
   }
 
+  /**
+   * Minimized snapshot with only what changed since the previous call; where the first call returns
+   * the base snapshot. See {@link SnapshotBaseline} and {@link SnapshotMerger}.
+   */
+  @GET
+  @Path("delta")
+  public Response delta() {
+    StreamingOutput streamingOutput = output -> {
+      synchronized (deltaBaseline) {
+        new Snapshot(TrackerTree.ROOT, true, deltaBaseline).write(output);
+      }
+    };
+    return Response.ok(streamingOutput, MediaType.APPLICATION_OCTET_STREAM)
+        .header("Content-Disposition",
+            "attachment; filename=\"flowtracker-snapshot-delta.zip\"")
+        .build();
+  }
+
+  @GET
+  @Path("binary/full")
+  public Response binaryFull() {
+    return getBinary(false);
+  }
+
+  @GET
+  @Path("binary/minimized")
+  public Response binaryMinimized() {
+    return getBinary(true);
+  }
+
   private Response get(boolean minimized) {
     StreamingOutput streamingOutput = output ->
         new Snapshot(TrackerTree.ROOT, minimized).write(output);
@@ -45,4 +78,12 @@ public class SnapshotResource {
         .header("Content-Disposition", "attachment; filename=\"flowtracker-snapshot.zip\"")
         .build();
   }
+
+  private Response getBinary(boolean minimized) {
+    StreamingOutput streamingOutput = output ->
+        new Snapshot(TrackerTree.ROOT, minimized).writeBinary(output);
+    return Response.ok(streamingOutput, MediaType.APPLICATION_OCTET_STREAM)
+        .header("Content-Disposition", "attachment; filename=\"flowtracker-snapshot.ftsnap\"")
+        .build();
+  }
 }
@@ -19,6 +19,7 @@ package com.coekie.flowtracker.web;
 import static java.util.Objects.requireNonNull;
 
 import com.coekie.flowtracker.tracker.ByteContentTracker;
+import com.coekie.flowtracker.tracker.ByteSequence;
 import com.coekie.flowtracker.tracker.ByteSinkTracker;
 import com.coekie.flowtracker.tracker.CharContentTracker;
 import com.coekie.flowtracker.tracker.CharSinkTracker;
@@ -41,10 +42,14 @@ import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.function.Consumer;
 
@@ -98,18 +103,52 @@ public class TrackerResource {
   public TrackerDetailResponse reverse(long id, long targetId, boolean includeParts) {
     Tracker tracker = InterestRepository.getContentTracker(id);
     Tracker target = InterestRepository.getContentTracker(targetId);
+    return new TrackerDetailResponse(
+        reverse(List.of(tracker), target, includeParts).get(tracker));
+  }
 
-    ResponseBuilder builder = new ResponseBuilder(tracker);
+  /**
+   * Like {@link #reverse(long, long)}, for multiple trackers with the same target at once. That
+   * only needs to walk over the content of the target once, instead of once per tracker.
+   */
+  Map<Long, TrackerDetailResponse> reverseAll(Collection<Long> ids, long targetId) {
+    List<Tracker> trackers = new ArrayList<>();
+    for (long id : ids) {
+      trackers.add(InterestRepository.getContentTracker(id));
+    }
+    Tracker target = InterestRepository.getContentTracker(targetId);
+    if (trackers.isEmpty()) {
+      return Map.of();
+    }
+
+    Map<Tracker, ResponseBuilder> builders = reverse(trackers, target, false);
+    Map<Long, TrackerDetailResponse> result = new LinkedHashMap<>();
+    for (Tracker tracker : trackers) {
+      result.put(tracker.getTrackerId(), new TrackerDetailResponse(builders.get(tracker)));
+    }
+    return result;
+  }
+
+  private static Map<Tracker, ResponseBuilder> reverse(List<Tracker> trackers, Tracker target,
+      boolean includeParts) {
+    Map<Tracker, ResponseBuilder> builders = new IdentityHashMap<>();
+    for (Tracker tracker : trackers) {
+      builders.put(tracker, new ResponseBuilder(tracker));
+    }
+    // trackers in `trackers` that we are recursing through. Content that reaches the target through
+    // a tracker does not count as coming from that tracker (again).
+    Set<Tracker> entered = Collections.newSetFromMap(new IdentityHashMap<>());
 
-    // record at which indexes in tracker that changes happen to which parts correspond to it.
+    // record at which indexes in each tracker that changes happen to which parts correspond to it.
     // in other words, this iterates over the content of `target`, and builds an index of how that
-    // maps to indexes in the content of `tracker`
+    // maps to indexes in the content of each tracker
     Simplifier.simplifySourceTo(target, new WritableTracker() {
       @Override
       public void setSource(int index, int length, Tracker sourceTracker, int sourceIndex,
           Growth growth) {
         int sourceLength = growth.targetToSource(length);
-        if (sourceTracker == tracker) {
+        ResponseBuilder builder = sourceTracker == null ? null : builders.get(sourceTracker);
+        if (builder != null && !entered.contains(sourceTracker)) {
           TrackerPartResponse part = builder.part(target, index, length);
           if (includeParts) {
             builder.addPart(sourceIndex, sourceIndex + sourceLength, part);
@@ -118,14 +157,23 @@ public class TrackerResource {
             builder.addChange(sourceIndex, state -> {});
             builder.addChange(sourceIndex + sourceLength, state -> {});
           }
-        } else if (sourceTracker != null && sourceTracker.getEntryCount() > 0) {
-          // recurse to the source of the source
-          sourceTracker.pushSourceTo(sourceIndex, this, index, sourceLength, growth);
+        }
+        // recurse to the source of the source, if other trackers could be found there
+        if (sourceTracker != null && sourceTracker.getEntryCount() > 0
+            && (builder == null || builders.size() > 1)) {
+          boolean enter = builder != null && entered.add(sourceTracker);
+          try {
+            sourceTracker.pushSourceTo(sourceIndex, this, index, sourceLength, growth);
+          } finally {
+            if (enter) {
+              entered.remove(sourceTracker);
+            }
+          }
         }
       }
     });
 
-    return new TrackerDetailResponse(builder);
+    return builders;
   }
 
   /**
@@ -164,6 +212,17 @@ public class TrackerResource {
       this.twin = builder.tracker.twin() == null ? null : new TrackerResponse(
           builder.tracker.twin());
     }
+
+    /** Constructor for a response read from a {@link BinarySnapshotReader} */
+    TrackerDetailResponse(List<String> path, String creationStackTrace, List<Region> regions,
+        Map<Long, TrackerResponse> linkedTrackers, boolean hasSource, TrackerResponse twin) {
+      this.path = path;
+      this.creationStackTrace = creationStackTrace;
+      this.regions = regions;
+      this.linkedTrackers = linkedTrackers;
+      this.hasSource = hasSource;
+      this.twin = twin;
+    }
   }
 
   /** Part of the content of a tracker that can be related to other trackers */
@@ -204,6 +263,16 @@ public class TrackerResource {
       this.line = line == -1 ? null : line;
       this.twinContent = twinContent;
     }
+
+    Region(int offset, int length, String content, List<TrackerPartResponse> parts, Integer line,
+        String twinContent) {
+      this.offset = offset;
+      this.length = length;
+      this.content = content;
+      this.parts = parts;
+      this.line = line;
+      this.twinContent = twinContent;
+    }
   }
 
   /** Relation between a {@link Region} of one tracker to a region in another tracker */
@@ -214,7 +283,11 @@ public class TrackerResource {
     public final int length;
 
     public TrackerPartResponse(Tracker tracker, int offset, int length) {
-      this.trackerId = tracker.getTrackerId();
+      this(tracker.getTrackerId(), offset, length);
+    }
+
+    TrackerPartResponse(long trackerId, int offset, int length) {
+      this.trackerId = trackerId;
       this.offset = offset;
       this.length = length;
     }
@@ -373,21 +446,26 @@ public class TrackerResource {
   }
 
   private static String getContentAsString(Tracker tracker, int start, int end) {
-    if (tracker instanceof CharContentTracker) {
-      CharContentTracker charTracker = (CharContentTracker) tracker;
-      return charTracker.getContent().subSequence(start, end).toString();
+    if (tracker.isEvicted()) {
+      // the content has been dropped, see Retention
+      return start == end ? "" : "<evicted>";
+    } else if (tracker instanceof CharContentTracker) {
+      CharSequence content = ((CharContentTracker) tracker).getContent();
+      if (end > content.length()) { // evicted concurrently
+        return "<evicted>";
+      }
+      return content.subSequence(start, end).toString();
     } else if (tracker instanceof ByteContentTracker) {
-      ByteContentTracker byteTracker = (ByteContentTracker) tracker;
-      ByteBuffer slice = byteTracker.getContent().getByteContent().slice();
-      if (end > slice.limit()) {
+      ByteSequence content = ((ByteContentTracker) tracker).getContent();
+      if (content.isReleased()) { // evicted concurrently
+        return "<evicted>";
+      } else if (end > content.size()) {
         // this probably means we have tracking on a part where we did not record the content for.
         // that shouldn't happen; but it at least does in some unit tests where we were too lazy to
         // populate content.
         return "<invalid>";
       }
-      slice.position(start);
-      slice.limit(end);
-      return escape(slice);
+      return escape(content.getByteContent(start, end));
     } else if (tracker instanceof FakeOriginTracker) {
       return "<fake>";
     } else {
@@ -396,7 +474,9 @@ public class TrackerResource {
   }
 
   static int getContentLength(Tracker tracker) {
-    if (tracker instanceof CharContentTracker) {
+    if (tracker.isEvicted()) {
+      return tracker.getLength();
+    } else if (tracker instanceof CharContentTracker) {
       CharContentTracker charTracker = (CharContentTracker) tracker;
       return charTracker.getContent().length();
     } else if (tracker instanceof ByteContentTracker) {
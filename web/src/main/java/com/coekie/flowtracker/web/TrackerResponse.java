@@ -34,4 +34,11 @@ public class TrackerResponse {
     this.sink = TrackerResource.isSink(tracker);
     InterestRepository.register(tracker);
   }
+
+  TrackerResponse(long id, List<String> path, boolean origin, boolean sink) {
+    this.id = id;
+    this.path = path;
+    this.origin = origin;
+    this.sink = sink;
+  }
 }
@@ -16,6 +16,7 @@ package com.coekie.flowtracker.web;
  * limitations under the License.
  */
 
+import com.coekie.flowtracker.tracker.Sampler;
 import com.coekie.flowtracker.tracker.Tracker;
 import com.coekie.flowtracker.tracker.TrackerTree;
 import com.coekie.flowtracker.tracker.TrackerTree.Node;
@@ -63,7 +64,9 @@ public class TreeResource {
   }
 
   NodeDetailResponse tree(NodeRequestParams params) {
-    return new NodeDetailResponse(root, params);
+    NodeDetailResponse response = new NodeDetailResponse(root, params);
+    response.sampling = Sampler.description();
+    return response;
   }
 
   @SuppressWarnings("UnusedDeclaration") // json
@@ -72,6 +75,10 @@ public class TreeResource {
     public final List<NodeDetailResponse> children = new ArrayList<>();
     public final TrackerResponse tracker;
     public final int trackerCount;
+    /** Number of trackers under this node that have been evicted, see Retention */
+    public final int evicted;
+    /** Only on the root: description of the sampling configuration, if not everything is tracked */
+    public String sampling;
 
     // Maps TrackerTree.Node to how we represent it in the UI. differences:
     // * Optional nodes are collapsed into their parent when they're the only child. That's to keep
@@ -87,9 +94,12 @@ public class TreeResource {
         names.add(node.name);
       }
       int trackerCount = 0;
+      int evicted = node.evicted();
       for (Node child : node.children()) {
         NodeDetailResponse childResponse = new NodeDetailResponse(child, nodeRequestParams);
-        if (childResponse.trackerCount > 0) {
+        evicted += childResponse.evicted;
+        // nodes with only evicted trackers are still shown, to show that they were evicted
+        if (childResponse.trackerCount > 0 || childResponse.evicted > 0) {
           trackerCount += childResponse.trackerCount;
           this.children.add(childResponse);
         }
@@ -114,12 +124,24 @@ public class TreeResource {
       }
       Collections.sort(this.children);
       this.trackerCount = trackerCount;
+      this.evicted = evicted;
+    }
+
+    /** Constructor for a response read from a {@link BinarySnapshotReader} */
+    NodeDetailResponse(List<String> names, List<NodeDetailResponse> children,
+        TrackerResponse tracker, int trackerCount, int evicted) {
+      this.names.addAll(names);
+      this.children.addAll(children);
+      this.tracker = tracker;
+      this.trackerCount = trackerCount;
+      this.evicted = evicted;
     }
 
     private NodeDetailResponse(String name, TrackerResponse tracker) {
       this.names.add(name);
       this.tracker = tracker;
       this.trackerCount = 1;
+      this.evicted = 0;
     }
 
     @Override
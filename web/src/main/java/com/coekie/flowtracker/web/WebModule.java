@@ -21,10 +21,16 @@ import static com.coekie.flowtracker.tracker.Context.context;
 import com.coekie.flowtracker.tracker.Context;
 import com.coekie.flowtracker.tracker.TrackerTree;
 import com.coekie.flowtracker.util.Config;
+import com.coekie.flowtracker.util.Logger;
 import jakarta.servlet.DispatcherType;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.EnumSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
@@ -43,11 +49,24 @@ import org.glassfish.jersey.servlet.ServletProperties;
 
 @SuppressWarnings("UnusedDeclaration") // loaded by name by the agent
 public class WebModule {
+  private static final Logger logger = new Logger("WebModule");
+
   final Server server;
 
+  /** Stops writing delta snapshots, or null if not enabled; see {@link #deltaSnapshots} */
+  private static Runnable stopDeltaSnapshots;
+
   public WebModule(Config config) throws Exception {
-    if (config.getBoolean("webserver", true)) {
-      server = startServer(config);
+    String viewSnapshotPath = config.get("viewSnapshot");
+    if (viewSnapshotPath != null) {
+      // serve a snapshot instead of the live state of this JVM
+      BinarySnapshotReader reader = BinarySnapshotReader.open(Path.of(viewSnapshotPath));
+      server = startServer(config, new ResourceConfig(BinarySnapshotResource.class)
+          .property(BinarySnapshotResource.READER_PROPERTY, reader));
+    } else if (config.getBoolean("webserver", true)) {
+      server = startServer(config,
+          new ResourceConfig(TrackerResource.class, TreeResource.class, SettingsResource.class,
+              SnapshotResource.class, CodeResource.class));
     } else {
       server = null;
     }
@@ -55,19 +74,25 @@ public class WebModule {
     if (snapshotOnExitPath != null) {
       snapshotOnExit(snapshotOnExitPath, config);
     }
+    String deltaSnapshotDir = config.get("deltaSnapshots");
+    if (deltaSnapshotDir != null) {
+      deltaSnapshots(Path.of(deltaSnapshotDir), config);
+    }
   }
 
-  private static Server startServer(Config config) throws Exception {
+  private static Server startServer(Config config, ResourceConfig resourceConfig)
+      throws Exception {
     ClassLoader ccl = Thread.currentThread().getContextClassLoader();
     Thread.currentThread().setContextClassLoader(WebModule.class.getClassLoader());
     try {
-      return doStartServer(config);
+      return doStartServer(config, resourceConfig);
     } finally {
       Thread.currentThread().setContextClassLoader(ccl);
     }
   }
 
-  private static Server doStartServer(Config config) throws Exception {
+  private static Server doStartServer(Config config, ResourceConfig resourceConfig)
+      throws Exception {
     // Setup server
     Server server = new Server(new TrackerSuspendingThreadPool());
 
@@ -85,14 +110,12 @@ public class WebModule {
     context.setClassLoader(WebModule.class.getClassLoader());
     server.setHandler(context);
 
-    ResourceConfig resourceConfig =
-        new ResourceConfig(TrackerResource.class, TreeResource.class, SettingsResource.class,
-            SnapshotResource.class, CodeResource.class)
-            .property(ServletProperties.FILTER_FORWARD_ON_404, true)
-            .property(ServerProperties.WADL_FEATURE_DISABLE, true)
-            .property(ServerProperties.BV_FEATURE_DISABLE, true)
-            .property(CommonProperties.PROVIDER_DEFAULT_DISABLE, "ALL")
-            .register(JsonGsonFeature.class);
+    resourceConfig
+        .property(ServletProperties.FILTER_FORWARD_ON_404, true)
+        .property(ServerProperties.WADL_FEATURE_DISABLE, true)
+        .property(ServerProperties.BV_FEATURE_DISABLE, true)
+        .property(CommonProperties.PROVIDER_DEFAULT_DISABLE, "ALL")
+        .register(JsonGsonFeature.class);
     ServletContainer servletContainer = new ServletContainer(resourceConfig);
     context.addFilter(new FilterHolder(servletContainer), "/*", EnumSet.of(DispatcherType.REQUEST));
 
@@ -122,12 +145,21 @@ public class WebModule {
   }
 
   private static void snapshotOnExit(String path, Config config) {
+    String format = config.get("snapshotOnExitFormat", "zip");
+    if (!format.equals("zip") && !format.equals("binary")) {
+      throw new IllegalArgumentException("Unknown snapshotOnExitFormat: " + format);
+    }
     Runtime.getRuntime().addShutdownHook(new Thread(() -> {
       Context context = context();
       context.suspend();
       try (var out = new FileOutputStream(path)) {
-        new Snapshot(TrackerTree.ROOT, config.getBoolean("snapshotOnExitMinimized", true))
-            .write(out);
+        Snapshot snapshot =
+            new Snapshot(TrackerTree.ROOT, config.getBoolean("snapshotOnExitMinimized", true));
+        if (format.equals("binary")) {
+          snapshot.writeBinary(out);
+        } else {
+          snapshot.write(out);
+        }
       } catch (IOException e) {
         throw new RuntimeException(e);
       } finally {
@@ -136,6 +168,53 @@ public class WebModule {
     }));
   }
 
+  /**
+   * Periodically write snapshots into `dir`: first a base snapshot, and then deltas containing
+   * what changed since the previous one.
+   */
+  private static void deltaSnapshots(Path dir, Config config) throws IOException {
+    Files.createDirectories(dir);
+    int interval = Integer.parseInt(config.get("deltaSnapshotInterval", "60"));
+    boolean minimized = config.getBoolean("snapshotOnExitMinimized", true);
+    SnapshotBaseline baseline = new SnapshotBaseline();
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(() -> {
+        context().suspend();
+        runnable.run();
+      }, "flowtracker-delta-snapshots");
+      thread.setDaemon(true);
+      return thread;
+    });
+    Runnable write = () -> writeDeltaSnapshot(dir, minimized, baseline);
+    executor.scheduleWithFixedDelay(write, interval, interval, TimeUnit.SECONDS);
+    stopDeltaSnapshots = () -> {
+      // a last one with what was tracked until now. that still runs after shutdown, unlike the
+      // periodic one.
+      executor.execute(write);
+      executor.shutdown();
+    };
+  }
+
+  private static void writeDeltaSnapshot(Path dir, boolean minimized, SnapshotBaseline baseline) {
+    Path path = dir.resolve(String.format("snapshot-%04d.zip", baseline.sequence()));
+    try (var out = Files.newOutputStream(path)) {
+      new Snapshot(TrackerTree.ROOT, minimized, baseline).write(out);
+    } catch (IOException e) {
+      logger.error(e, "Failed to write snapshot %s", path);
+    }
+  }
+
+  /**
+   * Stop writing delta snapshots, after writing a last one. Used when FlowTracker is detached from
+   * a JVM. The web server keeps running, so that what was tracked can still be looked at.
+   */
+  public static void detach() {
+    if (stopDeltaSnapshots != null) {
+      stopDeltaSnapshots.run();
+      stopDeltaSnapshots = null;
+    }
+  }
+
   /**
    * ThreadPool that creates threads that have tracking disabled, because we do not want to track
    * our own web server
@@ -0,0 +1,163 @@
+package com.coekie.flowtracker.web;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.Assert.assertThrows;
+
+import com.coekie.flowtracker.tracker.ByteOriginTracker;
+import com.coekie.flowtracker.tracker.ByteSinkTracker;
+import com.coekie.flowtracker.tracker.CharOriginTracker;
+import com.coekie.flowtracker.tracker.CharSinkTracker;
+import com.coekie.flowtracker.tracker.ClassOriginTracker;
+import com.coekie.flowtracker.tracker.TrackerTree;
+import com.coekie.flowtracker.tracker.TrackerTree.Node;
+import com.google.gson.JsonParser;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.Test;
+
+public class BinarySnapshotTest {
+  /**
+   * Test that the binary snapshot contains the same as the zip snapshot: every json document in the
+   * zip should be the same as what the reader returns for it.
+   */
+  @Test
+  public void testSameAsZip() throws IOException {
+    Node root = TrackerTree.node("BinarySnapshotTest.testSameAsZip");
+    ByteSinkTracker byteSink = new ByteSinkTracker();
+    byteSink.addTo(root.node("byteSink"));
+    ByteOriginTracker byteOrigin = new ByteOriginTracker();
+    byteOrigin.append((byte) 'x');
+    byteOrigin.append((byte) 0);
+    byteOrigin.addTo(root.node("byteOrigin"));
+    byteSink.setSource(0, 2, byteOrigin, 0);
+    byteSink.append((byte) 'x');
+    byteSink.append((byte) 0);
+
+    CharSinkTracker charSink = new CharSinkTracker();
+    charSink.addTo(root.node("charSink"));
+    // not in the tree, only referenced from charSink
+    CharOriginTracker charOrigin = new CharOriginTracker();
+    charOrigin.append("héllo world");
+    charSink.append("héllo héllo", 0, 11);
+    charSink.setSource(0, 5, charOrigin, 0);
+    charSink.setSource(6, 5, charOrigin, 0);
+
+    ClassOriginTracker.registerClass(BinarySnapshotTest.class.getClassLoader(),
+        BinarySnapshotTest.class.getName().replace('.', '/'), null);
+
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    new Snapshot(root, false).write(zip);
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    new Snapshot(root, false).writeBinary(binary);
+    BinarySnapshotReader reader =
+        new BinarySnapshotReader(ByteBuffer.wrap(binary.toByteArray()));
+
+    Map<String, String> entries = unzipJson(zip);
+    assertThat(entries).containsKey("tracker/" + charOrigin.getTrackerId() + "_to_"
+        + charSink.getTrackerId());
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      assertWithMessage(entry.getKey())
+          .that(JsonParser.parseString(Snapshot.GSON.toJson(read(reader, entry.getKey()))))
+          .isEqualTo(JsonParser.parseString(entry.getValue()));
+    }
+
+    // the binary one is smaller than the json (uncompressed, because it's memory-mapped)
+    int jsonSize = entries.values().stream()
+        .mapToInt(json -> json.getBytes(StandardCharsets.UTF_8).length)
+        .sum();
+    assertThat(binary.size()).isLessThan(jsonSize);
+  }
+
+  /** Strings that are used multiple times are only written once */
+  @Test
+  public void testStringsWrittenOnce() throws IOException {
+    Node root = TrackerTree.node("BinarySnapshotTest.testStringsWrittenOnce");
+    String content = "repeated content";
+    for (int i = 0; i < 3; i++) {
+      CharOriginTracker tracker = new CharOriginTracker();
+      tracker.append(content);
+      tracker.addTo(root.node("repeatedName").node(Integer.toString(i)));
+    }
+
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    new Snapshot(root, false).writeBinary(binary);
+    byte[] bytes = binary.toByteArray();
+    assertThat(occurrences(bytes, content)).isEqualTo(1);
+    assertThat(occurrences(bytes, "repeatedName")).isEqualTo(1);
+  }
+
+  @Test
+  public void testNotFound() throws IOException {
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    new Snapshot(TrackerTree.node("BinarySnapshotTest.testNotFound"), true).writeBinary(binary);
+    BinarySnapshotReader reader =
+        new BinarySnapshotReader(ByteBuffer.wrap(binary.toByteArray()));
+    assertThat(reader.tracker(Long.MAX_VALUE)).isNull();
+    assertThat(reader.reverse(Long.MAX_VALUE, 1)).isNull();
+    assertThat(reader.code(Long.MAX_VALUE)).isNull();
+    assertThat(reader.tree("unknown")).isNull();
+    assertThat(reader.tree("all")).isNotNull();
+    assertThat(reader.settings().snapshot).isTrue();
+  }
+
+  @Test
+  public void testInvalidFile() {
+    assertThrows(IOException.class,
+        () -> new BinarySnapshotReader(ByteBuffer.wrap(new byte[100])));
+  }
+
+  private static Object read(BinarySnapshotReader reader, String path) {
+    String[] parts = path.split("/");
+    switch (parts[0]) {
+      case "tracker":
+        int to = parts[1].indexOf("_to_");
+        return to == -1
+            ? reader.tracker(Long.parseLong(parts[1]))
+            : reader.reverse(Long.parseLong(parts[1].substring(0, to)),
+                Long.parseLong(parts[1].substring(to + 4)));
+      case "tree":
+        return reader.tree(parts[1]);
+      case "code":
+        return reader.code(Long.parseLong(parts[1]));
+      case "settings":
+        return reader.settings();
+      default:
+        throw new IllegalArgumentException(path);
+    }
+  }
+
+  private static int occurrences(byte[] bytes, String str) {
+    byte[] search = str.getBytes(StandardCharsets.UTF_8);
+    int result = 0;
+    for (int i = 0; i + search.length <= bytes.length; i++) {
+      if (Arrays.equals(bytes, i, i + search.length, search, 0, search.length)) {
+        result++;
+      }
+    }
+    return result;
+  }
+
+  /** The json entries in the zip (not the static files of the UI) */
+  private static Map<String, String> unzipJson(ByteArrayOutputStream baos) throws IOException {
+    Map<String, String> result = new HashMap<>();
+    try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+      for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+        String path = entry.getName().substring(Snapshot.PATH_PREFIX.length());
+        if (path.startsWith("tracker/") || path.startsWith("tree/") || path.startsWith("code/")
+            || path.equals("settings")) {
+          result.put(path, new String(zis.readAllBytes(), StandardCharsets.UTF_8));
+        }
+      }
+    }
+    return result;
+  }
+}
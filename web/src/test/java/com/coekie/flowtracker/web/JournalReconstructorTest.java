@@ -0,0 +1,159 @@
+package com.coekie.flowtracker.web;
+
+import static com.coekie.flowtracker.tracker.TrackerSnapshot.assertThatTracker;
+import static com.coekie.flowtracker.tracker.TrackerSnapshot.snapshot;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.coekie.flowtracker.tracker.ByteOriginTracker;
+import com.coekie.flowtracker.tracker.ByteSinkTracker;
+import com.coekie.flowtracker.tracker.CharOriginTracker;
+import com.coekie.flowtracker.tracker.CharSinkTracker;
+import com.coekie.flowtracker.tracker.Growth;
+import com.coekie.flowtracker.tracker.Journal;
+import com.coekie.flowtracker.tracker.Tracker;
+import com.coekie.flowtracker.tracker.TrackerTree;
+import com.coekie.flowtracker.tracker.TrackerTree.Node;
+import com.coekie.flowtracker.util.Config;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JournalReconstructorTest {
+  private Path journal;
+
+  @Before
+  public void before() throws IOException {
+    journal = Files.createTempFile("JournalReconstructorTest", ".journal");
+  }
+
+  @After
+  public void after() throws IOException {
+    Journal.initialize(Config.empty());
+    Files.delete(journal);
+  }
+
+  @Test
+  public void testReconstruct() throws Exception {
+    startJournal();
+    Node root = TrackerTree.node("JournalReconstructorTest.testReconstruct");
+
+    ByteOriginTracker origin = new ByteOriginTracker();
+    origin.append(new byte[]{1, 2}, 0, 2); // before being added to the tree
+    origin.addTo(root.node("origin"));
+    origin.append((byte) 3);
+    // bigger than the buffer of a thread
+    byte[] big = new byte[100_000];
+    Arrays.fill(big, (byte) 4);
+    origin.append(big, 0, big.length);
+
+    ByteSinkTracker sink = new ByteSinkTracker();
+    sink.addTo(root.node("sink"));
+    sink.append(new byte[]{2, 3}, 0, 2);
+    sink.setSource(0, 2, origin, 1);
+
+    // written in another thread, that ends before the journal is closed
+    CharOriginTracker charOrigin = new CharOriginTracker(); // not in the tree
+    CharSinkTracker charSink = new CharSinkTracker();
+    Thread thread = new Thread(() -> {
+      charOrigin.append("héllo");
+      charSink.addTo(root.optionalNode("charSink"));
+      charSink.append("héllo", 0, 5);
+      charSink.setSource(0, 5, charOrigin, 0, Growth.NONE);
+    });
+    thread.start();
+    thread.join();
+
+    Journal.initialize(Config.empty());
+    Node rebuiltRoot = TrackerTree.node("JournalReconstructorTest.testReconstruct.rebuilt");
+    Map<Long, Tracker> rebuilt = JournalReconstructor.read(journal, rebuiltRoot);
+
+    ByteOriginTracker rebuiltOrigin = (ByteOriginTracker) rebuilt.get(origin.getTrackerId());
+    assertThat(rebuiltOrigin.getByteContent()).isEqualTo(origin.getByteContent());
+    assertThat(rebuiltOrigin.getNode().path()).containsExactly(
+        "JournalReconstructorTest.testReconstruct.rebuilt",
+        "JournalReconstructorTest.testReconstruct", "origin").inOrder();
+
+    ByteSinkTracker rebuiltSink = (ByteSinkTracker) rebuilt.get(sink.getTrackerId());
+    assertThat(rebuiltSink.getByteContent()).isEqualTo(ByteBuffer.wrap(new byte[]{2, 3}));
+    assertThatTracker(rebuiltSink).matches(snapshot().part(2, rebuiltOrigin, 1));
+
+    CharOriginTracker rebuiltCharOrigin =
+        (CharOriginTracker) rebuilt.get(charOrigin.getTrackerId());
+    assertThat(rebuiltCharOrigin.getContent().toString()).isEqualTo("héllo");
+    assertThat(rebuiltCharOrigin.getNode()).isNull();
+    CharSinkTracker rebuiltCharSink = (CharSinkTracker) rebuilt.get(charSink.getTrackerId());
+    assertThat(rebuiltCharSink.getContent().toString()).isEqualTo("héllo");
+    assertThat(rebuiltCharSink.getNode().optional).isTrue();
+    assertThatTracker(rebuiltCharSink).matches(snapshot().part(5, rebuiltCharOrigin, 0));
+  }
+
+  /** A journal of a JVM that crashed: cut off in the middle of an event */
+  @Test
+  public void testIncomplete() throws Exception {
+    startJournal();
+    Node root = TrackerTree.node("JournalReconstructorTest.testIncomplete");
+    CharOriginTracker first = new CharOriginTracker();
+    first.addTo(root.node("first"));
+    first.append("first");
+    CharOriginTracker second = new CharOriginTracker();
+    second.addTo(root.node("second"));
+    second.append("second");
+    Journal.initialize(Config.empty());
+    byte[] bytes = Files.readAllBytes(journal);
+
+    // cut off in the middle of appending "second"
+    Files.write(journal, Arrays.copyOf(bytes, bytes.length - 4));
+    Map<Long, Tracker> rebuilt = JournalReconstructor.read(journal,
+        TrackerTree.node("JournalReconstructorTest.testIncomplete.rebuilt"));
+
+    assertThat(((CharOriginTracker) rebuilt.get(first.getTrackerId())).getContent().toString())
+        .isEqualTo("first");
+    Tracker rebuiltSecond = rebuilt.get(second.getTrackerId());
+    assertThat(rebuiltSecond.getNode()).isNotNull();
+    assertThat(rebuiltSecond.getLength()).isEqualTo(0);
+  }
+
+  /**
+   * A journal that is still being written to, or of a JVM that crashed: followed by unused space
+   * in the file.
+   */
+  @Test
+  public void testNotClosed() throws Exception {
+    Journal.initialize(Config.forTesting(
+        Map.of("journal", journal.toString(), "journalFlushInterval", "10")));
+    CharOriginTracker tracker = new CharOriginTracker();
+    tracker.addTo(TrackerTree.node("JournalReconstructorTest.testNotClosed"));
+    tracker.append("abc");
+
+    Node rebuiltRoot = TrackerTree.node("JournalReconstructorTest.testNotClosed.rebuilt");
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (true) {
+      Map<Long, Tracker> rebuilt = JournalReconstructor.read(journal, rebuiltRoot);
+      Tracker rebuiltTracker = rebuilt.get(tracker.getTrackerId());
+      if (rebuiltTracker != null && rebuiltTracker.getLength() == 3) {
+        assertThat(((CharOriginTracker) rebuiltTracker).getContent().toString()).isEqualTo("abc");
+        break;
+      }
+      assertThat(System.currentTimeMillis()).isLessThan(deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testInvalidFile() throws IOException {
+    Files.write(journal, new byte[100]);
+    assertThrows(IOException.class,
+        () -> JournalReconstructor.read(journal, TrackerTree.node("JournalReconstructorTest")));
+  }
+
+  private void startJournal() {
+    Journal.initialize(Config.forTesting(Map.of("journal", journal.toString())));
+  }
+}
@@ -0,0 +1,32 @@
+package com.coekie.flowtracker.web;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.coekie.flowtracker.tracker.TrackingSwitch;
+import com.coekie.flowtracker.web.SettingsResource.Settings;
+import org.junit.After;
+import org.junit.Test;
+
+public class SettingsResourceTest {
+  private final SettingsResource settingsResource = new SettingsResource();
+
+  @After public void after() {
+    TrackingSwitch.setOn(true);
+  }
+
+  @Test public void setTracking() {
+    Settings settings = settingsResource.get();
+    assertThat(settings.tracking).isTrue();
+
+    settings.tracking = false;
+    settingsResource.set(settings);
+    assertThat(TrackingSwitch.isOn()).isFalse();
+    assertThat(settingsResource.get().tracking).isFalse();
+  }
+
+  /** Posting settings without `tracking` must not turn tracking off */
+  @Test public void setWithoutTracking() {
+    settingsResource.set(new Settings());
+    assertThat(TrackingSwitch.isOn()).isTrue();
+  }
+}
@@ -0,0 +1,79 @@
+package com.coekie.flowtracker.web;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnapshotMergerTest {
+  private Path dir;
+
+  @Before
+  public void before() throws IOException {
+    dir = Files.createTempDirectory("SnapshotMergerTest");
+  }
+
+  @After
+  public void after() throws IOException {
+    try (var paths = Files.list(dir)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        Files.delete(path);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  @Test
+  public void test() throws IOException {
+    Path base = zip("base.zip", Map.of("index.html", "ui", "tracker/1", "base1",
+        "tracker/2", "base2"));
+    Path delta1 = zip("delta1.zip", Map.of("tracker/1", "delta1", "tracker/3", "delta1"));
+    Path delta2 = zip("delta2.zip", Map.of("tracker/3", "delta2"));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SnapshotMerger.merge(out, List.of(base, delta1, delta2));
+
+    assertThat(unzip(out)).containsExactly(
+        "index.html", "ui",
+        "tracker/1", "delta1",
+        "tracker/2", "base2",
+        "tracker/3", "delta2");
+  }
+
+  private Path zip(String name, Map<String, String> entries) throws IOException {
+    Path path = dir.resolve(name);
+    try (OutputStream out = Files.newOutputStream(path);
+        ZipOutputStream zos = new ZipOutputStream(out)) {
+      for (Map.Entry<String, String> entry : entries.entrySet()) {
+        zos.putNextEntry(new ZipEntry(entry.getKey()));
+        zos.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+        zos.closeEntry();
+      }
+    }
+    return path;
+  }
+
+  private static Map<String, String> unzip(ByteArrayOutputStream baos) throws IOException {
+    Map<String, String> result = new LinkedHashMap<>();
+    try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+      for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+        result.put(entry.getName(), new String(zis.readAllBytes(), StandardCharsets.UTF_8));
+      }
+    }
+    return result;
+  }
+}
@@ -11,7 +11,9 @@ import com.coekie.flowtracker.web.SettingsResource.Settings;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -78,6 +80,91 @@ public class SnapshotTest {
         .containsKey("tracker/" + origin2.getTrackerId() + "_to_" + sink1.getTrackerId());
   }
 
+  /**
+   * Test a snapshot with many trackers, written by multiple threads. The result should not depend
+   * on the number of threads.
+   */
+  @Test
+  public void testManyTrackers() throws IOException {
+    Node root = TrackerTree.node("SnapshotTest.testManyTrackers");
+    List<ByteSinkTracker> sinks = new ArrayList<>();
+    List<ByteOriginTracker> origins = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      // origins that are not in the tree, only referenced from the sinks
+      ByteOriginTracker origin = new ByteOriginTracker();
+      origin.append((byte) 1);
+      origins.add(origin);
+
+      ByteSinkTracker sink = new ByteSinkTracker();
+      sink.setSource(0, 1, origin, 0);
+      sink.append((byte) 1);
+      sink.addTo(root.node("sink" + i));
+      sinks.add(sink);
+    }
+
+    ByteArrayOutputStream singleThreaded = new ByteArrayOutputStream();
+    new Snapshot(root, false, 1, null).write(singleThreaded);
+    ByteArrayOutputStream multiThreaded = new ByteArrayOutputStream();
+    new Snapshot(root, false, 4, null).write(multiThreaded);
+
+    Map<String, String> entries = unzip(multiThreaded);
+    for (int i = 0; i < 50; i++) {
+      long sinkId = sinks.get(i).getTrackerId();
+      long originId = origins.get(i).getTrackerId();
+      assertThat(entries).containsKey("tracker/" + sinkId);
+      assertThat(entries).containsKey("tracker/" + originId);
+      assertThat(entries).containsKey("tracker/" + originId + "_to_" + sinkId);
+    }
+    // same entries, in the same order
+    assertThat(entries).containsExactlyEntriesIn(unzip(singleThreaded)).inOrder();
+  }
+
+  @Test
+  public void testDelta() throws IOException {
+    Node root = TrackerTree.node("SnapshotTest.testDelta");
+    ByteSinkTracker sink1 = new ByteSinkTracker();
+    sink1.addTo(root.node("sink1"));
+    ByteSinkTracker sink2 = new ByteSinkTracker();
+    sink2.addTo(root.node("sink2"));
+    sink2.append((byte) 1);
+    // an origin that's not in the tree, but referenced from a tracker that is
+    ByteOriginTracker origin = new ByteOriginTracker();
+    origin.append((byte) 1);
+    sink1.setSource(0, 1, origin, 0);
+    sink1.append((byte) 1);
+
+    SnapshotBaseline baseline = new SnapshotBaseline();
+    Map<String, String> base = snapshot(root, baseline);
+    assertThat(base).containsKey("index.html");
+    assertThat(base).containsKey("tracker/" + sink1.getTrackerId());
+    assertThat(base).containsKey("tracker/" + sink2.getTrackerId());
+    assertThat(base).containsKey("tracker/" + origin.getTrackerId());
+
+    // change the origin, and add a new sink
+    origin.append((byte) 2);
+    ByteSinkTracker sink3 = new ByteSinkTracker();
+    sink3.addTo(root.node("sink3"));
+    sink3.append((byte) 3);
+
+    Map<String, String> delta = snapshot(root, baseline);
+    // no UI in a delta
+    assertThat(delta).doesNotContainKey("index.html");
+    assertThat(delta).containsKey("tracker/" + origin.getTrackerId());
+    // the reverse view from the origin changed, even though sink1 did not
+    assertThat(delta)
+        .containsKey("tracker/" + origin.getTrackerId() + "_to_" + sink1.getTrackerId());
+    assertThat(delta).doesNotContainKey("tracker/" + sink1.getTrackerId());
+    assertThat(delta).doesNotContainKey("tracker/" + sink2.getTrackerId());
+    assertThat(delta).containsKey("tracker/" + sink3.getTrackerId());
+    // the tree includes trackers from the previous snapshot too
+    assertThat(delta.get("tree/all")).contains("sink1");
+    assertThat(delta.get("tree/all")).contains("sink3");
+
+    // nothing changed
+    Map<String, String> delta2 = snapshot(root, baseline);
+    assertThat(delta2.keySet().stream().anyMatch(path -> path.startsWith("tracker/"))).isFalse();
+  }
+
   @Test
   public void testClassOriginTrackerWithSource() throws IOException {
     ClassOriginTracker tracker = ClassOriginTracker.registerClass(
@@ -133,8 +220,18 @@ public class SnapshotTest {
       throws IOException {
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     new Snapshot(node, minimized).write(baos);
+    return unzip(baos);
+  }
+
+  private Map<String, String> snapshot(TrackerTree.Node node, SnapshotBaseline baseline)
+      throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    new Snapshot(node, false, baseline).write(baos);
+    return unzip(baos);
+  }
 
-    Map<String, String> result = new HashMap<>();
+  private Map<String, String> unzip(ByteArrayOutputStream baos) throws IOException {
+    Map<String, String> result = new LinkedHashMap<>();
     try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
       for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
         result.put(entry.getName().substring(Snapshot.PATH_PREFIX.length()),
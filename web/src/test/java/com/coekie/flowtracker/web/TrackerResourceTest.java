@@ -10,11 +10,14 @@ import com.coekie.flowtracker.tracker.CharSinkTracker;
 import com.coekie.flowtracker.tracker.ClassOriginTracker;
 import com.coekie.flowtracker.tracker.FakeOriginTracker;
 import com.coekie.flowtracker.tracker.Growth;
+import com.coekie.flowtracker.tracker.Retention;
 import com.coekie.flowtracker.tracker.Tracker;
 import com.coekie.flowtracker.tracker.TrackerTree;
 import com.coekie.flowtracker.tracker.TrackerTree.Node;
+import com.coekie.flowtracker.util.Config;
 import com.coekie.flowtracker.web.TrackerResource.Region;
 import java.util.List;
+import java.util.Map;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -205,6 +208,34 @@ public class TrackerResourceTest {
     assertRegionOnePart(response.regions.get(1), "abc", target, 5, 2);
   }
 
+  /** Test that reverseAll gives the same result as calling reverse for each source separately */
+  @Test public void reverseAll() {
+    CharSinkTracker target = new CharSinkTracker();
+    CharOriginTracker source1 = new CharOriginTracker();
+    CharOriginTracker source2 = new CharOriginTracker();
+    InterestRepository.register(target);
+    InterestRepository.register(source1);
+    InterestRepository.register(source2);
+
+    source1.append("xabx");
+    source2.append("ycdy");
+    target.append(".ab.cd.", 0, 7);
+    target.setSource(1, 2, source1, 1);
+    target.setSource(4, 2, source2, 1);
+
+    Map<Long, TrackerDetailResponse> responses = trackerResource.reverseAll(
+        List.of(source1.getTrackerId(), source2.getTrackerId()), target.getTrackerId());
+    assertThat(responses.keySet())
+        .containsExactly(source1.getTrackerId(), source2.getTrackerId()).inOrder();
+    for (CharOriginTracker source : List.of(source1, source2)) {
+      TrackerDetailResponse expected = trackerResource.reverse(source.getTrackerId(),
+          target.getTrackerId(), false);
+      assertThat(Snapshot.GSON.toJson(responses.get(source.getTrackerId())))
+          .isEqualTo(Snapshot.GSON.toJson(expected));
+    }
+    assertThat(responses.get(source2.getTrackerId()).regions.get(1).content).isEqualTo("cd");
+  }
+
   /**
    * Test reverse with a region that spans from start to end. Regression test for an off-by-one-ish
    * problem.
@@ -314,6 +345,36 @@ public class TrackerResourceTest {
     }
   }
 
+  /** A tracker that refers to a tracker that has been evicted, see {@link Retention} */
+  @Test public void evictedSource() {
+    Retention.initialize(Config.forTesting(Map.of("retainPerNode", "1")));
+    try {
+      Node node = TrackerTree.node("TrackerResourceTest").node("evictedSource");
+      ByteOriginTracker origin = new ByteOriginTracker();
+      origin.append("abc".getBytes(), 0, 3);
+      origin.addTo(node);
+      new ByteOriginTracker().addTo(node);
+      assertThat(origin.isEvicted()).isTrue();
+
+      ByteSinkTracker sink = new ByteSinkTracker();
+      InterestRepository.register(sink);
+      sink.append("abc".getBytes(), 0, 3);
+      sink.setSource(0, 3, origin, 0);
+
+      TrackerDetailResponse response = trackerResource.get(sink.getTrackerId());
+      assertThat(response.regions).hasSize(1);
+      assertRegionOnePart(response.regions.get(0), "abc", origin, 0);
+
+      TrackerDetailResponse originResponse = trackerResource.get(origin.getTrackerId());
+      assertThat(originResponse.regions).hasSize(1);
+      assertThat(originResponse.regions.get(0).content).isEqualTo("<evicted>");
+      assertThat(originResponse.regions.get(0).length).isEqualTo(3);
+      assertThat(originResponse.path).containsExactly("TrackerResourceTest", "evictedSource");
+    } finally {
+      Retention.initialize(Config.empty());
+    }
+  }
+
   private void assertRegionNoPart(Region region, String expectedContent) {
     assertThat(region.content).isEqualTo(expectedContent);
     assertThat(region.parts).isEmpty();
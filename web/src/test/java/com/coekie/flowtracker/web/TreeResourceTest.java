@@ -4,10 +4,13 @@ import static com.google.common.truth.Truth.assertThat;
 
 import com.coekie.flowtracker.tracker.ByteOriginTracker;
 import com.coekie.flowtracker.tracker.ByteSinkTracker;
+import com.coekie.flowtracker.tracker.Retention;
 import com.coekie.flowtracker.tracker.TrackerTree;
 import com.coekie.flowtracker.tracker.TrackerTree.Node;
+import com.coekie.flowtracker.util.Config;
 import com.coekie.flowtracker.web.TreeResource.NodeDetailResponse;
 import com.coekie.flowtracker.web.TreeResource.NodeRequestParams;
+import java.util.Map;
 import org.junit.Test;
 
 public class TreeResourceTest {
@@ -83,13 +86,40 @@ public class TreeResourceTest {
             + "    b\n");
   }
 
+  @Test
+  public void testEvicted() {
+    Retention.initialize(Config.forTesting(Map.of("retainPerNode", "1")));
+    try {
+      Node root = TrackerTree.node("TreeResourceTest.testEvicted");
+      Node a = root.node("one").node("a");
+      Node b = root.node("two").node("b");
+
+      new ByteOriginTracker().addTo(a);
+      new ByteOriginTracker().addTo(a);
+      new ByteOriginTracker().addTo(b);
+
+      assertThat(toString(new NodeDetailResponse(root, NodeRequestParams.ALL))).isEqualTo(
+          "TreeResourceTest.testEvicted (1 evicted)\n"
+              + "  one (1 evicted)\n"
+              + "    a (1 evicted)\n"
+              + "  two\n"
+              + "    b\n");
+    } finally {
+      Retention.initialize(Config.empty());
+    }
+  }
+
   private String toString(NodeDetailResponse nodeDetailResponse) {
     return toString(nodeDetailResponse, "");
   }
 
   private String toString(NodeDetailResponse nodeDetailResponse, String indent) {
     StringBuilder sb = new StringBuilder();
-    sb.append(indent).append(String.join(" / ", nodeDetailResponse.names)).append('\n');
+    sb.append(indent).append(String.join(" / ", nodeDetailResponse.names));
+    if (nodeDetailResponse.evicted > 0) {
+      sb.append(" (").append(nodeDetailResponse.evicted).append(" evicted)");
+    }
+    sb.append('\n');
     for (NodeDetailResponse child : nodeDetailResponse.children) {
       sb.append(toString(child, indent + "  "));
     }
@@ -3,13 +3,17 @@ package com.coekie.flowtracker.web;
 import static com.google.common.truth.Truth.assertThat;
 import static java.util.Objects.requireNonNull;
 
+import com.coekie.flowtracker.tracker.TrackerTree;
 import com.coekie.flowtracker.util.Config;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Map;
 import org.junit.After;
 import org.junit.Test;
@@ -40,6 +44,24 @@ public class WebModuleTest {
     assertThat(get("/tree/all")).contains("root");
   }
 
+  @Test
+  public void testViewSnapshot() throws Exception {
+    Path snapshotFile = Files.createTempFile("flowtracker-snapshot", ".ftsnap");
+    try {
+      try (OutputStream out = Files.newOutputStream(snapshotFile)) {
+        new Snapshot(TrackerTree.node("WebModuleTest.testViewSnapshot"), true).writeBinary(out);
+      }
+      webModule = new WebModule(Config.forTesting(
+          Map.of("port", "0", "viewSnapshot", snapshotFile.toString())));
+
+      assertThat(get("/")).contains("<title>FlowTracker</title>");
+      assertThat(get("/tree/all")).contains("WebModuleTest.testViewSnapshot");
+      assertThat(get("/settings")).contains("\"snapshot\":true");
+    } finally {
+      Files.delete(snapshotFile);
+    }
+  }
+
   @After
   public void after() throws Exception {
     requireNonNull(webModule.server).stop();